@@ -92,6 +92,8 @@ public final class DebugActivity extends AppCompatActivity {
     setupVerificationCodeControls();
     setupRoamingControls();
     setupPrivateAnalyticsControls();
+    setupNetworkMetrics();
+    setupWorkerRuns();
   }
 
   @Override
@@ -196,30 +198,25 @@ public final class DebugActivity extends AppCompatActivity {
                     getString(R.string.debug_job_status_error)));
                 return;
               }
+              // The scheduled runs are chained one after the other, so besides the next run the
+              // unique work may hold the one running now and those already finished.
+              boolean isRunning = false;
+              boolean isScheduled = false;
+              for (WorkInfo workInfo : workInfos) {
+                isRunning |= workInfo.getState() == State.RUNNING;
+                isScheduled |= workInfo.getState() == State.ENQUEUED
+                    || workInfo.getState() == State.BLOCKED;
+              }
               String jobStatusText;
-              switch (workInfos.size()) {
-                case 0:
-                  jobStatusText = getString(
-                      R.string.debug_job_status,
-                      getString(R.string.debug_job_status_not_scheduled));
-                  break;
-                case 1:
-                  if (workInfos.get(0).getState() == State.ENQUEUED) {
-                    jobStatusText = getString(R.string.debug_job_status,
-                        getString(R.string.debug_job_status_scheduled));
-                  } else if (workInfos.get(0).getState() == State.RUNNING) {
-                    jobStatusText = getString(R.string.debug_job_status,
-                        getString(R.string.debug_job_status_running));
-                  } else {
-                    jobStatusText = getString(
-                        R.string.debug_job_status, getString(R.string.debug_job_status_error));
-                  }
-                  break;
-                default:
-                  logger.e("workInfos.size() != 1");
-                  jobStatusText = getString(
-                      R.string.debug_job_status, getString(R.string.debug_job_status_error));
-                  break;
+              if (isRunning) {
+                jobStatusText = getString(R.string.debug_job_status,
+                    getString(R.string.debug_job_status_running));
+              } else if (isScheduled) {
+                jobStatusText = getString(R.string.debug_job_status,
+                    getString(R.string.debug_job_status_scheduled));
+              } else {
+                jobStatusText = getString(R.string.debug_job_status,
+                    getString(R.string.debug_job_status_not_scheduled));
               }
               binding.debugMatchingJobStatus.setText(jobStatusText);
             });
@@ -314,6 +311,16 @@ public final class DebugActivity extends AppCompatActivity {
         v -> debugViewModel.clearCountryCodes());
   }
 
+  private void setupNetworkMetrics() {
+    binding.debugNetworkMetrics.setText(debugViewModel.getNetworkMetricsText());
+    binding.debugNetworkMetricsRefreshButton.setOnClickListener(
+        v -> binding.debugNetworkMetrics.setText(debugViewModel.getNetworkMetricsText()));
+  }
+
+  private void setupWorkerRuns() {
+    debugViewModel.getWorkerRunsTextLiveData().observe(this, binding.debugWorkerRuns::setText);
+  }
+
   /**
    * Gets the version name for a specified package. Returns a debug string if not found.
    */
@@ -43,8 +43,12 @@ import com.google.android.apps.exposurenotification.keydownload.Qualifiers.HomeD
 import com.google.android.apps.exposurenotification.keyupload.Qualifiers.UploadUri;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.ProvideDiagnosisKeysWorker;
+import com.google.android.apps.exposurenotification.network.NetworkMetrics;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
 import com.google.android.apps.exposurenotification.privateanalytics.SubmitPrivateAnalyticsWorker;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
+import com.google.android.apps.exposurenotification.proto.RpcCall.ResultCount;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
 import com.google.android.apps.exposurenotification.privateanalytics.metrics.CodeVerifiedMetric;
 import com.google.android.apps.exposurenotification.privateanalytics.metrics.CodeVerifiedWithReportTypeMetric;
 import com.google.android.apps.exposurenotification.privateanalytics.metrics.DateExposureMetric;
@@ -59,9 +63,13 @@ import com.google.android.apps.exposurenotification.privateanalytics.metrics.Per
 import com.google.android.apps.exposurenotification.storage.CountryRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences.NetworkMode;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.android.apps.exposurenotification.storage.WorkerRunRepository;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsDeviceAttestation;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsEnabledProvider;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsMetric;
+import com.google.common.base.Ascii;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -76,7 +84,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
 import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
 import org.threeten.bp.ZonedDateTime;
+import org.threeten.bp.format.DateTimeFormatter;
 
 /**
  * View model for the {@link DebugActivity}.
@@ -88,6 +98,9 @@ public class DebugViewModel extends ViewModel {
   private static final Pattern DEFAULT_URI_PATTERN = Pattern.compile(".*example\\.com.*");
   private static final Splitter COMMA_SPLITER = Splitter.on(",");
   private static final String WORKMANAGER_DEBUG_PROVIDE_TAG = "provide_debug";
+  private static final int DEBUG_WORKER_RUNS = 20;
+  private static final DateTimeFormatter WORKER_RUN_TIME_FORMAT =
+      DateTimeFormatter.ofPattern("MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
   private static final SingleLiveEvent<String> snackbarLiveEvent = new SingleLiveEvent<>();
   private static final MutableLiveData<NetworkMode> keySharingNetworkModeLiveData =
@@ -110,6 +123,8 @@ public class DebugViewModel extends ViewModel {
   private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
   private final List<PrivateAnalyticsMetric> privateAnalyticsMetrics;
   private final PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider;
+  private final NetworkMetrics networkMetrics;
+  private final LiveData<String> workerRunsTextLiveData;
 
   @Inject
   public DebugViewModel(
@@ -134,7 +149,9 @@ public class DebugViewModel extends ViewModel {
       Clock clock,
       ExposureNotificationClientWrapper exposureNotificationClientWrapper,
       ExposureNotificationSharedPreferences exposureNotificationSharedPreferences,
-      PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider) {
+      PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider,
+      NetworkMetrics networkMetrics,
+      WorkerRunRepository workerRunRepository) {
     this.countryRepository = countryRepository;
     this.workManager = workManager;
     this.homeDownloadUris = homeDownloadUris;
@@ -144,6 +161,9 @@ public class DebugViewModel extends ViewModel {
     this.clock = clock;
     this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
     this.privateAnalyticsEnabledProvider = privateAnalyticsEnabledProvider;
+    this.networkMetrics = networkMetrics;
+    workerRunsTextLiveData = Transformations.map(
+        workerRunRepository.getNewestLiveData(DEBUG_WORKER_RUNS), this::getWorkerRunsText);
     this.privateAnalyticsMetrics = Lists.newArrayList(periodicExposureNotificationMetric,
         periodicExposureNotificationInteractionMetric, codeVerifiedMetric,
         codeVerifiedWithReportTypeMetric, keysUploadedMetric, keysUploadedWithReportTypeMetric,
@@ -298,6 +318,81 @@ public class DebugViewModel extends ViewModel {
     return privateAnalyticsMetrics;
   }
 
+  /**
+   * Returns a summary, per endpoint, of the network calls this process has made since network
+   * metrics were last sent.
+   */
+  public String getNetworkMetricsText() {
+    List<EndpointSummary> summaries = networkMetrics.getSummaries();
+    if (summaries.isEmpty()) {
+      return resources.getString(R.string.debug_network_metrics_empty);
+    }
+    StringBuilder text = new StringBuilder();
+    for (EndpointSummary summary : summaries) {
+      text.append(summary.getEndpoint()).append('\n');
+      text.append("  calls: ").append(summary.getCallCount())
+          .append(", attempts: ").append(summary.getAttemptCount()).append('\n');
+      text.append("  results:");
+      for (ResultCount resultCount : summary.getResultCountList()) {
+        text.append(' ').append(resultCount.getRpcCallResult()).append('=')
+            .append(resultCount.getCount());
+      }
+      text.append('\n');
+      text.append("  latency:");
+      for (int i = 0; i < summary.getLatencyBucketCountCount(); i++) {
+        int count = summary.getLatencyBucketCount(i);
+        if (count == 0) {
+          continue;
+        }
+        text.append(i < NetworkMetrics.LATENCY_BUCKET_UPPER_BOUNDS.size()
+            ? " <=" + NetworkMetrics.LATENCY_BUCKET_UPPER_BOUNDS.get(i).toMillis() + "ms="
+            : " longer=").append(count);
+      }
+      text.append('\n');
+      text.append("  retries (0/1/2/3+): ")
+          .append(Joiner.on('/').join(summary.getRetryBucketCountList())).append('\n');
+      text.append("  bytes sent: ").append(summary.getRequestBytes())
+          .append(", received: ").append(summary.getResponseBytes()).append('\n');
+      text.append("  mean ms dns/connect/ttfb/transfer: ")
+          .append(summary.getMeanDnsMs()).append('/')
+          .append(summary.getMeanConnectMs()).append('/')
+          .append(summary.getMeanTtfbMs()).append('/')
+          .append(summary.getMeanTransferMs()).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns a description of the most recent worker runs, newest first, kept up to date as workers
+   * run.
+   */
+  public LiveData<String> getWorkerRunsTextLiveData() {
+    return workerRunsTextLiveData;
+  }
+
+  private String getWorkerRunsText(List<WorkerRunEntity> runs) {
+    if (runs.isEmpty()) {
+      return resources.getString(R.string.debug_worker_runs_empty);
+    }
+    StringBuilder text = new StringBuilder();
+    for (WorkerRunEntity run : runs) {
+      text.append(WORKER_RUN_TIME_FORMAT.format(run.getStartTime())).append(' ')
+          .append(run.getWorkerTask().name().replace("TASK_", "")).append('\n');
+      text.append("  ").append(run.getStatus().name().replace("STATUS_", ""))
+          .append(" after ").append(run.getWallTimeMillis()).append("ms").append('\n');
+      text.append("  ms:");
+      for (Stage stage : Stage.values()) {
+        Long millis = run.getStageMillis(stage);
+        if (millis != null) {
+          text.append(' ').append(Ascii.toLowerCase(stage.name().replace("STAGE_", "")))
+              .append('=').append(millis);
+        }
+      }
+      text.append('\n');
+    }
+    return text.toString();
+  }
+
   public void markCountryCodesSeen(String countryCodesInput) {
     for (String countryCode : COMMA_SPLITER.split(countryCodesInput)) {
       if (countryCode.length() != 2) {
@@ -69,6 +69,11 @@ public class KeyFileSigner {
     init();
   }
 
+  /** Constructor for a signer with a keypair of the caller's choosing. */
+  private KeyFileSigner(KeyPair keyPair) {
+    this.keyPair = keyPair;
+  }
+
   /** Creator method used with private constructor, for singleton operation. */
   public static KeyFileSigner get() {
     if (INSTANCE == null) {
@@ -77,6 +82,14 @@ public class KeyFileSigner {
     return INSTANCE;
   }
 
+  /**
+   * Creates a signer for the given keypair, for use where the AndroidKeyStore isn't available, such
+   * as in Robolectric tests.
+   */
+  static KeyFileSigner withKeyPair(KeyPair keyPair) {
+    return new KeyFileSigner(keyPair);
+  }
+
   private void init() {
     if (VERSION.SDK_INT < VERSION_CODES.M) {
       initPriorToM();
@@ -113,6 +113,10 @@ public final class IntentUtil {
     return intent;
   }
 
+  public static Intent getNotificationContentIntentShareFailed(Context context) {
+    return getNotificationContentIntent(context);
+  }
+
   public static Intent getNotificationContentIntentSmsVerification(Context context, Uri uri) {
     Intent intent = getNotificationContentIntent(context);
     intent.putExtra(EXTRA_SMS_VERIFICATION, true);
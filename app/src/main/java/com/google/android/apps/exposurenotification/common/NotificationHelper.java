@@ -51,6 +51,7 @@ public final class NotificationHelper {
 
   private static final int POSSIBLE_EXPOSURE_NOTIFICATION_ID = 0;
   private static final int REACTIVATE_APPLICATION_NOTIFICATION_ID = 1;
+  private static final int SHARE_FAILED_NOTIFICATION_ID = 2;
 
   /**
    * Shows a notification based on Strings resources.
@@ -128,6 +129,35 @@ public final class NotificationHelper {
     notificationManager.notify(REACTIVATE_APPLICATION_NOTIFICATION_ID, builder.build());
   }
 
+  /**
+   * Shows a notification, telling the user that keys held back for lack of connectivity couldn't be
+   * shared after all. It has its own ID, so never replaces a possible exposure notification.
+   */
+  public void showShareFailedNotification(Context context,
+      @StringRes int titleResource, @StringRes int messageResource) {
+    createNotificationChannel(context);
+
+    Intent notificationIntent = IntentUtil.getNotificationContentIntentShareFailed(context);
+    PendingIntent pendingIntent;
+
+    if (VERSION.SDK_INT >= VERSION_CODES.M) {
+      pendingIntent = PendingIntent.getActivity(context, 0, notificationIntent,
+          PendingIntent.FLAG_IMMUTABLE);
+    } else {
+      pendingIntent = PendingIntent.getActivity(context, 0, notificationIntent, 0);
+    }
+
+    NotificationCompat.Builder builder = createBuilder(
+        context,
+        context.getString(titleResource),
+        context.getString(messageResource),
+        pendingIntent,
+        Optional.absent());
+
+    NotificationManagerCompat.from(context)
+        .notify(SHARE_FAILED_NOTIFICATION_ID, builder.build());
+  }
+
   /**
    * Dismisses notification notifying user to reactivate the exposure notifications app.
    * The reactivate exposure app notification is disabled for V3 apps.
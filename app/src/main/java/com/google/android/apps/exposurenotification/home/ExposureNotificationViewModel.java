@@ -51,6 +51,7 @@ import com.google.android.apps.exposurenotification.storage.DiagnosisRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences.NotificationInteraction;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences.OnboardingStatus;
+import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.nearby.exposurenotification.ExposureNotificationStatus;
@@ -96,6 +97,7 @@ public class ExposureNotificationViewModel extends ViewModel {
   private final DiagnosisRepository diagnosisRepository;
   private final AnalyticsLogger logger;
   private final PackageConfigurationHelper packageConfigurationHelper;
+  private final WorkerStartupManager workerStartupManager;
   private final Clock clock;
   private final ExecutorService lightweightExecutor;
 
@@ -128,6 +130,7 @@ public class ExposureNotificationViewModel extends ViewModel {
       DiagnosisRepository diagnosisRepository,
       AnalyticsLogger logger,
       PackageConfigurationHelper packageConfigurationHelper,
+      WorkerStartupManager workerStartupManager,
       Clock clock,
       @LightweightExecutor ExecutorService lightweightExecutor) {
     this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
@@ -135,6 +138,7 @@ public class ExposureNotificationViewModel extends ViewModel {
     this.diagnosisRepository = diagnosisRepository;
     this.logger = logger;
     this.packageConfigurationHelper = packageConfigurationHelper;
+    this.workerStartupManager = workerStartupManager;
     this.clock = clock;
     this.lightweightExecutor = lightweightExecutor;
 
@@ -297,6 +301,7 @@ public class ExposureNotificationViewModel extends ViewModel {
               maybeRefreshStatus(isEnabled);
               enEnabledLiveData.setValue(isEnabled);
               enEnabledLiveDataNoCache.setValue(isEnabled);
+              maybeNotifyEnStateChanged(isEnabled);
               exposureNotificationSharedPreferences.setIsEnabledCache(isEnabled);
               inFlightIsEnabled = false;
             })
@@ -308,11 +313,22 @@ public class ExposureNotificationViewModel extends ViewModel {
           maybeRefreshStatus(false);
           enEnabledLiveData.setValue(false);
           enEnabledLiveDataNoCache.setValue(false);
+          maybeNotifyEnStateChanged(false);
           exposureNotificationSharedPreferences.setIsEnabledCache(false);
           inFlightIsEnabled = false;
         });
   }
 
+  /**
+   * Lets the workers know if the API has been turned on or off since we last looked, e.g. from
+   * the system settings, so none of them goes by what it heard before.
+   */
+  private void maybeNotifyEnStateChanged(boolean isEnabled) {
+    if (isEnabled != exposureNotificationSharedPreferences.getIsEnabledCache()) {
+      workerStartupManager.onEnStateChanged();
+    }
+  }
+
   private synchronized void maybeRefreshStatus(boolean isEnabled) {
     inFlightLiveData.setValue(true);
     exposureNotificationClientWrapper.getStatus()
@@ -478,6 +494,7 @@ public class ExposureNotificationViewModel extends ViewModel {
         .start()
         .addOnSuccessListener(
             unused -> {
+              workerStartupManager.onEnStateChanged();
               maybeRefreshStatus(true);
               enEnabledLiveData.setValue(true);
               enEnabledLiveDataNoCache.setValue(true);
@@ -534,6 +551,7 @@ public class ExposureNotificationViewModel extends ViewModel {
         .start()
         .addOnSuccessListener(
             unused -> {
+              workerStartupManager.onEnStateChanged();
               maybeRefreshStatus(true);
               enEnabledLiveData.setValue(true);
               enEnabledLiveDataNoCache.setValue(true);
@@ -578,6 +596,7 @@ public class ExposureNotificationViewModel extends ViewModel {
             })
         .addOnSuccessListener(
             result -> {
+              workerStartupManager.onEnStateChanged();
               refreshState();
               inFlightLiveData.setValue(false);
               enStoppedLiveEvent.postValue(true);
@@ -22,8 +22,8 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
+import com.android.volley.ParseError;
 import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
@@ -33,12 +33,19 @@ import com.google.android.apps.exposurenotification.keydownload.Qualifiers.HomeD
 import com.google.android.apps.exposurenotification.keydownload.Qualifiers.TravellerDownloadUriPairs;
 import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
-import com.google.android.apps.exposurenotification.network.RespondableByteArrayRequest;
+import com.google.android.apps.exposurenotification.network.RespondableFileRequest;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
 import com.google.android.apps.exposurenotification.network.VolleyUtils;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.android.apps.exposurenotification.roaming.CountryCodes;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileRepository;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -46,16 +53,21 @@ import com.google.common.util.concurrent.ListenableFuture;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
-import org.apache.commons.io.FileUtils;
 import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
 
 /**
  * A class to download Diagnosis Key files from one or more servers.
@@ -70,8 +82,16 @@ public class DiagnosisKeyDownloader {
   private static final SecureRandom RAND = new SecureRandom();
   private static final BaseEncoding BASE32 = BaseEncoding.base32().lowerCase().omitPadding();
 
-  private static final String FILE_PATTERN = "/diag_keys/%s/keys_%s.zip";
+  private static final String FILE_PATTERN =
+      "/" + KeyFileConstants.DOWNLOAD_DIR + "/%s/keys_%s.zip";
+  // Partial downloads are named after their URI, so a later run can find and resume them.
+  private static final String PARTIAL_FILE_PATTERN = "/" + KeyFileConstants.DOWNLOAD_DIR + "/"
+      + KeyFileConstants.PARTIAL_DOWNLOAD_DIR + "/%s.zip";
   private static final Duration DOWNLOAD_ALL_FILES_TIMEOUT = Duration.ofMinutes(30);
+  // A keyfile which the server keeps refusing, or which keeps failing verification, is given up on
+  // after this many runs, so that it doesn't hold back its server's progress forever.
+  @VisibleForTesting
+  static final int MAX_KEYFILE_FAILURES = 5;
 
   private final Context context;
   private final CountryCodes countryCodes;
@@ -79,6 +99,11 @@ public class DiagnosisKeyDownloader {
   private final DownloadUriPair homeDownloadUris;
   private final Map<String, List<DownloadUriPair>> travellerDownloadUriPairs;
   private final RequestQueueWrapper requestQueueWrapper;
+  private final KeyFileDownloadScheduler downloadScheduler;
+  private final KeyFileVerifier keyFileVerifier;
+  private final ProvidedKeyFileRepository providedKeyFileRepo;
+  private final ExposureNotificationSharedPreferences prefs;
+  private final LiveDownloadDirs liveDownloadDirs;
   private final ExecutorService backgroundExecutor;
   private final ExecutorService lightweightExecutor;
   private final ScheduledExecutorService scheduledExecutor;
@@ -89,6 +114,11 @@ public class DiagnosisKeyDownloader {
   DiagnosisKeyDownloader(
       @ApplicationContext Context context,
       RequestQueueWrapper requestQueueWrapper,
+      KeyFileDownloadScheduler downloadScheduler,
+      KeyFileVerifier keyFileVerifier,
+      ProvidedKeyFileRepository providedKeyFileRepo,
+      ExposureNotificationSharedPreferences prefs,
+      LiveDownloadDirs liveDownloadDirs,
       CountryCodes countryCodes,
       KeyFileUriResolver keyFileUriResolver,
       @HomeDownloadUriPair DownloadUriPair homeDownloadUris,
@@ -100,6 +130,11 @@ public class DiagnosisKeyDownloader {
       Clock clock) {
     this.context = context;
     this.requestQueueWrapper = requestQueueWrapper;
+    this.downloadScheduler = downloadScheduler;
+    this.keyFileVerifier = keyFileVerifier;
+    this.providedKeyFileRepo = providedKeyFileRepo;
+    this.prefs = prefs;
+    this.liveDownloadDirs = liveDownloadDirs;
     this.countryCodes = countryCodes;
     this.keyFileUriResolver = keyFileUriResolver;
     this.homeDownloadUris = homeDownloadUris;
@@ -114,6 +149,15 @@ public class DiagnosisKeyDownloader {
   /**
    * Downloads all available files of Diagnosis Keys for the currently applicable regions and
    * returns a future with a list of all the batches of files.
+   *
+   * <p>Individual failed downloads don't fail the whole operation. For each server we return the
+   * longest run of files, from the oldest, that all downloaded successfully, so that the server's
+   * checkpoint only advances that far and the failed tail is retried on the next run. Downloads
+   * still unfinished when time runs out count as failed, so whatever did finish is still returned.
+   * The returned future fails only if there were files to download and none of them succeeded.
+   *
+   * <p>The files' directory is held in {@link LiveDownloadDirs} until the caller releases it, once
+   * it's done with the files.
    */
   public ListenableFuture<ImmutableList<KeyFile>> download() {
     ImmutableList.Builder<DownloadUriPair> keyserversToCall =
@@ -126,58 +170,227 @@ public class DiagnosisKeyDownloader {
       }
     }
 
+    // It's important to have a timeout since we're waiting for network operations that may or may
+    // not complete. Rather than one over the whole lot, each download is held to the same deadline,
+    // so that running out of time costs us only the files still in flight.
+    Instant deadline = clock.now().plus(DOWNLOAD_ALL_FILES_TIMEOUT);
+    TransferredBytes transferred = new TransferredBytes();
     ListenableFuture<ImmutableList<KeyFile>> downloadedFiles =
         // Start with the user's home region download URIs.
-        FluentFuture.from(keyFileUriResolver.resolve(keyserversToCall.build()))
-            // Now initiate file downloads for each URI
-            .transformAsync(
-                this::initiateDownloads,
-                backgroundExecutor)
-            // It's important to have a timeout since we're waiting for network operations that may
-            // or may not complete.
+        FluentFuture.from(keyFileUriResolver.resolve(keyserversToCall.build(), transferred))
             .withTimeout(
                 DOWNLOAD_ALL_FILES_TIMEOUT.toMillis(),
                 TimeUnit.MILLISECONDS,
-                scheduledExecutor);
+                scheduledExecutor)
+            // Now initiate file downloads for each URI
+            .transformAsync(
+                keyFiles -> initiateDownloads(keyFiles, deadline, transferred),
+                backgroundExecutor);
 
     // Add a callback just to log success/failure.
-    Futures.addCallback(downloadedFiles, LOG_OUTCOME, backgroundExecutor);
+    Futures.addCallback(downloadedFiles, logOutcome(transferred), backgroundExecutor);
 
     return downloadedFiles;
   }
 
-  private ListenableFuture<ImmutableList<KeyFile>> initiateDownloads(List<KeyFile> keyFiles) {
+  private ListenableFuture<ImmutableList<KeyFile>> initiateDownloads(
+      List<KeyFile> keyFiles, Instant deadline, TransferredBytes transferred) {
     String dir = randDirname();
-    List<ListenableFuture<KeyFile>> downloadedFiles = new ArrayList<>();
-    int fileCounter = 1;
-    for (KeyFile file : keyFiles) {
-      String path = String.format(FILE_PATTERN, dir, fileCounter++);
-      downloadedFiles.add(downloadAndSave(file, path));
+    liveDownloadDirs.hold(dir);
+    long millisLeft = Math.max(0, Duration.between(clock.now(), deadline).toMillis());
+    // Hand the files to the scheduler most important first, but keep the results in index order.
+    List<ListenableFuture<DownloadOutcome>> outcomes = new ArrayList<>(keyFiles.size());
+    for (int i = 0; i < keyFiles.size(); i++) {
+      outcomes.add(null);
+    }
+    int alreadyProvided = 0;
+    for (int position : inDownloadOrder(keyFiles)) {
+      KeyFile file = keyFiles.get(position);
+      if (providedKeyFileRepo.isUriProvided(file.uri())) {
+        // No need to download it again, but it still counts towards its server's progress.
+        outcomes.set(position, Futures.immediateFuture(DownloadOutcome.success(file)));
+        alreadyProvided++;
+        continue;
+      }
+      String path = String.format(FILE_PATTERN, dir, position + 1);
+      ListenableFuture<KeyFile> download =
+          downloadScheduler.submit(
+              file.index(), () -> downloadAndSave(file, path, transferred));
+      outcomes.set(position, FluentFuture.from(download)
+          .withTimeout(millisLeft, TimeUnit.MILLISECONDS, scheduledExecutor)
+          .transform(DownloadOutcome::success, lightweightExecutor)
+          .catching(Exception.class, e -> DownloadOutcome.failure(file, e), lightweightExecutor));
+    }
+    logcat.d(String.format(
+        "Scheduled [%d] downloads, skipped [%d] already provided; in flight: [%d], queued: [%d]",
+        keyFiles.size() - alreadyProvided, alreadyProvided, downloadScheduler.getInFlightCount(),
+        downloadScheduler.getQueueDepth()));
+    ListenableFuture<ImmutableList<KeyFile>> kept = FluentFuture.from(Futures.allAsList(outcomes))
+        .transformAsync(this::keepGapFreePrefixes, backgroundExecutor);
+    // If there's nothing in the directory for the caller to provide, nobody else will release it.
+    Futures.addCallback(kept, new FutureCallback<ImmutableList<KeyFile>>() {
+      @Override
+      public void onSuccess(@Nullable ImmutableList<KeyFile> files) {
+        for (KeyFile file : files) {
+          if (file.file() != null) {
+            return;
+          }
+        }
+        liveDownloadDirs.release(dir);
+      }
+
+      @Override
+      public void onFailure(@NonNull Throwable t) {
+        liveDownloadDirs.release(dir);
+      }
+    }, lightweightExecutor);
+    return kept;
+  }
+
+  /**
+   * Given the outcomes of all downloads in index order, keeps for each server only the files up to
+   * (but excluding) its first failure, and marks the last of those as the server's most recent.
+   * Files downloaded past a failure are deleted, they'll be downloaded again next time.
+   *
+   * <p>A file that has failed of its own accord in {@link #MAX_KEYFILE_FAILURES} runs is skipped
+   * instead: it's kept without a local file, like one we've already provided, so its server's
+   * progress moves on past it.
+   */
+  private ListenableFuture<ImmutableList<KeyFile>> keepGapFreePrefixes(
+      List<DownloadOutcome> outcomes) {
+    Map<String, Integer> previousFailureCounts = prefs.getKeyFileDownloadFailureCounts();
+    Map<String, Integer> failureCounts = new HashMap<>();
+    Map<Uri, List<KeyFile>> prefixes = new LinkedHashMap<>();
+    Set<Uri> serversWithFailures = new HashSet<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (DownloadOutcome outcome : outcomes) {
+      Uri server = outcome.requested.index();
+      if (!prefixes.containsKey(server)) {
+        prefixes.put(server, new ArrayList<>());
+      }
+      if (outcome.error != null && isKeyFileFault(outcome.error)) {
+        String key = failureKeyFor(outcome.requested.uri());
+        Integer previousFailures = previousFailureCounts.get(key);
+        int failureCount = (previousFailures == null ? 0 : previousFailures) + 1;
+        if (failureCount >= MAX_KEYFILE_FAILURES) {
+          logcat.e("Keyfile " + outcome.requested.uri() + " failed in [" + failureCount
+              + "] runs, giving up on it.", outcome.error);
+          failures.add(outcome.error);
+          outcome = DownloadOutcome.success(outcome.requested);
+        } else {
+          failureCounts.put(key, failureCount);
+        }
+      }
+      if (outcome.error != null) {
+        logcat.w("Keyfile " + outcome.requested.uri() + " failed, stopping its server here.");
+        serversWithFailures.add(server);
+        failures.add(outcome.error);
+      } else if (serversWithFailures.contains(server)) {
+        if (outcome.downloaded.file() != null) {
+          outcome.downloaded.file().delete();
+        }
+      } else {
+        prefixes.get(server).add(outcome.downloaded);
+      }
+    }
+
+    ImmutableList.Builder<KeyFile> kept = ImmutableList.builder();
+    for (List<KeyFile> prefix : prefixes.values()) {
+      for (int i = 0; i < prefix.size(); i++) {
+        kept.add(prefix.get(i).withMostRecent(i == prefix.size() - 1));
+      }
+    }
+    ImmutableList<KeyFile> result = kept.build();
+    // Only files failing in this run carry their count forward; failing is meant to be persistent.
+    if (!failureCounts.equals(previousFailureCounts)) {
+      prefs.setKeyFileDownloadFailureCounts(failureCounts);
+    }
+
+    if (!failures.isEmpty()) {
+      if (result.isEmpty()) {
+        // The overall failure is logged once the returned future fails.
+        return Futures.immediateFailedFuture(failures.get(0));
+      }
+      logcat.w(String.format("Keeping [%d] of [%d] keyfiles after download failures.",
+          result.size(), outcomes.size()));
+      for (Throwable failure : failures) {
+        logger.logRpcCallFailure(RpcCallType.RPC_TYPE_KEYS_DOWNLOAD, failure);
+      }
+    }
+    return Futures.immediateFuture(result);
+  }
+
+  /**
+   * Whether the error is down to the keyfile itself, because the server refused it or it failed
+   * verification, rather than to the server or network having trouble or to us running out of
+   * time. Only such failures count towards giving up on a file.
+   */
+  private static boolean isKeyFileFault(Throwable error) {
+    if (error instanceof ParseError) {
+      return true;
+    }
+    int httpStatus = VolleyUtils.getHttpStatus(error);
+    return httpStatus >= 400 && httpStatus < 500;
+  }
+
+  /**
+   * Returns the positions of the given files in the order they should be downloaded: the home
+   * server's files before any traveller server's, and within each server the newest files (those
+   * last in the index) first.
+   */
+  private List<Integer> inDownloadOrder(List<KeyFile> keyFiles) {
+    List<Integer> homeFiles = new ArrayList<>();
+    List<Integer> travellerFiles = new ArrayList<>();
+    for (int i = 0; i < keyFiles.size(); i++) {
+      if (keyFiles.get(i).index().equals(homeDownloadUris.indexUri())) {
+        homeFiles.add(i);
+      } else {
+        travellerFiles.add(i);
+      }
     }
-    return FluentFuture.from(Futures.allAsList(downloadedFiles))
-        .transform(ImmutableList::copyOf, lightweightExecutor);
+    List<Integer> ordered = new ArrayList<>(Lists.reverse(homeFiles));
+    ordered.addAll(Lists.reverse(travellerFiles));
+    return ordered;
   }
 
-  private ListenableFuture<KeyFile> downloadAndSave(KeyFile keyFile, String path) {
-    return FluentFuture.from(downloadFile(keyFile.uri()))
-        .transformAsync(
-            bytes -> {
-              try {
-                return Futures.immediateFuture(keyFile.with(saveKeyFile(bytes, path)));
-              } catch (IOException e) {
-                return Futures.immediateFailedFuture(e);
-              }
-            },
-            backgroundExecutor);
+  private ListenableFuture<KeyFile> downloadAndSave(
+      KeyFile keyFile, String path, TransferredBytes transferred) {
+    File partialFile = new File(context.getFilesDir(), partialPathFor(keyFile.uri()));
+    File toFile = new File(context.getFilesDir(), path);
+    return FluentFuture.from(downloadFile(keyFile.uri(), partialFile, toFile, transferred))
+        .transform(keyFile::with, lightweightExecutor)
+        .transformAsync(this::verify, backgroundExecutor);
+  }
+
+  /**
+   * Checks the downloaded file is intact, so a corrupt file is dropped here and retried next time
+   * rather than failing the whole batch we provide to the API. Verification failures surface as
+   * {@link ParseError}s, so they're reported as such.
+   */
+  private ListenableFuture<KeyFile> verify(KeyFile keyFile) {
+    try {
+      return Futures.immediateFuture(keyFileVerifier.verify(keyFile));
+    } catch (IOException e) {
+      logcat.e("Keyfile " + keyFile.uri() + " failed verification, dropping it.", e);
+      keyFile.file().delete();
+      return Futures.immediateFailedFuture(new ParseError(e));
+    }
   }
 
-  private ListenableFuture<byte[]> downloadFile(Uri uri) {
+  /**
+   * Streams the file at the given URI straight into {@code toFile}, so that we never hold a whole
+   * keyfile in memory no matter how large it is. If an earlier attempt left a partial download in
+   * {@code partialFile}, continues from there. What it reads is counted into {@code transferred}.
+   */
+  private ListenableFuture<File> downloadFile(
+      Uri uri, File partialFile, File toFile, TransferredBytes transferred) {
     return CallbackToFutureAdapter.getFuture(
         completer -> {
-          Listener<byte[]> responseListener =
-              response -> {
+          SizedListener<File> responseListener =
+              (response, responseBytes, encodedBytes) -> {
                 logcat.d(
-                    "Keyfile " + uri + " successfully downloaded " + response.length + " bytes.");
+                    "Keyfile " + uri + " successfully downloaded " + response.length() + " bytes.");
+                transferred.add(responseBytes, encodedBytes, response.length());
                 completer.set(response);
               };
 
@@ -188,17 +401,52 @@ public class DiagnosisKeyDownloader {
               };
 
           logcat.d("Downloading keyfile file from " + uri);
-          RespondableByteArrayRequest request =
-              new RespondableByteArrayRequest(uri, responseListener, errorListener, clock);
+          RespondableFileRequest request =
+              new RespondableFileRequest(
+                  uri, partialFile, toFile, responseListener, errorListener, clock);
           requestQueueWrapper.add(request);
           return request;
         });
   }
 
-  private File saveKeyFile(byte[] content, String path) throws IOException {
-    File toFile = new File(context.getFilesDir(), path);
-    FileUtils.writeByteArrayToFile(toFile, content);
-    return toFile;
+  /**
+   * The outcome of a single keyfile download: either the downloaded file, or the error.
+   */
+  private static class DownloadOutcome {
+
+    private final KeyFile requested;
+    @Nullable
+    private final KeyFile downloaded;
+    @Nullable
+    private final Throwable error;
+
+    private DownloadOutcome(
+        KeyFile requested, @Nullable KeyFile downloaded, @Nullable Throwable error) {
+      this.requested = requested;
+      this.downloaded = downloaded;
+      this.error = error;
+    }
+
+    static DownloadOutcome success(KeyFile downloaded) {
+      return new DownloadOutcome(downloaded, downloaded, null);
+    }
+
+    static DownloadOutcome failure(KeyFile requested, Throwable error) {
+      return new DownloadOutcome(requested, null, error);
+    }
+  }
+
+  private static String partialPathFor(Uri uri) {
+    return String.format(PARTIAL_FILE_PATTERN, hashOf(uri));
+  }
+
+  private static String failureKeyFor(Uri uri) {
+    return hashOf(uri);
+  }
+
+  private static String hashOf(Uri uri) {
+    byte[] uriHash = Hashing.sha256().hashString(uri.toString(), StandardCharsets.UTF_8).asBytes();
+    return BASE32.encode(uriHash);
   }
 
   private static String randDirname() {
@@ -207,21 +455,25 @@ public class DiagnosisKeyDownloader {
     return BASE32.encode(bytes);
   }
 
-  private final FutureCallback<ImmutableList<KeyFile>> LOG_OUTCOME =
-      new FutureCallback<ImmutableList<KeyFile>>() {
-        @Override
-        public void onSuccess(@Nullable ImmutableList<KeyFile> files) {
-          int totalBytesDownloaded = 0;
-          for (KeyFile file : files) {
-            totalBytesDownloaded += file.file().length();
-          }
-          logger.logRpcCallSuccess(RpcCallType.RPC_TYPE_KEYS_DOWNLOAD, totalBytesDownloaded);
-        }
+  /**
+   * Logs the run's outcome. On success, with how much we read to get there: the index files and
+   * every keyfile delivered, both decompressed and as they came over the wire.
+   */
+  private FutureCallback<ImmutableList<KeyFile>> logOutcome(TransferredBytes transferred) {
+    return new FutureCallback<ImmutableList<KeyFile>>() {
+      @Override
+      public void onSuccess(@Nullable ImmutableList<KeyFile> files) {
+        logger.logRpcCallSuccess(
+            RpcCallType.RPC_TYPE_KEYS_DOWNLOAD,
+            Ints.saturatedCast(transferred.getBytes()),
+            Ints.saturatedCast(transferred.getEncodedBytes()));
+      }
 
-        @Override
-        public void onFailure(@NonNull Throwable t) {
-          logger.logRpcCallFailure(RpcCallType.RPC_TYPE_KEYS_DOWNLOAD, t);
-          logcat.d(VolleyUtils.getErrorBodyWithoutPadding(t).toString());
-        }
-      };
+      @Override
+      public void onFailure(@NonNull Throwable t) {
+        logger.logRpcCallFailure(RpcCallType.RPC_TYPE_KEYS_DOWNLOAD, t);
+        logcat.d(VolleyUtils.getErrorBodyWithoutPadding(t).toString());
+      }
+    };
+  }
 }
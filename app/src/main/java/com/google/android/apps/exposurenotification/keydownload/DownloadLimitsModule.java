@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.MaxConcurrentDownloads;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.MaxConcurrentDownloadsPerServer;
+import dagger.Module;
+import dagger.Provides;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+/**
+ * Module providing the concurrency limits for keyfile downloads.
+ *
+ * <p>Tests that want to exercise particular limits may exclude this module and supply their own.
+ */
+@Module
+@InstallIn(SingletonComponent.class)
+public class DownloadLimitsModule {
+
+  // Keep a catch-up download of hundreds of files from saturating the radio.
+  private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+  // Leave room for the other servers when a roaming user has several to download from.
+  private static final int MAX_CONCURRENT_DOWNLOADS_PER_SERVER = 2;
+
+  @Provides
+  @MaxConcurrentDownloads
+  public int provideMaxConcurrentDownloads() {
+    return MAX_CONCURRENT_DOWNLOADS;
+  }
+
+  @Provides
+  @MaxConcurrentDownloadsPerServer
+  public int provideMaxConcurrentDownloadsPerServer() {
+    return MAX_CONCURRENT_DOWNLOADS_PER_SERVER;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.storage.DownloadServerChurnEntity;
+import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
+import com.google.common.collect.Iterables;
+import java.util.List;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZonedDateTime;
+import org.threeten.bp.format.DateTimeFormatter;
+import org.threeten.bp.format.DateTimeParseException;
+
+/**
+ * Learns how often each key server publishes new keyfiles, from what its index file lists each time
+ * we check it, so that we can fetch keys about as often as there are new ones to fetch.
+ *
+ * <p>A publication is noticed when the newest file the index lists changes. How long it's been
+ * since the previous one, by the index's Last-Modified date where the server sends one, divided by
+ * the number of files published in between, is one sample of the server's publishing interval, and
+ * the samples are smoothed with an exponentially weighted moving average.
+ */
+public class IndexChurnTracker {
+
+  private static final Logger logger = Logger.getLogger("IndexChurnTracker");
+
+  // How much weight each new sample of a server's publishing interval gets.
+  @VisibleForTesting
+  static final double SMOOTHING_FACTOR = 0.25d;
+  // After this many checks in a row that found nothing new, back off: double the interval for each
+  // further such check.
+  @VisibleForTesting
+  static final int BACKOFF_AFTER_UNCHANGED_CHECKS = 3;
+  private static final int MAX_BACKOFF_DOUBLINGS = 4;
+  // What we learned about servers we no longer check (e.g. those of a country we've left) doesn't
+  // count.
+  @VisibleForTesting
+  static final Duration STALE_AFTER = Duration.ofDays(3);
+
+  private final DownloadServerRepository downloadServerRepo;
+  private final Clock clock;
+
+  @Inject
+  IndexChurnTracker(DownloadServerRepository downloadServerRepo, Clock clock) {
+    this.downloadServerRepo = downloadServerRepo;
+    this.clock = clock;
+  }
+
+  /**
+   * Records a check of the given server's index that came back not modified.
+   */
+  @WorkerThread
+  void recordIndexNotModified(Uri indexUri) {
+    DownloadServerChurnEntity churn = downloadServerRepo.getChurn(indexUri);
+    if (churn == null) {
+      // We only ask conditionally once we've seen the index, so this is unusual. Nothing to learn.
+      return;
+    }
+    downloadServerRepo.upsertChurn(unchanged(churn));
+  }
+
+  /**
+   * Records a check of the given server's index, which listed the given files.
+   */
+  @WorkerThread
+  void recordIndexListed(Uri indexUri, List<Uri> fileUris, @Nullable String lastModified) {
+    DownloadServerChurnEntity churn = downloadServerRepo.getChurn(indexUri);
+    Uri newestFile = Iterables.getLast(fileUris, null);
+    Instant now = clock.now();
+
+    if (newestFile == null || (churn != null && newestFile.equals(churn.newestFile()))) {
+      downloadServerRepo.upsertChurn(churn == null
+          ? DownloadServerChurnEntity.create(indexUri, null, Instant.EPOCH, null, 1, now)
+          : unchanged(churn));
+      return;
+    }
+
+    Instant publishTime = parseHttpDate(lastModified);
+    if (publishTime == null || publishTime.isAfter(now)) {
+      publishTime = now;
+    }
+    Long publishIntervalMillis = churn == null ? null : churn.publishIntervalMillis();
+    if (churn != null && churn.newestFile() != null) {
+      // Everything after the file that was newest last time is new since then. If that file has
+      // dropped off the index, at least one file is.
+      int previousIndex = fileUris.indexOf(churn.newestFile());
+      int publications = previousIndex < 0 ? 1 : fileUris.size() - 1 - previousIndex;
+      long sampleMillis =
+          Duration.between(churn.lastPublishTime(), publishTime).toMillis() / publications;
+      if (sampleMillis > 0) {
+        publishIntervalMillis = publishIntervalMillis == null
+            ? sampleMillis
+            : Math.round(
+                publishIntervalMillis + SMOOTHING_FACTOR * (sampleMillis - publishIntervalMillis));
+      }
+    }
+    logger.d("Server [" + indexUri + "] published at " + publishTime
+        + ", publishing interval now estimated at " + publishIntervalMillis + "ms");
+    downloadServerRepo.upsertChurn(DownloadServerChurnEntity.create(
+        indexUri, newestFile, publishTime, publishIntervalMillis, 0, now));
+  }
+
+  /**
+   * Returns how often we should check for new keyfiles to keep up with the servers we're checking:
+   * the shortest of their estimated publishing intervals, backed off for servers that we've found
+   * nothing new on several times in a row. Servers we know nothing about yet are assumed to publish
+   * every {@code defaultInterval}.
+   */
+  @WorkerThread
+  public Duration getPublishInterval(Duration defaultInterval) {
+    Instant staleBefore = clock.now().minus(STALE_AFTER);
+    Duration shortest = null;
+    for (DownloadServerChurnEntity churn : downloadServerRepo.getAllChurn()) {
+      if (churn.lastCheckTime().isBefore(staleBefore)) {
+        continue;
+      }
+      Duration interval = churn.publishIntervalMillis() == null
+          ? defaultInterval
+          : Duration.ofMillis(churn.publishIntervalMillis());
+      if (churn.unchangedChecks() >= BACKOFF_AFTER_UNCHANGED_CHECKS) {
+        int doublings = Math.min(
+            churn.unchangedChecks() - BACKOFF_AFTER_UNCHANGED_CHECKS + 1, MAX_BACKOFF_DOUBLINGS);
+        interval = interval.multipliedBy(1L << doublings);
+      }
+      if (shortest == null || interval.compareTo(shortest) < 0) {
+        shortest = interval;
+      }
+    }
+    return shortest == null ? defaultInterval : shortest;
+  }
+
+  private DownloadServerChurnEntity unchanged(DownloadServerChurnEntity churn) {
+    return DownloadServerChurnEntity.create(churn.indexUri(), churn.newestFile(),
+        churn.lastPublishTime(), churn.publishIntervalMillis(), churn.unchangedChecks() + 1,
+        clock.now());
+  }
+
+  @Nullable
+  private static Instant parseHttpDate(@Nullable String httpDate) {
+    if (httpDate == null) {
+      return null;
+    }
+    try {
+      return ZonedDateTime.parse(httpDate, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      logger.w("Unparseable Last-Modified date: " + httpDate);
+      return null;
+    }
+  }
+}
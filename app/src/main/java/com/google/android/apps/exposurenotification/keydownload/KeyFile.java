@@ -31,18 +31,61 @@ import java.io.File;
 public abstract class KeyFile {
   public abstract Uri index();
   public abstract Uri uri();
+  /**
+   * The downloaded file, or null if it's not been downloaded yet, or never will be because we've
+   * already provided it.
+   */
   @Nullable public abstract File file();
   public abstract boolean isMostRecent();
 
+  /**
+   * The validators of the index file this came from. Only set on the last file in the index, since
+   * only once we've provided that file can we skip fetching an unchanged index next time.
+   */
+  @Nullable public abstract String indexETag();
+  @Nullable public abstract String indexLastModified();
+
+  /**
+   * Hex SHA-256 of the file's export.bin, once the file has been downloaded and verified.
+   */
+  @Nullable public abstract String contentHash();
+
   /**
    * Creates a {@link KeyFile} for the usual production use case.
    */
   public static KeyFile create(Uri index, Uri fileUri, boolean isMostRecent) {
-    return new AutoValue_KeyFile(index, fileUri, null, isMostRecent);
+    return new AutoValue_KeyFile(index, fileUri, null, isMostRecent, null, null, null);
   }
 
   public KeyFile with(File f) {
-    return new AutoValue_KeyFile(index(), uri(), f, isMostRecent());
+    return new AutoValue_KeyFile(
+        index(), uri(), f, isMostRecent(), indexETag(), indexLastModified(), contentHash());
+  }
+
+  /**
+   * Returns a copy of this {@link KeyFile} marked as (or as not) the most recent one from its
+   * server, which decides whether it's remembered as the latest successful download.
+   */
+  public KeyFile withMostRecent(boolean isMostRecent) {
+    return new AutoValue_KeyFile(
+        index(), uri(), file(), isMostRecent, indexETag(), indexLastModified(), contentHash());
+  }
+
+  /**
+   * Returns a copy of this {@link KeyFile} carrying the given validators of its index file.
+   */
+  public KeyFile withIndexValidators(
+      @Nullable String indexETag, @Nullable String indexLastModified) {
+    return new AutoValue_KeyFile(
+        index(), uri(), file(), isMostRecent(), indexETag, indexLastModified, contentHash());
+  }
+
+  /**
+   * Returns a copy of this {@link KeyFile} with the given hash of its content.
+   */
+  public KeyFile withContentHash(String contentHash) {
+    return new AutoValue_KeyFile(
+        index(), uri(), file(), isMostRecent(), indexETag(), indexLastModified(), contentHash);
   }
 
   /**
@@ -50,6 +93,6 @@ public abstract class KeyFile {
    * (it doesn't track its source server the way a real one does).
    */
   public static KeyFile createNonProd(File f) {
-    return new AutoValue_KeyFile(Uri.EMPTY, Uri.EMPTY, f, false);
+    return new AutoValue_KeyFile(Uri.EMPTY, Uri.EMPTY, f, false, null, null, null);
   }
 }
\ No newline at end of file
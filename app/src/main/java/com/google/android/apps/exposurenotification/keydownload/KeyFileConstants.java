@@ -25,6 +25,12 @@ import androidx.annotation.VisibleForTesting;
 public final class KeyFileConstants {
   @VisibleForTesting public static final String SIG_FILENAME = "export.sig";
   @VisibleForTesting public static final String EXPORT_FILENAME = "export.bin";
+  /** The directory under the app's files dir that keyfiles are downloaded into. */
+  public static final String DOWNLOAD_DIR = "diag_keys";
+  /** The directory under {@link #DOWNLOAD_DIR} holding partial downloads we may resume. */
+  public static final String PARTIAL_DOWNLOAD_DIR = "partial";
+  /** The fixed-length header every export.bin starts with, padded with spaces to 16 bytes. */
+  @VisibleForTesting public static final String EXPORT_HEADER = "EK Export v1    ";
 
   private KeyFileConstants() {
   }
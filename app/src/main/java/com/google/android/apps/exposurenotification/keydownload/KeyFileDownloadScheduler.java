@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import android.net.Uri;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.MaxConcurrentDownloads;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.MaxConcurrentDownloadsPerServer;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Limits how many keyfile downloads are in flight at once, both overall and per key server.
+ *
+ * <p>Downloads are started in the order they are submitted, except that a download whose server
+ * is already at its limit waits while downloads for other servers go ahead. Callers are expected
+ * to submit the most important files first.
+ */
+@Singleton
+public class KeyFileDownloadScheduler {
+
+  private static final Logger logger = Logger.getLogger("KeyFileDownloadScheduler");
+
+  private final int maxConcurrentDownloads;
+  private final int maxConcurrentDownloadsPerServer;
+
+  // All guarded by "this".
+  private final Deque<PendingDownload<?>> pending = new ArrayDeque<>();
+  private final Map<Uri, Integer> inFlightPerServer = new HashMap<>();
+  private int inFlight = 0;
+  private boolean dispatching = false;
+
+  @Inject
+  KeyFileDownloadScheduler(
+      @MaxConcurrentDownloads int maxConcurrentDownloads,
+      @MaxConcurrentDownloadsPerServer int maxConcurrentDownloadsPerServer) {
+    this.maxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+    this.maxConcurrentDownloadsPerServer = Math.max(1, maxConcurrentDownloadsPerServer);
+  }
+
+  /**
+   * Queues the given download, to be started once there is capacity for it, and returns a future
+   * of its outcome.
+   *
+   * @param server the index URI of the key server the download comes from.
+   */
+  public <T> ListenableFuture<T> submit(Uri server, AsyncCallable<T> download) {
+    PendingDownload<T> pendingDownload = new PendingDownload<>(server, download);
+    synchronized (this) {
+      pending.add(pendingDownload);
+    }
+    dispatch();
+    return pendingDownload.result;
+  }
+
+  /**
+   * Returns the number of downloads waiting for capacity.
+   */
+  public synchronized int getQueueDepth() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the number of downloads currently in flight, across all servers.
+   */
+  public synchronized int getInFlightCount() {
+    return inFlight;
+  }
+
+  /**
+   * Returns the number of downloads currently in flight from the given server.
+   */
+  public synchronized int getInFlightCount(Uri server) {
+    Integer count = inFlightPerServer.get(server);
+    return count == null ? 0 : count;
+  }
+
+  private void dispatch() {
+    synchronized (this) {
+      // Downloads that complete synchronously call back into here. Let the outer call do the work
+      // rather than recursing once per file.
+      if (dispatching) {
+        return;
+      }
+      dispatching = true;
+    }
+    while (true) {
+      PendingDownload<?> next;
+      synchronized (this) {
+        next = takeNextStartable();
+        if (next == null) {
+          dispatching = false;
+          return;
+        }
+        inFlight++;
+        inFlightPerServer.put(next.server, getInFlightCount(next.server) + 1);
+        logger.d(String.format("Starting download; in flight: [%d], queued: [%d]",
+            inFlight, pending.size()));
+      }
+      // Start outside the lock; the download may complete synchronously and call back into us.
+      next.start(() -> release(next.server));
+    }
+  }
+
+  /**
+   * Removes and returns the first pending download we have capacity for, if any. Downloads
+   * cancelled while still pending are dropped along the way.
+   */
+  private synchronized PendingDownload<?> takeNextStartable() {
+    if (inFlight >= maxConcurrentDownloads) {
+      return null;
+    }
+    Iterator<PendingDownload<?>> it = pending.iterator();
+    while (it.hasNext()) {
+      PendingDownload<?> candidate = it.next();
+      if (candidate.result.isDone()) {
+        it.remove();
+        continue;
+      }
+      if (getInFlightCount(candidate.server) < maxConcurrentDownloadsPerServer) {
+        it.remove();
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private void release(Uri server) {
+    synchronized (this) {
+      inFlight--;
+      int remaining = getInFlightCount(server) - 1;
+      if (remaining > 0) {
+        inFlightPerServer.put(server, remaining);
+      } else {
+        inFlightPerServer.remove(server);
+      }
+    }
+    dispatch();
+  }
+
+  private static class PendingDownload<T> {
+
+    private final Uri server;
+    private final AsyncCallable<T> download;
+    private final SettableFuture<T> result = SettableFuture.create();
+
+    PendingDownload(Uri server, AsyncCallable<T> download) {
+      this.server = server;
+      this.download = download;
+    }
+
+    void start(Runnable onDone) {
+      ListenableFuture<T> started;
+      try {
+        started = download.call();
+      } catch (Throwable t) {
+        started = Futures.immediateFailedFuture(t);
+      }
+      result.setFuture(started);
+      // Release the slot when the download completes, or when the caller gives up on it.
+      result.addListener(onDone, MoreExecutors.directExecutor());
+    }
+  }
+}
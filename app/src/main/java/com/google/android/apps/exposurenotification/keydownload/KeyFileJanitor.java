@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import android.content.Context;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import dagger.hilt.android.qualifiers.ApplicationContext;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+
+/**
+ * Cleans up keyfiles left on disk by download runs that never finished.
+ *
+ * <p>Each run of {@link DiagnosisKeyDownloader} downloads into a fresh directory, and the files are
+ * only deleted once they've been provided to the API. If the process dies or the run times out
+ * first, they'd otherwise stay on disk forever. So this deletes download directories too old to
+ * belong to a run still in progress, and partial downloads too old to be worth resuming, and then
+ * if what's left is still over quota, deletes the oldest of it until it isn't. Directories that
+ * {@link LiveDownloadDirs} says a run is still using count towards the quota, but are never
+ * deleted, however old they are: a run providing a backlog in several chunks can take hours.
+ *
+ * <p>It holds no state, so is safe to run again after being interrupted at any point, and it stops
+ * after a bounded number of deletions so that it never holds up the worker it runs in for long.
+ * Anything left over is cleaned up by the next run.
+ */
+public class KeyFileJanitor {
+
+  private static final Logger logger = Logger.getLogger("KeyFileJanitor");
+
+  // Longer than a typical download run plus providing the files takes, as a second line of defence
+  // behind LiveDownloadDirs.
+  @VisibleForTesting static final Duration DOWNLOAD_DIR_MAX_AGE = Duration.ofHours(2);
+  // Keyfiles are published daily, so a partial download older than this isn't worth resuming.
+  @VisibleForTesting static final Duration PARTIAL_DOWNLOAD_MAX_AGE = Duration.ofDays(1);
+  @VisibleForTesting static final long DISK_QUOTA_BYTES = 100L * 1024 * 1024;
+  @VisibleForTesting static final int MAX_DELETIONS_PER_RUN = 1000;
+
+  private final Context context;
+  private final LiveDownloadDirs liveDownloadDirs;
+  private final Clock clock;
+
+  @Inject
+  KeyFileJanitor(
+      @ApplicationContext Context context, LiveDownloadDirs liveDownloadDirs, Clock clock) {
+    this.context = context;
+    this.liveDownloadDirs = liveDownloadDirs;
+    this.clock = clock;
+  }
+
+  /**
+   * Deletes stale keyfiles, then enforces the disk quota on what's left.
+   *
+   * @return the number of bytes of keyfiles left on disk.
+   */
+  @WorkerThread
+  public long clean() {
+    File downloadDir = new File(context.getFilesDir(), KeyFileConstants.DOWNLOAD_DIR);
+    long now = clock.currentTimeMillis();
+    DeletionBudget budget = new DeletionBudget(MAX_DELETIONS_PER_RUN);
+    List<Entry> remaining = new ArrayList<>();
+
+    for (File child : listFiles(downloadDir)) {
+      if (child.isDirectory() && child.getName().equals(KeyFileConstants.PARTIAL_DOWNLOAD_DIR)) {
+        for (File partial : listFiles(child)) {
+          cleanIfOlderThan(partial, now - PARTIAL_DOWNLOAD_MAX_AGE.toMillis(), budget, remaining);
+        }
+      } else if (liveDownloadDirs.isHeld(child.getName())) {
+        // A run is still using it, so only count it.
+        cleanIfOlderThan(child, Long.MIN_VALUE, budget, remaining);
+      } else {
+        cleanIfOlderThan(child, now - DOWNLOAD_DIR_MAX_AGE.toMillis(), budget, remaining);
+      }
+    }
+
+    long usageBytes = 0;
+    for (Entry entry : remaining) {
+      usageBytes += entry.sizeBytes;
+    }
+    if (usageBytes > DISK_QUOTA_BYTES) {
+      logger.w("Keyfiles use [" + usageBytes + "] bytes, over quota; deleting the oldest.");
+      // Oldest first.
+      Collections.sort(remaining, (a, b) -> Long.compare(a.lastModified, b.lastModified));
+      for (Entry entry : remaining) {
+        if (usageBytes <= DISK_QUOTA_BYTES || budget.isSpent()) {
+          break;
+        }
+        if (liveDownloadDirs.isHeld(entry.file.getName())) {
+          // A run is still downloading into it, or has yet to provide its files.
+          continue;
+        }
+        usageBytes -= entry.sizeBytes - sizeOf(deleteRecursively(entry.file, budget));
+      }
+    }
+
+    if (budget.isSpent()) {
+      logger.w("Reached the deletion limit, leaving the rest for next time.");
+    }
+    logger.d("Deleted [" + budget.deleted + "] keyfiles; [" + usageBytes + "] bytes remain.");
+    return usageBytes;
+  }
+
+  private void cleanIfOlderThan(
+      File file, long thresholdMillis, DeletionBudget budget, List<Entry> remaining) {
+    long lastModified = lastModified(file);
+    if (lastModified < thresholdMillis) {
+      file = deleteRecursively(file, budget);
+    }
+    long sizeBytes = sizeOf(file);
+    if (file.exists()) {
+      remaining.add(new Entry(file, lastModified, sizeBytes));
+    }
+  }
+
+  /**
+   * Deletes the given file or directory and everything in it, as far as the budget allows.
+   *
+   * @return the given file, for chaining.
+   */
+  private static File deleteRecursively(File file, DeletionBudget budget) {
+    for (File child : listFiles(file)) {
+      deleteRecursively(child, budget);
+    }
+    if (!budget.isSpent() && file.delete()) {
+      budget.deleted++;
+    }
+    return file;
+  }
+
+  /**
+   * The last time the given file, or anything in the given directory, was modified.
+   */
+  private static long lastModified(File file) {
+    long lastModified = file.lastModified();
+    for (File child : listFiles(file)) {
+      lastModified = Math.max(lastModified, lastModified(child));
+    }
+    return lastModified;
+  }
+
+  private static long sizeOf(File file) {
+    if (!file.isDirectory()) {
+      return file.length();
+    }
+    long size = 0;
+    for (File child : listFiles(file)) {
+      size += sizeOf(child);
+    }
+    return size;
+  }
+
+  private static File[] listFiles(File dir) {
+    File[] files = dir.listFiles();
+    return files != null ? files : new File[0];
+  }
+
+  private static class Entry {
+
+    private final File file;
+    private final long lastModified;
+    private final long sizeBytes;
+
+    Entry(File file, long lastModified, long sizeBytes) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  private static class DeletionBudget {
+
+    private final int maxDeletions;
+    private int deleted = 0;
+
+    DeletionBudget(int maxDeletions) {
+      this.maxDeletions = maxDeletions;
+    }
+
+    boolean isSpent() {
+      return deleted >= maxDeletions;
+    }
+  }
+}
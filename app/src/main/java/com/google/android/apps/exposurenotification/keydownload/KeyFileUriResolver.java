@@ -18,15 +18,18 @@
 package com.google.android.apps.exposurenotification.keydownload;
 
 import android.net.Uri;
+import androidx.annotation.Nullable;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
-import com.google.android.apps.exposurenotification.network.RespondableStringRequest;
+import com.google.android.apps.exposurenotification.network.ConditionalResponse;
+import com.google.android.apps.exposurenotification.network.RespondableConditionalStringRequest;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
+import com.google.android.apps.exposurenotification.storage.DownloadServerEntity;
 import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
@@ -34,6 +37,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -51,6 +55,7 @@ class KeyFileUriResolver {
       Splitter.onPattern("\\s+").trimResults().omitEmptyStrings();
 
   private final DownloadServerRepository downloadServerRepo;
+  private final IndexChurnTracker indexChurnTracker;
   private final RequestQueueWrapper queue;
   private final Clock clock;
   private final ExecutorService backgroundExecutor;
@@ -59,11 +64,13 @@ class KeyFileUriResolver {
   @Inject
   KeyFileUriResolver(
       DownloadServerRepository downloadServerRepo,
+      IndexChurnTracker indexChurnTracker,
       RequestQueueWrapper queue,
       Clock clock,
       @BackgroundExecutor ExecutorService backgroundExecutor,
       @LightweightExecutor ExecutorService lightweightExecutor) {
     this.downloadServerRepo = downloadServerRepo;
+    this.indexChurnTracker = indexChurnTracker;
     this.queue = queue;
     this.clock = clock;
     this.backgroundExecutor = backgroundExecutor;
@@ -74,11 +81,19 @@ class KeyFileUriResolver {
    * Gets URIs from which to download key files for the given {@link DownloadUriPair}s.
    */
   ListenableFuture<ImmutableList<KeyFile>> resolve(List<DownloadUriPair> downloadUriPairs) {
+    return resolve(downloadUriPairs, new TransferredBytes());
+  }
+
+  /**
+   * Like {@link #resolve(List)}, also counting the index files' sizes into {@code transferred}.
+   */
+  ListenableFuture<ImmutableList<KeyFile>> resolve(
+      List<DownloadUriPair> downloadUriPairs, TransferredBytes transferred) {
     logger.d("Getting download URIs for " + downloadUriPairs.size() + " servers.");
 
     List<ListenableFuture<ImmutableList<KeyFile>>> keyfiles = new ArrayList<>();
     for (DownloadUriPair uriPair : downloadUriPairs) {
-      keyfiles.add(keyFilesFor(uriPair));
+      keyfiles.add(keyFilesFor(uriPair, transferred));
     }
 
     return FluentFuture.from(Futures.allAsList(keyfiles))
@@ -92,10 +107,18 @@ class KeyFileUriResolver {
             }, lightweightExecutor);
   }
 
-  private ListenableFuture<ImmutableList<KeyFile>> keyFilesFor(DownloadUriPair uriPair) {
-    return FluentFuture.from(indexFileFrom(uriPair))
+  private ListenableFuture<ImmutableList<KeyFile>> keyFilesFor(
+      DownloadUriPair uriPair, TransferredBytes transferred) {
+    return FluentFuture.from(indexFileFrom(uriPair, transferred))
         .transform(
-            indexContent -> {
+            indexResponse -> {
+              if (indexResponse.notModified()) {
+                // We've already provided everything this index lists. Nothing more to do.
+                logger.d("Index [" + uriPair.indexUri() + "] not modified, skipping.");
+                indexChurnTracker.recordIndexNotModified(uriPair.indexUri());
+                return ImmutableList.of();
+              }
+              String indexContent = indexResponse.body();
               logger.d("Index content is " + indexContent);
               List<String> indexEntries = WHITESPACE_SPLITTER.splitToList(indexContent);
               logger.d("Index file has " + indexEntries.size() + " lines.");
@@ -108,6 +131,8 @@ class KeyFileUriResolver {
                     .build();
                 fileUris.add(fileUri);
               }
+              indexChurnTracker.recordIndexListed(
+                  uriPair.indexUri(), fileUris, indexResponse.lastModified());
 
               // If we have a "most recently downloaded" for this DownloadUriPair, and it's found in
               // the list of files we got, skip past (and exclude) that one.
@@ -119,11 +144,28 @@ class KeyFileUriResolver {
                     fileUris.subList(fileUris.indexOf(lastSuccessfulDownload) + 1, fileUris.size());
               }
 
+              if (fileUris.isEmpty() && lastSuccessfulDownload != null) {
+                // We already have everything in this index, so we can remember its validators
+                // right away and skip it next time unless it changes.
+                downloadServerRepo.upsert(DownloadServerEntity.create(
+                    uriPair.indexUri(),
+                    lastSuccessfulDownload,
+                    indexResponse.eTag(),
+                    indexResponse.lastModified()));
+              }
+
               // Now we have the (sub?)set of files we want. Build them into a list of KeyFiles.
               ImmutableList.Builder<KeyFile> builder = ImmutableList.builder();
               for (Uri fileUri : fileUris) {
                 boolean isMostRecent = fileUri.equals(Iterables.getLast(fileUris));
-                builder.add(KeyFile.create(uriPair.indexUri(), fileUri, isMostRecent));
+                KeyFile keyFile = KeyFile.create(uriPair.indexUri(), fileUri, isMostRecent);
+                if (isMostRecent) {
+                  // Once the last file is provided, the index's validators are remembered along
+                  // with it.
+                  keyFile = keyFile.withIndexValidators(
+                      indexResponse.eTag(), indexResponse.lastModified());
+                }
+                builder.add(keyFile);
               }
               logger.d(String.format(
                   "Uris for server [%s]: [%s]", uriPair.indexUri(), builder.build()));
@@ -132,12 +174,28 @@ class KeyFileUriResolver {
             backgroundExecutor);
   }
 
-  private ListenableFuture<String> indexFileFrom(DownloadUriPair uriPair) {
+  /**
+   * Fetches the index file, conditional on it having changed since we last downloaded everything
+   * it listed.
+   */
+  private ListenableFuture<ConditionalResponse> indexFileFrom(
+      DownloadUriPair uriPair, TransferredBytes transferred) {
+    return FluentFuture.from(
+        Futures.submit(() -> downloadServerRepo.get(uriPair.indexUri()), backgroundExecutor))
+        .transformAsync(
+            server -> fetchIndexFile(uriPair, server, transferred), lightweightExecutor);
+  }
+
+  private ListenableFuture<ConditionalResponse> fetchIndexFile(
+      DownloadUriPair uriPair,
+      @Nullable DownloadServerEntity server,
+      TransferredBytes transferred) {
     return CallbackToFutureAdapter.getFuture(
         completer -> {
-          Listener<String> responseListener =
-              resp -> {
+          SizedListener<ConditionalResponse> responseListener =
+              (resp, responseBytes, encodedBytes) -> {
                 logger.d("Response was " + resp);
+                transferred.add(responseBytes, encodedBytes, bodySizeOf(resp));
                 completer.set(resp);
               };
 
@@ -148,12 +206,20 @@ class KeyFileUriResolver {
               };
 
           logger.d("Getting index file from " + uriPair.indexUri());
-          RespondableStringRequest request =
-              new RespondableStringRequest(
-                  uriPair.indexUri().toString(), responseListener, errorListener, clock);
-          request.setShouldCache(false);
+          RespondableConditionalStringRequest request =
+              new RespondableConditionalStringRequest(
+                  uriPair.indexUri().toString(),
+                  server == null ? null : server.indexETag(),
+                  server == null ? null : server.indexLastModified(),
+                  responseListener,
+                  errorListener,
+                  clock);
           queue.add(request);
           return request;
         });
   }
+
+  private static long bodySizeOf(ConditionalResponse response) {
+    return response.notModified() ? 0 : response.body().getBytes(StandardCharsets.UTF_8).length;
+  }
 }
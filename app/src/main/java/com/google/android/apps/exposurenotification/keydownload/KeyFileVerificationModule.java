@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.KeyFileVerificationKey;
+import com.google.common.base.Optional;
+import dagger.Module;
+import dagger.Provides;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+import java.security.PublicKey;
+
+/**
+ * Module providing the public key, if any, against which downloaded keyfiles' signatures are
+ * checked before they're handed to the Exposure Notifications API.
+ *
+ * <p>The API verifies every file itself using the keys registered for the app, so none is
+ * configured by default and we only check that files are well-formed. Tests may exclude this
+ * module and supply a key of their own.
+ */
+@Module
+@InstallIn(SingletonComponent.class)
+public class KeyFileVerificationModule {
+
+  @Provides
+  @KeyFileVerificationKey
+  public Optional<PublicKey> provideKeyFileVerificationKey() {
+    return Optional.absent();
+  }
+}
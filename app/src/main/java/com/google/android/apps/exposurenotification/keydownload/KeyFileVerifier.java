@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import androidx.annotation.WorkerThread;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.KeyFileVerificationKey;
+import com.google.android.apps.exposurenotification.proto.TEKSignature;
+import com.google.android.apps.exposurenotification.proto.TEKSignatureList;
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.inject.Inject;
+
+/**
+ * Checks a downloaded keyfile is intact before we hand it to the Exposure Notifications API, so
+ * that one truncated or corrupt file can't fail the whole batch it's provided with.
+ *
+ * <p>Reads each file once, as a stream: it must contain both an export.sig and an export.bin, the
+ * export.bin must start with the expected header and, if a verification key is configured, one of
+ * the signatures in export.sig must be valid for it. The SHA-256 of the export.bin computed along
+ * the way identifies the file's content.
+ */
+public class KeyFileVerifier {
+
+  private static final Logger logger = Logger.getLogger("KeyFileVerifier");
+  private static final BaseEncoding BASE16 = BaseEncoding.base16().lowerCase();
+  private static final byte[] EXPORT_HEADER =
+      KeyFileConstants.EXPORT_HEADER.getBytes(StandardCharsets.US_ASCII);
+  // ASN.1 OID for ECDSA with SHA-256, the only algorithm keyfiles are signed with.
+  private static final String ECDSA_SHA256_OID = "1.2.840.10045.4.3.2";
+  private static final int BUFFER_SIZE_BYTES = 16 * 1024;
+
+  private final Optional<PublicKey> verificationKey;
+
+  @Inject
+  KeyFileVerifier(@KeyFileVerificationKey Optional<PublicKey> verificationKey) {
+    this.verificationKey = verificationKey;
+  }
+
+  /**
+   * Verifies the given downloaded {@link KeyFile}, returning a copy carrying its content hash.
+   *
+   * @throws InvalidKeyFileException if the file is malformed or its signature doesn't verify.
+   * @throws IOException if the file couldn't be read.
+   */
+  @WorkerThread
+  public KeyFile verify(KeyFile keyFile) throws IOException {
+    File file = keyFile.file();
+    if (file == null) {
+      throw new InvalidKeyFileException("No file downloaded for " + keyFile.uri());
+    }
+
+    byte[] exportDigest = null;
+    TEKSignatureList signatures = null;
+    try (ZipInputStream zip =
+        new ZipInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (KeyFileConstants.EXPORT_FILENAME.equals(entry.getName())) {
+          exportDigest = digestExport(zip);
+        } else if (KeyFileConstants.SIG_FILENAME.equals(entry.getName())) {
+          signatures = TEKSignatureList.parseFrom(zip);
+        }
+      }
+    }
+
+    if (exportDigest == null) {
+      throw new InvalidKeyFileException("No " + KeyFileConstants.EXPORT_FILENAME + " in " + file);
+    }
+    if (signatures == null) {
+      throw new InvalidKeyFileException("No " + KeyFileConstants.SIG_FILENAME + " in " + file);
+    }
+    if (verificationKey.isPresent() && !anySignatureVerifies(signatures, exportDigest)) {
+      throw new InvalidKeyFileException("No valid signature in " + file);
+    }
+    String contentHash = BASE16.encode(exportDigest);
+    logger.d("Verified keyfile " + keyFile.uri() + " with content hash " + contentHash);
+    return keyFile.withContentHash(contentHash);
+  }
+
+  /**
+   * Reads the export.bin entry the given stream is positioned at, checking its header and returning
+   * the SHA-256 of its entire content (header included, as that's what's signed).
+   */
+  private static byte[] digestExport(InputStream export) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[BUFFER_SIZE_BYTES];
+    byte[] header = new byte[EXPORT_HEADER.length];
+    long total = 0;
+    int read;
+    while ((read = export.read(buffer)) != -1) {
+      if (total < header.length) {
+        int headerBytes = (int) Math.min(read, header.length - total);
+        System.arraycopy(buffer, 0, header, (int) total, headerBytes);
+      }
+      digest.update(buffer, 0, read);
+      total += read;
+    }
+    if (total < header.length || !Arrays.equals(header, EXPORT_HEADER)) {
+      throw new InvalidKeyFileException("Unexpected export header");
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Checks the signatures against the digest we already computed rather than re-reading the
+   * export, which is equivalent to SHA256withECDSA over the export itself.
+   */
+  private boolean anySignatureVerifies(TEKSignatureList signatures, byte[] exportDigest) {
+    for (TEKSignature signature : signatures.getSignaturesList()) {
+      String algorithm = signature.getSignatureInfo().getSignatureAlgorithm();
+      if (!algorithm.isEmpty() && !ECDSA_SHA256_OID.equals(algorithm)) {
+        continue;
+      }
+      try {
+        Signature verifier = Signature.getInstance("NONEwithECDSA");
+        verifier.initVerify(verificationKey.get());
+        verifier.update(exportDigest);
+        if (verifier.verify(signature.getSignature().toByteArray())) {
+          return true;
+        }
+      } catch (GeneralSecurityException e) {
+        logger.w("Failed to verify keyfile signature", e);
+      }
+    }
+    return false;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Android platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Thrown when a downloaded keyfile is not one we should provide to the Exposure Notifications
+   * API.
+   */
+  public static class InvalidKeyFileException extends IOException {
+    InvalidKeyFileException(String message) {
+      super(message);
+    }
+  }
+}
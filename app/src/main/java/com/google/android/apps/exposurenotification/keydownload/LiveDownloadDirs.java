@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.google.android.apps.exposurenotification.keydownload;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Keeps track of the download directories that runs in this process are still using, from when
+ * {@link DiagnosisKeyDownloader} starts downloading into one until its files have all been
+ * provided to the API, so that {@link KeyFileJanitor} leaves them alone.
+ *
+ * <p>Only held in memory: a run doesn't outlive its process, so after a restart no directory is in
+ * use and the janitor may clean them all.
+ */
+@Singleton
+public class LiveDownloadDirs {
+
+  // All guarded by "this". Counts, in case a directory is held more than once.
+  private final Map<String, Integer> holds = new HashMap<>();
+
+  @Inject
+  LiveDownloadDirs() {
+  }
+
+  /**
+   * Marks the download directory with the given name as in use.
+   */
+  synchronized void hold(String dirName) {
+    Integer count = holds.get(dirName);
+    holds.put(dirName, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Marks the download directory with the given name as no longer in use.
+   */
+  synchronized void release(String dirName) {
+    Integer count = holds.get(dirName);
+    if (count == null || count <= 1) {
+      holds.remove(dirName);
+    } else {
+      holds.put(dirName, count - 1);
+    }
+  }
+
+  /**
+   * Marks the download directories of the given keyfiles as no longer in use, once they've been
+   * provided to the API or given up on.
+   */
+  public synchronized void releaseDirsOf(List<KeyFile> keyFiles) {
+    for (String dirName : dirNamesOf(keyFiles)) {
+      release(dirName);
+    }
+  }
+
+  /**
+   * Whether the download directory with the given name is in use.
+   */
+  synchronized boolean isHeld(String dirName) {
+    return holds.containsKey(dirName);
+  }
+
+  private static Set<String> dirNamesOf(List<KeyFile> keyFiles) {
+    // A run downloads into a single directory, so each is released once however many files it has.
+    Set<String> dirNames = new HashSet<>();
+    for (KeyFile keyFile : keyFiles) {
+      File file = keyFile.file();
+      if (file != null && file.getParentFile() != null) {
+        dirNames.add(file.getParentFile().getName());
+      }
+    }
+    return dirNames;
+  }
+}
@@ -31,4 +31,16 @@ public class Qualifiers {
   @Retention(RetentionPolicy.RUNTIME)
   public @interface TravellerDownloadUriPairs {}
 
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface MaxConcurrentDownloads {}
+
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface MaxConcurrentDownloadsPerServer {}
+
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface KeyFileVerificationKey {}
+
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the responses a key download run read, both as they came over the wire and once
+ * decompressed, for logging. Responses come in on several threads at once.
+ */
+class TransferredBytes {
+
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong encodedBytes = new AtomicLong();
+
+  /**
+   * Counts a response of the given sizes, as reported by its request. If the request never heard
+   * (the sizes are -1), counts {@code fallbackBytes} for both.
+   */
+  void add(long responseBytes, long encodedResponseBytes, long fallbackBytes) {
+    if (responseBytes < 0) {
+      responseBytes = fallbackBytes;
+      encodedResponseBytes = fallbackBytes;
+    }
+    bytes.addAndGet(responseBytes);
+    encodedBytes.addAndGet(encodedResponseBytes);
+  }
+
+  long getBytes() {
+    return bytes.get();
+  }
+
+  long getEncodedBytes() {
+    return encodedBytes.get();
+  }
+}
@@ -23,7 +23,6 @@ import android.text.TextUtils;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
 import com.google.android.apps.exposurenotification.R;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
@@ -35,17 +34,24 @@ import com.google.android.apps.exposurenotification.keyupload.UploadController.V
 import com.google.android.apps.exposurenotification.keyupload.UploadController.VerificationServerFailureException;
 import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
 import com.google.android.apps.exposurenotification.network.DiagnosisKey;
-import com.google.android.apps.exposurenotification.network.Padding;
+import com.google.android.apps.exposurenotification.network.JsonBodyWriter;
+import com.google.android.apps.exposurenotification.network.JsonRequestBody;
+import com.google.android.apps.exposurenotification.network.Metered;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
 import com.google.android.apps.exposurenotification.network.RespondableJsonObjectRequest;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
 import com.google.android.apps.exposurenotification.network.VolleyUtils;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
@@ -59,7 +65,6 @@ import java.util.Map;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.threeten.bp.LocalDate;
@@ -82,12 +87,12 @@ class DiagnosisAttestor {
   private static final Joiner COMMAS = Joiner.on(',');
   private static final BaseEncoding BASE64 = BaseEncoding.base64();
   private static final String HASH_ALGO = "HmacSHA256";
-  private static final JSONArray SUPPORTED_TEST_TYPES = new JSONArray(
+  private static final ImmutableList<String> SUPPORTED_TEST_TYPES =
       ImmutableList.of(
           TestResult.CONFIRMED.toApiType(),
           TestResult.LIKELY.toApiType(),
           TestResult.NEGATIVE.toApiType(),
-          TestResult.USER_REPORT.toApiType()));
+          TestResult.USER_REPORT.toApiType());
 
   private final Uri codeUri;
   private final Uri certUri;
@@ -116,13 +121,22 @@ class DiagnosisAttestor {
   }
 
   ListenableFuture<UserReportUpload> requestCode(UserReportUpload upload) {
-    return CallbackToFutureAdapter.getFuture(completer -> {
-      JSONObject requestBody = verificationUserReportRequestBody(upload);
+    return FluentFuture.from(
+        requestCode(verificationUserReportRequestBody(upload), upload.isCoverTraffic()))
+        .transform(
+            response -> captureVerificationUserReportResponse(upload, response),
+            MoreExecutors.directExecutor());
+  }
 
-      Listener<JSONObject> responseListener = response -> {
-        analyticsLogger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_VERIFICATION,
-            requestBody.toString().length());
-        completer.set(captureVerificationUserReportResponse(upload, response));
+  /**
+   * Sends an already serialized request for a verification code, and returns the server's
+   * response.
+   */
+  ListenableFuture<JSONObject> requestCode(JsonRequestBody requestBody, boolean isCoverTraffic) {
+    return CallbackToFutureAdapter.getFuture(completer -> {
+      SizedListener<JSONObject> responseListener = (response, responseBytes, encodedBytes) -> {
+        logVerificationSuccess(requestBody, responseBytes, encodedBytes);
+        completer.set(response);
       };
 
       ErrorListener errorListener =
@@ -137,20 +151,20 @@ class DiagnosisAttestor {
 
       VerificationRequest request =
           new VerificationRequest(
-              apiKey, userReportUri, requestBody, responseListener, errorListener,
-              clock, upload.isCoverTraffic());
+              apiKey, Endpoint.ENDPOINT_USER_REPORT, userReportUri, requestBody,
+              responseListener, errorListener, clock, isCoverTraffic);
       queue.add(request);
       return request;
     });
   }
 
-  private static JSONObject verificationUserReportRequestBody(UserReportUpload upload)
-      throws JSONException {
-    return Padding.addPadding(new JSONObject()
-        .put(VerifyV1.TEST_DATE, upload.testDate())
+  static JsonRequestBody verificationUserReportRequestBody(UserReportUpload upload) {
+    return new JsonBodyWriter()
+        .put(VerifyV1.TEST_DATE, upload.testDate() == null ? null : upload.testDate().toString())
         .put(VerifyV1.TZ_OFFSET, upload.tzOffsetMin())
         .put(VerifyV1.PHONE, upload.phoneNumber())
-        .put(VerifyV1.NONCE, upload.nonceBase64()));
+        .put(VerifyV1.NONCE, upload.nonceBase64())
+        .finishPadded();
   }
 
   private static UserReportUpload captureVerificationUserReportResponse(
@@ -165,11 +179,7 @@ class DiagnosisAttestor {
           !Strings.isNullOrEmpty(response.getString(VerifyV1.EXPIRY_STR))) {
         withResponse.setExpiresAt(response.getString(VerifyV1.EXPIRY_STR));
       }
-      if (response.has(VerifyV1.EXPIRY_TIMESTAMP) &&
-          !Strings.isNullOrEmpty(response.getString(VerifyV1.EXPIRY_TIMESTAMP))) {
-        withResponse.setExpiresAtTimestampSec(
-            Integer.parseInt(response.getString(VerifyV1.EXPIRY_TIMESTAMP)));
-      }
+      withResponse.setExpiresAtTimestampSec(expiresAtTimestampSecOf(response));
       return withResponse.build();
     } catch (JSONException e) {
       // TODO: Better exception.
@@ -177,16 +187,27 @@ class DiagnosisAttestor {
     }
   }
 
+  /**
+   * Extracts from a user report response the Unix timestamp (in seconds) at which the requested
+   * verification code expires, or zero if the response doesn't say.
+   */
+  static long expiresAtTimestampSecOf(JSONObject response) throws JSONException {
+    if (response.has(VerifyV1.EXPIRY_TIMESTAMP) &&
+        !Strings.isNullOrEmpty(response.getString(VerifyV1.EXPIRY_TIMESTAMP))) {
+      return Integer.parseInt(response.getString(VerifyV1.EXPIRY_TIMESTAMP));
+    }
+    return 0;
+  }
+
   ListenableFuture<Upload> submitCode(Upload upload) {
     logcat.d("Submitting verification code: " + upload);
     return CallbackToFutureAdapter.getFuture(completer -> {
-      JSONObject requestBody = verificationCodeRequestBody(upload);
+      JsonRequestBody requestBody = verificationCodeRequestBody(upload);
       logcat.d("Submitting verification code: " + requestBody);
 
-      Listener<JSONObject> responseListener =
-          response -> {
-            analyticsLogger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_VERIFICATION,
-                requestBody.toString().length());
+      SizedListener<JSONObject> responseListener =
+          (response, responseBytes, encodedBytes) -> {
+            logVerificationSuccess(requestBody, responseBytes, encodedBytes);
             logcat.d("Verification code submission succeeded: " + response);
             completer.set(captureVerificationCodeResponse(upload, response));
           };
@@ -205,21 +226,21 @@ class DiagnosisAttestor {
 
       VerificationRequest request =
           new VerificationRequest(
-              apiKey, codeUri, requestBody, responseListener, errorListener,
-              clock, upload.isCoverTraffic());
+              apiKey, Endpoint.ENDPOINT_VERIFY, codeUri, requestBody,
+              responseListener, errorListener, clock, upload.isCoverTraffic());
       queue.add(request);
       return request;
     });
   }
 
-  private static JSONObject verificationCodeRequestBody(Upload upload) throws JSONException {
-    JSONObject verificationCodeRequestBody = new JSONObject()
+  private static JsonRequestBody verificationCodeRequestBody(Upload upload) {
+    JsonBodyWriter verificationCodeRequestBody = new JsonBodyWriter()
         .put(VerifyV1.VERIFICATION_CODE, upload.verificationCode())
-        .put(VerifyV1.ACCEPT_TEST_TYPES, SUPPORTED_TEST_TYPES);
+        .putStrings(VerifyV1.ACCEPT_TEST_TYPES, SUPPORTED_TEST_TYPES);
     if (!TextUtils.isEmpty(upload.nonceBase64())) {
       verificationCodeRequestBody.put(VerifyV1.NONCE, upload.nonceBase64());
     }
-    return Padding.addPadding(verificationCodeRequestBody);
+    return verificationCodeRequestBody.finishPadded();
   }
 
   private static Upload captureVerificationCodeResponse(Upload upload, JSONObject response) {
@@ -253,13 +274,12 @@ class DiagnosisAttestor {
   ListenableFuture<Upload> submitKeysForCert(Upload upload) {
     return CallbackToFutureAdapter.getFuture(
         completer -> {
-          JSONObject requestBody = certRequestBody(upload);
+          JsonRequestBody requestBody = certRequestBody(upload);
           logcat.d("Submitting request for certificate: " + requestBody);
 
-          Listener<JSONObject> responseListener =
-              response -> {
-                analyticsLogger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_VERIFICATION,
-                    requestBody.toString().length());
+          SizedListener<JSONObject> responseListener =
+              (response, responseBytes, encodedBytes) -> {
+                logVerificationSuccess(requestBody, responseBytes, encodedBytes);
                 logcat.d("Certificate obtained: " + response);
                 completer.set(captureCertResponse(upload, response));
               };
@@ -278,17 +298,18 @@ class DiagnosisAttestor {
 
           VerificationRequest request =
               new VerificationRequest(
-                  apiKey, certUri, requestBody, responseListener, errorListener,
-                  clock, upload.isCoverTraffic());
+                  apiKey, Endpoint.ENDPOINT_CERT, certUri, requestBody,
+                  responseListener, errorListener, clock, upload.isCoverTraffic());
           queue.add(request);
           return request;
         });
   }
 
-  private static JSONObject certRequestBody(Upload upload) throws JSONException {
-    return Padding.addPadding(new JSONObject()
+  private static JsonRequestBody certRequestBody(Upload upload) {
+    return new JsonBodyWriter()
         .put(VerifyV1.VERIFICATION_TOKEN, upload.longTermToken())
-        .put(VerifyV1.HMAC_KEY, hashedKeys(upload)));
+        .put(VerifyV1.HMAC_KEY, hashedKeys(upload))
+        .finishPadded();
   }
 
   private static String hashedKeys(Upload upload) {
@@ -333,25 +354,47 @@ class DiagnosisAttestor {
     }
   }
 
+  private void logVerificationSuccess(
+      JsonRequestBody requestBody, long responseBytes, long encodedResponseBytes) {
+    if (responseBytes < 0) {
+      // We don't know the response's size if we didn't make the network call ourselves.
+      analyticsLogger.logRpcCallSuccessAsync(
+          RpcCallType.RPC_TYPE_VERIFICATION, requestBody.size());
+    } else {
+      analyticsLogger.logRpcCallSuccessAsync(
+          RpcCallType.RPC_TYPE_VERIFICATION, requestBody.size(),
+          Ints.saturatedCast(responseBytes), Ints.saturatedCast(encodedResponseBytes));
+    }
+  }
+
   /**
    * Simple construction of verification submissions, both the code/token exchange, and the
    * token/cert exchange.
    */
-  private static class VerificationRequest extends RespondableJsonObjectRequest {
+  private static class VerificationRequest extends RespondableJsonObjectRequest
+      implements Metered {
 
     private final String apiKey;
+    private final Endpoint endpoint;
 
     VerificationRequest(
         String apiKey,
-        Uri endpoint,
-        JSONObject jsonRequest,
-        Response.Listener<JSONObject> listener,
+        Endpoint endpoint,
+        Uri uri,
+        JsonRequestBody body,
+        SizedListener<JSONObject> listener,
         Response.ErrorListener errorListener,
         Clock clock,
         boolean isCoverTraffic) {
       super(Method.POST,
-          endpoint.toString(), jsonRequest, listener, errorListener, clock, isCoverTraffic);
+          uri.toString(), body, listener, errorListener, clock, isCoverTraffic);
       this.apiKey = apiKey;
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return endpoint;
     }
 
     @Override
@@ -22,7 +22,6 @@ import android.net.Uri;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
 import com.google.android.apps.exposurenotification.R;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
@@ -34,13 +33,18 @@ import com.google.android.apps.exposurenotification.keyupload.UploadController.K
 import com.google.android.apps.exposurenotification.keyupload.UploadController.KeysSubmitServerFailureException;
 import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
 import com.google.android.apps.exposurenotification.network.DiagnosisKey;
-import com.google.android.apps.exposurenotification.network.Padding;
+import com.google.android.apps.exposurenotification.network.JsonBodyWriter;
+import com.google.android.apps.exposurenotification.network.JsonRequestBody;
+import com.google.android.apps.exposurenotification.network.Metered;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
 import com.google.android.apps.exposurenotification.network.RespondableJsonObjectRequest;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
 import com.google.android.apps.exposurenotification.network.VolleyUtils;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -48,7 +52,6 @@ import dagger.hilt.android.qualifiers.ApplicationContext;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import javax.inject.Inject;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.threeten.bp.Duration;
@@ -123,7 +126,7 @@ class DiagnosisKeyUploader {
     logcat.d("Uploading keys: [" + upload.keys().size() + "]");
 
     // Start by creating a JSON request payload from the given Upload.
-    return FluentFuture.from(createPayload(upload))
+    return FluentFuture.from(Futures.immediateFuture(createPayload(upload)))
         // Submit to the key server.
         .transformAsync(
             payload -> submitToServer(payload, upload.isCoverTraffic()), backgroundExecutor)
@@ -132,63 +135,64 @@ class DiagnosisKeyUploader {
             response -> captureRevisionToken(response, upload), lightweightExecutor);
   }
 
-  private ListenableFuture<JSONObject> createPayload(Upload upload) {
-    JSONObject payload = new JSONObject();
-
-    JSONArray keysJson = new JSONArray();
-    try {
-      for (DiagnosisKey k : upload.keys()) {
-        logcat.d("Adding key: " + k + " to submission.");
-        keysJson.put(
-            new JSONObject()
-                .put(UploadV1.KEY, BASE64.encode(k.getKeyBytes()))
-                .put(UploadV1.ROLLING_START_NUM, k.getIntervalNumber())
-                .put(UploadV1.ROLLING_PERIOD, k.getRollingPeriod())
-                .put(UploadV1.TRANSMISSION_RISK, k.getTransmissionRisk()));
-      }
-
-      JSONArray regionCodesJson = new JSONArray();
-      for (String r : upload.regions()) {
-        regionCodesJson.put(r);
-      }
+  /**
+   * Creates the padded request payload for the given {@link Upload}, exactly as it's sent.
+   */
+  JsonRequestBody createPayload(Upload upload) {
+    JsonBodyWriter payload = new JsonBodyWriter();
 
+    payload.beginArray(UploadV1.KEYS);
+    for (DiagnosisKey k : upload.keys()) {
+      logcat.d("Adding key: " + k + " to submission.");
       payload
-          .put(UploadV1.KEYS, keysJson)
-          .put(UploadV1.APP_PACKAGE, context.getString(R.string.health_authority_id))
-          .put(UploadV1.HMAC_KEY, upload.hmacKeyBase64())
-          .put(UploadV1.VERIFICATION_CERT, upload.certificate())
-          .put(UploadV1.TRAVELER, upload.hasTraveled());
+          .beginObject()
+          .put(UploadV1.KEY, BASE64.encode(k.getKeyBytes()))
+          .put(UploadV1.ROLLING_START_NUM, k.getIntervalNumber())
+          .put(UploadV1.ROLLING_PERIOD, k.getRollingPeriod())
+          .put(UploadV1.TRANSMISSION_RISK, k.getTransmissionRisk())
+          .endObject();
+    }
+    payload.endArray();
 
-      // Onset date is optional
-      if (upload.symptomOnset() != null) {
-        int onsetDateInterval = DiagnosisKey.instantToInterval(
-            upload.symptomOnset().atStartOfDay(ZoneOffset.UTC).toInstant());
-        payload.put(UploadV1.ONSET, onsetDateInterval);
-      }
+    payload
+        .put(UploadV1.APP_PACKAGE, context.getString(R.string.health_authority_id))
+        .put(UploadV1.HMAC_KEY, upload.hmacKeyBase64())
+        .put(UploadV1.VERIFICATION_CERT, upload.certificate())
+        .put(UploadV1.TRAVELER, upload.hasTraveled());
 
-      // We have a revision token only on second and subsequent uploads.
-      if (upload.revisionToken() != null) {
-        payload
-            .put(ApiConstants.UploadV1.REVISION_TOKEN, upload.revisionToken());
-      }
+    // Onset date is optional
+    if (upload.symptomOnset() != null) {
+      int onsetDateInterval = DiagnosisKey.instantToInterval(
+          upload.symptomOnset().atStartOfDay(ZoneOffset.UTC).toInstant());
+      payload.put(UploadV1.ONSET, onsetDateInterval);
+    }
 
-      payload = Padding.addPadding(payload);
-      return Futures.immediateFuture(payload);
-    } catch (JSONException e) {
-      return Futures.immediateFailedFuture(e);
+    // We have a revision token only on second and subsequent uploads.
+    if (upload.revisionToken() != null) {
+      payload
+          .put(ApiConstants.UploadV1.REVISION_TOKEN, upload.revisionToken());
     }
+
+    return payload.finishPadded();
   }
 
   /**
    * Submits the build request to the key server and returns the server's response.
    */
-  private ListenableFuture<JSONObject> submitToServer(JSONObject payload, boolean isCoverTraffic) {
+  ListenableFuture<JSONObject> submitToServer(
+      JsonRequestBody payload, boolean isCoverTraffic) {
     return CallbackToFutureAdapter.getFuture(
         completer -> {
-          Listener<JSONObject> responseListener =
-              response -> {
-                logger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_KEYS_UPLOAD,
-                    payload.toString().length());
+          SizedListener<JSONObject> responseListener =
+              (response, responseBytes, encodedBytes) -> {
+                if (responseBytes < 0) {
+                  // We don't know the response's size if we didn't make the network call
+                  // ourselves.
+                  logger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_KEYS_UPLOAD, payload.size());
+                } else {
+                  logger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_KEYS_UPLOAD, payload.size(),
+                      Ints.saturatedCast(responseBytes), Ints.saturatedCast(encodedBytes));
+                }
                 completer.set(response);
               };
 
@@ -224,10 +228,17 @@ class DiagnosisKeyUploader {
     if (upload.isCoverTraffic()) {
       return Futures.immediateFuture(upload);
     }
+    return Futures.immediateFuture(upload.toBuilder()
+        .setRevisionToken(revisionTokenOf(response))
+        .build());
+  }
+
+  /**
+   * Extracts the revision token from the server's response.
+   */
+  static String revisionTokenOf(JSONObject response) throws KeysSubmitFailureException {
     try {
-      return Futures.immediateFuture(upload.toBuilder()
-          .setRevisionToken(response.getString(UploadV1.REVISION_TOKEN))
-          .build());
+      return response.getString(UploadV1.REVISION_TOKEN);
     } catch (JSONException e) {
       // "Server error" here is maybe a bit optimistic: it assumes that the response body was
       // incorrect, but it could be that the app's interpretation of the response is incorrect.
@@ -238,22 +249,27 @@ class DiagnosisKeyUploader {
   /**
    * Simple construction of a Diagnosis Keys submission.
    */
-  private static class SubmitKeysRequest extends RespondableJsonObjectRequest {
+  private static class SubmitKeysRequest extends RespondableJsonObjectRequest implements Metered {
 
     SubmitKeysRequest(
         Uri endpoint,
-        JSONObject jsonRequest,
-        Response.Listener<JSONObject> listener,
+        JsonRequestBody body,
+        SizedListener<JSONObject> listener,
         Response.ErrorListener errorListener,
         Clock clock,
         boolean isCoverTraffic) {
       super(Method.POST,
-          endpoint.toString(), jsonRequest, listener, errorListener, clock, isCoverTraffic);
+          endpoint.toString(), body, listener, errorListener, clock, isCoverTraffic);
     }
 
     @Override
     public Map<String, String> getHeaders() {
       return isCoverTraffic ? ImmutableMap.of(ApiConstants.CHAFF_HEADER, "1") : ImmutableMap.of();
     }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return Endpoint.ENDPOINT_PUBLISH;
+    }
   }
 }
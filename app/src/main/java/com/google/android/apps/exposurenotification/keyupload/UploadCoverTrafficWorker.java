@@ -23,13 +23,11 @@ import androidx.annotation.VisibleForTesting;
 import androidx.hilt.work.HiltWorker;
 import androidx.work.Constraints;
 import androidx.work.Data;
-import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.ListenableWorker;
 import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.Operation;
-import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
@@ -39,7 +37,11 @@ import com.google.android.apps.exposurenotification.common.SecureRandomUtil;
 import com.google.android.apps.exposurenotification.common.StringUtils;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.network.DiagnosisKey;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
 import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.util.concurrent.FluentFuture;
@@ -50,6 +52,7 @@ import dagger.assisted.Assisted;
 import dagger.assisted.AssistedInject;
 import java.security.SecureRandom;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.threeten.bp.Duration;
@@ -58,8 +61,11 @@ import org.threeten.bp.LocalDate;
 /**
  * A worker that somewhat randomly executes fake requests to the Verification and Key servers.
  *
- * <p>Somewhat random operation is achieved by skipping some executions of the worker at random.
- * <p>Currently, this worker is executed with a probability of once every 2 days.
+ * <p>Somewhat random operation is achieved by running the worker at random times: it used to run
+ * every 4 hours and skip each run with probability 11/12, so the number of 4 hour periods until a
+ * run that went ahead was geometrically distributed. Now each run draws that number of periods up
+ * front and schedules the next run that far ahead, giving the same times on the wire without the
+ * skipped wakeups in between. On average, the worker runs once every 2 days.
  * <p>Out of 4 RPC calls made by this worker when the worker gets executed, one RPC call to request
  * a verification code is made with an additional probability (which is once over each 6 actual
  * non-skipped executions of the worker).
@@ -71,7 +77,6 @@ import org.threeten.bp.LocalDate;
 public final class UploadCoverTrafficWorker extends ListenableWorker {
 
   private static final Logger logger = Logger.getLogger("UploadCoverTrafficWrk");
-  private static final TimeUnit REPEAT_INTERVAL_UNITS = TimeUnit.HOURS;
   private static final int KEY_SIZE_BYTES = 16;
   private static final int FAKE_INTERVAL_NUM = 2650847; // Only size matters here, not the value.
   // The upper bound of the range for the randomly generated sleep time (in milliseconds) to mimic
@@ -81,10 +86,15 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
   // delay between submitting the code and submitting the keys.
   private static final Duration KEYS_UPLOAD_DELAY_MAX = Duration.ofHours(25L);
 
+  // The name the worker was scheduled under as a periodic job, by earlier versions of the app.
   @VisibleForTesting
-  static final String WORKER_NAME = "UploadCoverTrafficWorker";
+  static final String LEGACY_PERIODIC_WORKER_NAME = "UploadCoverTrafficWorker";
   @VisibleForTesting
-  static final int REPEAT_INTERVAL = 4;
+  static final String WORKER_NAME = "UploadCoverTrafficWorker.NextRun";
+  @VisibleForTesting
+  static final String DELAYED_WORKER_NAME = "UploadCoverTrafficWorker.DelayedKeys";
+  @VisibleForTesting
+  static final Duration REPEAT_INTERVAL = Duration.ofHours(4);
   @VisibleForTesting
   static final double EXECUTION_PROBABILITY = 1.0d / 12.0d;
   @VisibleForTesting
@@ -104,6 +114,7 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
   private final SecureRandom secureRandom;
   private final WorkerStartupManager workerStartupManager;
   private final WorkManager workManager;
+  private final WorkerTelemetry workerTelemetry;
 
   /**
    * @param appContext   The application {@link Context}
@@ -119,7 +130,8 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
       @ScheduledExecutor ListeningScheduledExecutorService scheduledExecutor,
       SecureRandom secureRandom,
       WorkerStartupManager workerStartupManager,
-      WorkManager workManager) {
+      WorkManager workManager,
+      WorkerTelemetry workerTelemetry) {
     super(appContext, workerParams);
     this.uploadController = uploadController;
     this.backgroundExecutor = backgroundExecutor;
@@ -128,42 +140,47 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
     this.secureRandom = secureRandom;
     this.workerStartupManager = workerStartupManager;
     this.workManager = workManager;
+    this.workerTelemetry = workerTelemetry;
   }
 
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_UPLOAD_COVER_TRAFFIC);
     boolean isDelayedExecution =
         getInputData() != null && getInputData().getBoolean(IS_DELAYED_EXECUTION, false);
     if (isDelayedExecution) {
       // If this worker has been fired to run once to imitate a longer delay between calls to submit
       // code and to submit keys, then submit the keys now.
-      return FluentFuture.from(uploadController.submitKeysForCert(fakeCertRequest()))
+      return run.finish(FluentFuture.from(
+          run.time(Stage.STAGE_SUBMIT, uploadController.submitKeysForCert(fakeCertRequest())))
           .transformAsync(
-              upload -> uploadController.upload(fakeKeyUpload()),
+              upload -> run.time(Stage.STAGE_SUBMIT, uploadController.upload(fakeKeyUpload())),
               backgroundExecutor)
           // Report success or failure.
           .transform(unused -> Result.success(), lightweightExecutor)
-          .catching(Throwable.class, t -> Result.failure(), lightweightExecutor);
-    }
-
-    if (!shouldExecute(EXECUTION_PROBABILITY)) {
-      // We skip execution with random probability.
-      return Futures.immediateFuture(Result.success());
+          .catching(Throwable.class, t -> Result.failure(), lightweightExecutor));
     }
 
-    return FluentFuture.from(
-        // First see if the API is enabled in the first place.
-        workerStartupManager.getIsEnabledWithStartupTasks())
+    // Pick the time of the next run before anything else, so that it's scheduled even if this run
+    // never gets to finish.
+    return run.finish(FluentFuture.from(scheduleNextRun(workManager, secureRandom).getResult())
+        // Then see if the API is enabled in the first place.
+        .transformAsync(
+            unused -> run.time(Stage.STAGE_STARTUP,
+                workerStartupManager.getIsEnabledWithStartupTasks(WORKER_NAME)),
+            lightweightExecutor)
         .transformAsync(
             isEnabled -> {
               if (!isEnabled) {
                 // If the API is not enabled, skip the upload.
+                run.markAbandoned();
                 return Futures.immediateFailedFuture(new FinishWorkerEarlyException());
               }
               return FluentFuture.from(maybeRequestCode())
                   .transformAsync(
-                      unused -> uploadController.submitCode(fakeCodeRequest()),
+                      unused -> run.time(
+                          Stage.STAGE_SUBMIT, uploadController.submitCode(fakeCodeRequest())),
                       backgroundExecutor)
                   .transformAsync(
                       upload -> {
@@ -191,14 +208,19 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
                       },
                       backgroundExecutor)
                   .transformAsync(
-                      upload -> uploadController.upload(fakeKeyUpload()),
+                      upload -> run.time(
+                          Stage.STAGE_SUBMIT, uploadController.upload(fakeKeyUpload())),
                       backgroundExecutor);
             },
             lightweightExecutor)
-        // Report success or failure.
+        // The next run is chained after this one, and WorkManager fails the dependents of failed
+        // work, so report success whatever happened.
         .transform(unused -> Result.success(), lightweightExecutor)
         .catching(FinishWorkerEarlyException.class, ex -> Result.success(), lightweightExecutor)
-        .catching(Throwable.class, t -> Result.failure(), lightweightExecutor);
+        .catching(Throwable.class, t -> {
+          logger.w("Cover traffic run failed", t);
+          return Result.success();
+        }, lightweightExecutor));
   }
 
   private ListenableFuture<?> maybeRequestCode() {
@@ -326,23 +348,55 @@ public final class UploadCoverTrafficWorker extends ListenableWorker {
             .setInitialDelay(initialDelaySecs, TimeUnit.SECONDS)
             .build();
     return workManager.enqueueUniqueWork(
-        WORKER_NAME, ExistingWorkPolicy.KEEP, oneTimeWorkRequest);
+        DELAYED_WORKER_NAME, ExistingWorkPolicy.KEEP, oneTimeWorkRequest);
   }
 
+  /**
+   * Schedules the first run of this worker, unless a run is already scheduled.
+   *
+   * <p>Called on every app start, so must leave an already scheduled run alone: were it drawn
+   * again each time, a user who opens the app often enough would never send any cover traffic.
+   */
   public static Operation schedule(WorkManager workManager) {
-    logger.i("Scheduling periodic WorkManager job...");
-    // WARNING: You must set ExistingPeriodicWorkPolicy.REPLACE if you want to change the params for
-    //          previous app version users.
-    PeriodicWorkRequest workRequest =
-        new PeriodicWorkRequest.Builder(
-            UploadCoverTrafficWorker.class,
-            REPEAT_INTERVAL,
-            REPEAT_INTERVAL_UNITS)
-            .setConstraints(
-                new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
-            .build();
-    return workManager.enqueueUniquePeriodicWork(
-        WORKER_NAME, ExistingPeriodicWorkPolicy.KEEP, workRequest);
+    logger.i("Scheduling next cover traffic run...");
+    // Earlier versions of the app ran this worker periodically. Those runs are replaced by these.
+    workManager.cancelUniqueWork(LEGACY_PERIODIC_WORKER_NAME);
+    return workManager.enqueueUniqueWork(
+        WORKER_NAME, ExistingWorkPolicy.KEEP, nextRunRequest(new SecureRandom()));
+  }
+
+  /**
+   * Schedules the run after the one in progress, to start once it has finished.
+   */
+  private static Operation scheduleNextRun(WorkManager workManager, Random random) {
+    return workManager.enqueueUniqueWork(
+        WORKER_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, nextRunRequest(random));
+  }
+
+  private static OneTimeWorkRequest nextRunRequest(Random random) {
+    Duration delay = REPEAT_INTERVAL.multipliedBy(periodsUntilNextRun(random));
+    logger.d("Next cover traffic run in " + delay);
+    return new OneTimeWorkRequest.Builder(UploadCoverTrafficWorker.class)
+        .setConstraints(
+            new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+        .setInitialDelay(delay.getSeconds(), TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Draws the number of {@link #REPEAT_INTERVAL}s until the next run.
+   *
+   * <p>Running every interval and going ahead with probability {@link #EXECUTION_PROBABILITY}
+   * makes this number geometrically distributed: it's k with probability (1 - p)^(k - 1) * p. We
+   * draw it directly by inverting its distribution function, P(K <= k) = 1 - (1 - p)^k.
+   */
+  @VisibleForTesting
+  static long periodsUntilNextRun(Random random) {
+    // In [0, 1), so the logarithm of 1 - u is finite.
+    double u = random.nextDouble();
+    long periods = (long) Math.ceil(Math.log1p(-u) / Math.log1p(-EXECUTION_PROBABILITY));
+    // Only zero when u is exactly zero.
+    return Math.max(1L, periods);
   }
 
   /**
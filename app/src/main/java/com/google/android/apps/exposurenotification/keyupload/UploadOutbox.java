@@ -0,0 +1,401 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keyupload;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.work.WorkManager;
+import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.R;
+import com.google.android.apps.exposurenotification.common.NotificationHelper;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.keyupload.ApiConstants.UploadV1;
+import com.google.android.apps.exposurenotification.keyupload.UploadController.KeysSubmitServerFailureException;
+import com.google.android.apps.exposurenotification.keyupload.UploadController.UploadException;
+import com.google.android.apps.exposurenotification.keyupload.UploadController.VerificationServerFailureException;
+import com.google.android.apps.exposurenotification.network.Connectivity;
+import com.google.android.apps.exposurenotification.network.JsonRequestBody;
+import com.google.android.apps.exposurenotification.storage.DiagnosisEntity;
+import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.Shared;
+import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
+import com.google.android.apps.exposurenotification.storage.DiagnosisRepository;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity.Kind;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxRepository;
+import com.google.android.apps.exposurenotification.storage.VerificationCodeRequestEntity;
+import com.google.android.apps.exposurenotification.storage.VerificationCodeRequestRepository;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import dagger.hilt.android.qualifiers.ApplicationContext;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.threeten.bp.Instant;
+
+/**
+ * A durable outbox for key publication and verification code requests that couldn't be sent for
+ * lack of connectivity.
+ *
+ * <p>Rather than have the user retry through the UI, requests are stored, already serialized and
+ * padded, and sent by the {@link UploadOutboxWorker} as soon as the network returns. Sending a
+ * stored request applies its result just as sending it right away would have: a publish stores the
+ * key server's revision token against its diagnosis and marks the diagnosis shared, and a user
+ * report records the request's nonce and expiry for the code the user will receive.
+ *
+ * <p>Sending the same request twice is harmless, since the key server treats republishing the same
+ * keys with the same revision token as a no-op. So requests are removed only once their result is
+ * stored, and a request interrupted in between is simply sent again.
+ *
+ * <p>Keys are published only while their verification certificate is valid, as the key server
+ * rejects them after that. Keys held past then are dropped, and the user told they weren't shared.
+ */
+public class UploadOutbox {
+
+  private static final Logger logger = Logger.getLogger("UploadOutbox");
+
+  /**
+   * The JWT claim holding when a verification certificate expires, in seconds since the epoch.
+   */
+  private static final String CERTIFICATE_EXPIRY_CLAIM = "exp";
+
+  private final Context context;
+  private final DiagnosisKeyUploader uploader;
+  private final DiagnosisAttestor attestor;
+  private final UploadOutboxRepository outboxRepository;
+  private final DiagnosisRepository diagnosisRepository;
+  private final VerificationCodeRequestRepository requestRepository;
+  private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  private final Connectivity connectivity;
+  private final Clock clock;
+  private final WorkManager workManager;
+  private final NotificationHelper notificationHelper;
+  private final ExecutorService backgroundExecutor;
+  private final ExecutorService lightweightExecutor;
+
+  @Inject
+  UploadOutbox(
+      @ApplicationContext Context context,
+      DiagnosisKeyUploader uploader,
+      DiagnosisAttestor attestor,
+      UploadOutboxRepository outboxRepository,
+      DiagnosisRepository diagnosisRepository,
+      VerificationCodeRequestRepository requestRepository,
+      ExposureNotificationSharedPreferences exposureNotificationSharedPreferences,
+      Connectivity connectivity,
+      Clock clock,
+      WorkManager workManager,
+      NotificationHelper notificationHelper,
+      @BackgroundExecutor ExecutorService backgroundExecutor,
+      @LightweightExecutor ExecutorService lightweightExecutor) {
+    this.context = context;
+    this.uploader = uploader;
+    this.attestor = attestor;
+    this.outboxRepository = outboxRepository;
+    this.diagnosisRepository = diagnosisRepository;
+    this.requestRepository = requestRepository;
+    this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
+    this.connectivity = connectivity;
+    this.clock = clock;
+    this.workManager = workManager;
+    this.notificationHelper = notificationHelper;
+    this.backgroundExecutor = backgroundExecutor;
+    this.lightweightExecutor = lightweightExecutor;
+  }
+
+  /**
+   * Stores the given certified {@link Upload} to be published once there's connectivity, in place
+   * of any earlier one for the same diagnosis.
+   *
+   * @param upload      with the keys to publish, their certificate and the revision token (if any)
+   * @param diagnosisId the diagnosis to mark shared once the keys are published
+   */
+  public ListenableFuture<Long> enqueue(Upload upload, long diagnosisId) {
+    return enqueue(
+        UploadOutboxEntity.newBuilder()
+            .setKind(Kind.PUBLISH)
+            .setDiagnosisId(diagnosisId)
+            .setTestType(upload.testType())
+            .setBody(uploader.createPayload(upload).toString())
+            .setEnqueuedTime(clock.now())
+            .build());
+  }
+
+  /**
+   * Stores the given request for a verification code to be sent once there's connectivity, in
+   * place of any earlier one.
+   */
+  public ListenableFuture<Long> enqueue(UserReportUpload upload) {
+    return enqueue(
+        UploadOutboxEntity.newBuilder()
+            .setKind(Kind.USER_REPORT)
+            .setNonce(upload.nonceBase64())
+            .setBody(DiagnosisAttestor.verificationUserReportRequestBody(upload).toString())
+            .setEnqueuedTime(clock.now())
+            .build());
+  }
+
+  private ListenableFuture<Long> enqueue(UploadOutboxEntity entity) {
+    logger.i("Holding " + entity.getKind() + " request until we're back online.");
+    return FluentFuture.from(
+        Futures.submit(() -> outboxRepository.enqueue(entity), backgroundExecutor))
+        .transformAsync(
+            id -> FluentFuture.from(UploadOutboxWorker.schedule(workManager).getResult())
+                .transform(unused -> id, lightweightExecutor),
+            lightweightExecutor);
+  }
+
+  /**
+   * Sends every request in the outbox, one at a time, oldest first.
+   *
+   * @return true if the outbox is now empty, or false if some requests failed in a way that might
+   * not happen next time, so are still waiting to be sent
+   */
+  ListenableFuture<Boolean> drain() {
+    if (!connectivity.hasInternet()) {
+      return Futures.immediateFuture(false);
+    }
+    return FluentFuture.from(Futures.submit(this::getPendingUnexpired, backgroundExecutor))
+        .transformAsync(this::sendInOrder, lightweightExecutor);
+  }
+
+  /**
+   * Returns the requests waiting to be sent, having dropped any publish request whose certificate
+   * has expired.
+   */
+  @WorkerThread
+  private List<UploadOutboxEntity> getPendingUnexpired() throws Exception {
+    ImmutableList.Builder<UploadOutboxEntity> unexpired = ImmutableList.builder();
+    for (UploadOutboxEntity entity : outboxRepository.getPending()) {
+      if (Kind.PUBLISH.equals(entity.getKind())
+          && !clock.now().isBefore(publishDeadlineOf(entity))) {
+        logger.w("Certificate for keys held in the outbox has expired, giving up.");
+        dropPublish(entity);
+      } else {
+        unexpired.add(entity);
+      }
+    }
+    return unexpired.build();
+  }
+
+  private ListenableFuture<Boolean> sendInOrder(List<UploadOutboxEntity> pending) {
+    ListenableFuture<Boolean> allSent = Futures.immediateFuture(true);
+    for (UploadOutboxEntity entity : pending) {
+      allSent = FluentFuture.from(allSent)
+          .transformAsync(
+              sentSoFar -> FluentFuture.from(send(entity))
+                  .transform(sent -> sentSoFar && sent, lightweightExecutor),
+              lightweightExecutor);
+    }
+    return allSent;
+  }
+
+  /**
+   * Sends the given request and applies its result.
+   *
+   * @return true if the request is done with, having been sent or failed for good, or false if
+   * it's to be tried again later
+   */
+  private ListenableFuture<Boolean> send(UploadOutboxEntity entity) {
+    JsonRequestBody body = JsonRequestBody.of(entity.getBody());
+    FluentFuture<?> sent;
+    switch (entity.getKind()) {
+      case PUBLISH:
+        sent = FluentFuture.from(uploader.submitToServer(body, /* isCoverTraffic= */ false))
+            .transformAsync(
+                response -> {
+                  onPublished(entity, response);
+                  return Futures.immediateVoidFuture();
+                },
+                backgroundExecutor);
+        break;
+      case USER_REPORT:
+        sent = FluentFuture.from(attestor.requestCode(body, /* isCoverTraffic= */ false))
+            .transformAsync(
+                response -> recordCodeRequest(
+                    entity, DiagnosisAttestor.expiresAtTimestampSecOf(response)),
+                backgroundExecutor);
+        break;
+      default:
+        throw new IllegalStateException("Unknown outbox request kind: " + entity.getKind());
+    }
+    return sent
+        .transform(
+            unused -> {
+              outboxRepository.remove(entity.getId());
+              return true;
+            },
+            backgroundExecutor)
+        .catchingAsync(Exception.class, e -> onFailed(entity, e), backgroundExecutor);
+  }
+
+  @WorkerThread
+  private void onPublished(UploadOutboxEntity entity, JSONObject response) throws Exception {
+    String revisionToken = DiagnosisKeyUploader.revisionTokenOf(response);
+    logger.i("Published keys held in the outbox.");
+    mutateDiagnosisIfPresent(
+        entity,
+        diagnosis -> diagnosis.toBuilder()
+            .setRevisionToken(revisionToken)
+            .setSharedStatus(Shared.SHARED)
+            .build());
+    // Store in the preferences that keys have been successfully uploaded and the associated report
+    // type, as we would had they been uploaded right away.
+    exposureNotificationSharedPreferences.setPrivateAnalyticsLastSubmittedKeysTime(clock.now());
+    exposureNotificationSharedPreferences.setPrivateAnalyticsLastReportType(
+        testResultOf(entity.getTestType()));
+  }
+
+  private ListenableFuture<Long> recordCodeRequest(
+      UploadOutboxEntity entity, long expiresAtTimestampSec) {
+    VerificationCodeRequestEntity.Builder builder = VerificationCodeRequestEntity.newBuilder()
+        .setRequestTime(clock.now())
+        .setNonce(entity.getNonce());
+    if (expiresAtTimestampSec > 0) {
+      builder.setExpiresAtTime(Instant.ofEpochSecond(expiresAtTimestampSec));
+    }
+    return requestRepository.upsertAsync(builder.build());
+  }
+
+  private ListenableFuture<Boolean> onFailed(UploadOutboxEntity entity, Exception e)
+      throws Exception {
+    if (isTransient(e)) {
+      logger.w("Failed to send " + entity.getKind() + " request from the outbox, will retry.", e);
+      outboxRepository.markAttempted(entity.getId());
+      return Futures.immediateFuture(false);
+    }
+    logger.e("Failed to send " + entity.getKind() + " request from the outbox, giving up.", e);
+    if (Kind.PUBLISH.equals(entity.getKind())) {
+      dropPublish(entity);
+      return Futures.immediateFuture(true);
+    }
+    // The verification server still counts a failed request against the user's limits, so we do
+    // too, as we would have had it been sent right away.
+    return FluentFuture.from(recordCodeRequest(entity, /* expiresAtTimestampSec= */ 0))
+        .transform(
+            unused -> {
+              outboxRepository.remove(entity.getId());
+              return true;
+            },
+            backgroundExecutor);
+  }
+
+  /**
+   * Gives up on publishing the given request's keys: marks its diagnosis not shared, removes it
+   * from the outbox and, since the user last saw the keys as on their way, tells them.
+   */
+  @WorkerThread
+  private void dropPublish(UploadOutboxEntity entity) throws Exception {
+    mutateDiagnosisIfPresent(
+        entity, diagnosis -> diagnosis.toBuilder().setSharedStatus(Shared.NOT_SHARED).build());
+    outboxRepository.remove(entity.getId());
+    notificationHelper.showShareFailedNotification(
+        context, R.string.not_shared_confirm_title, R.string.not_shared_confirm_detail);
+  }
+
+  /**
+   * Applies the given mutation to the request's diagnosis, unless the user has since deleted it.
+   */
+  @WorkerThread
+  private void mutateDiagnosisIfPresent(
+      UploadOutboxEntity entity, Function<DiagnosisEntity, DiagnosisEntity> mutator)
+      throws Exception {
+    if (diagnosisRepository.getByIdAsync(entity.getDiagnosisId()).get() != null) {
+      diagnosisRepository.createOrMutateById(entity.getDiagnosisId(), mutator);
+    }
+  }
+
+  /**
+   * Whether the given failure might not happen if we try again later: the server was unavailable,
+   * asked us to slow down, or couldn't be reached at all.
+   */
+  private static boolean isTransient(Exception e) {
+    if (e instanceof KeysSubmitServerFailureException
+        || e instanceof VerificationServerFailureException) {
+      return true;
+    }
+    if (!(e instanceof UploadException)) {
+      return false;
+    }
+    UploadError error = ((UploadException) e).getUploadError();
+    if (UploadError.RATE_LIMITED.equals(error) || UploadError.SERVER_ERROR.equals(error)) {
+      return true;
+    }
+    return e.getCause() instanceof VolleyError
+        && ((VolleyError) e.getCause()).networkResponse == null;
+  }
+
+  /**
+   * Returns when the given publish request stops being worth sending: when its certificate
+   * expires, or {@link UploadOutboxRepository#OUTBOX_TTL} after it was stored if that's sooner or
+   * the certificate's expiry can't be read.
+   */
+  private static Instant publishDeadlineOf(UploadOutboxEntity entity) {
+    Instant deadline = entity.getEnqueuedTime().plus(UploadOutboxRepository.OUTBOX_TTL);
+    Instant certificateExpiry = certificateExpiryOf(entity.getBody());
+    return certificateExpiry != null && certificateExpiry.isBefore(deadline)
+        ? certificateExpiry : deadline;
+  }
+
+  /**
+   * Reads the expiry of the verification certificate in the given publish request body. The
+   * certificate is a JWT, so its claims are the second of its dot-separated, base64url parts.
+   */
+  @Nullable
+  private static Instant certificateExpiryOf(String body) {
+    try {
+      String[] parts = new JSONObject(body).getString(UploadV1.VERIFICATION_CERT).split("\\.");
+      if (parts.length != 3) {
+        return null;
+      }
+      JSONObject claims = new JSONObject(new String(
+          BaseEncoding.base64Url().omitPadding().decode(parts[1]), StandardCharsets.UTF_8));
+      return claims.has(CERTIFICATE_EXPIRY_CLAIM)
+          ? Instant.ofEpochSecond(claims.getLong(CERTIFICATE_EXPIRY_CLAIM)) : null;
+    } catch (JSONException | IllegalArgumentException e) {
+      logger.w("Couldn't read the expiry of a stored verification certificate.", e);
+      return null;
+    }
+  }
+
+  @Nullable
+  private static TestResult testResultOf(@Nullable String testType) {
+    try {
+      return TestResult.of(testType);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      return null;
+    }
+  }
+
+  /**
+   * An {@link Exception} signifying that a request couldn't be sent for lack of connectivity, so
+   * has been stored in the outbox to be sent later.
+   */
+  public static class QueuedForLaterException extends Exception {}
+}
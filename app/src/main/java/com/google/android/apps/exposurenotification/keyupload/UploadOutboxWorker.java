@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keyupload;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.hilt.work.HiltWorker;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.Operation;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import dagger.assisted.Assisted;
+import dagger.assisted.AssistedInject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the requests held in the {@link UploadOutbox} as soon as there's connectivity, retrying
+ * with backoff for as long as some of them fail in ways that might not happen next time.
+ */
+@HiltWorker
+public class UploadOutboxWorker extends ListenableWorker {
+
+  private static final Logger logger = Logger.getLogger("UploadOutboxWorker");
+
+  @VisibleForTesting
+  static final String WORKER_NAME = "UploadOutboxWorker";
+  private static final long BACKOFF_DELAY_SECONDS = 30;
+
+  private final UploadOutbox outbox;
+  private final ExecutorService lightweightExecutor;
+  private final WorkerTelemetry workerTelemetry;
+
+  @AssistedInject
+  public UploadOutboxWorker(
+      @Assisted @NonNull Context context,
+      @Assisted @NonNull WorkerParameters workerParams,
+      UploadOutbox outbox,
+      @LightweightExecutor ExecutorService lightweightExecutor,
+      WorkerTelemetry workerTelemetry) {
+    super(context, workerParams);
+    this.outbox = outbox;
+    this.lightweightExecutor = lightweightExecutor;
+    this.workerTelemetry = workerTelemetry;
+  }
+
+  @NonNull
+  @Override
+  public ListenableFuture<Result> startWork() {
+    logger.d("Draining the upload outbox...");
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_UPLOAD_OUTBOX);
+    return run.finish(FluentFuture.from(run.time(Stage.STAGE_SUBMIT, outbox.drain()))
+        .transform(drained -> drained ? Result.success() : Result.retry(), lightweightExecutor)
+        .catching(Exception.class, e -> {
+          logger.e("Failed to drain the upload outbox.", e);
+          return Result.retry();
+        }, lightweightExecutor));
+  }
+
+  /**
+   * Schedules a drain of the outbox for as soon as there's connectivity. A drain already running
+   * is left to finish, with another to follow it, so it can't miss a request enqueued meanwhile.
+   */
+  static Operation schedule(WorkManager workManager) {
+    return workManager.enqueueUniqueWork(
+        WORKER_NAME,
+        ExistingWorkPolicy.APPEND_OR_REPLACE,
+        new OneTimeWorkRequest.Builder(UploadOutboxWorker.class)
+            .setConstraints(
+                new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+            .setBackoffCriteria(
+                BackoffPolicy.EXPONENTIAL, BACKOFF_DELAY_SECONDS, TimeUnit.SECONDS)
+            .build());
+  }
+}
@@ -57,12 +57,29 @@ public interface AnalyticsLogger {
   /** Logs successful RPC call */
   void logRpcCallSuccess(RpcCallType rpcCallType, int payloadSize);
 
+  /** Logs successful RPC call whose payload came over the wire compressed to the given size */
+  void logRpcCallSuccess(RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize);
+
   /** Logs failed RPC call with server error code */
   void logRpcCallFailure(RpcCallType rpcCallType, Throwable error);
 
   /** Asynchronously logs successful RPC call */
   ListenableFuture<?> logRpcCallSuccessAsync(RpcCallType rpcCallType, int payloadSize);
 
+  /**
+   * Asynchronously logs successful RPC call whose payload came over the wire compressed to the
+   * given size
+   */
+  ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize);
+
+  /**
+   * Asynchronously logs successful RPC call that uploaded a payload of the given size, and whose
+   * response came over the wire compressed to the given size
+   */
+  ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int responseSize, int compressedResponseSize);
+
   /** Asynchronously logs failed RPC call with server error code */
   ListenableFuture<?> logRpcCallFailureAsync(RpcCallType rpcCallType, Throwable error);
 
@@ -35,11 +35,13 @@ import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.PackageConfigurationHelper;
+import com.google.android.apps.exposurenotification.network.NetworkMetrics;
 import com.google.android.apps.exposurenotification.network.VolleyUtils;
 import com.google.android.apps.exposurenotification.proto.ApiCall;
 import com.google.android.apps.exposurenotification.proto.ApiCall.ApiCallType;
 import com.google.android.apps.exposurenotification.proto.EnxLogExtension;
 import com.google.android.apps.exposurenotification.proto.RpcCall;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallResult;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.android.apps.exposurenotification.proto.UiInteraction;
@@ -50,11 +52,15 @@ import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Worker
 import com.google.android.apps.exposurenotification.storage.AnalyticsLoggingEntity;
 import com.google.android.apps.exposurenotification.storage.AnalyticsLoggingRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.android.apps.exposurenotification.storage.WorkerRunRepository;
 import com.google.android.apps.exposurenotification.storage.WorkerStatusRepository;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.datatransport.Event;
 import com.google.android.datatransport.Transport;
 import com.google.android.gms.common.api.ApiException;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
@@ -63,7 +69,9 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.InvalidProtocolBufferException;
 import dagger.Lazy;
 import dagger.hilt.android.qualifiers.ApplicationContext;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 import javax.inject.Inject;
@@ -97,6 +105,14 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
   private final ListeningExecutorService backgroundExecutor;
   private final ScheduledExecutorService scheduledExecutor;
   private final WorkerStatusRepository workerStatusRepository;
+  private final WorkerRunRepository workerRunRepository;
+  private final NetworkMetrics networkMetrics;
+  // When each task last started, so that only its first start in this process has to look it up.
+  // All guarded by "this".
+  private final Map<WorkerTask, Instant> lastStartTimes = new EnumMap<>(WorkerTask.class);
+  // Start times yet to be stored for the next process, and whether they're being stored already.
+  private final Map<WorkerTask, Instant> unsavedStartTimes = new EnumMap<>(WorkerTask.class);
+  private boolean isSavingStartTimes = false;
 
   @Inject
   @SuppressWarnings("RestrictedApi")
@@ -108,6 +124,8 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
       AnalyticsLoggingRepository repository,
       Clock clock,
       WorkerStatusRepository workerStatusRepository,
+      WorkerRunRepository workerRunRepository,
+      NetworkMetrics networkMetrics,
       @BackgroundExecutor ListeningExecutorService backgroundExecutor,
       @ScheduledExecutor ScheduledExecutorService scheduledExecutor) {
     healthAuthorityCode = context.getResources().getString(R.string.enx_regionIdentifier);
@@ -119,6 +137,8 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
     this.backgroundExecutor = backgroundExecutor;
     this.scheduledExecutor = scheduledExecutor;
     this.workerStatusRepository = workerStatusRepository;
+    this.workerRunRepository = workerRunRepository;
+    this.networkMetrics = networkMetrics;
     logger.i("Using firelog analytics logger.");
 
     if (BuildUtils.getType() == Type.V2) {
@@ -195,18 +215,57 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
   }
 
   private int getHoursSinceLastRunAndUpdateLastRunTimestamp(WorkerTask workerTask) {
-    Optional<Instant> lastRunTimestamp =
-        workerStatusRepository.getLastRunTimestamp(workerTask, Status.STATUS_STARTED.toString());
+    Instant now = clock.now();
+    Instant previousStartTime;
+    synchronized (this) {
+      previousStartTime = lastStartTimes.put(workerTask, now);
+    }
+    // Only the task's first start in this process reads the database, and never under the lock.
+    Optional<Instant> lastRunTimestamp = previousStartTime != null
+        ? Optional.of(previousStartTime)
+        : workerStatusRepository.getLastRunTimestamp(workerTask, Status.STATUS_STARTED.toString());
+    boolean shouldSave;
+    synchronized (this) {
+      unsavedStartTimes.put(workerTask, now);
+      shouldSave = !isSavingStartTimes;
+      isSavingStartTimes = true;
+    }
+    if (shouldSave) {
+      // Stored off the caller's thread, along with those of any other tasks starting meanwhile.
+      backgroundExecutor.execute(this::saveStartTimes);
+    }
     int hoursSinceLastRun = 0;
     if (lastRunTimestamp.isPresent()) {
       // Add 30 minutes to ensure we round to the nearest hour correctly.
       Duration durationSinceLastRun =
-          Duration.between(lastRunTimestamp.get(), clock.now()).plusMinutes(30);
+          Duration.between(lastRunTimestamp.get(), now).plusMinutes(30);
       hoursSinceLastRun = (int) durationSinceLastRun.toHours();
     }
-    // Update last run timestamp in the db, to current time
-    workerStatusRepository.upsert(workerTask, Status.STATUS_STARTED.toString(), clock.now());
-    return  hoursSinceLastRun;
+    return hoursSinceLastRun;
+  }
+
+  /**
+   * Stores the start times not yet stored, for the next process to pick up, until there are none
+   * left. Only one call runs at a time, so an earlier start time never overwrites a later one.
+   */
+  @WorkerThread
+  private void saveStartTimes() {
+    while (true) {
+      Map<WorkerTask, Instant> startTimes;
+      synchronized (this) {
+        if (unsavedStartTimes.isEmpty()) {
+          isSavingStartTimes = false;
+          return;
+        }
+        startTimes = new EnumMap<>(unsavedStartTimes);
+        unsavedStartTimes.clear();
+      }
+      try {
+        workerStatusRepository.upsertAll(startTimes, Status.STATUS_STARTED.toString());
+      } catch (RuntimeException e) {
+        logger.w("Failed to store worker start times", e);
+      }
+    }
   }
 
   @Override
@@ -253,6 +312,17 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
     logger.i(rpcCallType + " succeeded with payload size: " + payloadSize);
   }
 
+  @Override
+  @WorkerThread
+  public void logRpcCallSuccess(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize) {
+    EnxLogExtension logEvent =
+        getRpcSuccessLogEvent(rpcCallType, payloadSize, compressedPayloadSize);
+    logEventIfEnabled(logEvent);
+    logger.i(rpcCallType + " succeeded with payload size: " + payloadSize
+        + " (compressed: " + compressedPayloadSize + ")");
+  }
+
   @Override
   @WorkerThread
   public void logRpcCallFailure(RpcCallType rpcCallType, Throwable error) {
@@ -268,6 +338,32 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
     return backgroundExecutor.submit(() -> logEventIfEnabled(logEvent));
   }
 
+  @Override
+  @AnyThread
+  public ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize) {
+    EnxLogExtension logEvent =
+        getRpcSuccessLogEvent(rpcCallType, payloadSize, compressedPayloadSize);
+    logger.i(rpcCallType + " succeeded with payload size: " + payloadSize
+        + " (compressed: " + compressedPayloadSize + ")");
+    return backgroundExecutor.submit(() -> logEventIfEnabled(logEvent));
+  }
+
+  @Override
+  @AnyThread
+  public ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int responseSize, int compressedResponseSize) {
+    EnxLogExtension logEvent = EnxLogExtension.newBuilder().addRpcCall(
+        RpcCall.newBuilder().setRpcCallType(rpcCallType).setPayloadSize(payloadSize)
+            .setResponseSize(responseSize)
+            .setCompressedResponseSize(compressedResponseSize)
+            .setRpcCallResult(RpcCallResult.RESULT_SUCCESS).build())
+        .build();
+    logger.i(rpcCallType + " succeeded with payload size: " + payloadSize
+        + ", response size: " + responseSize + " (compressed: " + compressedResponseSize + ")");
+    return backgroundExecutor.submit(() -> logEventIfEnabled(logEvent));
+  }
+
   @Override
   @AnyThread
   public ListenableFuture<?> logRpcCallFailureAsync(RpcCallType rpcCallType, Throwable error) {
@@ -367,6 +463,25 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
       }
     }
 
+    List<WorkerRunEntity> workerRuns = ImmutableList.of();
+    // Network metrics are only kept in memory, and cover everything since they were last sent, so
+    // they only go along when we're sending everything. They're forgotten once the batch has gone,
+    // so that a failed send doesn't lose them.
+    final NetworkMetrics.Snapshot networkMetricsSent =
+        lastEntryToSend == null ? networkMetrics.snapshot() : null;
+    if (lastEntryToSend == null) {
+      for (EndpointSummary summary : networkMetricsSent.getSummaries()) {
+        enxLogExtensionBuilder.addRpcCall(getEndpointSummaryRpcCall(summary));
+      }
+      // Likewise the summaries of the worker runs since the last batch.
+      workerRuns = workerRunRepository.getAfter(preferences.getWorkerRunsLastSummarizedId());
+      for (WorkManagerTask summary : WorkerTelemetry.summarize(workerRuns)) {
+        enxLogExtensionBuilder.addWorkManagerTask(summary);
+      }
+    }
+    final long lastSummarizedWorkerRunId =
+        workerRuns.isEmpty() ? 0 : workerRuns.get(workerRuns.size() - 1).getId();
+
     EnxLogExtension logEvent = enxLogExtensionBuilder
         .setBuildId(BuildConfig.VERSION_CODE)
         .setHoursSinceLastBatch(hoursSinceLastTimestamp)
@@ -418,6 +533,12 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
           } else {
             repository.eraseEventsBatch();
           }
+          if (lastSummarizedWorkerRunId > 0) {
+            preferences.setWorkerRunsLastSummarizedId(lastSummarizedWorkerRunId);
+          }
+          if (networkMetricsSent != null) {
+            networkMetrics.forget(networkMetricsSent);
+          }
           logger.i("Analytics log batch sent to Firelog.");
           return null;
         }, backgroundExecutor)
@@ -478,6 +599,42 @@ public class FirelogAnalyticsLogger implements AnalyticsLogger {
         .build();
   }
 
+  private EnxLogExtension getRpcSuccessLogEvent(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize) {
+    return EnxLogExtension.newBuilder().addRpcCall(
+        RpcCall.newBuilder().setRpcCallType(rpcCallType).setPayloadSize(payloadSize)
+            .setCompressedPayloadSize(compressedPayloadSize)
+            .setRpcCallResult(RpcCallResult.RESULT_SUCCESS).build())
+        .build();
+  }
+
+  private static RpcCall getEndpointSummaryRpcCall(EndpointSummary summary) {
+    RpcCallType rpcCallType;
+    switch (summary.getEndpoint()) {
+      case ENDPOINT_INDEX:
+      case ENDPOINT_KEYFILE:
+        rpcCallType = RpcCallType.RPC_TYPE_KEYS_DOWNLOAD;
+        break;
+      case ENDPOINT_PUBLISH:
+        rpcCallType = RpcCallType.RPC_TYPE_KEYS_UPLOAD;
+        break;
+      case ENDPOINT_VERIFY:
+      case ENDPOINT_CERT:
+      case ENDPOINT_USER_REPORT:
+        rpcCallType = RpcCallType.RPC_TYPE_VERIFICATION;
+        break;
+      case ENDPOINT_REMOTE_CONFIG:
+        rpcCallType = RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH;
+        break;
+      default:
+        rpcCallType = RpcCallType.RPC_TYPE_UNKNOWN;
+    }
+    return RpcCall.newBuilder()
+        .setRpcCallType(rpcCallType)
+        .setEndpointSummary(summary)
+        .build();
+  }
+
   private EnxLogExtension getRpcFailureLogEvent(RpcCallType rpcCallType, Throwable error) {
     RpcCallResult rpcCallResult = VolleyUtils.getLoggableResult(error);
     int httpStatus = VolleyUtils.getHttpStatus(error);
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.logging;
+
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.logging.AnalyticsLogger.NotEnabledException;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.work.MaintenanceStage;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+
+/**
+ * Uploads the batch of analytical logs collected since the last upload through firelog.
+ */
+public class FirelogAnalyticsStage implements MaintenanceStage {
+
+  public static final String NAME = "FirelogAnalytics";
+  private static final Duration INTERVAL = Duration.ofHours(4).plusMinutes(30);
+  private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+  private final AnalyticsLogger logger;
+  private final ExecutorService backgroundExecutor;
+
+  @Inject
+  public FirelogAnalyticsStage(
+      AnalyticsLogger logger,
+      @BackgroundExecutor ExecutorService backgroundExecutor) {
+    this.logger = logger;
+    this.backgroundExecutor = backgroundExecutor;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public Duration getInterval() {
+    return INTERVAL;
+  }
+
+  @Override
+  public Duration getTimeout() {
+    return TIMEOUT;
+  }
+
+  @Override
+  public boolean isSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean needsNetwork() {
+    return true;
+  }
+
+  @Override
+  public boolean isRetriedOnFailure() {
+    return true;
+  }
+
+  @Override
+  public ListenableFuture<?> run(boolean isEnabled) {
+    return FluentFuture.from(logger.sendLoggingBatchIfConsented(isEnabled))
+        .transform(unused -> {
+          logger.logWorkManagerTaskSuccess(WorkerTask.TASK_FIRELOG_ANALYTICS);
+          return null;
+        }, backgroundExecutor)
+        .catching(
+            NotEnabledException.class,
+            x -> {
+              // Not enabled, so there's nothing to upload until it is.
+              logger.logWorkManagerTaskAbandoned(WorkerTask.TASK_FIRELOG_ANALYTICS);
+              return null;
+            },
+            backgroundExecutor)
+        .catchingAsync(
+            Exception.class,
+            x -> {
+              logger.logWorkManagerTaskFailure(WorkerTask.TASK_FIRELOG_ANALYTICS, x);
+              return Futures.immediateFailedFuture(x);
+            },
+            backgroundExecutor);
+  }
+}
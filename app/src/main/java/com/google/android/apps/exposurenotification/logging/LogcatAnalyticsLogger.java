@@ -110,6 +110,14 @@ public class LogcatAnalyticsLogger implements AnalyticsLogger {
     logger.i(rpcCallType + " succeeded with payload size: " + payloadSize);
   }
 
+  @Override
+  @AnyThread
+  public void logRpcCallSuccess(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize) {
+    logger.i(rpcCallType + " succeeded with payload size: " + payloadSize
+        + " (compressed: " + compressedPayloadSize + ")");
+  }
+
   @Override
   @AnyThread
   public void logRpcCallFailure(RpcCallType rpcCallType, Throwable error) {
@@ -131,6 +139,23 @@ public class LogcatAnalyticsLogger implements AnalyticsLogger {
     return Futures.immediateVoidFuture();
   }
 
+  @Override
+  @AnyThread
+  public ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int compressedPayloadSize) {
+    logRpcCallSuccess(rpcCallType, payloadSize, compressedPayloadSize);
+    return Futures.immediateVoidFuture();
+  }
+
+  @Override
+  @AnyThread
+  public ListenableFuture<?> logRpcCallSuccessAsync(
+      RpcCallType rpcCallType, int payloadSize, int responseSize, int compressedResponseSize) {
+    logger.i(rpcCallType + " succeeded with payload size: " + payloadSize
+        + ", response size: " + responseSize + " (compressed: " + compressedResponseSize + ")");
+    return Futures.immediateVoidFuture();
+  }
+
   @Override
   @AnyThread
   public ListenableFuture<?> logRpcCallFailureAsync(RpcCallType rpcCallType, Throwable error) {
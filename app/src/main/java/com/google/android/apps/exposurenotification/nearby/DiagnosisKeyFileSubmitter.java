@@ -17,7 +17,8 @@
 
 package com.google.android.apps.exposurenotification.nearby;
 
-import androidx.annotation.Nullable;
+import android.net.Uri;
+import androidx.annotation.VisibleForTesting;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
 import com.google.android.apps.exposurenotification.common.TaskToFutureAdapter;
@@ -25,6 +26,7 @@ import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.keydownload.KeyFile;
 import com.google.android.apps.exposurenotification.keydownload.KeyFileConstants;
+import com.google.android.apps.exposurenotification.keydownload.LiveDownloadDirs;
 import com.google.android.apps.exposurenotification.proto.TEKSignatureList;
 import com.google.android.apps.exposurenotification.proto.TemporaryExposureKey;
 import com.google.android.apps.exposurenotification.proto.TemporaryExposureKeyExport;
@@ -33,16 +35,23 @@ import com.google.android.apps.exposurenotification.storage.DownloadServerReposi
 import com.google.android.apps.exposurenotification.storage.ExposureCheckEntity;
 import com.google.android.apps.exposurenotification.storage.ExposureCheckRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileEntity;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileRepository;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
-import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.zip.ZipEntry;
@@ -50,6 +59,7 @@ import java.util.zip.ZipFile;
 import javax.inject.Inject;
 import org.apache.commons.io.IOUtils;
 import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
 
 /**
  * A thin class to take responsibility for submitting downloaded Diagnosis Key files to the Google
@@ -61,30 +71,45 @@ public class DiagnosisKeyFileSubmitter {
   // Use a very very long timeout, in case of a stress-test that supplies a very large number of
   // diagnosis key files.
   private static final Duration PROVIDE_KEYS_TIMEOUT = Duration.ofMinutes(60);
+  // The API returns call-quota exceeded errors for more calls than this in a day.
+  @VisibleForTesting static final int PROVIDE_CALL_BUDGET = 6;
+  @VisibleForTesting static final Duration PROVIDE_CALL_BUDGET_WINDOW = Duration.ofDays(1);
+  // Enough for a typical run to fit in one chunk, but keeps a backlog from being all-or-nothing.
+  private static final int MAX_CHUNK_FILES = 200;
+  private static final long MAX_CHUNK_BYTES = 50L * 1024 * 1024;
   private static final BaseEncoding BASE16 = BaseEncoding.base16().lowerCase();
   private static final BaseEncoding BASE64 = BaseEncoding.base64();
 
   private final ExposureNotificationClientWrapper exposureNotificationClientWrapper;
   private final DownloadServerRepository downloadServerRepo;
   private final ExposureCheckRepository exposureCheckRepo;
+  private final ProvidedKeyFileRepository providedKeyFileRepo;
   private final ExposureNotificationSharedPreferences preferences;
+  private final LiveDownloadDirs liveDownloadDirs;
   private final ExecutorService backgroundExecutor;
   private final ScheduledExecutorService scheduledExecutor;
   private final Clock clock;
 
+  @VisibleForTesting int maxChunkFiles = MAX_CHUNK_FILES;
+  @VisibleForTesting long maxChunkBytes = MAX_CHUNK_BYTES;
+
   @Inject
   DiagnosisKeyFileSubmitter(
       ExposureNotificationClientWrapper exposureNotificationClientWrapper,
       DownloadServerRepository downloadServerRepo,
       ExposureCheckRepository exposureCheckRepo,
+      ProvidedKeyFileRepository providedKeyFileRepo,
       ExposureNotificationSharedPreferences preferences,
+      LiveDownloadDirs liveDownloadDirs,
       Clock clock,
       @BackgroundExecutor ExecutorService backgroundExecutor,
       @ScheduledExecutor ScheduledExecutorService scheduledExecutor) {
     this.exposureNotificationClientWrapper = exposureNotificationClientWrapper;
     this.downloadServerRepo = downloadServerRepo;
     this.exposureCheckRepo = exposureCheckRepo;
+    this.providedKeyFileRepo = providedKeyFileRepo;
     this.preferences = preferences;
+    this.liveDownloadDirs = liveDownloadDirs;
     this.clock = clock;
     this.backgroundExecutor = backgroundExecutor;
     this.scheduledExecutor = scheduledExecutor;
@@ -94,18 +119,35 @@ public class DiagnosisKeyFileSubmitter {
    * Accepts key files, and submits them to provideDiagnosisKeys(), and returns a future
    * representing the completion of that task.
    *
-   * <p>This naive implementation is not robust to individual failures. In fact, a single failure
-   * will fail the entire operation. A more robust implementation would support retries, partial
-   * completion, and other robustness measures.
+   * <p>Files are provided in chunks bounded in number and total size, so that a large backlog
+   * isn't one all-or-nothing call. After each chunk is provided, each server's last successful
+   * download moves on to its last file in that chunk, so if a later chunk fails, or the process
+   * dies, the next run resumes from there. Calls to the API are limited to {@link
+   * #PROVIDE_CALL_BUDGET} per {@link #PROVIDE_CALL_BUDGET_WINDOW}, and the regular runs, every
+   * {@code runInterval}, need one each. So a run only gets the calls that the regular runs still to
+   * come in the window can spare, and if it has more chunks than that, they're merged to fit:
+   * chunks only bound how much progress a failure costs, so bigger ones beat leaving files behind.
+   * Only if the budget is spent altogether are files left for a later run.
+   *
+   * <p>Files whose content we've already provided, whether from the same server or another one,
+   * aren't provided again; they still count as successful, so their servers' last successful
+   * downloads move on past them.
+   *
+   * <p>Once done, whether or not it succeeded, releases the files' download directories in
+   * {@link LiveDownloadDirs}.
    *
    * <p>Returns early if given an empty list of batches.
    */
-  public ListenableFuture<?> submitFiles(ImmutableList<KeyFile> keyFiles) {
+  public ListenableFuture<?> submitFiles(ImmutableList<KeyFile> keyFiles, Duration runInterval) {
     if (keyFiles.isEmpty()) {
       logger.d("No files to provide to google play services.");
       return Futures.immediateFuture(null);
     }
-    logger.d("Providing  " + keyFiles.size() + " diagnosis key files to google play services.");
+    int calls = callsForThisRun(runInterval);
+    ImmutableList<ImmutableList<KeyFile>> chunks = atMost(
+        chunk(keyFiles, maxChunkFiles, maxChunkBytes), Math.max(1, calls));
+    logger.d("Providing " + keyFiles.size() + " diagnosis key files to google play services in "
+        + chunks.size() + " chunks.");
 
     // Log submitted keys only in debug and when debug settings are looking for a certain key.
     if (!preferences.getProvidedDiagnosisKeyHexToLog().isEmpty()) {
@@ -114,39 +156,225 @@ public class DiagnosisKeyFileSubmitter {
       logKeys(keyFiles, preferences.getProvidedDiagnosisKeyHexToLog());
     }
 
-    ListenableFuture<Void> allDone =
+    // Only servers with a most recent file are tracked; others (e.g. faked files) never are.
+    Set<Uri> trackedServers = new HashSet<>();
+    for (KeyFile f : keyFiles) {
+      if (f.isMostRecent()) {
+        trackedServers.add(f.index());
+      }
+    }
+    ListenableFuture<Void> submitted = submitChunks(chunks, 0, trackedServers);
+    submitted.addListener(
+        () -> liveDownloadDirs.releaseDirsOf(keyFiles), MoreExecutors.directExecutor());
+    return submitted;
+  }
+
+  /**
+   * Like {@link #submitFiles(ImmutableList, Duration)}, for when runs are as frequent as they may
+   * be.
+   */
+  public ListenableFuture<?> submitFiles(ImmutableList<KeyFile> keyFiles) {
+    return submitFiles(keyFiles, ProvideDiagnosisKeysWorker.MINIMAL_TEK_PUBLISH_INTERVAL);
+  }
+
+  /**
+   * Provides the chunks from {@code next} onwards one after the other, stopping at the first
+   * failure or once the call budget is spent.
+   */
+  private ListenableFuture<Void> submitChunks(
+      ImmutableList<ImmutableList<KeyFile>> chunks, int next, Set<Uri> trackedServers) {
+    if (next == chunks.size()) {
+      // Finally, capture time of the exposure check.
+      exposureCheckRepo.insertExposureCheck(ExposureCheckEntity.create(clock.now()));
+      return Futures.immediateVoidFuture();
+    }
+    ImmutableList<KeyFile> chunk = chunks.get(next);
+    ImmutableList<KeyFile> filesToProvide = withoutAlreadyProvided(chunk);
+    if (filesToProvide.isEmpty()) {
+      logger.d("All " + chunk.size() + " diagnosis key files in chunk " + (next + 1)
+          + " were already provided.");
+      onChunkProvided(chunk, trackedServers);
+      return submitChunks(chunks, next + 1, trackedServers);
+    }
+    if (!tryTakeProvideCall()) {
+      int filesLeft = 0;
+      for (ImmutableList<KeyFile> left : chunks.subList(next, chunks.size())) {
+        filesLeft += left.size();
+      }
+      logger.w("Out of provideDiagnosisKeys calls until " + nextFreeProvideCallTime()
+          + ", leaving " + filesLeft + " files in " + (chunks.size() - next)
+          + " chunks for a later run.");
+      deleteFilesFrom(chunks, next);
+      if (next > 0) {
+        exposureCheckRepo.insertExposureCheck(ExposureCheckEntity.create(clock.now()));
+      }
+      return Futures.immediateVoidFuture();
+    }
+
+    logger.d("Providing chunk " + (next + 1) + " of " + chunks.size() + ": "
+        + filesToProvide.size() + " diagnosis key files.");
+    return FluentFuture.from(
         TaskToFutureAdapter.getFutureWithTimeout(
-            exposureNotificationClientWrapper.provideDiagnosisKeys(filesFrom(keyFiles)),
+            exposureNotificationClientWrapper.provideDiagnosisKeys(filesFrom(filesToProvide)),
             PROVIDE_KEYS_TIMEOUT,
-            scheduledExecutor);
-
-    Futures.addCallback(allDone, new FutureCallback<Void>() {
-      @Override
-      public void onSuccess(@Nullable Void result) {
-        for (KeyFile f : keyFiles) {
-          if (f.isMostRecent()) {
-            // On success, remember the last successful file for each server.
-            logger.d(String.format(
-                "Mark last successful download [%s] for server [%s]", f.uri(), f.index()));
-            downloadServerRepo.upsert(DownloadServerEntity.create(f.index(), f.uri()));
-          }
-          // and delete all files locally...
-          f.file().delete();
-        }
-        // and, finally, capture time of the exposure check.
-        exposureCheckRepo.insertExposureCheck(ExposureCheckEntity.create(clock.now()));
+            scheduledExecutor))
+        .transformAsync(unused -> {
+          onChunkProvided(chunk, trackedServers);
+          return submitChunks(chunks, next + 1, trackedServers);
+        }, backgroundExecutor)
+        .catchingAsync(Exception.class, e -> {
+          // After failures, only delete the local files; the chunks that were provided are already
+          // checkpointed.
+          deleteFilesFrom(chunks, next);
+          return Futures.immediateFailedFuture(e);
+        }, backgroundExecutor);
+  }
+
+  /**
+   * Splits the given files, in order, into chunks of at most {@code maxFiles} files and {@code
+   * maxBytes} bytes, except that a file bigger than that on its own gets a chunk of its own.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableList<KeyFile>> chunk(
+      ImmutableList<KeyFile> keyFiles, int maxFiles, long maxBytes) {
+    ImmutableList.Builder<ImmutableList<KeyFile>> chunks = ImmutableList.builder();
+    List<KeyFile> chunk = new ArrayList<>();
+    long chunkBytes = 0;
+    for (KeyFile f : keyFiles) {
+      long bytes = f.file() != null ? f.file().length() : 0;
+      if (!chunk.isEmpty() && (chunk.size() >= maxFiles || chunkBytes + bytes > maxBytes)) {
+        chunks.add(ImmutableList.copyOf(chunk));
+        chunk.clear();
+        chunkBytes = 0;
+      }
+      chunk.add(f);
+      chunkBytes += bytes;
+    }
+    if (!chunk.isEmpty()) {
+      chunks.add(ImmutableList.copyOf(chunk));
+    }
+    return chunks.build();
+  }
+
+  /**
+   * Merges consecutive chunks so that there are at most {@code maxChunks}, keeping them as even as
+   * we can.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableList<KeyFile>> atMost(
+      ImmutableList<ImmutableList<KeyFile>> chunks, int maxChunks) {
+    if (chunks.size() <= maxChunks) {
+      return chunks;
+    }
+    List<ImmutableList.Builder<KeyFile>> merged = new ArrayList<>();
+    for (int i = 0; i < maxChunks; i++) {
+      merged.add(ImmutableList.builder());
+    }
+    for (int i = 0; i < chunks.size(); i++) {
+      merged.get(i * maxChunks / chunks.size()).addAll(chunks.get(i));
+    }
+    ImmutableList.Builder<ImmutableList<KeyFile>> result = ImmutableList.builder();
+    for (ImmutableList.Builder<KeyFile> chunk : merged) {
+      result.add(chunk.build());
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns how many calls this run may make: what's left of the budget, less one for each regular
+   * run still to come before this run's calls drop out of the budget window.
+   */
+  private int callsForThisRun(Duration runInterval) {
+    Instant windowStart = clock.now().minus(PROVIDE_CALL_BUDGET_WINDOW);
+    int callsLeft = PROVIDE_CALL_BUDGET
+        - preferences.getProvideDiagnosisKeysCallTimesSince(windowStart).size();
+    long laterRuns =
+        (PROVIDE_CALL_BUDGET_WINDOW.toMillis() - 1) / Math.max(1, runInterval.toMillis());
+    return (int) Math.max(0, Math.min(callsLeft, PROVIDE_CALL_BUDGET - laterRuns));
+  }
+
+  private Instant nextFreeProvideCallTime() {
+    ImmutableList<Instant> callTimes = preferences.getProvideDiagnosisKeysCallTimesSince(
+        clock.now().minus(PROVIDE_CALL_BUDGET_WINDOW));
+    return callTimes.isEmpty()
+        ? clock.now() : callTimes.get(0).plus(PROVIDE_CALL_BUDGET_WINDOW);
+  }
+
+  /**
+   * Takes one call from the budget, if there's one left.
+   */
+  private boolean tryTakeProvideCall() {
+    Instant windowStart = clock.now().minus(PROVIDE_CALL_BUDGET_WINDOW);
+    if (preferences.getProvideDiagnosisKeysCallTimesSince(windowStart).size()
+        >= PROVIDE_CALL_BUDGET) {
+      return false;
+    }
+    preferences.addProvideDiagnosisKeysCallTime(clock.now(), windowStart);
+    return true;
+  }
+
+  /**
+   * Returns the given files less any whose content has already been provided, either in an earlier
+   * run or earlier in this list, deleting those we skip. Files with no content hash can't be
+   * checked, so are always provided.
+   */
+  private ImmutableList<KeyFile> withoutAlreadyProvided(ImmutableList<KeyFile> keyFiles) {
+    ImmutableList.Builder<KeyFile> toProvide = ImmutableList.builder();
+    Set<String> contentHashes = new HashSet<>();
+    for (KeyFile f : keyFiles) {
+      if (f.file() == null) {
+        // Never downloaded, because we'd already provided this very file.
+        continue;
+      }
+      String contentHash = f.contentHash();
+      boolean alreadyProvided = contentHash != null
+          && (!contentHashes.add(contentHash) || providedKeyFileRepo.isContentProvided(contentHash));
+      if (alreadyProvided) {
+        logger.d("Skipping keyfile [" + f.uri() + "], its content was already provided.");
+        f.file().delete();
+        continue;
+      }
+      toProvide.add(f);
+    }
+    return toProvide.build();
+  }
+
+  private void onChunkProvided(ImmutableList<KeyFile> chunk, Set<Uri> trackedServers) {
+    // Files are in index order, so the last we see of each server is how far it's got.
+    Map<Uri, KeyFile> lastFileForServer = new LinkedHashMap<>();
+    List<ProvidedKeyFileEntity> provided = new ArrayList<>();
+    for (KeyFile f : chunk) {
+      if (trackedServers.contains(f.index())) {
+        lastFileForServer.put(f.index(), f);
+      }
+      if (f.contentHash() != null) {
+        // Remember its content so we don't provide it again from another server...
+        provided.add(ProvidedKeyFileEntity.create(f.uri(), f.contentHash(), clock.now()));
+      }
+      // and delete all files locally.
+      if (f.file() != null) {
+        f.file().delete();
       }
+    }
+    providedKeyFileRepo.markProvided(provided);
+    for (KeyFile f : lastFileForServer.values()) {
+      // On success, remember the last successful file for each server. Only the index's last file
+      // carries the index's validators, so until we get that far they're cleared.
+      logger.d(String.format(
+          "Mark last successful download [%s] for server [%s]", f.uri(), f.index()));
+      downloadServerRepo.upsert(DownloadServerEntity.create(
+          f.index(), f.uri(), f.indexETag(), f.indexLastModified()));
+    }
+  }
 
-      @Override
-      public void onFailure(Throwable t) {
-        for (KeyFile f : keyFiles) {
-          // After failures, only delete the local files.
+  private static void deleteFilesFrom(ImmutableList<ImmutableList<KeyFile>> chunks, int first) {
+    for (ImmutableList<KeyFile> chunk : chunks.subList(first, chunks.size())) {
+      for (KeyFile f : chunk) {
+        if (f.file() != null) {
           f.file().delete();
         }
       }
-    }, backgroundExecutor);
-
-    return allDone;
+    }
   }
 
   private static List<File> filesFrom(List<KeyFile> keyFiles) {
@@ -160,6 +388,9 @@ public class DiagnosisKeyFileSubmitter {
   private void logKeys(ImmutableList<KeyFile> files, String keyHexToLog) {
     int filenum = 1;
     for (KeyFile f : files) {
+      if (f.file() == null) {
+        continue;
+      }
       try {
         FileContent fc = readFile(f.file());
         logger.d("File " + filenum + " has signature:\n" + fc.signature);
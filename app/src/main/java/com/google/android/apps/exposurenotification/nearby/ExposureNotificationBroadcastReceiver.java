@@ -28,6 +28,7 @@ import com.google.android.apps.exposurenotification.BuildConfig;
 import com.google.android.apps.exposurenotification.common.NotificationHelper;
 import com.google.android.apps.exposurenotification.restore.RestoreNotificationUtil;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
 import com.google.android.gms.nearby.exposurenotification.ExposureNotificationClient;
 import dagger.hilt.android.AndroidEntryPoint;
 import javax.inject.Inject;
@@ -48,6 +49,9 @@ public class ExposureNotificationBroadcastReceiver extends
   @Inject
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
 
+  @Inject
+  WorkerStartupManager workerStartupManager;
+
   @Override
   public void onReceive(Context context, Intent intent) {
     super.onReceive(context, intent);
@@ -71,6 +75,10 @@ public class ExposureNotificationBroadcastReceiver extends
         RestoreNotificationUtil.onENApiWakeupEvent(context,
             exposureNotificationSharedPreferences, workManager, notificationHelper);
         break;
+      case ExposureNotificationClientWrapper.ACTION_SERVICE_STATE_UPDATED:
+        // The API was turned on or off, perhaps from the system settings.
+        workerStartupManager.onEnStateChanged();
+        break;
       case ExposureNotificationClient.ACTION_PRE_AUTHORIZE_RELEASE_PHONE_UNLOCKED:
         // Keys have been released in the background
         if (intent.hasExtra(EXTRA_TEMPORARY_EXPOSURE_KEY_LIST)) {
@@ -54,6 +54,9 @@ public class ExposureNotificationClientWrapper {
   public static final String ACTION_WAKE_UP =
       "com.google.android.gms.exposurenotification.ACTION_WAKE_UP";
 
+  public static final String ACTION_SERVICE_STATE_UPDATED =
+      "com.google.android.gms.exposurenotification.ACTION_SERVICE_STATE_UPDATED";
+
   public static final String ACTION_VERIFICATION_LINK =
       "com.google.android.gms.nearby.exposurenotification.ACTION_VERIFICATION_LINK";
 
@@ -40,12 +40,16 @@ import com.google.android.apps.exposurenotification.keyupload.UploadController.N
 import com.google.android.apps.exposurenotification.keyupload.UploadController.UploadException;
 import com.google.android.apps.exposurenotification.keyupload.UploadError;
 import com.google.android.apps.exposurenotification.network.DiagnosisKey;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.Shared;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TravelStatus;
 import com.google.android.apps.exposurenotification.storage.DiagnosisRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.TemporaryExposureKey;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -79,6 +83,7 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
   private final ExecutorService lightweightExecutor;
   private final SecureRandom secureRandom;
   private final Clock clock;
+  private final WorkerTelemetry workerTelemetry;
   private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
 
   @AssistedInject
@@ -91,7 +96,8 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
       @BackgroundExecutor ExecutorService backgroundExecutor,
       @LightweightExecutor ExecutorService lightweightExecutor,
       SecureRandom secureRandom,
-      Clock clock) {
+      Clock clock,
+      WorkerTelemetry workerTelemetry) {
     super(context, workerParams);
     this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
     this.diagnosisRepository = diagnosisRepository;
@@ -100,24 +106,27 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
     this.lightweightExecutor = lightweightExecutor;
     this.secureRandom = secureRandom;
     this.clock = clock;
+    this.workerTelemetry = workerTelemetry;
   }
 
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_PRE_AUTH_TEKS_RECEIVED);
     byte[] keysBytes = getInputData().getByteArray(KEYS_BYTES);
     if (keysBytes == null || keysBytes.length == 0) {
-      return Futures.immediateFuture(Result.failure());
+      return run.finish(Futures.immediateFuture(Result.failure()));
     }
 
     Optional<List<DiagnosisKey>> optionalDiagnosisKeys =
         TemporaryExposureKeyHelper.maybeBytesToDiagnosisKeys(keysBytes);
     if (!optionalDiagnosisKeys.isPresent()) {
-      return Futures.immediateFuture(Result.failure());
+      return run.finish(Futures.immediateFuture(Result.failure()));
     }
     List<DiagnosisKey> diagnosisKeys = optionalDiagnosisKeys.get();
 
-    return FluentFuture.from(diagnosisRepository.maybeGetLastPreAuthDiagnosisAsync())
+    return run.finish(FluentFuture.from(
+        run.time(Stage.STAGE_DB, diagnosisRepository.maybeGetLastPreAuthDiagnosisAsync()))
         .transformAsync(
             // Construct an Upload from the latest available pre-auth diagnosis.
             optionalDiagnosis -> {
@@ -143,15 +152,18 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
               // We normally do not have a certificate yet, but in some cases like resuming a past
               // failed upload, we have one already. Get one if we need one.
               if (TextUtils.isEmpty(upload.certificate())) {
-                return uploadController.submitKeysForCert(upload);
+                return run.time(Stage.STAGE_SUBMIT, uploadController.submitKeysForCert(upload));
               }
               return Futures.immediateFuture(upload);
             },
             backgroundExecutor)
-        .transformAsync(this::addRevisionTokenToUpload, lightweightExecutor)
+        .transformAsync(
+            upload -> run.time(Stage.STAGE_DB, addRevisionTokenToUpload(upload)),
+            lightweightExecutor)
         .transformAsync(
             // Finally, upload the keys.
-            uploadController::upload, backgroundExecutor)
+            upload -> run.time(Stage.STAGE_SUBMIT, uploadController.upload(upload)),
+            backgroundExecutor)
         .transformAsync(
             upload -> {
               // Store in the preferences that keys have been successfully uploaded and the
@@ -166,13 +178,13 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
                 // Do nothing: testResult is already null, which is the right behavior
               }
               exposureNotificationSharedPreferences.setPrivateAnalyticsLastReportType(testResult);
-              return saveDiagnosis(
+              return run.time(Stage.STAGE_DB, saveDiagnosis(
                   diagnosis ->
                       diagnosis.toBuilder()
                           .setCertificate(upload.certificate())
                           .setRevisionToken(upload.revisionToken())
                           .setSharedStatus(Shared.SHARED)
-                          .build());
+                          .build()));
             },
             backgroundExecutor)
         .transformAsync(diagnosisId -> {
@@ -212,7 +224,7 @@ public class PreAuthTEKsReceivedWorker extends ListenableWorker {
             // As this is the background upload, there's nothing we can do in case of other
             // exceptions. So, fail silently.
             ex -> Result.failure(),
-            lightweightExecutor);
+            lightweightExecutor));
   }
 
   /**
@@ -19,25 +19,31 @@ package com.google.android.apps.exposurenotification.nearby;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.hilt.work.HiltWorker;
-import androidx.work.BackoffPolicy;
 import androidx.work.Constraints;
 import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.ListenableWorker;
 import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
 import androidx.work.Operation;
 import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
 import androidx.work.WorkerParameters;
+import com.google.android.apps.exposurenotification.R;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
 import com.google.android.apps.exposurenotification.common.TaskToFutureAdapter;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.keydownload.DiagnosisKeyDownloader;
+import com.google.android.apps.exposurenotification.keydownload.IndexChurnTracker;
 import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
 import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
 import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.DiagnosisKeysDataMapping;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
@@ -51,6 +57,13 @@ import org.threeten.bp.Duration;
 
 /**
  * Performs work to provide diagnosis keys to the exposure notifications API.
+ *
+ * <p>Each scheduled run schedules the next one, as often as the key servers have lately been
+ * publishing new files (see {@link IndexChurnTracker}), but never more often than {@link
+ * #MINIMAL_TEK_PUBLISH_INTERVAL} nor less often than {@link #MAXIMAL_TEK_PUBLISH_INTERVAL}.
+ *
+ * <p>Should a run fail to schedule the next, a daily periodic job, the safety net, starts the runs
+ * again. It does nothing while a run is scheduled.
  */
 @HiltWorker
 public class ProvideDiagnosisKeysWorker extends ListenableWorker {
@@ -58,15 +71,24 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
   /*
    * If we schedule the provide job more frequent than every 4 hours, nearby_en returns call-quota
    * exceeded errors. This variable represents the lower bound to the configuration value set by
-   * the HA.
+   * the HA, and to how often we see the key servers publish.
    */
-  private static final Duration MINIMAL_TEK_PUBLISH_INTERVAL = Duration.ofHours(4);
+  @VisibleForTesting
+  static final Duration MINIMAL_TEK_PUBLISH_INTERVAL = Duration.ofHours(4);
+  // However quiet the key servers are, still check at least daily.
+  @VisibleForTesting
+  static final Duration MAXIMAL_TEK_PUBLISH_INTERVAL = Duration.ofDays(1);
 
   private static final Logger logcat = Logger.getLogger("ProvideDiagnosisKeysWkr");
 
   private static final Duration GET_DIAGNOSIS_KEY_DATA_MAPPING_TIMEOUT = Duration.ofSeconds(10);
   private static final Duration SET_DIAGNOSIS_KEY_DATA_MAPPING_TIMEOUT = Duration.ofSeconds(10);
-  public static final String WORKER_NAME = "ProvideDiagnosisKeysWorker";
+  // The name the worker was scheduled under as a periodic job, by earlier versions of the app.
+  @VisibleForTesting
+  static final String LEGACY_PERIODIC_WORKER_NAME = "ProvideDiagnosisKeysWorker";
+  public static final String WORKER_NAME = "ProvideDiagnosisKeysWorker.NextRun";
+  @VisibleForTesting
+  static final String SAFETY_NET_WORKER_NAME = "ProvideDiagnosisKeysWorker.SafetyNet";
 
   private final DiagnosisKeyDownloader downloader;
   private final DiagnosisKeyFileSubmitter diagnosisKeyFileSubmitter;
@@ -75,6 +97,9 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
   private final ExecutorService backgroundExecutor;
   private final ScheduledExecutorService scheduledExecutor;
   private final WorkerStartupManager workerStartupManager;
+  private final IndexChurnTracker indexChurnTracker;
+  private final WorkManager workManager;
+  private final WorkerTelemetry workerTelemetry;
   private final AnalyticsLogger logger;
 
   @AssistedInject
@@ -88,6 +113,9 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
       @BackgroundExecutor ExecutorService backgroundExecutor,
       @ScheduledExecutor ScheduledExecutorService scheduledExecutor,
       WorkerStartupManager workerStartupManager,
+      IndexChurnTracker indexChurnTracker,
+      WorkManager workManager,
+      WorkerTelemetry workerTelemetry,
       AnalyticsLogger logger) {
     super(context, workerParams);
     this.downloader = downloadController;
@@ -97,27 +125,44 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
     this.backgroundExecutor = backgroundExecutor;
     this.scheduledExecutor = scheduledExecutor;
     this.workerStartupManager = workerStartupManager;
+    this.indexChurnTracker = indexChurnTracker;
+    this.workManager = workManager;
+    this.workerTelemetry = workerTelemetry;
     this.logger = logger;
   }
 
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
+    if (getTags().contains(SAFETY_NET_WORKER_NAME)) {
+      return FluentFuture.from(reseed(workManager).getResult())
+          .transform(unused -> Result.success(), backgroundExecutor)
+          .catching(
+              Exception.class,
+              x -> {
+                logcat.e("Failed to reseed the provide runs", x);
+                return Result.success();
+              },
+              backgroundExecutor);
+    }
     logcat.d(
         "Starting worker providing the DiagnosisKeysDataMapping to the API, "
             + "downloading diagnosis key files and submitting "
             + "them to the API for exposure detection, then storing the token used.");
-    return FluentFuture.from(
-        workerStartupManager.getIsEnabledWithStartupTasks())
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+    ListenableFuture<Result> provided = run.finish(FluentFuture.from(
+        run.time(Stage.STAGE_STARTUP,
+            workerStartupManager.getIsEnabledWithStartupTasks(WORKER_NAME)))
         .transformAsync(
             (isEnabled) -> {
-              logger.logWorkManagerTaskStarted(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+              run.timeBlocking(Stage.STAGE_DB,
+                  () -> logger.logWorkManagerTaskStarted(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS));
               // Only continue if it is enabled.
               if (isEnabled) {
-                return TaskToFutureAdapter.getFutureWithTimeout(
+                return run.time(Stage.STAGE_EN_API, TaskToFutureAdapter.getFutureWithTimeout(
                     exposureNotificationClientWrapper.getDiagnosisKeysDataMapping(),
                     GET_DIAGNOSIS_KEY_DATA_MAPPING_TIMEOUT,
-                    scheduledExecutor);
+                    scheduledExecutor));
               } else {
                 // Stop here because things aren't enabled. Will still return successful though.
                 return Futures.immediateFailedFuture(new NotEnabledException());
@@ -125,7 +170,8 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
             },
             backgroundExecutor)
         .transformAsync(
-            this::checkDiagnosisKeyDataMappingForUpdate, backgroundExecutor)
+            dkdm -> run.time(Stage.STAGE_EN_API, checkDiagnosisKeyDataMappingForUpdate(dkdm)),
+            backgroundExecutor)
         .catchingAsync(
             Exception.class,
             e -> {
@@ -141,19 +187,23 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
             },
             backgroundExecutor)
         .transformAsync(
-            (unused) -> downloader.download(), backgroundExecutor)
+            (unused) -> run.time(Stage.STAGE_DOWNLOAD, downloader.download()), backgroundExecutor)
         .transformAsync(
-            diagnosisKeyFileSubmitter::submitFiles,
+            keyFiles -> run.time(Stage.STAGE_SUBMIT,
+                diagnosisKeyFileSubmitter.submitFiles(keyFiles, regularRunInterval())),
             backgroundExecutor)
         .transform(done -> {
-          logger.logWorkManagerTaskSuccess(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+          run.timeBlocking(Stage.STAGE_DB,
+              () -> logger.logWorkManagerTaskSuccess(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS));
           return Result.success();
         }, backgroundExecutor)
         .catching(
             NotEnabledException.class,
             x -> {
               // Not enabled. Return as success.
-              logger.logWorkManagerTaskAbandoned(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+              run.markAbandoned();
+              run.timeBlocking(Stage.STAGE_DB,
+                  () -> logger.logWorkManagerTaskAbandoned(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS));
               return Result.success();
             },
             backgroundExecutor)
@@ -161,12 +211,66 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
             Exception.class,
             x -> {
               logcat.e("Failure to provide diagnosis keys", x);
-              logger.logWorkManagerTaskFailure(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, x);
+              run.timeBlocking(Stage.STAGE_DB, () ->
+                  logger.logWorkManagerTaskFailure(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, x));
               return Result.failure();
             },
+            backgroundExecutor));
+
+    if (!getTags().contains(WORKER_NAME)) {
+      // A one-off run, e.g. from the debug screen. The scheduled runs carry on regardless.
+      return provided;
+    }
+    // The next run is chained after this one, so this one must succeed or the next one would be
+    // cancelled. Failures are logged above, and the next run tries again as soon as it may. Should
+    // scheduling the next run fail, the safety net starts the runs again.
+    return FluentFuture.from(provided)
+        .transformAsync(
+            result -> scheduleNextRun(result.equals(Result.success())), backgroundExecutor)
+        .transform(unused -> Result.success(), backgroundExecutor)
+        .catching(
+            Exception.class,
+            x -> {
+              logcat.e("Failed to schedule the next run", x);
+              return Result.success();
+            },
             backgroundExecutor);
   }
 
+  /**
+   * Schedules the run after this one, once this one has finished: as far ahead as the key servers'
+   * recent publishing suggests if this one succeeded, or as soon as we may if it didn't.
+   */
+  private ListenableFuture<Operation.State.SUCCESS> scheduleNextRun(boolean succeeded) {
+    Duration delay = succeeded ? regularRunInterval() : MINIMAL_TEK_PUBLISH_INTERVAL;
+    logcat.d("Next provide run in " + delay);
+    return workManager.enqueueUniqueWork(
+        WORKER_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, runRequest(delay)).getResult();
+  }
+
+  /**
+   * Returns how far apart runs are while all is well, going by the key servers' recent publishing.
+   */
+  private Duration regularRunInterval() {
+    Duration tekPublishInterval = Duration.ofHours(
+        getApplicationContext().getResources().getInteger(R.integer.enx_tekPublishInterval));
+    return nextRunDelay(indexChurnTracker.getPublishInterval(tekPublishInterval));
+  }
+
+  /**
+   * Bounds the publishing interval of the key servers to how often we may provide keys.
+   */
+  @VisibleForTesting
+  static Duration nextRunDelay(Duration publishInterval) {
+    if (publishInterval.compareTo(MINIMAL_TEK_PUBLISH_INTERVAL) < 0) {
+      return MINIMAL_TEK_PUBLISH_INTERVAL;
+    }
+    if (publishInterval.compareTo(MAXIMAL_TEK_PUBLISH_INTERVAL) > 0) {
+      return MAXIMAL_TEK_PUBLISH_INTERVAL;
+    }
+    return publishInterval;
+  }
+
   /**
    * Check if we need to update EN Api's version of DiagnosisKeysDataMapping. Only on update call
    * Nearby.setDiagnosisKeysDataMapping().
@@ -196,35 +300,46 @@ public class ProvideDiagnosisKeysWorker extends ListenableWorker {
   }
 
   /**
-   * Schedules a job that runs once a day to fetch diagnosis keys from a server and to provide them
-   * to the exposure notifications API with flex period.
+   * Schedules the first run to fetch diagnosis keys from a server and to provide them to the
+   * exposure notifications API, unless runs are already scheduled, along with the safety net. Each
+   * run then schedules the next.
    *
-   * <p>This job will only be run when not low battery and with network connection.
+   * <p>Runs will only happen when not low battery and with network connection.
    */
-  public static Operation schedule(WorkManager workManager, Duration tekPublishInterval) {
-    // Lower-bound tekPublishInterval and convert to primitive as required by PeriodicWorkRequest
-    long tekPublishIntervalHours =
-        Math.max(MINIMAL_TEK_PUBLISH_INTERVAL.toHours(), tekPublishInterval.toHours());
-
-    // WARNING: You must set ExistingPeriodicWorkPolicy.REPLACE if you want to change the params for
-    //          previous app version users.
-    PeriodicWorkRequest workRequest =
+  public static Operation schedule(WorkManager workManager) {
+    // Earlier versions of the app ran this worker periodically. Those runs are replaced by these.
+    workManager.cancelUniqueWork(LEGACY_PERIODIC_WORKER_NAME);
+    workManager.enqueueUniquePeriodicWork(
+        SAFETY_NET_WORKER_NAME,
+        ExistingPeriodicWorkPolicy.KEEP,
         new PeriodicWorkRequest.Builder(
             ProvideDiagnosisKeysWorker.class,
-            tekPublishIntervalHours,
-            TimeUnit.HOURS)
-            .setConstraints(
-                new Constraints.Builder()
-                    .setRequiresBatteryNotLow(true)
-                    .setRequiredNetworkType(NetworkType.CONNECTED)
-                    .build())
-            .setBackoffCriteria(
-                BackoffPolicy.EXPONENTIAL,
-                WorkRequest.DEFAULT_BACKOFF_DELAY_MILLIS,
-                TimeUnit.MILLISECONDS)
-            .build();
-    return workManager.enqueueUniquePeriodicWork(
-        WORKER_NAME, ExistingPeriodicWorkPolicy.KEEP, workRequest);
+            MAXIMAL_TEK_PUBLISH_INTERVAL.toMinutes(),
+            TimeUnit.MINUTES)
+            .addTag(SAFETY_NET_WORKER_NAME)
+            .build());
+    return reseed(workManager);
+  }
+
+  /**
+   * Schedules a run unless one is already scheduled or running. It waits {@link
+   * #MINIMAL_TEK_PUBLISH_INTERVAL}, since we can't tell how recently the last run provided keys.
+   */
+  private static Operation reseed(WorkManager workManager) {
+    return workManager.enqueueUniqueWork(
+        WORKER_NAME, ExistingWorkPolicy.KEEP, runRequest(MINIMAL_TEK_PUBLISH_INTERVAL));
+  }
+
+  private static OneTimeWorkRequest runRequest(Duration delay) {
+    return new OneTimeWorkRequest.Builder(ProvideDiagnosisKeysWorker.class)
+        .setConstraints(
+            new Constraints.Builder()
+                .setRequiresBatteryNotLow(true)
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build())
+        .setInitialDelay(delay.getSeconds(), TimeUnit.SECONDS)
+        .addTag(WORKER_NAME)
+        .build();
   }
 
   private static class NotEnabledException extends Exception {
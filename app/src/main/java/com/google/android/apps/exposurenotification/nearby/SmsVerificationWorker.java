@@ -45,13 +45,17 @@ import com.google.android.apps.exposurenotification.keyupload.UploadController.N
 import com.google.android.apps.exposurenotification.keyupload.UploadController.UploadException;
 import com.google.android.apps.exposurenotification.keyupload.UploadError;
 import com.google.android.apps.exposurenotification.notify.ShareDiagnosisFlowHelper;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.HasSymptoms;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.Shared;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
 import com.google.android.apps.exposurenotification.storage.DiagnosisRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
 import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.nearby.exposurenotification.TemporaryExposureKey;
 import com.google.common.base.Optional;
@@ -89,6 +93,7 @@ public class SmsVerificationWorker extends ListenableWorker {
   private final SecureRandom secureRandom;
   private final WorkerStartupManager workerStartupManager;
   private final Clock clock;
+  private final WorkerTelemetry workerTelemetry;
   private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
 
   @AssistedInject
@@ -105,7 +110,8 @@ public class SmsVerificationWorker extends ListenableWorker {
       @ScheduledExecutor ListeningScheduledExecutorService scheduledExecutor,
       SecureRandom secureRandom,
       WorkerStartupManager workerStartupManager,
-      Clock clock) {
+      Clock clock,
+      WorkerTelemetry workerTelemetry) {
     super(context, workerParams);
     this.exposureNotificationClientWrapper = exposureNotificationClientWrapper;
     this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
@@ -118,27 +124,31 @@ public class SmsVerificationWorker extends ListenableWorker {
     this.secureRandom = secureRandom;
     this.workerStartupManager = workerStartupManager;
     this.clock = clock;
+    this.workerTelemetry = workerTelemetry;
   }
 
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_SMS_VERIFICATION);
     String deepLinkUriString = getInputData().getString(DEEP_LINK_URI_STRING);
     if (deepLinkUriString == null) {
-      return Futures.immediateFuture(Result.success());
+      return run.finish(Futures.immediateFuture(Result.success()));
     }
 
     Uri deepLinkUri = Uri.parse(deepLinkUriString);
     if (deepLinkUri == null || Uri.EMPTY.equals(deepLinkUri)) {
-      return Futures.immediateFuture(Result.success());
+      return run.finish(Futures.immediateFuture(Result.success()));
     }
 
     if (!ShareDiagnosisFlowHelper.isSmsInterceptEnabled(getApplicationContext())) {
-      return Futures.immediateFuture(Result.success());
+      return run.finish(Futures.immediateFuture(Result.success()));
     }
 
     Optional<String> optionalCode = IntentUtil.maybeGetCodeFromDeepLinkUri(deepLinkUri);
-    return FluentFuture.from(workerStartupManager.getIsEnabledWithStartupTasks())
+    return run.finish(FluentFuture.from(
+        run.time(Stage.STAGE_STARTUP,
+            workerStartupManager.getIsEnabledWithStartupTasks(SMS_RECEIVED_WORKER_TAG)))
         .transformAsync(
             isEnabled -> {
               if (!isEnabled) {
@@ -147,10 +157,12 @@ public class SmsVerificationWorker extends ListenableWorker {
                 // to enable the API if needed.
                 return Futures.immediateFailedFuture(new TEKsNotReleasedException());
               }
-              return requestPreAuthorizedTemporaryExposureKeyRelease();
+              return run.time(
+                  Stage.STAGE_EN_API, requestPreAuthorizedTemporaryExposureKeyRelease());
             },
             lightweightExecutor)
-        .transformAsync(unused -> submitCode(optionalCode), lightweightExecutor)
+        .transformAsync(
+            unused -> run.time(Stage.STAGE_SUBMIT, submitCode(optionalCode)), lightweightExecutor)
         .transform(unused -> Result.success(), lightweightExecutor)
         .catchingAsync(
             ApiException.class,
@@ -176,7 +188,7 @@ public class SmsVerificationWorker extends ListenableWorker {
               return Result.success();
             },
             lightweightExecutor)
-        .catching(Throwable.class, t -> Result.failure(), lightweightExecutor);
+        .catching(Throwable.class, t -> Result.failure(), lightweightExecutor));
   }
 
   @VisibleForTesting
@@ -36,6 +36,7 @@ import com.google.android.apps.exposurenotification.common.TaskToFutureAdapter;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
 import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.android.apps.exposurenotification.riskcalculation.DailySummaryRiskCalculator;
 import com.google.android.apps.exposurenotification.riskcalculation.ExposureClassification;
@@ -44,6 +45,8 @@ import com.google.android.apps.exposurenotification.storage.ExposureEntity;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences.BadgeStatus;
 import com.google.android.apps.exposurenotification.storage.ExposureRepository;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.DailySummariesConfig;
 import com.google.android.gms.nearby.exposurenotification.ExposureNotificationStatus;
 import com.google.common.base.Optional;
@@ -83,6 +86,7 @@ public class StateUpdatedWorker extends ListenableWorker {
   private final ScheduledExecutorService scheduledExecutor;
   private final AnalyticsLogger logger;
   private final Clock clock;
+  private final WorkerTelemetry workerTelemetry;
 
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
 
@@ -100,7 +104,8 @@ public class StateUpdatedWorker extends ListenableWorker {
       @BackgroundExecutor ExecutorService backgroundExecutor,
       @ScheduledExecutor ScheduledExecutorService scheduledExecutor,
       AnalyticsLogger logger,
-      Clock clock) {
+      Clock clock,
+      WorkerTelemetry workerTelemetry) {
     super(context, workerParams);
     this.context = context;
     this.exposureRepository = exposureRepository;
@@ -114,6 +119,7 @@ public class StateUpdatedWorker extends ListenableWorker {
     this.scheduledExecutor = scheduledExecutor;
     this.logger = logger;
     this.clock = clock;
+    this.workerTelemetry = workerTelemetry;
   }
 
   static void runOnce(WorkManager workManager) {
@@ -123,16 +129,18 @@ public class StateUpdatedWorker extends ListenableWorker {
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
-    return FluentFuture.from(
-        TaskToFutureAdapter.getFutureWithTimeout(
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED);
+    return run.finish(FluentFuture.from(
+        run.time(Stage.STAGE_EN_API, TaskToFutureAdapter.getFutureWithTimeout(
             exposureNotificationClientWrapper.getDailySummaries(dailySummariesConfig),
             GET_DAILY_SUMMARIES_TIMEOUT,
-            scheduledExecutor))
+            scheduledExecutor)))
         .transformAsync(
             (dailySummaries) -> {
               logger.logWorkManagerTaskStarted(WorkerTask.TASK_STATE_UPDATED);
-              boolean notificationTriggered =
-                  retrievePreviousExposuresAndCheckForExposureUpdate(context, dailySummaries);
+              boolean notificationTriggered = run.timeBlocking(Stage.STAGE_DB,
+                  () -> retrievePreviousExposuresAndCheckForExposureUpdate(
+                      context, dailySummaries));
               logger.logWorkManagerTaskSuccess(WorkerTask.TASK_STATE_UPDATED);
               if (notificationTriggered) {
                 // If we triggered an exposure, we skip any edge-case detection steps
@@ -140,10 +148,10 @@ public class StateUpdatedWorker extends ListenableWorker {
               } else {
                 // Otherwise, we check if we need to show an edge-case notification. To do so,
                 // we query getStatus()
-                return TaskToFutureAdapter.getFutureWithTimeout(
+                return run.time(Stage.STAGE_EN_API, TaskToFutureAdapter.getFutureWithTimeout(
                     exposureNotificationClientWrapper.getStatus(),
                     GET_DAILY_SUMMARIES_TIMEOUT,
-                    scheduledExecutor);
+                    scheduledExecutor));
               }
             },
             backgroundExecutor)
@@ -161,7 +169,7 @@ public class StateUpdatedWorker extends ListenableWorker {
               logcat.e("Failure to update app state (tokens, etc) from exposure summary.", x);
               logger.logWorkManagerTaskFailure(WorkerTask.TASK_STATE_UPDATED, x);
               return Result.failure();
-            }, backgroundExecutor);
+            }, backgroundExecutor));
   }
 
   private static class NotificationShownException extends Exception {}
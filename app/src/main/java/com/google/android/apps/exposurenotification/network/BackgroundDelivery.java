@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.Request;
+
+/**
+ * Implemented by requests whose response should be delivered on a background thread rather than
+ * the lightweight executor most responses are delivered on, because what their listeners do with
+ * it is heavy, or because there are a great many of them (e.g. keyfile downloads).
+ */
+public interface BackgroundDelivery {
+
+  /**
+   * Whether this request's response and errors should be delivered on a background thread.
+   */
+  boolean isDeliveredInBackground();
+
+  /**
+   * Whether the given request opted into background delivery.
+   */
+  static boolean isDeliveredInBackground(Request<?> request) {
+    return request instanceof BackgroundDelivery
+        && ((BackgroundDelivery) request).isDeliveredInBackground();
+  }
+}
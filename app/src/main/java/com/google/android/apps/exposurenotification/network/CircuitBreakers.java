@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * Keeps one circuit breaker per host, shared by every request in the process.
+ *
+ * <p>A host's circuit opens once {@link #FAILURE_THRESHOLD} requests to it in a row have failed
+ * with a server or network error. A request counts once, however many times it was retried before
+ * giving up, and only if all of its retries failed. While it's open, requests to that host fail
+ * straight away instead of going to the network. Each time the circuit trips again it stays open
+ * for twice as long, up to {@link #MAX_OPEN_DURATION}. Once that time has passed the next request
+ * is let through as a probe: success closes the circuit, failure opens it again.
+ *
+ * <p>The times until which circuits stay open are kept in shared preferences, so that a host which
+ * was failing during one WorkManager run isn't hammered again as soon as the next one starts.
+ */
+@Singleton
+public class CircuitBreakers {
+
+  private static final Logger logger = Logger.getLogger("CircuitBreakers");
+
+  @VisibleForTesting
+  static final int FAILURE_THRESHOLD = 3;
+  @VisibleForTesting
+  static final Duration BASE_OPEN_DURATION = Duration.ofMinutes(5);
+  @VisibleForTesting
+  static final Duration MAX_OPEN_DURATION = Duration.ofHours(1);
+
+  private final ExposureNotificationSharedPreferences prefs;
+  private final Clock clock;
+  private final Map<String, Circuit> circuits = new HashMap<>();
+
+  @Inject
+  public CircuitBreakers(ExposureNotificationSharedPreferences prefs, Clock clock) {
+    this.prefs = prefs;
+    this.clock = clock;
+    for (Map.Entry<String, Instant> openCircuit
+        : prefs.getOpenCircuitsUntil(clock.now()).entrySet()) {
+      Circuit circuit = forHost(openCircuit.getKey());
+      // Treat a circuit that was open in an earlier run as having tripped once, so a failed probe
+      // opens it for longer.
+      circuit.consecutiveFailures = FAILURE_THRESHOLD;
+      circuit.trips = 1;
+      circuit.openUntil = openCircuit.getValue();
+    }
+  }
+
+  /**
+   * Returns the circuit for the given host, creating it if need be.
+   */
+  public synchronized Circuit forHost(String host) {
+    Circuit circuit = circuits.get(host);
+    if (circuit == null) {
+      circuit = new Circuit(host);
+      circuits.put(host, circuit);
+    }
+    return circuit;
+  }
+
+  private void persist() {
+    Map<String, Instant> openCircuits = new HashMap<>();
+    Instant now = clock.now();
+    for (Circuit circuit : circuits.values()) {
+      if (circuit.openUntil != null && circuit.openUntil.isAfter(now)) {
+        openCircuits.put(circuit.host, circuit.openUntil);
+      }
+    }
+    prefs.setOpenCircuitsUntil(openCircuits);
+  }
+
+  /**
+   * The circuit breaker for a single host.
+   */
+  public class Circuit {
+
+    private final String host;
+    private int consecutiveFailures = 0;
+    private int trips = 0;
+    @Nullable
+    private Instant openUntil;
+
+    private Circuit(String host) {
+      this.host = host;
+    }
+
+    /**
+     * Whether requests to this host should currently fail without going to the network.
+     */
+    public boolean isOpen() {
+      synchronized (CircuitBreakers.this) {
+        return openUntil != null && clock.now().isBefore(openUntil);
+      }
+    }
+
+    /**
+     * Records a request to this host which succeeded, closing the circuit.
+     */
+    public void recordSuccess() {
+      synchronized (CircuitBreakers.this) {
+        boolean wasTripped = openUntil != null;
+        consecutiveFailures = 0;
+        trips = 0;
+        openUntil = null;
+        if (wasTripped) {
+          logger.i("Circuit for " + host + " closed.");
+          persist();
+        }
+      }
+    }
+
+    /**
+     * Records a request to this host which failed with a server or network error, opening the
+     * circuit if that makes too many in a row.
+     */
+    public void recordFailure() {
+      synchronized (CircuitBreakers.this) {
+        consecutiveFailures++;
+        if (consecutiveFailures < FAILURE_THRESHOLD || isOpen()) {
+          return;
+        }
+        Duration openFor = BASE_OPEN_DURATION.multipliedBy(1L << Math.min(trips, 10));
+        if (openFor.compareTo(MAX_OPEN_DURATION) > 0) {
+          openFor = MAX_OPEN_DURATION;
+        }
+        trips++;
+        openUntil = clock.now().plus(openFor);
+        logger.w("Circuit for " + host + " opened for " + openFor + " after "
+            + consecutiveFailures + " consecutive failures.");
+        persist();
+      }
+    }
+
+    /**
+     * Opens the circuit until the given time, e.g. because the server asked us to stay away until
+     * then. Has no effect if it's already open for longer.
+     */
+    public void openUntil(Instant until) {
+      synchronized (CircuitBreakers.this) {
+        if (openUntil != null && !until.isAfter(openUntil)) {
+          return;
+        }
+        openUntil = until;
+        logger.w("Circuit for " + host + " opened until " + until + " at the server's request.");
+        persist();
+      }
+    }
+  }
+}
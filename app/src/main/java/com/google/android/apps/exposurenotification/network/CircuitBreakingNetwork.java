@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import android.net.Uri;
+import androidx.annotation.VisibleForTesting;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.network.CircuitBreakers.Circuit;
+import java.util.Collections;
+
+/**
+ * A Volley {@link Network} which fails requests to hosts whose circuit is open without going to
+ * the network, and tells each host's circuit how the other requests to it went.
+ *
+ * <p>See {@link CircuitBreakers} for when circuits open and close.
+ */
+public class CircuitBreakingNetwork implements Network {
+
+  private static final Logger logger = Logger.getLogger("CircuitBreakingNetwork");
+
+  private final CircuitBreakers circuitBreakers;
+  private final Network delegate;
+
+  public CircuitBreakingNetwork(CircuitBreakers circuitBreakers, Network delegate) {
+    this.circuitBreakers = circuitBreakers;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+    String host = Uri.parse(request.getUrl()).getHost();
+    if (host == null) {
+      return delegate.performRequest(request);
+    }
+    Circuit circuit = circuitBreakers.forHost(host);
+    if (circuit.isOpen()) {
+      logger.d("Circuit open for " + host + ", failing request without sending it.");
+      request.addMarker("circuit-open");
+      throw new CircuitOpenError();
+    }
+    if (request.getRetryPolicy() instanceof CustomRetryPolicy) {
+      ((CustomRetryPolicy) request.getRetryPolicy()).setCircuit(circuit);
+    }
+    try {
+      NetworkResponse response = delegate.performRequest(request);
+      circuit.recordSuccess();
+      return response;
+    } catch (VolleyError error) {
+      if (isHostFailure(error)) {
+        circuit.recordFailure();
+      }
+      throw error;
+    }
+  }
+
+  /**
+   * Whether the error suggests trouble with the host, rather than with the request or with the
+   * device's own connectivity.
+   *
+   * <p>{@link NoConnectionError} doesn't count. Volley raises it whenever we got no response at
+   * all, which is mostly the device being offline or between networks. Counting it would open the
+   * circuits of every host we call while offline, and since open circuits are saved, keep them
+   * open for a while after the device is back online. A host that's really down still opens its
+   * circuit through the timeouts and 5xx responses its requests get once we can reach it.
+   */
+  @VisibleForTesting
+  static boolean isHostFailure(VolleyError error) {
+    if (error instanceof CircuitOpenError || error instanceof NoConnectionError) {
+      return false;
+    }
+    return error instanceof TimeoutError
+        || error instanceof NetworkError
+        || VolleyUtils.getHttpStatus(error) >= 500;
+  }
+
+  /**
+   * The error a request fails with when its host's circuit is open. It carries a synthetic 503
+   * response, so callers treat it like any other server failure.
+   */
+  public static class CircuitOpenError extends ServerError {
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    CircuitOpenError() {
+      super(new NetworkResponse(
+          SERVICE_UNAVAILABLE,
+          new byte[0],
+          /* notModified= */ false,
+          /* networkTimeMs= */ 0L,
+          Collections.emptyList()));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.Request;
+import com.android.volley.Request.Method;
+
+/**
+ * Implemented by requests which may share a single network call with identical requests already
+ * in flight, rather than making their own.
+ *
+ * <p>Only idempotent GETs whose response is the same for every caller should opt in. Requests
+ * which, say, stream their response to a file of their own must not.
+ */
+public interface Coalescable {
+
+  /**
+   * Whether this request may share its network call with identical in-flight requests.
+   */
+  boolean isCoalescable();
+
+  /**
+   * Whether the given request is a GET that opted into coalescing.
+   */
+  static boolean isCoalescable(Request<?> request) {
+    return request.getMethod() == Method.GET
+        && request instanceof Coalescable
+        && ((Coalescable) request).isCoalescable();
+  }
+}
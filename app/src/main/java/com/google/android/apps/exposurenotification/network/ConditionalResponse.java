@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import com.google.auto.value.AutoValue;
+
+/**
+ * The result of a conditional GET: either the (new) body of the resource along with its
+ * validators, or an indication that the resource has not changed since the validators we sent.
+ */
+@AutoValue
+public abstract class ConditionalResponse {
+
+  public abstract boolean notModified();
+
+  @Nullable
+  public abstract String body();
+
+  @Nullable
+  public abstract String eTag();
+
+  @Nullable
+  public abstract String lastModified();
+
+  public static ConditionalResponse modified(
+      String body, @Nullable String eTag, @Nullable String lastModified) {
+    return new AutoValue_ConditionalResponse(false, body, eTag, lastModified);
+  }
+
+  public static ConditionalResponse notModified(
+      @Nullable String eTag, @Nullable String lastModified) {
+    return new AutoValue_ConditionalResponse(true, null, eTag, lastModified);
+  }
+}
@@ -17,6 +17,7 @@
 
 package com.google.android.apps.exposurenotification.network;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.android.volley.NetworkError;
 import com.android.volley.RetryPolicy;
@@ -24,9 +25,12 @@ import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.network.CircuitBreakers.Circuit;
 import com.google.common.base.Optional;
+import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 import org.threeten.bp.ZoneOffset;
@@ -35,6 +39,22 @@ import org.threeten.bp.format.DateTimeFormatter;
 /**
  * A customised {@link RetryPolicy} that applies rules based on the http status of the response, and
  * in some cases the response headers.
+ *
+ * <p>Volley retries as soon as {@link #retry(VolleyError)} returns, and has no way to schedule a
+ * retry for later, so this is where we wait before each retry. The waits use "decorrelated
+ * jitter": each is a random time between {@link #BASE_BACKOFF} and three times the previous wait,
+ * capped at {@link #MAX_BACKOFF}, so that clients which failed together don't all come back
+ * together.
+ *
+ * <p>Waiting here holds the request's network thread for the whole wait. A request that keeps
+ * failing can hold one for a minute and a half over its three retries. Meanwhile the queue runs
+ * on its other threads. We keep that bounded: interactive requests have network threads of their
+ * own (see {@link RequestQueueWrapper}), so background retries never hold them up. We don't wait
+ * longer than {@link #MAX_BACKOFF} for a rate-limited retry. And once the host's circuit opens,
+ * retries to it stop after the current wait.
+ *
+ * <p>If a {@link Circuit} is attached, a retry is abandoned as soon as that host's circuit opens,
+ * whichever request opened it.
  */
 public class CustomRetryPolicy implements RetryPolicy {
 
@@ -44,23 +64,64 @@ public class CustomRetryPolicy implements RetryPolicy {
   private static final int RATE_LIMITED = 429;
   // We lowercase the header keys to match case-insensitively.
   private static final String RATE_LIMITED_RETRY_HEADER = "x-retry-after";
+  private static final String RETRY_AFTER_HEADER = "retry-after";
   private static final DateTimeFormatter RATE_LIMITED_HEADER_FORMAT =
       DateTimeFormatter.RFC_1123_DATE_TIME;
 
   @VisibleForTesting
   static final long SERVER_TIMEOUT_SECS = 10;
+  @VisibleForTesting
+  static final Duration BASE_BACKOFF = Duration.ofSeconds(1);
+  @VisibleForTesting
+  static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+  /**
+   * Waits for the given time before a retry.
+   */
+  @VisibleForTesting
+  interface Sleeper {
+    void sleep(Duration duration) throws InterruptedException;
+  }
 
   private final Clock clock;
-  private Duration delay = Duration.ofSeconds(SERVER_TIMEOUT_SECS);
+  private final Sleeper sleeper;
+  private final Random random;
+  private final Duration timeout = Duration.ofSeconds(SERVER_TIMEOUT_SECS);
+  private Duration previousBackoff = BASE_BACKOFF;
   private int currentRetryCount = 0;
+  @Nullable
+  private Circuit circuit;
 
   public CustomRetryPolicy(Clock clock) {
+    this(clock, duration -> Thread.sleep(duration.toMillis()), new SecureRandom());
+  }
+
+  /**
+   * Returns a policy which retries just as the usual one does, only without waiting in between,
+   * for tests which exercise retries against a real server.
+   */
+  @VisibleForTesting
+  public static CustomRetryPolicy withoutWaiting(Clock clock) {
+    return new CustomRetryPolicy(clock, duration -> {}, new SecureRandom());
+  }
+
+  @VisibleForTesting
+  CustomRetryPolicy(Clock clock, Sleeper sleeper, Random random) {
     this.clock = clock;
+    this.sleeper = sleeper;
+    this.random = random;
+  }
+
+  /**
+   * Attaches the circuit of the host the request goes to, so that retries stop once it opens.
+   */
+  public void setCircuit(@Nullable Circuit circuit) {
+    this.circuit = circuit;
   }
 
   @Override
   public int getCurrentTimeout() {
-    return (int) delay.toMillis();
+    return (int) timeout.toMillis();
   }
 
   @Override
@@ -73,19 +134,34 @@ public class CustomRetryPolicy implements RetryPolicy {
     logger.d(error.getClass().getSimpleName() + " error, retrycount:[" + currentRetryCount + "]");
     int httpStatus = VolleyUtils.getHttpStatus(error);
 
+    if (circuit != null && circuit.isOpen()) {
+      logger.d("Circuit open for this host. Fail now.");
+      throw error;
+    }
+
     // Rate limited requests retry once.
     if (httpStatus == RATE_LIMITED && currentRetryCount < 1) {
       currentRetryCount++;
+      Duration wait = nextBackoff();
       Optional<Instant> retryTime = parseRetryTime(error);
-      if (retryTime.isPresent() && retryTime.get().isAfter(clock.now())) {
-        // Threre's a small bug here in that: We're deciding how long to delay based on the current
-        // time, but the Volley stack will start counting that delay at some future time. It'll be
-        // close enough for our purposes though.
-        delay = Duration.between(clock.now(), retryTime.get());
+      if (retryTime.isPresent()) {
+        // Measured right before we start waiting, so the retry goes out at the time the server
+        // asked for rather than that plus however long it took us to get here.
+        Duration untilRetryTime = Duration.between(clock.now(), retryTime.get());
+        if (untilRetryTime.compareTo(MAX_BACKOFF) > 0) {
+          // Too long to hold a network thread for. Keep every request to this host away until
+          // then instead.
+          logger.d("Rate limited until " + retryTime.get() + ". Fail now.");
+          if (circuit != null) {
+            circuit.openUntil(retryTime.get());
+          }
+          throw error;
+        }
+        wait = untilRetryTime.isNegative() ? Duration.ZERO : untilRetryTime;
       }
-      // If we didn't get a useful retry-time from the response header, we just keep whatever delay
-      // we had.
-      logger.d("Rate limited, will retry after delay.");
+      // If we didn't get a useful retry-time from the response header, we back off as usual.
+      logger.d("Rate limited, will retry after " + wait);
+      sleepOrThrow(wait, error);
       return;
     }
 
@@ -93,6 +169,7 @@ public class CustomRetryPolicy implements RetryPolicy {
     if (httpStatus >= SERVER_ERR && currentRetryCount < SERVER_ERR_NUM_RETRIES) {
       logger.d("Server error, retrycount:[" + currentRetryCount + "]. Will retry after delay.");
       currentRetryCount++;
+      sleepOrThrow(nextBackoff(), error);
       return;
     }
 
@@ -105,6 +182,7 @@ public class CustomRetryPolicy implements RetryPolicy {
       logger.d("Timeout or network error, retry count [" + currentRetryCount
           + "]. Will retry after delay.");
       currentRetryCount++;
+      sleepOrThrow(nextBackoff(), error);
       return;
     }
 
@@ -112,14 +190,41 @@ public class CustomRetryPolicy implements RetryPolicy {
     throw error;
   }
 
-  private static Optional<Instant> parseRetryTime(VolleyError err) {
+  private Duration nextBackoff() {
+    long upperMillis = Math.min(MAX_BACKOFF.toMillis(), previousBackoff.toMillis() * 3);
+    long lowerMillis = BASE_BACKOFF.toMillis();
+    long millis = lowerMillis + (long) (random.nextDouble() * (upperMillis - lowerMillis));
+    previousBackoff = Duration.ofMillis(millis);
+    return previousBackoff;
+  }
+
+  private void sleepOrThrow(Duration wait, VolleyError error) throws VolleyError {
+    try {
+      sleeper.sleep(wait);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw error;
+    }
+    // The circuit may have opened while we waited.
+    if (circuit != null && circuit.isOpen()) {
+      logger.d("Circuit opened while waiting to retry. Fail now.");
+      throw error;
+    }
+  }
+
+  private Optional<Instant> parseRetryTime(VolleyError err) {
     try {
       Map<String, String> headers = lowercasedKeys(err.networkResponse.headers);
       if (headers.containsKey(RATE_LIMITED_RETRY_HEADER)) {
-        return Optional.of(
-            Instant.from(RATE_LIMITED_HEADER_FORMAT
-                .withZone(ZoneOffset.UTC)
-                .parse(headers.get(RATE_LIMITED_RETRY_HEADER))));
+        return Optional.of(parseHttpDate(headers.get(RATE_LIMITED_RETRY_HEADER)));
+      }
+      if (headers.containsKey(RETRY_AFTER_HEADER)) {
+        // The standard header may hold either a number of seconds or a date.
+        String value = headers.get(RETRY_AFTER_HEADER).trim();
+        if (value.matches("\\d+")) {
+          return Optional.of(clock.now().plusSeconds(Long.parseLong(value)));
+        }
+        return Optional.of(parseHttpDate(value));
       }
     } catch (Exception e) {
       // Swallow all failures and return absent.
@@ -127,6 +232,9 @@ public class CustomRetryPolicy implements RetryPolicy {
     return Optional.absent();
   }
 
+  private static Instant parseHttpDate(String value) {
+    return Instant.from(RATE_LIMITED_HEADER_FORMAT.withZone(ZoneOffset.UTC).parse(value));
+  }
   private static Map<String, String> lowercasedKeys(Map<String, String> headers) {
     Map<String, String> lowercased = new HashMap<>();
     for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.google.auto.value.AutoValue;
+import org.threeten.bp.Duration;
+
+/**
+ * Tunables of the HTTP transport underneath our Volley queue.
+ */
+@AutoValue
+public abstract class HttpTransportConfig {
+
+  /**
+   * How long to wait for a connection to be established.
+   */
+  public abstract Duration connectTimeout();
+
+  /**
+   * How long to wait for data on an open connection, for requests that don't set a timeout of
+   * their own through their retry policy.
+   */
+  public abstract Duration readTimeout();
+
+  /**
+   * How many idle connections to keep around for reuse.
+   */
+  public abstract int maxIdleConnections();
+
+  /**
+   * How long an idle connection is kept around for reuse.
+   */
+  public abstract Duration keepAlive();
+
+  /**
+   * Whether to negotiate HTTP/2 with servers that support it, multiplexing concurrent requests to
+   * the same host over a single connection.
+   */
+  public abstract boolean http2Enabled();
+
+  public static Builder newBuilder() {
+    return new AutoValue_HttpTransportConfig.Builder()
+        .setConnectTimeout(Duration.ofSeconds(10))
+        .setReadTimeout(Duration.ofSeconds(10))
+        .setMaxIdleConnections(5)
+        .setKeepAlive(Duration.ofMinutes(5))
+        .setHttp2Enabled(true);
+  }
+
+  /**
+   * Builder for {@link HttpTransportConfig}.
+   */
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setConnectTimeout(Duration connectTimeout);
+
+    public abstract Builder setReadTimeout(Duration readTimeout);
+
+    public abstract Builder setMaxIdleConnections(int maxIdleConnections);
+
+    public abstract Builder setKeepAlive(Duration keepAlive);
+
+    public abstract Builder setHttp2Enabled(boolean http2Enabled);
+
+    public abstract HttpTransportConfig build();
+  }
+}
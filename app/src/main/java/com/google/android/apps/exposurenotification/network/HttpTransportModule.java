@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.toolbox.BaseHttpStack;
+import dagger.Module;
+import dagger.Provides;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+import javax.inject.Singleton;
+
+/**
+ * Module providing the HTTP transport underneath our Volley queue, so that it can be tuned or
+ * swapped out without touching the queue itself.
+ */
+@Module
+@InstallIn(SingletonComponent.class)
+public class HttpTransportModule {
+
+  @Provides
+  public HttpTransportConfig provideHttpTransportConfig() {
+    return HttpTransportConfig.newBuilder().build();
+  }
+
+  @Singleton
+  @Provides
+  public BaseHttpStack provideHttpStack(HttpTransportConfig config, NetworkMetrics metrics) {
+    // A single stack, and so a single connection pool, for every request we make.
+    return new OkHttpStack(OkHttpStack.newClientBuilder(config)
+        .eventListenerFactory(MeteringEventListener.factory(metrics))
+        .build());
+  }
+}
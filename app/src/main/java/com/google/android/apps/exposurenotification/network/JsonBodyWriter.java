@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.util.JsonWriter;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Streams the fields of a JSON request body straight into a byte buffer, then pads the body out
+ * with {@link Padding} and hands over the bytes as a {@link JsonRequestBody}.
+ *
+ * <p>This serializes each request body exactly once, without building a {@code JSONObject} tree
+ * first. A writer is good for exactly one body; the top-level object is opened on construction and
+ * closed by {@link #finishPadded()}.
+ *
+ * <p>Like {@code JSONObject.put()}, putting a null string leaves the field out.
+ */
+public final class JsonBodyWriter {
+
+  // Most bodies get padded up to the target size, so start there to avoid growing the buffer.
+  private final ByteArrayOutputStream buffer =
+      new ByteArrayOutputStream(Padding.TARGET_PAYLOAD_SIZE_BYTES);
+  private final JsonWriter writer = new JsonWriter(new OutputStreamWriter(buffer, UTF_8));
+
+  public JsonBodyWriter() {
+    try {
+      writer.beginObject();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+  }
+
+  public JsonBodyWriter put(String name, @Nullable String value) {
+    if (value == null) {
+      return this;
+    }
+    try {
+      writer.name(name).value(value);
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  public JsonBodyWriter put(String name, long value) {
+    try {
+      writer.name(name).value(value);
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  public JsonBodyWriter put(String name, boolean value) {
+    try {
+      writer.name(name).value(value);
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  /**
+   * Puts an array of strings.
+   */
+  public JsonBodyWriter putStrings(String name, Iterable<String> values) {
+    try {
+      writer.name(name).beginArray();
+      for (String value : values) {
+        writer.value(value);
+      }
+      writer.endArray();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  /**
+   * Opens an array field. Its elements are written with {@link #beginObject()} and
+   * {@link #endObject()}, and the array is closed with {@link #endArray()}.
+   */
+  public JsonBodyWriter beginArray(String name) {
+    try {
+      writer.name(name).beginArray();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  public JsonBodyWriter endArray() {
+    try {
+      writer.endArray();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  /**
+   * Opens an object element of the current array.
+   */
+  public JsonBodyWriter beginObject() {
+    try {
+      writer.beginObject();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  public JsonBodyWriter endObject() {
+    try {
+      writer.endObject();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return this;
+  }
+
+  /**
+   * Closes the body, pads it out with {@link Padding#addPadding(byte[])}, and returns its bytes.
+   */
+  public JsonRequestBody finishPadded() {
+    try {
+      writer.endObject();
+      writer.close();
+    } catch (IOException e) {
+      throw writingToMemoryFailed(e);
+    }
+    return Padding.addPadding(buffer.toByteArray());
+  }
+
+  private static IllegalStateException writingToMemoryFailed(IOException e) {
+    // A ByteArrayOutputStream never throws, so this can only be a bug.
+    return new IllegalStateException("Failed to write JSON request body to memory", e);
+  }
+}
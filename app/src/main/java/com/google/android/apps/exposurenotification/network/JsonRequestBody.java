@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The serialized body of a JSON request.
+ *
+ * <p>Request bodies are serialized exactly once, and these same bytes are then sent over the wire
+ * and used for size reporting, so nothing needs to serialize the payload again.
+ */
+public final class JsonRequestBody {
+
+  private final byte[] bytes;
+
+  JsonRequestBody(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Restores a body serialized earlier, as returned by its {@link #toString()}.
+   */
+  public static JsonRequestBody of(String body) {
+    return new JsonRequestBody(body.getBytes(UTF_8));
+  }
+
+  /**
+   * Returns the body's bytes. These are not copied, so callers must not modify them.
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the size of the body in bytes.
+   */
+  public int size() {
+    return bytes.length;
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, UTF_8);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.Request;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+
+/**
+ * Implemented by requests which say which of our endpoints they call, so that {@link
+ * NetworkMetrics} can break its figures down by endpoint.
+ */
+public interface Metered {
+
+  /**
+   * The endpoint this request calls.
+   */
+  Endpoint getEndpoint();
+
+  /**
+   * The endpoint the given request calls, or {@link Endpoint#ENDPOINT_UNKNOWN} if it doesn't say.
+   */
+  static Endpoint endpointOf(Request<?> request) {
+    return request instanceof Metered
+        ? ((Metered) request).getEndpoint()
+        : Endpoint.ENDPOINT_UNKNOWN;
+  }
+}
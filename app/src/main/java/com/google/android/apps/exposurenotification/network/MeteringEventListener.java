@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import org.threeten.bp.Duration;
+
+/**
+ * An OkHttp {@link EventListener} which records the phases of a single HTTP attempt in {@link
+ * NetworkMetrics}: DNS lookup, connecting, waiting for the first byte of the response and
+ * transferring it, along with the bytes sent and received.
+ *
+ * <p>{@link OkHttpStack} tags each request with its {@link Endpoint}, which is how we know which
+ * endpoint to record the attempt against.
+ */
+class MeteringEventListener extends EventListener {
+
+  /**
+   * Creates a listener for each call made by the client it's set on.
+   */
+  static EventListener.Factory factory(NetworkMetrics metrics) {
+    return call -> new MeteringEventListener(metrics);
+  }
+
+  private final NetworkMetrics metrics;
+  private long dnsStartNanos = -1;
+  private long dnsNanos = 0;
+  private long connectStartNanos = -1;
+  private long connectNanos = 0;
+  private long requestHeadersStartNanos = -1;
+  private long responseHeadersEndNanos = -1;
+  private long responseEndNanos = -1;
+  private long requestBytes = 0;
+  private long responseBytes = 0;
+  private boolean recorded = false;
+
+  private MeteringEventListener(NetworkMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void dnsStart(Call call, String domainName) {
+    dnsStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+    dnsNanos += sinceNanos(dnsStartNanos);
+  }
+
+  @Override
+  public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    connectStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void connectEnd(
+      Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    connectNanos += sinceNanos(connectStartNanos);
+  }
+
+  @Override
+  public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+      Protocol protocol, IOException ioe) {
+    // OkHttp may go on to try another route, so this still counts as time spent connecting.
+    connectNanos += sinceNanos(connectStartNanos);
+  }
+
+  @Override
+  public void requestHeadersStart(Call call) {
+    requestHeadersStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void requestBodyEnd(Call call, long byteCount) {
+    requestBytes += byteCount;
+  }
+
+  @Override
+  public void responseHeadersEnd(Call call, Response response) {
+    // OkHttp starts waiting for the response headers as soon as the request's sent, so it's their
+    // arrival that marks the first byte. Responses without a body end here too.
+    responseHeadersEndNanos = System.nanoTime();
+    responseEndNanos = responseHeadersEndNanos;
+  }
+
+  @Override
+  public void responseBodyEnd(Call call, long byteCount) {
+    responseEndNanos = System.nanoTime();
+    responseBytes += byteCount;
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    record(call);
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    record(call);
+  }
+
+  private void record(Call call) {
+    if (recorded) {
+      return;
+    }
+    recorded = true;
+    Endpoint endpoint = call.request().tag(Endpoint.class);
+    metrics.recordAttempt(
+        endpoint == null ? Endpoint.ENDPOINT_UNKNOWN : endpoint,
+        requestBytes,
+        responseBytes,
+        Duration.ofNanos(dnsNanos),
+        Duration.ofNanos(connectNanos),
+        Duration.ofNanos(between(requestHeadersStartNanos, responseHeadersEndNanos)),
+        Duration.ofNanos(between(responseHeadersEndNanos, responseEndNanos)));
+  }
+
+  private static long sinceNanos(long startNanos) {
+    return between(startNanos, System.nanoTime());
+  }
+
+  /**
+   * Returns the time between the given two, or zero if either never happened.
+   */
+  private static long between(long startNanos, long endNanos) {
+    return startNanos < 0 || endNanos < startNanos ? 0 : endNanos - startNanos;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import android.os.SystemClock;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.network.CircuitBreakingNetwork.CircuitOpenError;
+import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallResult;
+import org.threeten.bp.Duration;
+
+/**
+ * A Volley {@link Network} which records each call it makes in {@link NetworkMetrics}: how long it
+ * took, retries and the waits between them included, how many times it was retried and how it
+ * ended. Calls turned away by an open circuit are counted separately.
+ *
+ * <p>This sits underneath the request queue, so requests which share another's network call (see
+ * {@link RequestCoalescer}) aren't counted twice.
+ */
+public class MeteringNetwork implements Network {
+
+  private final NetworkMetrics metrics;
+  private final Network delegate;
+
+  public MeteringNetwork(NetworkMetrics metrics, Network delegate) {
+    this.metrics = metrics;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+    long start = SystemClock.elapsedRealtime();
+    try {
+      NetworkResponse response = delegate.performRequest(request);
+      record(request, start, RpcCallResult.RESULT_SUCCESS);
+      return response;
+    } catch (CircuitOpenError error) {
+      // Its 503 is made up, and it never went out, so don't count it with the calls that did.
+      metrics.recordCircuitOpen(Metered.endpointOf(request));
+      throw error;
+    } catch (VolleyError error) {
+      record(request, start, VolleyUtils.getLoggableResult(error));
+      throw error;
+    }
+  }
+
+  private void record(Request<?> request, long start, RpcCallResult result) {
+    metrics.recordCall(
+        Metered.endpointOf(request),
+        Duration.ofMillis(SystemClock.elapsedRealtime() - start),
+        request.getRetryPolicy() == null ? 0 : request.getRetryPolicy().getCurrentRetryCount(),
+        result);
+  }
+}
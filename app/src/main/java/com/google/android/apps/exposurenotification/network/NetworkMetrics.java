@@ -0,0 +1,281 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
+import com.google.android.apps.exposurenotification.proto.RpcCall.ResultCount;
+import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.threeten.bp.Duration;
+
+/**
+ * An in-process registry of how our network calls went, broken down by {@link Endpoint}.
+ *
+ * <p>For each endpoint it keeps histograms of call latency and retry counts, the final result of
+ * each call, the bytes sent and received, and the mean time each HTTP attempt spent in DNS lookup,
+ * connecting, waiting for the first byte and transferring the response. Calls are recorded by
+ * {@link MeteringNetwork}, and HTTP attempts by {@link MeteringEventListener}. Calls turned away
+ * by an open circuit are only counted, since they never reached the network.
+ */
+@Singleton
+public class NetworkMetrics {
+
+  /**
+   * Upper bounds of the latency histogram buckets. Anything slower goes in one last, unbounded
+   * bucket.
+   */
+  public static final ImmutableList<Duration> LATENCY_BUCKET_UPPER_BOUNDS = ImmutableList.of(
+      Duration.ofMillis(100),
+      Duration.ofMillis(250),
+      Duration.ofMillis(500),
+      Duration.ofSeconds(1),
+      Duration.ofMillis(2500),
+      Duration.ofSeconds(5),
+      Duration.ofSeconds(10),
+      Duration.ofSeconds(30),
+      Duration.ofSeconds(60));
+  /**
+   * Number of retry count histogram buckets. Calls retried this many times less one, or more,
+   * share the last bucket.
+   */
+  @VisibleForTesting
+  static final int RETRY_BUCKETS = 4;
+
+  private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+
+  @Inject
+  public NetworkMetrics() {
+  }
+
+  /**
+   * Records a call to the given endpoint which, retries included, took the given time and ended
+   * with the given result.
+   */
+  public synchronized void recordCall(
+      Endpoint endpoint, Duration latency, int retries, RpcCallResult result) {
+    EndpointStats endpointStats = statsFor(endpoint);
+    endpointStats.calls++;
+    endpointStats.latencyBuckets[latencyBucketOf(latency)]++;
+    endpointStats.retryBuckets[Math.min(Math.max(retries, 0), RETRY_BUCKETS - 1)]++;
+    Long resultCount = endpointStats.results.get(result);
+    endpointStats.results.put(result, resultCount == null ? 1 : resultCount + 1);
+  }
+
+  /**
+   * Records a call to the given endpoint which was turned away without being sent, because its
+   * host's circuit was open. It's counted apart from the calls which were sent.
+   */
+  public synchronized void recordCircuitOpen(Endpoint endpoint) {
+    statsFor(endpoint).circuitOpenCalls++;
+  }
+
+  /**
+   * Records a single HTTP attempt at a call to the given endpoint, with the bytes it sent and
+   * received and the time it spent in each phase.
+   */
+  public synchronized void recordAttempt(
+      Endpoint endpoint,
+      long requestBytes,
+      long responseBytes,
+      Duration dns,
+      Duration connect,
+      Duration timeToFirstByte,
+      Duration transfer) {
+    EndpointStats endpointStats = statsFor(endpoint);
+    endpointStats.attempts++;
+    endpointStats.requestBytes += requestBytes;
+    endpointStats.responseBytes += responseBytes;
+    endpointStats.dnsMillis += dns.toMillis();
+    endpointStats.connectMillis += connect.toMillis();
+    endpointStats.timeToFirstByteMillis += timeToFirstByte.toMillis();
+    endpointStats.transferMillis += transfer.toMillis();
+  }
+
+  /**
+   * Returns a summary of what's been recorded for each endpoint so far.
+   */
+  public synchronized ImmutableList<EndpointSummary> getSummaries() {
+    return summariesOf(stats);
+  }
+
+  /**
+   * Takes a copy of what's been recorded for each endpoint so far, to be exported, and then
+   * forgotten with {@link #forget(Snapshot)} once the export has gone through.
+   */
+  public synchronized Snapshot snapshot() {
+    Map<Endpoint, EndpointStats> copy = new EnumMap<>(Endpoint.class);
+    for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().copy());
+    }
+    return new Snapshot(copy);
+  }
+
+  /**
+   * Forgets what the given snapshot holds, so that each call is only exported once. Anything
+   * recorded since the snapshot was taken is kept.
+   */
+  public synchronized void forget(Snapshot snapshot) {
+    for (Map.Entry<Endpoint, EndpointStats> entry : snapshot.stats.entrySet()) {
+      EndpointStats endpointStats = stats.get(entry.getKey());
+      if (endpointStats == null) {
+        continue;
+      }
+      endpointStats.subtract(entry.getValue());
+      if (endpointStats.isEmpty()) {
+        stats.remove(entry.getKey());
+      }
+    }
+  }
+
+  private static ImmutableList<EndpointSummary> summariesOf(Map<Endpoint, EndpointStats> stats) {
+    ImmutableList.Builder<EndpointSummary> summaries = ImmutableList.builder();
+    for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+      summaries.add(entry.getValue().toSummary(entry.getKey()));
+    }
+    return summaries.build();
+  }
+
+  private EndpointStats statsFor(Endpoint endpoint) {
+    EndpointStats endpointStats = stats.get(endpoint);
+    if (endpointStats == null) {
+      endpointStats = new EndpointStats();
+      stats.put(endpoint, endpointStats);
+    }
+    return endpointStats;
+  }
+
+  @VisibleForTesting
+  static int latencyBucketOf(Duration latency) {
+    for (int i = 0; i < LATENCY_BUCKET_UPPER_BOUNDS.size(); i++) {
+      if (latency.compareTo(LATENCY_BUCKET_UPPER_BOUNDS.get(i)) <= 0) {
+        return i;
+      }
+    }
+    return LATENCY_BUCKET_UPPER_BOUNDS.size();
+  }
+
+  /**
+   * A copy of what had been recorded for each endpoint when it was taken.
+   */
+  public static final class Snapshot {
+
+    private final Map<Endpoint, EndpointStats> stats;
+
+    private Snapshot(Map<Endpoint, EndpointStats> stats) {
+      this.stats = stats;
+    }
+
+    public ImmutableList<EndpointSummary> getSummaries() {
+      return summariesOf(stats);
+    }
+  }
+
+  private static class EndpointStats {
+
+    private long calls = 0;
+    private long circuitOpenCalls = 0;
+    private final long[] latencyBuckets = new long[LATENCY_BUCKET_UPPER_BOUNDS.size() + 1];
+    private final long[] retryBuckets = new long[RETRY_BUCKETS];
+    private final Map<RpcCallResult, Long> results = new EnumMap<>(RpcCallResult.class);
+    private long attempts = 0;
+    private long requestBytes = 0;
+    private long responseBytes = 0;
+    private long dnsMillis = 0;
+    private long connectMillis = 0;
+    private long timeToFirstByteMillis = 0;
+    private long transferMillis = 0;
+
+    private EndpointStats copy() {
+      EndpointStats copy = new EndpointStats();
+      copy.add(this, 1);
+      return copy;
+    }
+
+    private void subtract(EndpointStats other) {
+      add(other, -1);
+    }
+
+    private void add(EndpointStats other, int sign) {
+      calls += sign * other.calls;
+      circuitOpenCalls += sign * other.circuitOpenCalls;
+      for (int i = 0; i < latencyBuckets.length; i++) {
+        latencyBuckets[i] += sign * other.latencyBuckets[i];
+      }
+      for (int i = 0; i < retryBuckets.length; i++) {
+        retryBuckets[i] += sign * other.retryBuckets[i];
+      }
+      for (Map.Entry<RpcCallResult, Long> result : other.results.entrySet()) {
+        Long count = results.get(result.getKey());
+        long newCount = (count == null ? 0 : count) + sign * result.getValue();
+        if (newCount == 0) {
+          results.remove(result.getKey());
+        } else {
+          results.put(result.getKey(), newCount);
+        }
+      }
+      attempts += sign * other.attempts;
+      requestBytes += sign * other.requestBytes;
+      responseBytes += sign * other.responseBytes;
+      dnsMillis += sign * other.dnsMillis;
+      connectMillis += sign * other.connectMillis;
+      timeToFirstByteMillis += sign * other.timeToFirstByteMillis;
+      transferMillis += sign * other.transferMillis;
+    }
+
+    private boolean isEmpty() {
+      return calls == 0 && circuitOpenCalls == 0 && attempts == 0;
+    }
+
+    private EndpointSummary toSummary(Endpoint endpoint) {
+      EndpointSummary.Builder summary = EndpointSummary.newBuilder()
+          .setEndpoint(endpoint)
+          .setCallCount(Ints.saturatedCast(calls))
+          .setCircuitOpenCount(Ints.saturatedCast(circuitOpenCalls))
+          .setRequestBytes(requestBytes)
+          .setResponseBytes(responseBytes)
+          .setAttemptCount(Ints.saturatedCast(attempts))
+          .setMeanDnsMs(meanOf(dnsMillis))
+          .setMeanConnectMs(meanOf(connectMillis))
+          .setMeanTtfbMs(meanOf(timeToFirstByteMillis))
+          .setMeanTransferMs(meanOf(transferMillis));
+      for (long count : latencyBuckets) {
+        summary.addLatencyBucketCount(Ints.saturatedCast(count));
+      }
+      for (long count : retryBuckets) {
+        summary.addRetryBucketCount(Ints.saturatedCast(count));
+      }
+      for (Map.Entry<RpcCallResult, Long> result : results.entrySet()) {
+        summary.addResultCount(ResultCount.newBuilder()
+            .setRpcCallResult(result.getKey())
+            .setCount(Ints.saturatedCast(result.getValue())));
+      }
+      return summary.build();
+    }
+
+    private int meanOf(long totalMillis) {
+      return attempts == 0 ? 0 : Ints.saturatedCast(totalMillis / attempts);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A Volley {@link BaseHttpStack} backed by OkHttp, which pools connections and multiplexes
+ * concurrent requests to the same host over a single HTTP/2 connection where the server supports
+ * it, rather than opening a fresh connection per request.
+ *
+ * <p>It also negotiates gzip or deflate compressed responses for requests which accept them (see
+ * {@link ResponseCompression}), and decompresses them as they're read. We do this ourselves rather
+ * than leave it to OkHttp so that we can count the bytes on either side.
+ */
+public class OkHttpStack extends BaseHttpStack {
+
+  private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+  private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+  private static final String ENCODINGS_ACCEPTED = "gzip, deflate";
+  private static final String ENCODING_GZIP = "gzip";
+  private static final String ENCODING_DEFLATE = "deflate";
+  private static final String ENCODING_IDENTITY = "identity";
+
+  private final OkHttpClient client;
+
+  public OkHttpStack(HttpTransportConfig config) {
+    this(newClientBuilder(config).build());
+  }
+
+  OkHttpStack(OkHttpClient client) {
+    this.client = client;
+  }
+
+  static OkHttpClient.Builder newClientBuilder(HttpTransportConfig config) {
+    return new OkHttpClient.Builder()
+        .connectTimeout(config.connectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .readTimeout(config.readTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .connectionPool(new ConnectionPool(
+            config.maxIdleConnections(), config.keepAlive().toMillis(), TimeUnit.MILLISECONDS))
+        .protocols(config.http2Enabled()
+            ? ImmutableList.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+            : ImmutableList.of(Protocol.HTTP_1_1))
+        // Volley follows its own retry policy, so don't let OkHttp retry behind its back.
+        .retryOnConnectionFailure(false);
+  }
+
+  @Override
+  public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+      throws IOException, AuthFailureError {
+    OkHttpClient requestClient = client;
+    int timeoutMs = request.getTimeoutMs();
+    if (timeoutMs > 0) {
+      // The retry policy grows the timeout as it retries. Deriving a client like this shares the
+      // connection pool with the original.
+      requestClient = client.newBuilder()
+          .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+          .build();
+    }
+
+    Map<String, String> headers = new HashMap<>(request.getHeaders());
+    headers.putAll(additionalHeaders);
+    if (!containsIgnoreCase(headers, HEADER_ACCEPT_ENCODING)) {
+      // Setting this explicitly also stops OkHttp from transparently asking for gzip itself.
+      headers.put(HEADER_ACCEPT_ENCODING,
+          ResponseCompression.acceptsCompressedResponse(request)
+              ? ENCODINGS_ACCEPTED
+              : ENCODING_IDENTITY);
+    }
+    okhttp3.Request.Builder okRequest = new okhttp3.Request.Builder()
+        .url(request.getUrl())
+        .headers(Headers.of(headers))
+        // For any event listener that breaks its figures down by endpoint.
+        .tag(Endpoint.class, Metered.endpointOf(request));
+    setMethodAndBody(okRequest, request);
+
+    Response response = requestClient.newCall(okRequest.build()).execute();
+    ResponseBody body = response.body();
+    if (!hasResponseBody(request.getMethod(), response.code()) || body == null) {
+      response.close();
+      return new HttpResponse(response.code(), toVolleyHeaders(response.headers()));
+    }
+
+    CountingInputStream encoded = new CountingInputStream(body.byteStream());
+    InputStream decoder;
+    try {
+      decoder = decoderFor(response.header(HEADER_CONTENT_ENCODING), encoded);
+    } catch (IOException e) {
+      response.close();
+      throw e;
+    }
+    Headers responseHeaders = response.headers();
+    long contentLength = body.contentLength();
+    if (decoder != encoded) {
+      // What we hand over is no longer what these headers describe.
+      responseHeaders = responseHeaders.newBuilder()
+          .removeAll(HEADER_CONTENT_ENCODING)
+          .removeAll(HEADER_CONTENT_LENGTH)
+          .build();
+      contentLength = -1;
+    }
+    if (contentLength < 0 || contentLength > Integer.MAX_VALUE) {
+      contentLength = -1;
+    }
+    // Closing the body stream releases the connection back to the pool.
+    return new HttpResponse(
+        response.code(),
+        toVolleyHeaders(responseHeaders),
+        (int) contentLength,
+        new CountedBody(request, encoded, decoder));
+  }
+
+  /**
+   * Returns a stream decoding the given one according to the given content encoding, or the given
+   * stream itself if it's not encoded, or encoded in a way we don't know.
+   */
+  private static InputStream decoderFor(@Nullable String contentEncoding, InputStream encoded)
+      throws IOException {
+    if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+      return new GZIPInputStream(encoded);
+    }
+    if (ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+      return new InflaterInputStream(encoded);
+    }
+    return encoded;
+  }
+
+  private static boolean containsIgnoreCase(Map<String, String> headers, String name) {
+    for (String key : headers.keySet()) {
+      if (name.equalsIgnoreCase(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void setMethodAndBody(okhttp3.Request.Builder okRequest, Request<?> request)
+      throws AuthFailureError {
+    switch (request.getMethod()) {
+      case Request.Method.GET:
+        okRequest.get();
+        break;
+      case Request.Method.HEAD:
+        okRequest.head();
+        break;
+      case Request.Method.DELETE:
+        okRequest.delete(bodyOf(request));
+        break;
+      case Request.Method.POST:
+        okRequest.post(nonNullBodyOf(request));
+        break;
+      case Request.Method.PUT:
+        okRequest.put(nonNullBodyOf(request));
+        break;
+      case Request.Method.PATCH:
+        okRequest.patch(nonNullBodyOf(request));
+        break;
+      default:
+        throw new IllegalStateException("Unsupported request method " + request.getMethod());
+    }
+  }
+
+  @Nullable
+  private static RequestBody bodyOf(Request<?> request) throws AuthFailureError {
+    byte[] body = request.getBody();
+    if (body == null) {
+      return null;
+    }
+    return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+  }
+
+  private static RequestBody nonNullBodyOf(Request<?> request) throws AuthFailureError {
+    RequestBody body = bodyOf(request);
+    // OkHttp insists these methods have a body, even if it's empty.
+    return body != null ? body : RequestBody.create(null, new byte[0]);
+  }
+
+  private static boolean hasResponseBody(int requestMethod, int responseCode) {
+    return requestMethod != Request.Method.HEAD
+        && !(100 <= responseCode && responseCode < 200)
+        && responseCode != HttpURLConnection.HTTP_NO_CONTENT
+        && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+  }
+
+  private static List<Header> toVolleyHeaders(Headers headers) {
+    List<Header> volleyHeaders = new ArrayList<>(headers.size());
+    for (int i = 0; i < headers.size(); i++) {
+      volleyHeaders.add(new Header(headers.name(i), headers.value(i)));
+    }
+    return volleyHeaders;
+  }
+
+  /**
+   * A decoded response body, which tells its request how many bytes were read on either side of
+   * the decoder once it's closed.
+   */
+  private static class CountedBody extends FilterInputStream {
+
+    private final Request<?> request;
+    private final CountingInputStream encoded;
+    private boolean closed = false;
+
+    CountedBody(Request<?> request, CountingInputStream encoded, InputStream decoder) {
+      super(new CountingInputStream(decoder));
+      this.request = request;
+      this.encoded = encoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      if (!closed) {
+        closed = true;
+        ResponseCompression.onResponseBodyRead(
+            request, encoded.getCount(), ((CountingInputStream) in).getCount());
+      }
+    }
+  }
+}
@@ -17,35 +17,75 @@
 
 package com.google.android.apps.exposurenotification.network;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import androidx.annotation.VisibleForTesting;
 import com.google.android.apps.exposurenotification.common.StringUtils;
 import com.google.android.apps.exposurenotification.keyupload.ApiConstants.UploadV1;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.Arrays;
 
 /**
- * A utility for generating randomly sized base64 strings of random sizes within a range, useful as
- * padding in RPC requests to (somewhat) frustrate network observers.
+ * A utility for padding RPC requests out to a consistent size with random base64 data, to
+ * (somewhat) frustrate network observers.
  */
 public class Padding {
 
   // To confound network observers, we pad out each request to this size.
-  // The actual payload size may not be exactly this, but it's not important that the size be exact,
-  // only that it be consistent from request to request.
+  // The actual payload size may be up to a few bytes short of this, because we only add whole
+  // base64 groups, but it's not important that the size be exact, only that it be consistent from
+  // request to request.
   @VisibleForTesting
   static final int TARGET_PAYLOAD_SIZE_BYTES = 5000;
 
-  public static JSONObject addPadding(JSONObject payload) throws JSONException {
-    // Because the ultimate size of the JSON depends on some things not known here, we start small
-    // and scale up until we reach the target size.
-    int currentSize = payload.toString().getBytes().length;
-    int paddingSize = 1;
-    // If we're already big enough, this will get skipped, no padding field will be added.
-    while (currentSize < TARGET_PAYLOAD_SIZE_BYTES) {
-      payload.put(UploadV1.PADDING, StringUtils.randomBase64Data(paddingSize));
-      currentSize = payload.toString().getBytes().length;
-      paddingSize++;
+  // The bytes the padding field adds on top of its value: the comma separating it from the
+  // previous field (if any), the quoted key, the colon and the quotes around the value.
+  private static final int PADDING_FIELD_OVERHEAD_BYTES = UploadV1.PADDING.length() + 6;
+  private static final int BASE64_GROUP_CHARS = 4;
+  private static final int BASE64_GROUP_BYTES = 3;
+  // The serialized form of an object with no fields.
+  private static final int EMPTY_OBJECT_BYTES = 2;
+
+  /**
+   * Pads the given serialized JSON object out to about {@link #TARGET_PAYLOAD_SIZE_BYTES}.
+   *
+   * <p>The padding length is worked out from the serialized size, the random padding is generated
+   * once, and the padding field is spliced in before the object's closing brace. The given bytes
+   * are left unchanged.
+   */
+  public static JsonRequestBody addPadding(byte[] serializedObject) {
+    boolean hasOtherFields = serializedObject.length > EMPTY_OBJECT_BYTES;
+    int paddingChars = paddingCharsFor(serializedObject.length, hasOtherFields);
+    // If we're already big enough no padding field will be added.
+    if (paddingChars == 0) {
+      return new JsonRequestBody(serializedObject);
+    }
+
+    // Base64 is plain ASCII that never needs escaping, so each char is exactly one byte.
+    byte[] paddingField = ((hasOtherFields ? "," : "") + "\"" + UploadV1.PADDING + "\":\""
+        + randomPadding(paddingChars) + "\"}").getBytes(UTF_8);
+    // Drop the closing brace, append the padding field, which closes the object again.
+    int unclosedSize = serializedObject.length - 1;
+    byte[] padded = Arrays.copyOf(serializedObject, unclosedSize + paddingField.length);
+    System.arraycopy(paddingField, 0, padded, unclosedSize, paddingField.length);
+    return new JsonRequestBody(padded);
+  }
+
+  /**
+   * Returns how many base64 chars of padding to add to a serialized JSON object of the given size
+   * so that it ends up as close to {@link #TARGET_PAYLOAD_SIZE_BYTES} as whole base64 groups
+   * allow, or zero if it's already big enough.
+   */
+  private static int paddingCharsFor(int unpaddedSizeBytes, boolean hasOtherFields) {
+    if (unpaddedSizeBytes >= TARGET_PAYLOAD_SIZE_BYTES) {
+      return 0;
     }
-    return payload;
+    int overhead = PADDING_FIELD_OVERHEAD_BYTES - (hasOtherFields ? 0 : 1);
+    int available = TARGET_PAYLOAD_SIZE_BYTES - unpaddedSizeBytes - overhead;
+    // Always add at least one group, so that any padded request has a padding field.
+    return Math.max(1, available / BASE64_GROUP_CHARS) * BASE64_GROUP_CHARS;
+  }
+
+  private static String randomPadding(int paddingChars) {
+    return StringUtils.randomBase64Data(paddingChars / BASE64_GROUP_CHARS * BASE64_GROUP_BYTES);
   }
 }
@@ -17,14 +17,18 @@
 
 package com.google.android.apps.exposurenotification.network;
 
+import com.android.volley.Network;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BaseHttpStack;
 import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.HurlStack;
 import com.android.volley.toolbox.NoCache;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import dagger.Module;
 import dagger.Provides;
 import dagger.hilt.InstallIn;
 import dagger.hilt.components.SingletonComponent;
+import java.util.concurrent.ExecutorService;
 import javax.inject.Singleton;
 
 /**
@@ -35,11 +39,45 @@ import javax.inject.Singleton;
 @InstallIn(SingletonComponent.class)
 public final class RealRequestQueueModule {
 
+  // Volley's default.
+  private static final int NETWORK_THREAD_POOL_SIZE = 4;
+  // Network threads kept for interactive requests alone. Enough for a verification and a key
+  // upload at once, which is as many as a user can be waiting on.
+  private static final int INTERACTIVE_THREAD_POOL_SIZE = 2;
+
   @Singleton
   @Provides
-  public RequestQueueWrapper provideRequestQueueWrapper() {
-    RequestQueue queue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()));
+  public RequestQueueWrapper provideRequestQueueWrapper(
+      BaseHttpStack httpStack,
+      CircuitBreakers circuitBreakers,
+      NetworkMetrics metrics,
+      @LightweightExecutor ExecutorService lightweightExecutor,
+      @BackgroundExecutor ExecutorService backgroundExecutor) {
+    // Keyfiles are streamed to disk, everything else goes through Volley's usual BasicNetwork.
+    // Either way, requests to a host that keeps failing are turned away before they're sent, and
+    // every call is recorded in the metrics, including those turned away.
+    Network network = new MeteringNetwork(metrics, new CircuitBreakingNetwork(
+        circuitBreakers, new StreamingNetwork(httpStack, new BasicNetwork(httpStack))));
+    // Deliver responses off the main thread: none of our listeners touch the UI. Identical GETs
+    // which opted in share one network call, and have its response fanned out on delivery.
+    RequestCoalescer coalescer =
+        new RequestCoalescer(new RoutingResponseDelivery(lightweightExecutor, backgroundExecutor));
+    RequestQueue queue = new RequestQueue(
+        new NoCache(),
+        network,
+        NETWORK_THREAD_POOL_SIZE,
+        coalescer);
+    // Interactive requests get a queue of their own over the same network, so they share its
+    // connections but not its threads.
+    RequestQueue interactiveQueue = new RequestQueue(
+        new NoCache(),
+        network,
+        INTERACTIVE_THREAD_POOL_SIZE,
+        new RoutingResponseDelivery(lightweightExecutor, backgroundExecutor));
+    RequestQueueWrapper wrapper =
+        RequestQueueWrapper.withInteractiveLane(interactiveQueue, queue, coalescer);
     queue.start();
-    return RequestQueueWrapper.wrapping(queue);
+    interactiveQueue.start();
+    return wrapper;
   }
 }
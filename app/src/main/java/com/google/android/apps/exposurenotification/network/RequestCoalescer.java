@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.RequestQueue.RequestFinishedListener;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lets identical {@link Coalescable} GETs share one network call.
+ *
+ * <p>The first such request (the leader) goes to the network as usual, and any identical request
+ * added while it's in flight (a follower) is held back instead. This sits in front of the queue's
+ * real {@link ResponseDelivery}, so that when the leader's response or error is delivered it's
+ * fanned out to all of its followers too.
+ *
+ * <p>Should a leader finish without anything being delivered, e.g. because it was cancelled, its
+ * followers are sent on to the network after all.
+ */
+public class RequestCoalescer implements ResponseDelivery, RequestFinishedListener<Object> {
+
+  private static final Logger logcat = Logger.getLogger("RequestCoalescer");
+
+  private final ResponseDelivery delivery;
+  // In-flight leaders by their coalescing key, and the followers waiting on each of them.
+  private final Map<String, Request<?>> leaders = new HashMap<>();
+  private final Map<Request<?>, List<Request<?>>> followers = new IdentityHashMap<>();
+  @Nullable
+  private RequestQueue queue;
+  private long coalescableRequests = 0;
+  private long coalescedRequests = 0;
+
+  public RequestCoalescer(ResponseDelivery delivery) {
+    this.delivery = delivery;
+  }
+
+  /**
+   * Attaches this coalescer to the queue whose responses it delivers. Must be called before any
+   * request is added to the queue.
+   */
+  public void attachTo(RequestQueue queue) {
+    this.queue = queue;
+    queue.addRequestFinishedListener(this);
+  }
+
+  /**
+   * Adds the given request to the queue, unless it can share an identical in-flight request's
+   * network call.
+   */
+  public <T> Request<T> add(Request<T> request) {
+    if (!join(request)) {
+      queue.add(request);
+    }
+    return request;
+  }
+
+  /**
+   * Records the given request as a follower of an identical in-flight leader, if there is one, or
+   * as the leader of its own in-flight group otherwise.
+   *
+   * @return true if the request joined an in-flight leader and so mustn't be sent itself.
+   */
+  @VisibleForTesting
+  synchronized boolean join(Request<?> request) {
+    if (!Coalescable.isCoalescable(request)) {
+      return false;
+    }
+    String key = coalescingKey(request);
+    if (key == null) {
+      return false;
+    }
+    coalescableRequests++;
+    Request<?> leader = leaders.get(key);
+    if (leader == null) {
+      leaders.put(key, request);
+      followers.put(request, new ArrayList<>());
+      return false;
+    }
+    followers.get(leader).add(request);
+    coalescedRequests++;
+    logcat.d(String.format("Coalesced GET %s with one in flight, hit rate %d/%d",
+        request.getUrl(), coalescedRequests, coalescableRequests));
+    return true;
+  }
+
+  /**
+   * The share of coalescable requests so far which didn't need a network call of their own.
+   */
+  public synchronized double getHitRate() {
+    return coalescableRequests == 0 ? 0 : (double) coalescedRequests / coalescableRequests;
+  }
+
+  @VisibleForTesting
+  synchronized long getCoalescedRequestCount() {
+    return coalescedRequests;
+  }
+
+  @Override
+  public void postResponse(Request<?> request, Response<?> response) {
+    delivery.postResponse(request, response);
+    for (Request<?> follower : takeFollowers(request)) {
+      delivery.postResponse(follower, response);
+    }
+  }
+
+  @Override
+  public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+    delivery.postResponse(request, response, runnable);
+    for (Request<?> follower : takeFollowers(request)) {
+      delivery.postResponse(follower, response);
+    }
+  }
+
+  @Override
+  public void postError(Request<?> request, VolleyError error) {
+    delivery.postError(request, error);
+    for (Request<?> follower : takeFollowers(request)) {
+      delivery.postError(follower, error);
+    }
+  }
+
+  @Override
+  public void onRequestFinished(Request<Object> request) {
+    // Normally the leader's followers were taken when its response was delivered, so anything left
+    // here means the leader finished without a response, and the followers still need one.
+    List<Request<?>> orphans = takeFollowers(request);
+    for (Request<?> orphan : orphans) {
+      if (!orphan.isCanceled()) {
+        add(orphan);
+      }
+    }
+  }
+
+  private synchronized List<Request<?>> takeFollowers(Request<?> request) {
+    List<Request<?>> waiting = followers.remove(request);
+    if (waiting == null) {
+      return new ArrayList<>();
+    }
+    leaders.values().remove(request);
+    return waiting;
+  }
+
+  /**
+   * Requests are only identical if they're of the same type, for the same URL and with the same
+   * headers, since e.g. conditional GETs depend on their headers.
+   */
+  @Nullable
+  private static String coalescingKey(Request<?> request) {
+    try {
+      return request.getClass().getName()
+          + ' ' + request.getUrl()
+          + ' ' + new TreeMap<>(request.getHeaders());
+    } catch (AuthFailureError e) {
+      return null;
+    }
+  }
+}
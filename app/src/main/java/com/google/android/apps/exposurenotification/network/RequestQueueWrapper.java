@@ -18,10 +18,23 @@
 package com.google.android.apps.exposurenotification.network;
 
 import com.android.volley.Request;
+import com.android.volley.Request.Priority;
 import com.android.volley.RequestQueue;
 
 /**
  * A razor-thin wrapper to make testing code that uses Volley easier to test with fakes.
+ *
+ * <p>Requests are prioritised using Volley's own {@link Priority}, which we treat as three lanes:
+ * <ul>
+ *   <li>Interactive ({@link Priority#HIGH} and above): calls a user is waiting on, like
+ *   verification and key upload, and the cover traffic imitating them.
+ *   <li>Normal ({@link Priority#NORMAL}): background calls whose results other requests wait on,
+ *   like key server indexes.
+ *   <li>Bulk ({@link Priority#LOW}): background calls nobody's waiting on, like keyfiles and
+ *   remote config.
+ * </ul>
+ * Within a queue Volley already serves higher priorities first, but only as network threads come
+ * free. See {@link #withInteractiveLane} for how interactive calls avoid waiting for that.
  */
 public abstract class RequestQueueWrapper {
 
@@ -38,4 +51,46 @@ public abstract class RequestQueueWrapper {
       }
     };
   }
+
+  /**
+   * Wraps the given queue such that identical in-flight {@link Coalescable} GETs share one network
+   * call, except that interactive requests go to a queue of their own, with network threads of its
+   * own. So they never wait behind background requests already holding every one of the main
+   * queue's network threads, e.g. during a long keyfile download.
+   */
+  public static RequestQueueWrapper withInteractiveLane(
+      RequestQueue interactiveQueue, RequestQueue innerQueue, RequestCoalescer coalescer) {
+    RequestQueueWrapper backgroundQueue = coalescing(innerQueue, coalescer);
+    return new RequestQueueWrapper() {
+      @Override
+      public <T> Request<T> add(Request<T> request) {
+        if (isInteractive(request)) {
+          return interactiveQueue.add(request);
+        }
+        return backgroundQueue.add(request);
+      }
+    };
+  }
+
+  /**
+   * Wraps the given queue such that identical in-flight {@link Coalescable} GETs share one network
+   * call. The coalescer must be the queue's {@link com.android.volley.ResponseDelivery}.
+   */
+  private static RequestQueueWrapper coalescing(
+      RequestQueue innerQueue, RequestCoalescer coalescer) {
+    coalescer.attachTo(innerQueue);
+    return new RequestQueueWrapper() {
+      @Override
+      public <T> Request<T> add(Request<T> request) {
+        return coalescer.add(request);
+      }
+    };
+  }
+
+  /**
+   * Whether the given request is in the interactive lane.
+   */
+  public static boolean isInteractive(Request<?> request) {
+    return request.getPriority().compareTo(Priority.HIGH) >= 0;
+  }
 }
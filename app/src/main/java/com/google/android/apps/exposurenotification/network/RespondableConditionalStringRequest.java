@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A GET for a text resource which sends the validators (ETag and/or Last-Modified) from an earlier
+ * response, so that the server can answer with a bodyless 304 if the resource has not changed.
+ *
+ * <p>Like the other Respondable requests, {@link #deliverResponse(ConditionalResponse)} is public
+ * so that a fake request queue can deliver a test's response. The listener is told how big the
+ * response was on the wire and once decompressed.
+ */
+public class RespondableConditionalStringRequest extends Request<ConditionalResponse>
+    implements BackgroundDelivery, Coalescable, Metered, ResponseCompression {
+
+  private static final String HEADER_ETAG = "ETag";
+  private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+  private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+  private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+  private final SizedListener<ConditionalResponse> listener;
+  @Nullable
+  private final String eTag;
+  @Nullable
+  private final String lastModified;
+  // Set from the network thread once the body's been read, and read on delivery.
+  private volatile long responseBytes = -1;
+  private volatile long encodedResponseBytes = -1;
+
+  public RespondableConditionalStringRequest(
+      String url,
+      @Nullable String eTag,
+      @Nullable String lastModified,
+      SizedListener<ConditionalResponse> listener,
+      ErrorListener errorListener,
+      Clock clock) {
+    super(Method.GET, url, errorListener);
+    this.listener = listener;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    // We do our own conditional requests, so don't let Volley's cache interfere.
+    setShouldCache(false);
+    setShouldRetryServerErrors(true);
+    setRetryPolicy(new CustomRetryPolicy(clock));
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    Map<String, String> headers = new HashMap<>();
+    if (eTag != null) {
+      headers.put(HEADER_IF_NONE_MATCH, eTag);
+    }
+    if (lastModified != null) {
+      headers.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+    }
+    return headers;
+  }
+
+  @Override
+  public Response<ConditionalResponse> parseNetworkResponse(NetworkResponse response) {
+    if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      // Servers may or may not repeat the validators on a 304. Fall back to the ones we sent.
+      return Response.success(
+          ConditionalResponse.notModified(
+              headerOr(response, HEADER_ETAG, eTag),
+              headerOr(response, HEADER_LAST_MODIFIED, lastModified)),
+          HttpHeaderParser.parseCacheHeaders(response));
+    }
+    if (response.statusCode >= 400) {
+      return Response.error(new VolleyError(response));
+    }
+    String body;
+    try {
+      body = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+    } catch (UnsupportedEncodingException e) {
+      body = new String(response.data);
+    }
+    return Response.success(
+        ConditionalResponse.modified(
+            body,
+            headerOr(response, HEADER_ETAG, null),
+            headerOr(response, HEADER_LAST_MODIFIED, null)),
+        HttpHeaderParser.parseCacheHeaders(response));
+  }
+
+  @Override
+  public boolean isDeliveredInBackground() {
+    // Downloading keys is background work, so is whatever follows it.
+    return true;
+  }
+
+  @Override
+  public boolean isCoalescable() {
+    // Overlapping key downloads (say a periodic and a manual one) fetch the same index files.
+    return true;
+  }
+
+  @Override
+  public Endpoint getEndpoint() {
+    return Endpoint.ENDPOINT_INDEX;
+  }
+
+  @Override
+  public boolean acceptsCompressedResponse() {
+    // Index files are plain text, and compress well.
+    return true;
+  }
+
+  @Override
+  public void onResponseBodyRead(long encodedBytes, long decodedBytes) {
+    responseBytes = decodedBytes;
+    encodedResponseBytes = encodedBytes;
+  }
+
+  @Override
+  public void deliverResponse(ConditionalResponse response) {
+    listener.onResponse(response, responseBytes, encodedResponseBytes);
+  }
+
+  @Nullable
+  private static String headerOr(
+      NetworkResponse response, String header, @Nullable String defaultValue) {
+    if (response.headers == null) {
+      return defaultValue;
+    }
+    // Volley gives us a case-insensitive map, but don't rely on it.
+    for (Map.Entry<String, String> entry : response.headers.entrySet()) {
+      if (header.equalsIgnoreCase(entry.getKey())) {
+        return entry.getValue();
+      }
+    }
+    return defaultValue;
+  }
+}
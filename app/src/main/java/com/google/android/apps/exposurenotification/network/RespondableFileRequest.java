@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import android.net.Uri;
+import androidx.annotation.WorkerThread;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request that streams the body of a keyfile straight into a file on disk, rather than holding
+ * the whole body in memory the way {@link RespondableByteArrayRequest} does.
+ *
+ * <p>The body is first written to a partial file next to the target file, which survives failed
+ * attempts. Retries continue from where it stopped with a Range request. If the request fails for
+ * good, the partial file is handed back to the given shared partial file, where a later request
+ * for the same URI picks it up and continues in turn. Only once the whole file has arrived is it
+ * moved to the target file.
+ *
+ * <p>Requires a {@link StreamingNetwork} in the request queue to do the actual streaming. Like the
+ * other Respondable requests, {@link #deliverResponse(File)} is public so that a fake request queue
+ * can deliver a test's response.
+ *
+ * <p>The listener is told how many bytes of the file this request read, and how many came over
+ * the wire to do so, over all its attempts. Bytes resumed from an earlier request aren't counted.
+ */
+public class RespondableFileRequest extends Request<File>
+    implements BackgroundDelivery, Metered, ResponseCompression {
+
+  // Fixed-size copy buffer, so peak heap does not depend on the size of the file downloaded.
+  private static final int BUFFER_SIZE_BYTES = 16 * 1024;
+
+  private static final String HEADER_RANGE = "Range";
+  private static final String HEADER_IF_RANGE = "If-Range";
+  private static final String PARTIAL_SUFFIX = ".partial";
+
+  private final File sharedPartialFile;
+  private final File targetFile;
+  private final ResumableDownload resumableDownload;
+  private final SizedListener<File> listener;
+  private final Object sizesLock = new Object();
+  private long responseBytes = -1;
+  private long encodedResponseBytes = -1;
+
+  /**
+   * Creates the request, taking over any partial download left at {@code sharedPartialFile}. That
+   * touches the disk, so isn't for the main thread.
+   */
+  @WorkerThread
+  public RespondableFileRequest(
+      Uri uri,
+      File sharedPartialFile,
+      File targetFile,
+      SizedListener<File> listener,
+      ErrorListener errorListener,
+      Clock clock) {
+    super(Method.GET, uri.toString(), errorListener);
+    this.sharedPartialFile = sharedPartialFile;
+    this.targetFile = targetFile;
+    this.resumableDownload = ResumableDownload.claim(
+        sharedPartialFile, new File(targetFile.getPath() + PARTIAL_SUFFIX));
+    this.listener = listener;
+    setShouldRetryServerErrors(true);
+    setRetryPolicy(new CustomRetryPolicy(clock));
+  }
+
+  public File getTargetFile() {
+    return targetFile;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    // Evaluated afresh for every attempt, so retries pick up where the last attempt stopped. Only
+    // reads what the last attempt left in memory; the disk was read when we were created.
+    String validator = resumableDownload.getResumeValidator();
+    if (validator == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> headers = new HashMap<>();
+    headers.put(HEADER_RANGE, "bytes=" + resumableDownload.getResumeOffset() + "-");
+    headers.put(HEADER_IF_RANGE, validator);
+    return headers;
+  }
+
+  /**
+   * Whether the next attempt asks for just the rest of a partial download, with a Range request.
+   */
+  boolean isResuming() {
+    return resumableDownload.getResumeValidator() != null;
+  }
+
+  /**
+   * Forgets the partial download, so the next attempt asks for the whole file.
+   */
+  void startOver() {
+    resumableDownload.discard();
+  }
+
+  /**
+   * Copies the given response body into the partial file through a fixed-size buffer, and once
+   * the file is complete, moves it to the target file. Returns the number of bytes written.
+   *
+   * <p>If the body is cut short, what we have so far is kept for the next attempt and this throws.
+   */
+  public long writeBody(int statusCode, List<Header> headers, InputStream body)
+      throws IOException {
+    long written = resumableDownload.write(statusCode, headers, body, new byte[BUFFER_SIZE_BYTES]);
+    resumableDownload.complete(targetFile);
+    return written;
+  }
+
+  @Override
+  protected Response<File> parseNetworkResponse(NetworkResponse response) {
+    return response.statusCode < 400
+        ? Response.success(targetFile, HttpHeaderParser.parseCacheHeaders(response))
+        : Response.error(new VolleyError(response));
+  }
+
+  @Override
+  public boolean isDeliveredInBackground() {
+    // Downloading keys is background work, so is whatever follows it.
+    return true;
+  }
+
+  @Override
+  public Endpoint getEndpoint() {
+    return Endpoint.ENDPOINT_KEYFILE;
+  }
+
+  @Override
+  public Priority getPriority() {
+    // Bulk traffic: a catch-up download can queue hundreds of these, and nobody's waiting on any
+    // one of them.
+    return Priority.LOW;
+  }
+
+  @Override
+  public boolean acceptsCompressedResponse() {
+    // Keyfiles are zip files already.
+    return false;
+  }
+
+  @Override
+  public void onResponseBodyRead(long encodedBytes, long decodedBytes) {
+    // Once per attempt, and every attempt that got a body counts.
+    synchronized (sizesLock) {
+      responseBytes = Math.max(responseBytes, 0) + decodedBytes;
+      encodedResponseBytes = Math.max(encodedResponseBytes, 0) + encodedBytes;
+    }
+  }
+
+  @Override
+  public void deliverResponse(File response) {
+    long bytes;
+    long encodedBytes;
+    synchronized (sizesLock) {
+      bytes = responseBytes;
+      encodedBytes = encodedResponseBytes;
+    }
+    listener.onResponse(response, bytes, encodedBytes);
+  }
+
+  @Override
+  public void deliverError(VolleyError error) {
+    // Keep what we got for a later request to resume.
+    resumableDownload.release(sharedPartialFile);
+    super.deliverError(error);
+  }
+}
@@ -20,37 +20,75 @@ package com.google.android.apps.exposurenotification.network;
 import com.android.volley.Cache;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Response;
-import com.android.volley.Response.Listener;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.network.ResponseCompression.SizedListener;
 import org.json.JSONObject;
 
 /**
  * A thin extension to {@link JsonObjectRequest} to make {@link #deliverResponse(JSONObject)} public
  * so that a fake request queue can deliver a test's response.
  *
+ * <p>It also sends an already serialized {@link JsonRequestBody}, rather than re-serializing a
+ * {@link JSONObject} as {@link JsonObjectRequest} would.
+ *
  * <p>This is a bit of an unfortunate workaround, but other alternatives that were considered were
  * even more awkward or complicated.
+ *
+ * <p>The listener is told how big the response was on the wire and once decompressed, so that
+ * callers can log both.
  */
-public class RespondableJsonObjectRequest extends JsonObjectRequest {
+public class RespondableJsonObjectRequest extends JsonObjectRequest
+    implements ResponseCompression {
 
   private static final Response<JSONObject> COVER_TRAFFIC_RESPONSE =
       Response.success(new JSONObject(), new Cache.Entry());
 
   protected final boolean isCoverTraffic;
+  private final JsonRequestBody body;
+  private final SizedListener<JSONObject> listener;
+  // Set from the network thread once the body's been read, and read on delivery.
+  private volatile long responseBytes = -1;
+  private volatile long encodedResponseBytes = -1;
 
   public RespondableJsonObjectRequest(
-      int method, String url, JSONObject jsonRequest, Listener<JSONObject> listener,
+      int method, String url, JsonRequestBody body, SizedListener<JSONObject> listener,
       Response.ErrorListener errorListener, Clock clock, boolean isCoverTraffic) {
-    super(method, url, jsonRequest, listener, errorListener);
+    super(method, url, (JSONObject) null, /* listener= */ null, errorListener);
+    this.body = body;
+    this.listener = listener;
     this.isCoverTraffic = isCoverTraffic;
     setShouldRetryServerErrors(true);
     setRetryPolicy(new CustomRetryPolicy(clock));
   }
 
+  @Override
+  public byte[] getBody() {
+    return body.bytes();
+  }
+
+  @Override
+  public Priority getPriority() {
+    // Our JSON requests are the verification and upload calls a user waits on after tapping
+    // "Share", so they're interactive. The cover traffic imitating them goes the same way, so
+    // that it's timed like the real thing and can't be told apart by how long it waited.
+    return Priority.HIGH;
+  }
+
+  @Override
+  public boolean acceptsCompressedResponse() {
+    return true;
+  }
+
+  @Override
+  public void onResponseBodyRead(long encodedBytes, long decodedBytes) {
+    responseBytes = decodedBytes;
+    encodedResponseBytes = encodedBytes;
+  }
+
   @Override
   public void deliverResponse(JSONObject response) {
-    super.deliverResponse(response);
+    listener.onResponse(response, responseBytes, encodedResponseBytes);
   }
 
   @Override
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.Request;
+
+/**
+ * Lets requests opt out of compressed responses, and find out how big their responses were on the
+ * wire and once decompressed.
+ *
+ * <p>Responses are compressed by default, which suits our text payloads (index files, configs and
+ * JSON RPCs). Requests for content that is already compressed, such as zipped keyfile exports,
+ * should opt out, since compressing them again gains nothing.
+ */
+public interface ResponseCompression {
+
+  /**
+   * Whether the server may gzip or deflate this request's response.
+   */
+  boolean acceptsCompressedResponse();
+
+  /**
+   * Called once this request's response body has been read, with the number of bytes that came over
+   * the wire and the number of bytes they decompressed to. They're the same if the response wasn't
+   * compressed.
+   */
+  default void onResponseBodyRead(long encodedBytes, long decodedBytes) {}
+
+  /**
+   * A response listener which is also told how big the response was, on the wire and once
+   * decompressed, as reported to {@link #onResponseBodyRead(long, long)}. Both are -1 if the
+   * request never heard, say because the response was delivered by a fake request queue.
+   */
+  interface SizedListener<T> {
+    void onResponse(T response, long responseBytes, long encodedResponseBytes);
+  }
+
+  /**
+   * Whether the given request accepts compressed responses, which it does unless it opted out.
+   */
+  static boolean acceptsCompressedResponse(Request<?> request) {
+    return !(request instanceof ResponseCompression)
+        || ((ResponseCompression) request).acceptsCompressedResponse();
+  }
+
+  /**
+   * Tells the given request, if it's interested, how big its response body was.
+   */
+  static void onResponseBodyRead(Request<?> request, long encodedBytes, long decodedBytes) {
+    if (request instanceof ResponseCompression) {
+      ((ResponseCompression) request).onResponseBodyRead(encodedBytes, decodedBytes);
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.android.volley.Header;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps track of a partially downloaded file across attempts, and even across processes, so that
+ * a download can continue from where it stopped with an HTTP Range request instead of starting
+ * over.
+ *
+ * <p>Alongside the partial file we keep a small metadata file holding the validator (ETag or
+ * Last-Modified) the server gave us and the expected total length. We only resume when we have a
+ * strong validator to send in If-Range, so the server tells us (with a full 200 response) if the
+ * file has changed in the meantime.
+ *
+ * <p>Where to resume from is read from disk once, when the download is {@link #claim claimed}, and
+ * then kept up to date in memory as attempts write to the file, so that building the next request
+ * never needs to touch the disk.
+ */
+class ResumableDownload {
+
+  private static final Logger logger = Logger.getLogger("ResumableDownload");
+
+  private static final String HEADER_ETAG = "ETag";
+  private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+  private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+  private static final String HEADER_CONTENT_RANGE = "Content-Range";
+  private static final String METADATA_SUFFIX = ".meta";
+  private static final String KEY_VALIDATOR = "validator";
+  private static final String KEY_TOTAL_LENGTH = "totalLength";
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+  private static final long UNKNOWN_LENGTH = -1;
+
+  private final File partialFile;
+  private final File metadataFile;
+
+  // Where the next attempt resumes from. All guarded by "this".
+  @Nullable
+  private String resumeValidator;
+  private long resumeOffset;
+
+  private ResumableDownload(File partialFile) {
+    this.partialFile = partialFile;
+    this.metadataFile = metadataFileFor(partialFile);
+  }
+
+  /**
+   * Takes over any partial download left at {@code sharedPartialFile} by an earlier request,
+   * moving it to {@code partialFile}, where this download then writes. The move is atomic, so if
+   * several requests race for the same partial download only one of them resumes it, and the
+   * others start over in their own files rather than writing over each other.
+   */
+  @WorkerThread
+  static ResumableDownload claim(File sharedPartialFile, File partialFile) {
+    ResumableDownload download = new ResumableDownload(partialFile);
+    if (sharedPartialFile.exists()) {
+      download.discard();
+      try {
+        FileUtils.forceMkdirParent(partialFile);
+        // Claim the file first, so only the request that wins it takes its metadata too.
+        if (sharedPartialFile.renameTo(partialFile)) {
+          metadataFileFor(sharedPartialFile).renameTo(download.metadataFile);
+        }
+      } catch (IOException e) {
+        logger.w("Failed to claim partial download " + sharedPartialFile, e);
+      }
+    }
+    download.loadResumePoint();
+    return download;
+  }
+
+  /**
+   * Hands what we have so far back to {@code sharedPartialFile}, for a later request to resume,
+   * unless another request has left a partial download there in the meantime.
+   */
+  @WorkerThread
+  synchronized void release(File sharedPartialFile) {
+    if (resumeValidator == null || sharedPartialFile.exists()) {
+      discard();
+      return;
+    }
+    // The metadata goes first, so that the partial file appearing is what makes it claimable.
+    if (!metadataFile.renameTo(metadataFileFor(sharedPartialFile))
+        || !partialFile.renameTo(sharedPartialFile)) {
+      logger.w("Failed to release partial download " + partialFile);
+      discard();
+    }
+    resumeValidator = null;
+    resumeOffset = 0;
+  }
+
+  /**
+   * Returns the validator to send in If-Range if we can resume, otherwise null.
+   */
+  @Nullable
+  synchronized String getResumeValidator() {
+    return resumeValidator;
+  }
+
+  /**
+   * Returns the number of bytes we already have, which is where a Range request starts.
+   */
+  synchronized long getResumeOffset() {
+    return resumeOffset;
+  }
+
+  private synchronized void loadResumePoint() {
+    resumeValidator = null;
+    resumeOffset = 0;
+    if (!partialFile.exists() || partialFile.length() == 0) {
+      return;
+    }
+    Properties metadata = readMetadata();
+    long totalLength = parseLength(metadata.getProperty(KEY_TOTAL_LENGTH));
+    if (totalLength != UNKNOWN_LENGTH && partialFile.length() >= totalLength) {
+      // Nothing left to ask for (we must have died before completing). Start over rather than
+      // trust it.
+      discard();
+      return;
+    }
+    resumeValidator = metadata.getProperty(KEY_VALIDATOR);
+    if (resumeValidator != null) {
+      resumeOffset = partialFile.length();
+    }
+  }
+
+  /**
+   * Writes the given response body into the partial file, appending to what's already there for a
+   * 206 response and starting over otherwise, and returns the number of bytes written.
+   *
+   * <p>Throws if the body ends before the total length the server announced. What we have so far is
+   * kept, so the next attempt can resume from there.
+   */
+  synchronized long write(int statusCode, List<Header> headers, InputStream body, byte[] buffer)
+      throws IOException {
+    boolean append = false;
+    long totalLength;
+    if (statusCode == 206) {
+      Matcher range = contentRange(headers);
+      if (range == null || Long.parseLong(range.group(1)) != partialFile.length()) {
+        // Not the range we asked for; forget what we have so the next attempt starts over.
+        discard();
+        throw new IOException("Unexpected Content-Range " + header(headers, HEADER_CONTENT_RANGE));
+      }
+      append = true;
+      totalLength = "*".equals(range.group(3)) ? UNKNOWN_LENGTH : Long.parseLong(range.group(3));
+      logger.d("Resuming " + partialFile + " from byte " + partialFile.length());
+    } else {
+      totalLength = parseLength(header(headers, HEADER_CONTENT_LENGTH));
+      resumeValidator = strongValidator(headers);
+      writeMetadata(resumeValidator, totalLength);
+    }
+
+    FileUtils.forceMkdirParent(partialFile);
+    long written = 0;
+    try (OutputStream out = new FileOutputStream(partialFile, append)) {
+      int read;
+      while ((read = body.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        written += read;
+      }
+    } finally {
+      // However far we got, the next attempt carries on from there.
+      resumeOffset = resumeValidator == null ? 0 : partialFile.length();
+    }
+
+    if (totalLength != UNKNOWN_LENGTH && partialFile.length() != totalLength) {
+      throw new IOException(String.format("Truncated download: have [%d] of [%d] bytes",
+          partialFile.length(), totalLength));
+    }
+    return written;
+  }
+
+  /**
+   * Moves the complete file to its final location and forgets the partial download.
+   */
+  synchronized void complete(File targetFile) throws IOException {
+    FileUtils.forceMkdirParent(targetFile);
+    if (targetFile.exists()) {
+      FileUtils.forceDelete(targetFile);
+    }
+    FileUtils.moveFile(partialFile, targetFile);
+    FileUtils.deleteQuietly(metadataFile);
+    resumeValidator = null;
+    resumeOffset = 0;
+  }
+
+  /**
+   * Forgets the partial download entirely.
+   */
+  synchronized void discard() {
+    FileUtils.deleteQuietly(partialFile);
+    FileUtils.deleteQuietly(metadataFile);
+    resumeValidator = null;
+    resumeOffset = 0;
+  }
+
+  private static File metadataFileFor(File partialFile) {
+    return new File(partialFile.getPath() + METADATA_SUFFIX);
+  }
+
+  private Properties readMetadata() {
+    Properties metadata = new Properties();
+    if (metadataFile.exists()) {
+      try (InputStream in = new FileInputStream(metadataFile)) {
+        metadata.load(in);
+      } catch (IOException e) {
+        logger.w("Failed to read download metadata " + metadataFile, e);
+      }
+    }
+    return metadata;
+  }
+
+  private void writeMetadata(@Nullable String validator, long totalLength) throws IOException {
+    if (validator == null) {
+      // Without a validator we can't safely resume, so don't pretend we can.
+      FileUtils.deleteQuietly(metadataFile);
+      return;
+    }
+    Properties metadata = new Properties();
+    metadata.setProperty(KEY_VALIDATOR, validator);
+    metadata.setProperty(KEY_TOTAL_LENGTH, Long.toString(totalLength));
+    FileUtils.forceMkdirParent(metadataFile);
+    try (OutputStream out = new FileOutputStream(metadataFile)) {
+      metadata.store(out, /* comments= */ null);
+    }
+  }
+
+  /**
+   * Returns a validator usable in If-Range: a strong ETag if there is one, else Last-Modified.
+   */
+  @Nullable
+  private static String strongValidator(List<Header> headers) {
+    String eTag = header(headers, HEADER_ETAG);
+    if (eTag != null && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return header(headers, HEADER_LAST_MODIFIED);
+  }
+
+  @Nullable
+  private static Matcher contentRange(List<Header> headers) {
+    String value = header(headers, HEADER_CONTENT_RANGE);
+    if (value == null) {
+      return null;
+    }
+    Matcher matcher = CONTENT_RANGE.matcher(value.trim());
+    return matcher.matches() ? matcher : null;
+  }
+
+  private static long parseLength(@Nullable String value) {
+    if (value == null) {
+      return UNKNOWN_LENGTH;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return UNKNOWN_LENGTH;
+    }
+  }
+
+  @Nullable
+  private static String header(List<Header> headers, String name) {
+    for (Header header : headers) {
+      if (name.equalsIgnoreCase(header.getName())) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link ResponseDelivery} that keeps responses off the main thread, unlike Volley's default
+ * which posts every one of them to the main looper.
+ *
+ * <p>Responses are delivered on the given lightweight executor, unless the request opts into
+ * {@link BackgroundDelivery}, in which case they're delivered on the given background executor.
+ */
+public class RoutingResponseDelivery implements ResponseDelivery {
+
+  private final ResponseDelivery lightweightDelivery;
+  private final ResponseDelivery backgroundDelivery;
+
+  public RoutingResponseDelivery(Executor lightweightExecutor, Executor backgroundExecutor) {
+    this.lightweightDelivery = new ExecutorDelivery(lightweightExecutor);
+    this.backgroundDelivery = new ExecutorDelivery(backgroundExecutor);
+  }
+
+  @Override
+  public void postResponse(Request<?> request, Response<?> response) {
+    deliveryFor(request).postResponse(request, response);
+  }
+
+  @Override
+  public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+    deliveryFor(request).postResponse(request, response, runnable);
+  }
+
+  @Override
+  public void postError(Request<?> request, VolleyError error) {
+    deliveryFor(request).postError(request, error);
+  }
+
+  private ResponseDelivery deliveryFor(Request<?> request) {
+    return BackgroundDelivery.isDeliveredInBackground(request)
+        ? backgroundDelivery
+        : lightweightDelivery;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import android.os.SystemClock;
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A Volley {@link Network} which streams the bodies of {@link RespondableFileRequest}s straight to
+ * disk, and hands every other request to a delegate {@link Network}.
+ *
+ * <p>Volley's {@link com.android.volley.toolbox.BasicNetwork} always reads the whole response body
+ * into a byte array before handing it to the request, which is exactly what we want to avoid for
+ * large keyfiles. The retry and error semantics here mirror those of {@code BasicNetwork}, so that
+ * {@link CustomRetryPolicy} sees the same errors for either kind of request.
+ */
+public class StreamingNetwork implements Network {
+
+  private static final Logger logger = Logger.getLogger("StreamingNetwork");
+  private static final byte[] EMPTY_BODY = new byte[0];
+
+  private final BaseHttpStack httpStack;
+  private final Network delegate;
+
+  public StreamingNetwork(BaseHttpStack httpStack, Network delegate) {
+    this.httpStack = httpStack;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+    if (!(request instanceof RespondableFileRequest)) {
+      return delegate.performRequest(request);
+    }
+    RespondableFileRequest fileRequest = (RespondableFileRequest) request;
+    long requestStart = SystemClock.elapsedRealtime();
+    while (true) {
+      HttpResponse httpResponse = null;
+      NetworkResponse errorResponse = null;
+      boolean wasResuming = fileRequest.isResuming();
+      try {
+        httpResponse = httpStack.executeRequest(request, Collections.emptyMap());
+        int statusCode = httpResponse.getStatusCode();
+        List<Header> headers = httpResponse.getHeaders();
+        InputStream content = httpResponse.getContent();
+
+        if (statusCode < 200 || statusCode > 299) {
+          // Error bodies are small, and callers want to parse them, so keep them in memory.
+          byte[] errorBody = content == null ? EMPTY_BODY : IOUtils.toByteArray(content);
+          errorResponse = new NetworkResponse(
+              statusCode, errorBody, /* notModified= */ false, elapsedSince(requestStart), headers);
+          throw new IOException("Unexpected response code " + statusCode);
+        }
+
+        InputStream body = content == null ? new ByteArrayInputStream(EMPTY_BODY) : content;
+        long bytesWritten;
+        try {
+          bytesWritten = fileRequest.writeBody(statusCode, headers, body);
+        } finally {
+          body.close();
+        }
+        logger.d("Streamed " + bytesWritten + " bytes to " + fileRequest.getTargetFile());
+        return new NetworkResponse(
+            statusCode, EMPTY_BODY, /* notModified= */ false, elapsedSince(requestStart), headers);
+      } catch (SocketTimeoutException e) {
+        attemptRetryOnException(request, new TimeoutError());
+      } catch (IOException e) {
+        if (httpResponse == null) {
+          throw new NoConnectionError(e);
+        }
+        if (errorResponse == null) {
+          // The connection broke while we were streaming the body. The retry resumes from where
+          // we stopped.
+          attemptRetryOnException(request, new NetworkError(e));
+          continue;
+        }
+        int statusCode = errorResponse.statusCode;
+        if (wasResuming && statusCode >= 400 && statusCode <= 499) {
+          // The server won't give us the range we asked for, e.g. a 416 because the partial file
+          // is already whole: if the length was unknown, we can't tell if we died before moving
+          // it into place. Ask once for the whole file instead, since the partial file would
+          // otherwise be handed back and fail the same way on every later attempt.
+          logger.w("Ranged request failed with " + statusCode + ", starting over.");
+          fileRequest.startOver();
+          continue;
+        }
+        if (statusCode == 401 || statusCode == 403) {
+          attemptRetryOnException(request, new AuthFailureError(errorResponse));
+        } else if (statusCode >= 400 && statusCode <= 499) {
+          throw new ClientError(errorResponse);
+        } else if (statusCode >= 500 && statusCode <= 599 && request.shouldRetryServerErrors()) {
+          attemptRetryOnException(request, new ServerError(errorResponse));
+        } else {
+          throw new ServerError(errorResponse);
+        }
+      }
+    }
+  }
+
+  private static void attemptRetryOnException(Request<?> request, VolleyError error)
+      throws VolleyError {
+    int oldTimeout = request.getTimeoutMs();
+    // Throws if the retry policy says we're done.
+    request.getRetryPolicy().retry(error);
+    request.addMarker(String.format("streaming-retry [timeout=%s]", oldTimeout));
+  }
+
+  private static long elapsedSince(long start) {
+    return SystemClock.elapsedRealtime() - start;
+  }
+}
@@ -50,6 +50,8 @@ import com.google.android.apps.exposurenotification.keyupload.Upload;
 import com.google.android.apps.exposurenotification.keyupload.UploadController;
 import com.google.android.apps.exposurenotification.keyupload.UploadController.NoInternetException;
 import com.google.android.apps.exposurenotification.keyupload.UploadController.UploadException;
+import com.google.android.apps.exposurenotification.keyupload.UploadOutbox;
+import com.google.android.apps.exposurenotification.keyupload.UploadOutbox.QueuedForLaterException;
 import com.google.android.apps.exposurenotification.keyupload.UserReportUpload;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.network.Connectivity;
@@ -167,6 +169,7 @@ public class ShareDiagnosisViewModel extends ViewModel {
   private final DiagnosisRepository diagnosisRepository;
   private final VerificationCodeRequestRepository requestRepository;
   private final UploadController uploadController;
+  private final UploadOutbox uploadOutbox;
   private final ExposureNotificationClientWrapper exposureNotificationClientWrapper;
   private final Resources resources;
   private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
@@ -232,6 +235,7 @@ public class ShareDiagnosisViewModel extends ViewModel {
       @ApplicationContext Context context,
       SavedStateHandle savedStateHandle,
       UploadController uploadController,
+      UploadOutbox uploadOutbox,
       DiagnosisRepository diagnosisRepository,
       VerificationCodeRequestRepository requestRepository,
       ExposureNotificationClientWrapper exposureNotificationClientWrapper,
@@ -247,6 +251,7 @@ public class ShareDiagnosisViewModel extends ViewModel {
     this.context = context;
     this.savedStateHandle = savedStateHandle;
     this.uploadController = uploadController;
+    this.uploadOutbox = uploadOutbox;
     this.diagnosisRepository = diagnosisRepository;
     this.requestRepository = requestRepository;
     this.exposureNotificationClientWrapper = exposureNotificationClientWrapper;
@@ -598,6 +603,11 @@ public class ShareDiagnosisViewModel extends ViewModel {
               return null;
             },
             lightweightExecutor)
+        .catching(QueuedForLaterException.class, ex -> {
+          snackbarLiveEvent.postValue(resources.getString(R.string.share_queued_no_internet));
+          inFlightLiveData.postValue(false);
+          return null;
+        }, lightweightExecutor)
         .catching(NoInternetException.class, ex -> {
           snackbarLiveEvent.postValue(resources.getString(R.string.share_error_no_internet));
           inFlightLiveData.postValue(false);
@@ -781,11 +791,17 @@ public class ShareDiagnosisViewModel extends ViewModel {
           phoneNumberErrorMessageLiveData.postValue(ex.getErrorMessage());
           return null;
         }, lightweightExecutor)
-        .catching(NoInternetException.class, ex -> {
-          inFlightLiveData.postValue(false);
-          requestCodeErrorLiveData.postValue(resources.getString(R.string.share_error_no_internet));
-          return null;
-        }, lightweightExecutor)
+        .catchingAsync(NoInternetException.class, ex ->
+            // Request the code once we're back online, rather than have the user try again. The
+            // code arrives by SMS either way, so carry on to the step where they enter it.
+            FluentFuture.from(uploadOutbox.enqueue(upload))
+                .transform(unused -> {
+                  inFlightLiveData.postValue(false);
+                  snackbarLiveEvent.postValue(
+                      resources.getString(R.string.self_report_code_request_queued_no_internet));
+                  nextStep(Step.CODE);
+                  return null;
+                }, lightweightExecutor), lightweightExecutor)
         .catchingAsync(UploadException.class, ex -> {
           captureVerificationCodeRequestAndUploadException(upload, ex);
           return null;
@@ -1047,7 +1063,11 @@ public class ShareDiagnosisViewModel extends ViewModel {
             upload -> {
               logger.d("Uploading keys and cert to keyserver...");
               // Finally, the verification server having certified our diagnosis, upload our keys.
-              return uploadController.upload(upload);
+              return FluentFuture.from(uploadController.upload(upload))
+                  // If we've no connectivity now we've got this far, hold on to the certified keys
+                  // and upload them once we're back online, rather than have the user try again.
+                  .catchingAsync(
+                      NoInternetException.class, ex -> queueUpload(upload), lightweightExecutor);
             },
             backgroundExecutor)
         .transform(
@@ -1088,6 +1108,21 @@ public class ShareDiagnosisViewModel extends ViewModel {
             lightweightExecutor);
   }
 
+  /**
+   * Stores the given certified upload in the outbox, along with its certificate in the current
+   * diagnosis so that a later attempt to share doesn't need another, and fails with
+   * {@link QueuedForLaterException}.
+   */
+  private ListenableFuture<Upload> queueUpload(Upload upload) {
+    return FluentFuture.from(
+        save(diagnosis -> diagnosis.toBuilder().setCertificate(upload.certificate()).build()))
+        .transformAsync(diagnosisId -> uploadOutbox.enqueue(upload, diagnosisId),
+            backgroundExecutor)
+        .transformAsync(
+            unused -> Futures.immediateFailedFuture(new QueuedForLaterException()),
+            lightweightExecutor);
+  }
+
   private ListenableFuture<Upload> addRevisionTokenToUpload(Upload upload) {
     return FluentFuture.from(diagnosisRepository.getMostRecentRevisionTokenAsync())
         .transform(
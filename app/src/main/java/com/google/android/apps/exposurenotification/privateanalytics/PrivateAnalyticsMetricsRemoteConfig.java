@@ -21,17 +21,21 @@ import android.net.Uri;
 import androidx.annotation.VisibleForTesting;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
 import com.android.volley.VolleyError;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.network.Coalescable;
+import com.google.android.apps.exposurenotification.network.Metered;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
+import com.google.android.apps.exposurenotification.network.ResponseCompression;
 import com.google.android.apps.exposurenotification.privateanalytics.MetricsRemoteConfigs.Builder;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
 import com.google.android.libraries.privateanalytics.DefaultPrivateAnalyticsRemoteConfig.FetchRemoteConfigRequest;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsEventListener;
 import com.google.android.libraries.privateanalytics.Qualifiers.RemoteConfigUri;
 import com.google.android.libraries.privateanalytics.utils.VolleyUtils;
 import com.google.common.base.Optional;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -167,9 +171,9 @@ public class PrivateAnalyticsMetricsRemoteConfig {
   private ListenableFuture<JSONObject> fetchUpdatedConfigsJson() {
     return CallbackToFutureAdapter.getFuture(
         completer -> {
-          Listener<JSONObject> responseListener =
-              response -> {
-                logSuccess(response);
+          RemoteConfigRequest.Listener responseListener =
+              (response, responseBytes, encodedResponseBytes) -> {
+                logSuccess(response, responseBytes, encodedResponseBytes);
                 completer.set(response);
               };
           ErrorListener errorListener =
@@ -177,18 +181,25 @@ public class PrivateAnalyticsMetricsRemoteConfig {
                 logFailure(err);
                 completer.set(null);
               };
-          FetchRemoteConfigRequest request = new FetchRemoteConfigRequest(remoteConfigUri,
-              responseListener, errorListener);
+          FetchRemoteConfigRequest request = new RemoteConfigRequest(
+              remoteConfigUri, responseListener, errorListener);
           queue.add(request);
           return request;
         });
   }
 
-  private void logSuccess(JSONObject response) {
+  private void logSuccess(JSONObject response, long responseBytes, long encodedResponseBytes) {
     if (logger.isPresent()) {
-      logger.get()
-          .onPrivateAnalyticsRemoteConfigCallSuccess(
-              response.toString().length());
+      if (responseBytes < 0) {
+        // We don't know the sizes if we didn't make the network call ourselves.
+        logger.get()
+            .onPrivateAnalyticsRemoteConfigCallSuccess(
+                response.toString().length());
+      } else {
+        logger.get()
+            .onPrivateAnalyticsRemoteConfigCallSuccess(
+                Ints.saturatedCast(responseBytes), Ints.saturatedCast(encodedResponseBytes));
+      }
     }
     logcat.d("Successfully fetched remote configs.");
   }
@@ -328,4 +339,63 @@ public class PrivateAnalyticsMetricsRemoteConfig {
     }
     return remoteConfigBuilder.build();
   }
+
+  /**
+   * Configs are fetched from several places which may well overlap, and they all get the same
+   * response, so let them share one network call. Configs are small JSON text, so compress them,
+   * and tell the listener how big they were.
+   */
+  private static class RemoteConfigRequest extends FetchRemoteConfigRequest
+      implements Coalescable, Metered, ResponseCompression {
+
+    /**
+     * Receives the config along with its size as read and as it came over the wire, or -1 for both
+     * if the sizes aren't known.
+     */
+    interface Listener {
+      void onResponse(JSONObject response, long responseBytes, long encodedResponseBytes);
+    }
+
+    private final Listener listener;
+    private volatile long responseBytes = -1;
+    private volatile long encodedResponseBytes = -1;
+
+    RemoteConfigRequest(Uri endpoint, Listener listener, ErrorListener errorListener) {
+      // We deliver responses to our own listener, along with their sizes.
+      super(endpoint, /* listener= */ null, errorListener);
+      this.listener = listener;
+    }
+
+    @Override
+    public boolean isCoalescable() {
+      return true;
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return Endpoint.ENDPOINT_REMOTE_CONFIG;
+    }
+
+    @Override
+    public Priority getPriority() {
+      // Only ever fetched by background work.
+      return Priority.LOW;
+    }
+
+    @Override
+    public boolean acceptsCompressedResponse() {
+      return true;
+    }
+
+    @Override
+    public void onResponseBodyRead(long encodedBytes, long decodedBytes) {
+      encodedResponseBytes = encodedBytes;
+      responseBytes = decodedBytes;
+    }
+
+    @Override
+    public void deliverResponse(JSONObject response) {
+      listener.onResponse(response, responseBytes, encodedResponseBytes);
+    }
+  }
 }
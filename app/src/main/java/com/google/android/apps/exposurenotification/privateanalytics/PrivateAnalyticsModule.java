@@ -114,6 +114,12 @@ public class PrivateAnalyticsModule {
         logger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH, length);
       }
 
+      @Override
+      public void onPrivateAnalyticsRemoteConfigCallSuccess(int length, int compressedLength) {
+        logger.logRpcCallSuccessAsync(
+            RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH, length, compressedLength);
+      }
+
       @Override
       public void onPrivateAnalyticsRemoteConfigCallFailure(Exception err) {
         logger.logRpcCallFailureAsync(RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH, err);
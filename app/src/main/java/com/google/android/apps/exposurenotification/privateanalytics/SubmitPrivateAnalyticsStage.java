@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.privateanalytics;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.work.MaintenanceStage;
+import com.google.android.libraries.privateanalytics.DefaultPrivateAnalyticsDeviceAttestation;
+import com.google.android.libraries.privateanalytics.PrivateAnalyticsEnabledProvider;
+import com.google.android.libraries.privateanalytics.PrivateAnalyticsEventListener;
+import com.google.android.libraries.privateanalytics.PrivateAnalyticsSubmitter;
+import com.google.android.libraries.privateanalytics.PrivateAnalyticsSubmitter.NotEnabledException;
+import com.google.android.libraries.privateanalytics.Qualifiers.BiweeklyMetricsUploadDay;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * Submits private analytics to the configured ingestion server, once a day.
+ */
+public class SubmitPrivateAnalyticsStage implements MaintenanceStage {
+
+  private static final Logger logger = Logger.getLogger("PrioSubmitStage");
+
+  public static final String NAME = "SubmitPrivateAnalytics";
+  private static final Duration MINIMAL_ENPA_TASK_INTERVAL = Duration.ofDays(1);
+  private static final Duration TIMEOUT = Duration.ofMinutes(5);
+
+  private final PrivateAnalyticsSubmitter privateAnalyticsSubmitter;
+  private final PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider;
+  private final ExecutorService backgroundExecutor;
+  private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  private final Clock clock;
+  private final Optional<PrivateAnalyticsEventListener> analyticsListener;
+  @VisibleForTesting
+  int biweeklyMetricsUploadDay;
+
+  @Inject
+  public SubmitPrivateAnalyticsStage(
+      PrivateAnalyticsSubmitter privateAnalyticsSubmitter,
+      PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider,
+      @BackgroundExecutor ExecutorService backgroundExecutor,
+      Clock clock,
+      ExposureNotificationSharedPreferences exposureNotificationSharedPreferences,
+      Optional<PrivateAnalyticsEventListener> analyticsListener,
+      @BiweeklyMetricsUploadDay int biweeklyMetricsUploadDay) {
+    this.privateAnalyticsSubmitter = privateAnalyticsSubmitter;
+    this.privateAnalyticsEnabledProvider = privateAnalyticsEnabledProvider;
+    this.backgroundExecutor = backgroundExecutor;
+    this.clock = clock;
+    this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
+    this.analyticsListener = analyticsListener;
+    this.biweeklyMetricsUploadDay = biweeklyMetricsUploadDay;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public Duration getInterval() {
+    return MINIMAL_ENPA_TASK_INTERVAL;
+  }
+
+  @Override
+  public Duration getTimeout() {
+    return TIMEOUT;
+  }
+
+  @Override
+  public boolean isSupported() {
+    return privateAnalyticsEnabledProvider.isSupportedByApp()
+        && DefaultPrivateAnalyticsDeviceAttestation.isDeviceAttestationAvailable();
+  }
+
+  @Override
+  public boolean needsNetwork() {
+    return true;
+  }
+
+  @Override
+  public boolean isRetriedOnFailure() {
+    // At most one submission a day, as when this was a daily job of its own: metrics already
+    // uploaded by a failed run mustn't be counted twice by a retry a few hours later.
+    return false;
+  }
+
+  @Override
+  public ListenableFuture<?> run(boolean isEnabled) {
+    logger.d("Submitting private analytics to ingestion server.");
+    if (analyticsListener.isPresent()) {
+      analyticsListener.get().onPrivateAnalyticsWorkerTaskStarted();
+    }
+
+    clearOlderPrivateAnalyticsFields();
+
+    ListenableFuture<?> submitted;
+    if (isEnabled && DefaultPrivateAnalyticsDeviceAttestation.isDeviceAttestationAvailable()) {
+      logger.d("Private analytics enabled and device attestation available.");
+      // Attempt to submit packets. Note this this will return early is private analytics are
+      // remotely disabled or toggled off.
+      submitted = privateAnalyticsSubmitter.submitPackets();
+    } else {
+      logger.d("API not enabled or device attestation unavailable.");
+      // Stop here because things are not enabled. Will still return successful though.
+      submitted = Futures.immediateFailedFuture(new NotEnabledException());
+    }
+
+    return FluentFuture.from(submitted)
+        .transform(done -> {
+          resetPrivateAnalyticsWorkerLastTime();
+          return null;
+        }, backgroundExecutor)
+        .catching(
+            NotEnabledException.class,
+            x -> {
+              resetPrivateAnalyticsWorkerLastTime();
+              return null;
+            },
+            backgroundExecutor)
+        .catchingAsync(
+            Exception.class,
+            x -> {
+              logger.e("Failure to submit private analytics", x);
+              // Even if we observe an Exception, we store the last time the worker run.
+              // Note that this will prevent older data to be uploaded.
+              resetPrivateAnalyticsWorkerLastTime();
+              return Futures.immediateFailedFuture(x);
+            },
+            backgroundExecutor);
+  }
+
+  @VisibleForTesting
+  void clearOlderPrivateAnalyticsFields() {
+    Instant fourteenDaysAgo = clock.now().minus(Duration.ofDays(14));
+
+    Instant lastWorkerTimeForDaily = exposureNotificationSharedPreferences
+        .getPrivateAnalyticsWorkerLastTimeForDaily();
+    Instant latestTimeToClear =
+        lastWorkerTimeForDaily.isAfter(fourteenDaysAgo) ? lastWorkerTimeForDaily
+            : fourteenDaysAgo;
+    // Clear data older than two weeks + since last daily metrics run (whichever comes first).
+    exposureNotificationSharedPreferences
+        .clearPrivateAnalyticsDailyFieldsBefore(latestTimeToClear);
+
+    if (checkThatTodayIsBiweeklyMetricsUploadDay()) {
+      Instant lastWorkerTimeForBiweekly = exposureNotificationSharedPreferences
+          .getPrivateAnalyticsWorkerLastTimeForBiweekly();
+      latestTimeToClear =
+          lastWorkerTimeForBiweekly.isAfter(fourteenDaysAgo)
+              ? lastWorkerTimeForBiweekly
+              : fourteenDaysAgo;
+      // Clear data older than two weeks + since last daily metrics run (whichever comes first).
+      exposureNotificationSharedPreferences
+          .clearPrivateAnalyticsBiweeklyFieldsBefore(latestTimeToClear);
+    }
+  }
+
+  private boolean checkThatTodayIsBiweeklyMetricsUploadDay() {
+    return PrivateAnalyticsSubmitter
+        .isCalendarTheBiweeklyMetricsUploadDay(biweeklyMetricsUploadDay,
+            Calendar.getInstance());
+  }
+
+  private void resetPrivateAnalyticsWorkerLastTime() {
+    exposureNotificationSharedPreferences
+        .setPrivateAnalyticsWorkerLastTimeForDaily(clock.now());
+    if (checkThatTodayIsBiweeklyMetricsUploadDay()) {
+      exposureNotificationSharedPreferences
+          .setPrivateAnalyticsWorkerLastTimeForBiweekly(clock.now());
+    }
+  }
+}
@@ -27,7 +27,10 @@ import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 import com.google.android.apps.exposurenotification.BuildConfig;
 import com.google.android.apps.exposurenotification.common.NotificationHelper;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.work.WorkerRun;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import dagger.assisted.Assisted;
@@ -49,28 +52,31 @@ public class RestoreNotificationWorker extends ListenableWorker {
   private final Context context;
   private final NotificationHelper notificationHelper;
   private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  private final WorkerTelemetry workerTelemetry;
 
   @AssistedInject
   public RestoreNotificationWorker(
       @Assisted @NonNull Context context,
       @Assisted @NonNull WorkerParameters params,
       NotificationHelper notificationHelper,
-      ExposureNotificationSharedPreferences sharedPreferences) {
+      ExposureNotificationSharedPreferences sharedPreferences,
+      WorkerTelemetry workerTelemetry) {
     super(context, params);
     this.context = context;
     this.notificationHelper = notificationHelper;
     this.exposureNotificationSharedPreferences = sharedPreferences;
+    this.workerTelemetry = workerTelemetry;
   }
 
   @NonNull
   @Override
   public ListenableFuture<Result> startWork() {
-
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_RESTORE_NOTIFICATION);
     RestoreNotificationUtil
         .doRestoreNotificationWork(context, exposureNotificationSharedPreferences,
         notificationHelper);
 
-    return Futures.immediateFuture(Result.success());
+    return run.finish(Futures.immediateFuture(Result.success()));
   }
 
   public static void scheduleWork(WorkManager workManager) {
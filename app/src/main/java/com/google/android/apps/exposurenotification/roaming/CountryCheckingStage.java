@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.roaming;
+
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.work.MaintenanceStage;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+
+/**
+ * Records the country the device is currently in and forgets those seen too long ago, so we know
+ * which travellers' key servers to download from.
+ */
+public class CountryCheckingStage implements MaintenanceStage {
+
+  private static final Logger logcat = Logger.getLogger("CountryCheckingStage");
+
+  public static final String NAME = "CountryChecking";
+  private static final Duration INTERVAL = Duration.ofHours(6);
+  private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+  private final CountryCodes countryCodes;
+  private final AnalyticsLogger logger;
+
+  @Inject
+  public CountryCheckingStage(CountryCodes countryCodes, AnalyticsLogger logger) {
+    this.countryCodes = countryCodes;
+    this.logger = logger;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public Duration getInterval() {
+    return INTERVAL;
+  }
+
+  @Override
+  public Duration getTimeout() {
+    return TIMEOUT;
+  }
+
+  @Override
+  public boolean isSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean needsNetwork() {
+    // The country comes from the SIM, network and locale, none of which needs a connection.
+    return false;
+  }
+
+  @Override
+  public boolean isRetriedOnFailure() {
+    return true;
+  }
+
+  @Override
+  public ListenableFuture<?> run(boolean isEnabled) {
+    logger.logWorkManagerTaskStarted(WorkerTask.TASK_COUNTRY_CHECKING);
+    try {
+      // Only record the current country if it is enabled.
+      if (isEnabled) {
+        countryCodes.updateDatabaseWithCurrentCountryCode();
+      }
+      countryCodes.deleteObsoleteCountryCodes();
+    } catch (Exception e) {
+      logcat.e("Failure to check country code", e);
+      logger.logWorkManagerTaskFailure(WorkerTask.TASK_COUNTRY_CHECKING, e);
+      return Futures.immediateFailedFuture(e);
+    }
+    logger.logWorkManagerTaskSuccess(WorkerTask.TASK_COUNTRY_CHECKING);
+    return Futures.immediateVoidFuture();
+  }
+}
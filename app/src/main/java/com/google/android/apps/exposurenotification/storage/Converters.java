@@ -19,10 +19,13 @@ package com.google.android.apps.exposurenotification.storage;
 
 import android.net.Uri;
 import androidx.room.TypeConverter;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Status;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.HasSymptoms;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.Shared;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TravelStatus;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity.Kind;
 import org.threeten.bp.Instant;
 import org.threeten.bp.LocalDate;
 import org.threeten.bp.ZonedDateTime;
@@ -109,6 +112,57 @@ class Converters {
 
   }
 
+  /**
+   * Type converter for {@link UploadOutboxEntity.Kind}.
+   */
+  public static class UploadOutboxKindConverter {
+
+    @TypeConverter
+    public static String fromKind(Kind kind) {
+      return kind == null ? null : kind.name();
+    }
+
+    @TypeConverter
+    public static Kind toKind(String kind) {
+      return kind == null ? null : Kind.valueOf(kind);
+    }
+
+  }
+
+  /**
+   * Type converter for {@link WorkerTask}.
+   */
+  public static class WorkerTaskConverter {
+
+    @TypeConverter
+    public static String fromWorkerTask(WorkerTask workerTask) {
+      return workerTask == null ? null : workerTask.name();
+    }
+
+    @TypeConverter
+    public static WorkerTask toWorkerTask(String workerTask) {
+      return workerTask == null ? null : WorkerTask.valueOf(workerTask);
+    }
+
+  }
+
+  /**
+   * Type converter for the {@link Status} a worker's run ended with.
+   */
+  public static class WorkerTaskStatusConverter {
+
+    @TypeConverter
+    public static String fromStatus(Status status) {
+      return status == null ? null : status.name();
+    }
+
+    @TypeConverter
+    public static Status toStatus(String status) {
+      return status == null ? null : Status.valueOf(status);
+    }
+
+  }
+
   /**
    * Type converter for {@link TravelStatus}.
    */
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.AutoValue.CopyAnnotations;
+import org.threeten.bp.Instant;
+
+/**
+ * What we've learned about how often a key server publishes new keyfiles, from the history of its
+ * index file.
+ */
+@AutoValue
+@Entity
+public abstract class DownloadServerChurnEntity {
+
+  @CopyAnnotations
+  @PrimaryKey
+  @NonNull
+  public abstract Uri indexUri();
+
+  /**
+   * The last file the index listed when we last checked it, if any.
+   */
+  @Nullable
+  public abstract Uri newestFile();
+
+  /**
+   * When the server last published new files, going by the index's Last-Modified date where it
+   * has one and otherwise by when we noticed. Only meaningful once there is a {@link
+   * #newestFile()}.
+   */
+  @NonNull
+  public abstract Instant lastPublishTime();
+
+  /**
+   * The smoothed time between the server's publications, once we've seen two of them.
+   */
+  @Nullable
+  public abstract Long publishIntervalMillis();
+
+  /**
+   * How many times in a row we've checked the index and found nothing new.
+   */
+  public abstract int unchangedChecks();
+
+  @NonNull
+  public abstract Instant lastCheckTime();
+
+  /**
+   * Creates a {@link DownloadServerChurnEntity}. This is the factory method used by Room.
+   */
+  public static DownloadServerChurnEntity create(
+      Uri indexUri,
+      @Nullable Uri newestFile,
+      Instant lastPublishTime,
+      @Nullable Long publishIntervalMillis,
+      int unchangedChecks,
+      Instant lastCheckTime) {
+    return new AutoValue_DownloadServerChurnEntity(indexUri, newestFile, lastPublishTime,
+        publishIntervalMillis, unchangedChecks, lastCheckTime);
+  }
+}
@@ -22,6 +22,7 @@ import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import java.util.List;
 
 @Dao
 abstract class DownloadServerDao {
@@ -29,7 +30,19 @@ abstract class DownloadServerDao {
   @Query("SELECT mostRecentSuccessfulDownload FROM DownloadServerEntity WHERE indexUri = :indexUri")
   abstract Uri getMostRecentSuccessfulDownload(Uri indexUri);
 
+  @Query("SELECT * FROM DownloadServerEntity WHERE indexUri = :indexUri")
+  abstract DownloadServerEntity get(Uri indexUri);
+
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   abstract void upsert(DownloadServerEntity server);
 
+  @Query("SELECT * FROM DownloadServerChurnEntity WHERE indexUri = :indexUri")
+  abstract DownloadServerChurnEntity getChurn(Uri indexUri);
+
+  @Query("SELECT * FROM DownloadServerChurnEntity")
+  abstract List<DownloadServerChurnEntity> getAllChurn();
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract void upsertChurn(DownloadServerChurnEntity churn);
+
 }
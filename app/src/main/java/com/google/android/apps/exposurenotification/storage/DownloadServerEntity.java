@@ -19,7 +19,9 @@ package com.google.android.apps.exposurenotification.storage;
 
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.AutoValue.CopyAnnotations;
@@ -35,7 +37,33 @@ public abstract class DownloadServerEntity {
 
   abstract Uri mostRecentSuccessfulDownload();
 
+  /**
+   * The ETag of the index file at the time we had downloaded everything it listed, if any.
+   */
+  @Nullable
+  public abstract String indexETag();
+
+  /**
+   * The Last-Modified date of the index file at the time we had downloaded everything it listed,
+   * if any.
+   */
+  @Nullable
+  public abstract String indexLastModified();
+
+  @Ignore
   public static DownloadServerEntity create(Uri indexUri, Uri mostRecentSuccessfulDownload) {
-    return new AutoValue_DownloadServerEntity(indexUri, mostRecentSuccessfulDownload);
+    return create(indexUri, mostRecentSuccessfulDownload, null, null);
+  }
+
+  /**
+   * Creates a {@link DownloadServerEntity}. This is the factory method used by Room.
+   */
+  public static DownloadServerEntity create(
+      Uri indexUri,
+      Uri mostRecentSuccessfulDownload,
+      @Nullable String indexETag,
+      @Nullable String indexLastModified) {
+    return new AutoValue_DownloadServerEntity(
+        indexUri, mostRecentSuccessfulDownload, indexETag, indexLastModified);
   }
 }
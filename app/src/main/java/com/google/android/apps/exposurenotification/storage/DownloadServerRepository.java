@@ -18,7 +18,9 @@
 package com.google.android.apps.exposurenotification.storage;
 
 import android.net.Uri;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
+import java.util.List;
 import javax.inject.Inject;
 
 /**
@@ -38,8 +40,38 @@ public class DownloadServerRepository {
     return dao.getMostRecentSuccessfulDownload(indexUri);
   }
 
+  /**
+   * Returns everything we know about the given server, or null if we've never successfully
+   * downloaded from it.
+   */
+  @WorkerThread
+  @Nullable
+  public DownloadServerEntity get(Uri indexUri) {
+    return dao.get(indexUri);
+  }
+
   @WorkerThread
   public void upsert(DownloadServerEntity server) {
     dao.upsert(server);
   }
+
+  /**
+   * Returns what we've learned about how often the given server publishes, or null if we've never
+   * checked its index.
+   */
+  @WorkerThread
+  @Nullable
+  public DownloadServerChurnEntity getChurn(Uri indexUri) {
+    return dao.getChurn(indexUri);
+  }
+
+  @WorkerThread
+  public List<DownloadServerChurnEntity> getAllChurn() {
+    return dao.getAllChurn();
+  }
+
+  @WorkerThread
+  public void upsertChurn(DownloadServerChurnEntity churn) {
+    dao.upsertChurn(churn);
+  }
 }
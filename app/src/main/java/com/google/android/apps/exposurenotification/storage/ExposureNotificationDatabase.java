@@ -31,7 +31,10 @@ import com.google.android.apps.exposurenotification.storage.Converters.LocalDate
 import com.google.android.apps.exposurenotification.storage.Converters.SharedConverter;
 import com.google.android.apps.exposurenotification.storage.Converters.TestResultConverter;
 import com.google.android.apps.exposurenotification.storage.Converters.TravelStatusConverter;
+import com.google.android.apps.exposurenotification.storage.Converters.UploadOutboxKindConverter;
 import com.google.android.apps.exposurenotification.storage.Converters.UriConverter;
+import com.google.android.apps.exposurenotification.storage.Converters.WorkerTaskConverter;
+import com.google.android.apps.exposurenotification.storage.Converters.WorkerTaskStatusConverter;
 import com.google.android.apps.exposurenotification.storage.Converters.ZonedDateTimeConverter;
 
 /**
@@ -47,14 +50,18 @@ import com.google.android.apps.exposurenotification.storage.Converters.ZonedDate
         CountryEntity.class,
         DiagnosisEntity.class,
         DownloadServerEntity.class,
+        DownloadServerChurnEntity.class,
         ExposureEntity.class,
         RevisionTokenEntity.class,
         WorkerStatusEntity.class,
         ExposureCheckEntity.class,
-        VerificationCodeRequestEntity.class
+        VerificationCodeRequestEntity.class,
+        ProvidedKeyFileEntity.class,
+        UploadOutboxEntity.class,
+        WorkerRunEntity.class
     },
     exportSchema = true,
-    version = 44  // Do not increment without migration & tests.
+    version = 49  // Do not increment without migration & tests.
 )
 @TypeConverters({
     HasSymptomsConverter.class,
@@ -63,7 +70,10 @@ import com.google.android.apps.exposurenotification.storage.Converters.ZonedDate
     SharedConverter.class,
     TestResultConverter.class,
     TravelStatusConverter.class,
+    UploadOutboxKindConverter.class,
     UriConverter.class,
+    WorkerTaskConverter.class,
+    WorkerTaskStatusConverter.class,
     ZonedDateTimeConverter.class,
 })
 @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
@@ -176,9 +186,84 @@ public abstract class ExposureNotificationDatabase extends RoomDatabase {
     }
   };
 
+  static final Migration MIGRATION_44_45 = new Migration(44, 45) {
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+      database.execSQL("ALTER TABLE DownloadServerEntity ADD COLUMN indexETag TEXT");
+      database.execSQL("ALTER TABLE DownloadServerEntity ADD COLUMN indexLastModified TEXT");
+    }
+  };
+
+  static final Migration MIGRATION_45_46 = new Migration(45, 46) {
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+      database.execSQL(
+          "CREATE TABLE ProvidedKeyFileEntity ("
+              + "uri TEXT NOT NULL PRIMARY KEY, "
+              + "contentHash TEXT NOT NULL, "
+              + "providedTime INTEGER NOT NULL"
+              + ")");
+      database.execSQL(
+          "CREATE INDEX index_ProvidedKeyFileEntity_contentHash "
+              + "ON ProvidedKeyFileEntity (contentHash)");
+    }
+  };
+
+  static final Migration MIGRATION_46_47 = new Migration(46, 47) {
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+      database.execSQL(
+          "CREATE TABLE UploadOutboxEntity ("
+              + "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+              + "kind TEXT NOT NULL, "
+              + "diagnosisId INTEGER NOT NULL, "
+              + "nonce TEXT, "
+              + "testType TEXT, "
+              + "body TEXT NOT NULL, "
+              + "enqueuedTime INTEGER NOT NULL, "
+              + "attemptCount INTEGER NOT NULL"
+              + ")");
+    }
+  };
+
+  static final Migration MIGRATION_47_48 = new Migration(47, 48) {
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+      database.execSQL(
+          "CREATE TABLE DownloadServerChurnEntity ("
+              + "indexUri TEXT NOT NULL PRIMARY KEY, "
+              + "newestFile TEXT, "
+              + "lastPublishTime INTEGER NOT NULL, "
+              + "publishIntervalMillis INTEGER, "
+              + "unchangedChecks INTEGER NOT NULL, "
+              + "lastCheckTime INTEGER NOT NULL"
+              + ")");
+    }
+  };
+
+  static final Migration MIGRATION_48_49 = new Migration(48, 49) {
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+      database.execSQL(
+          "CREATE TABLE WorkerRunEntity ("
+              + "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+              + "workerTask TEXT NOT NULL, "
+              + "startTime INTEGER NOT NULL, "
+              + "wallTimeMillis INTEGER NOT NULL, "
+              + "startupMillis INTEGER, "
+              + "enApiMillis INTEGER, "
+              + "downloadMillis INTEGER, "
+              + "submitMillis INTEGER, "
+              + "dbMillis INTEGER, "
+              + "status TEXT NOT NULL"
+              + ")");
+    }
+  };
+
   static final Migration[] ALL_MIGRATIONS = new Migration[]{MIGRATION_35_36, MIGRATION_36_37,
       MIGRATION_37_38, MIGRATION_38_39, MIGRATION_39_40, MIGRATION_40_41, MIGRATION_41_42,
-      MIGRATION_42_43, MIGRATION_43_44};
+      MIGRATION_42_43, MIGRATION_43_44, MIGRATION_44_45, MIGRATION_45_46, MIGRATION_46_47,
+      MIGRATION_47_48, MIGRATION_48_49};
 
   abstract AnalyticsLoggingDao analyticsLoggingDao();
 
@@ -196,6 +281,12 @@ public abstract class ExposureNotificationDatabase extends RoomDatabase {
 
   abstract VerificationCodeRequestDao verificationCodeRequestDao();
 
+  abstract ProvidedKeyFileDao providedKeyFileDao();
+
+  abstract UploadOutboxDao uploadOutboxDao();
+
+  abstract WorkerRunDao workerRunDao();
+
   public static ExposureNotificationDatabase buildDatabase(Context context) {
     // This will create a database in:
     // /data/data/com.google.android.apps.exposurenotification/databases/ which will be only
@@ -32,9 +32,16 @@ import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.home.ExposureNotificationViewModel.ExposureNotificationState;
 import com.google.android.apps.exposurenotification.riskcalculation.ExposureClassification;
 import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.TestResult;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
 import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 
@@ -80,6 +87,12 @@ public class ExposureNotificationSharedPreferences {
       "ExposureNotificationSharedPreferences.ANALYTICS_LOGGING_LAST_TIMESTAMP";
   private static final String PROVIDED_DIAGNOSIS_KEY_HEX_TO_LOG_KEY =
       "ExposureNotificationSharedPreferences.PROVIDE_DIAGNOSIS_KEY_TO_LOG_KEY";
+  private static final String PROVIDE_DIAGNOSIS_KEYS_CALL_TIMES =
+      "ExposureNotificationSharedPreferences.PROVIDE_DIAGNOSIS_KEYS_CALL_TIMES";
+  private static final String OPEN_CIRCUITS_UNTIL =
+      "ExposureNotificationSharedPreferences.OPEN_CIRCUITS_UNTIL";
+  private static final String KEYFILE_DOWNLOAD_FAILURE_COUNTS =
+      "ExposureNotificationSharedPreferences.KEYFILE_DOWNLOAD_FAILURE_COUNTS";
   private static final String HAS_PENDING_RESTORE_NOTIFICATION =
       "ExposureNotificationSharedPreferences.HAS_PENDING_RESTORE_NOTIFICATION";
   private static final String BLE_LOC_OFF_NOTIFICATION_SEEN =
@@ -123,6 +136,12 @@ public class ExposureNotificationSharedPreferences {
   private static final String BIWEEKLY_METRICS_UPLOAD_DAY =
       "ExposureNotificationSharedPreferences.BIWEEKLY_METRICS_UPLOAD_DAY";
 
+  private static final String MAINTENANCE_STAGE_LAST_RUN_TIME_PREFIX =
+      "ExposureNotificationSharedPreferences.MAINTENANCE_STAGE_LAST_RUN_TIME.";
+
+  private static final String WORKER_RUNS_LAST_SUMMARIZED_ID =
+      "ExposureNotificationSharedPreferences.WORKER_RUNS_LAST_SUMMARIZED_ID";
+
   private static final String MIGRATION_RUN_OR_NOT_NEEDED =
       "ExposureNotificationSharedPreferences.MIGRATION_RUN_OR_NOT_NEEDED";
 
@@ -760,6 +779,32 @@ public class ExposureNotificationSharedPreferences {
             sharedPreferences.getLong(PRIVATE_ANALYTICS_LAST_WORKER_RUN_TIME_FOR_BIWEEKLY, 0));
   }
 
+  /**
+   * Returns the last time the given stage of the maintenance worker completed, or {@link
+   * Instant#EPOCH} if it never has.
+   */
+  public Instant getMaintenanceStageLastRunTime(String stageName) {
+    return Instant.ofEpochMilli(
+        sharedPreferences.getLong(MAINTENANCE_STAGE_LAST_RUN_TIME_PREFIX + stageName, 0));
+  }
+
+  public void setMaintenanceStageLastRunTime(String stageName, Instant lastRunTime) {
+    sharedPreferences.edit()
+        .putLong(MAINTENANCE_STAGE_LAST_RUN_TIME_PREFIX + stageName, lastRunTime.toEpochMilli())
+        .apply();
+  }
+
+  /**
+   * Returns the ID of the last worker run that went into a Firelog batch, or zero if none has.
+   */
+  public long getWorkerRunsLastSummarizedId() {
+    return sharedPreferences.getLong(WORKER_RUNS_LAST_SUMMARIZED_ID, 0);
+  }
+
+  public void setWorkerRunsLastSummarizedId(long id) {
+    sharedPreferences.edit().putLong(WORKER_RUNS_LAST_SUMMARIZED_ID, id).apply();
+  }
+
   public BadgeStatus getIsExposureClassificationNew() {
     return BadgeStatus.fromValue(
         sharedPreferences
@@ -799,6 +844,92 @@ public class ExposureNotificationSharedPreferences {
     return providedDiagnosisKeyHexToLogLiveData;
   }
 
+  /**
+   * Returns the times of our calls to provideDiagnosisKeys since the given time, oldest first.
+   */
+  public ImmutableList<Instant> getProvideDiagnosisKeysCallTimesSince(Instant since) {
+    ImmutableList.Builder<Instant> callTimes = ImmutableList.builder();
+    for (String millis : Splitter.on(',').omitEmptyStrings().split(
+        sharedPreferences.getString(PROVIDE_DIAGNOSIS_KEYS_CALL_TIMES, ""))) {
+      Instant callTime = Instant.ofEpochMilli(Long.parseLong(millis));
+      if (!callTime.isBefore(since)) {
+        callTimes.add(callTime);
+      }
+    }
+    return callTimes.build();
+  }
+
+  /**
+   * Records a call to provideDiagnosisKeys at the given time, forgetting those before {@code
+   * forgetBefore}.
+   */
+  public void addProvideDiagnosisKeysCallTime(Instant callTime, Instant forgetBefore) {
+    List<Long> callTimes = new ArrayList<>();
+    for (Instant earlierCallTime : getProvideDiagnosisKeysCallTimesSince(forgetBefore)) {
+      callTimes.add(earlierCallTime.toEpochMilli());
+    }
+    callTimes.add(callTime.toEpochMilli());
+    sharedPreferences.edit()
+        .putString(PROVIDE_DIAGNOSIS_KEYS_CALL_TIMES, Joiner.on(',').join(callTimes))
+        .commit();
+  }
+
+  /**
+   * Returns the hosts whose network circuits are open, each with the time until which it stays
+   * open. Circuits which had already closed again by {@code now} are left out.
+   */
+  public ImmutableMap<String, Instant> getOpenCircuitsUntil(Instant now) {
+    ImmutableMap.Builder<String, Instant> openCircuits = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry : Splitter.on(',').omitEmptyStrings()
+        .withKeyValueSeparator('=')
+        .split(sharedPreferences.getString(OPEN_CIRCUITS_UNTIL, ""))
+        .entrySet()) {
+      Instant openUntil = Instant.ofEpochMilli(Long.parseLong(entry.getValue()));
+      if (openUntil.isAfter(now)) {
+        openCircuits.put(entry.getKey(), openUntil);
+      }
+    }
+    return openCircuits.build();
+  }
+
+  /**
+   * Replaces the recorded open network circuits with the given ones, keyed by host.
+   */
+  public void setOpenCircuitsUntil(Map<String, Instant> openCircuits) {
+    List<String> entries = new ArrayList<>();
+    for (Map.Entry<String, Instant> entry : openCircuits.entrySet()) {
+      entries.add(entry.getKey() + "=" + entry.getValue().toEpochMilli());
+    }
+    sharedPreferences.edit()
+        .putString(OPEN_CIRCUITS_UNTIL, Joiner.on(',').join(entries))
+        .commit();
+  }
+
+  /**
+   * Returns how many download runs in a row each failing keyfile has failed in, keyed by a hash of
+   * the keyfile's URI.
+   */
+  public ImmutableMap<String, Integer> getKeyFileDownloadFailureCounts() {
+    ImmutableMap.Builder<String, Integer> failureCounts = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry : Splitter.on(',').omitEmptyStrings()
+        .withKeyValueSeparator('=')
+        .split(sharedPreferences.getString(KEYFILE_DOWNLOAD_FAILURE_COUNTS, ""))
+        .entrySet()) {
+      failureCounts.put(entry.getKey(), Integer.parseInt(entry.getValue()));
+    }
+    return failureCounts.build();
+  }
+
+  /**
+   * Replaces the recorded keyfile download failure counts with the given ones.
+   */
+  public void setKeyFileDownloadFailureCounts(Map<String, Integer> failureCounts) {
+    sharedPreferences.edit()
+        .putString(KEYFILE_DOWNLOAD_FAILURE_COUNTS,
+            Joiner.on(',').withKeyValueSeparator("=").join(failureCounts))
+        .commit();
+  }
+
   @AnyThread
   public void markInAppSmsNoticeSeenAsync() {
     sharedPreferences.edit().putBoolean(IS_IN_APP_SMS_NOTICE_SEEN, true).apply();
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import android.net.Uri;
+import androidx.annotation.WorkerThread;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import java.util.List;
+import org.threeten.bp.Instant;
+
+/**
+ * Dao for the {@link ProvidedKeyFileEntity} table in the exposure notification database.
+ */
+@Dao
+abstract class ProvidedKeyFileDao {
+
+  @WorkerThread
+  @Query("SELECT COUNT(*) > 0 FROM ProvidedKeyFileEntity "
+      + "WHERE uri = :uri AND providedTime >= :earliestThreshold")
+  abstract boolean containsUri(Uri uri, Instant earliestThreshold);
+
+  @WorkerThread
+  @Query("SELECT COUNT(*) > 0 FROM ProvidedKeyFileEntity "
+      + "WHERE contentHash = :contentHash AND providedTime >= :earliestThreshold")
+  abstract boolean containsContentHash(String contentHash, Instant earliestThreshold);
+
+  @WorkerThread
+  @Query("SELECT * FROM ProvidedKeyFileEntity")
+  abstract List<ProvidedKeyFileEntity> getAll();
+
+  @WorkerThread
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract void upsert(List<ProvidedKeyFileEntity> entities);
+
+  @WorkerThread
+  @Query("DELETE FROM ProvidedKeyFileEntity WHERE providedTime < :earliestThreshold")
+  abstract void deleteOlderThanThreshold(Instant earliestThreshold);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.AutoValue.CopyAnnotations;
+import org.threeten.bp.Instant;
+
+/**
+ * A keyfile we've already provided to the Exposure Notifications API, so that we don't download
+ * or provide the same file (or the same content from another server) again.
+ */
+@AutoValue
+@Entity(indices = {@Index("contentHash")})
+public abstract class ProvidedKeyFileEntity {
+
+  @CopyAnnotations
+  @PrimaryKey
+  @NonNull
+  public abstract Uri uri();
+
+  /**
+   * Hex SHA-256 of the keyfile's export.bin.
+   */
+  @NonNull
+  public abstract String contentHash();
+
+  @NonNull
+  public abstract Instant providedTime();
+
+  /**
+   * Creates a {@link ProvidedKeyFileEntity}. This is the factory method used by Room.
+   */
+  public static ProvidedKeyFileEntity create(Uri uri, String contentHash, Instant providedTime) {
+    return new AutoValue_ProvidedKeyFileEntity(uri, contentHash, providedTime);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import android.net.Uri;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import java.util.List;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * Abstracts database access to {@link ProvidedKeyFileDao}.
+ *
+ * <p>Remembers provided keyfiles only as long as they could matter: the keys in a file are at most
+ * 14 days old when it's published, so after that no server will offer the same file again.
+ */
+public class ProvidedKeyFileRepository {
+
+  @VisibleForTesting
+  static final Duration PROVIDED_KEY_FILE_TTL = Duration.ofDays(14);
+
+  private final ProvidedKeyFileDao dao;
+  private final Clock clock;
+
+  @Inject
+  ProvidedKeyFileRepository(ExposureNotificationDatabase db, Clock clock) {
+    dao = db.providedKeyFileDao();
+    this.clock = clock;
+  }
+
+  /**
+   * Whether we've already provided the keyfile at the given URI.
+   */
+  @WorkerThread
+  public boolean isUriProvided(Uri uri) {
+    return dao.containsUri(uri, earliestThreshold());
+  }
+
+  /**
+   * Whether we've already provided a keyfile with the given content, from whichever server.
+   */
+  @WorkerThread
+  public boolean isContentProvided(String contentHash) {
+    return dao.containsContentHash(contentHash, earliestThreshold());
+  }
+
+  /**
+   * Records the given keyfiles as provided now, and forgets those provided too long ago to matter.
+   */
+  @WorkerThread
+  public void markProvided(List<ProvidedKeyFileEntity> entities) {
+    dao.upsert(entities);
+    dao.deleteOlderThanThreshold(earliestThreshold());
+  }
+
+  @VisibleForTesting
+  @WorkerThread
+  List<ProvidedKeyFileEntity> getAll() {
+    return dao.getAll();
+  }
+
+  private Instant earliestThreshold() {
+    return clock.now().minus(PROVIDED_KEY_FILE_TTL);
+  }
+}
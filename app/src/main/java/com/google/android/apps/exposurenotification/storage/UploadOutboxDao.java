@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.WorkerThread;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity.Kind;
+import java.util.List;
+import org.threeten.bp.Instant;
+
+/**
+ * Dao for the {@link UploadOutboxEntity} table in the exposure notification database.
+ */
+@Dao
+abstract class UploadOutboxDao {
+
+  @WorkerThread
+  @Query("SELECT * FROM UploadOutboxEntity ORDER BY id")
+  abstract List<UploadOutboxEntity> getAll();
+
+  @WorkerThread
+  @Insert
+  abstract long insert(UploadOutboxEntity entity);
+
+  @WorkerThread
+  @Query("DELETE FROM UploadOutboxEntity WHERE kind = :kind AND diagnosisId = :diagnosisId")
+  abstract void deleteByKindAndDiagnosisId(Kind kind, long diagnosisId);
+
+  /**
+   * Inserts the given entity in place of any other of its kind for the same diagnosis, so asking
+   * twice to send the same thing never sends it twice.
+   */
+  @WorkerThread
+  @Transaction
+  long replace(UploadOutboxEntity entity) {
+    deleteByKindAndDiagnosisId(entity.getKind(), entity.getDiagnosisId());
+    return insert(entity);
+  }
+
+  @WorkerThread
+  @Query("UPDATE UploadOutboxEntity SET attemptCount = attemptCount + 1 WHERE id = :id")
+  abstract void incrementAttemptCount(long id);
+
+  @WorkerThread
+  @Query("DELETE FROM UploadOutboxEntity WHERE id = :id")
+  abstract void deleteById(long id);
+
+  @WorkerThread
+  @Query("DELETE FROM UploadOutboxEntity WHERE kind = :kind AND enqueuedTime < :earliestThreshold")
+  abstract void deleteOlderThanThreshold(Kind kind, Instant earliestThreshold);
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.AutoValue.CopyAnnotations;
+import org.threeten.bp.Instant;
+
+/**
+ * An entity, which represents a request to the verification or key server that couldn't be sent
+ * for lack of connectivity, and is waiting to be sent once the network returns.
+ *
+ * <p>The request body is stored exactly as it would have been sent, padding and all, so sending it
+ * later is no different on the wire from sending it right away.
+ */
+@AutoValue
+@Entity
+public abstract class UploadOutboxEntity {
+
+  /**
+   * The kinds of request the outbox holds.
+   */
+  public enum Kind {
+    /**
+     * Publishes diagnosis keys to the key server (i.e. a request to /v1/publish).
+     */
+    PUBLISH,
+    /**
+     * Requests a verification code for the self-report flow (i.e. a request to /api/user-report).
+     */
+    USER_REPORT
+  }
+
+  @CopyAnnotations
+  @PrimaryKey(autoGenerate = true)
+  public abstract long getId();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract Kind getKind();
+
+  /**
+   * The diagnosis whose keys a {@link Kind#PUBLISH} request publishes, or zero otherwise.
+   */
+  public abstract long getDiagnosisId();
+
+  /**
+   * The nonce a {@link Kind#USER_REPORT} request was made with, or null otherwise.
+   */
+  @CopyAnnotations
+  @Nullable
+  public abstract String getNonce();
+
+  /**
+   * The test type of a {@link Kind#PUBLISH} request's diagnosis, if known.
+   */
+  @CopyAnnotations
+  @Nullable
+  public abstract String getTestType();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract String getBody();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract Instant getEnqueuedTime();
+
+  public abstract int getAttemptCount();
+
+  public abstract Builder toBuilder();
+
+  public static Builder newBuilder() {
+    return new AutoValue_UploadOutboxEntity.Builder()
+        // AutoValue complains if fields not marked @Nullable are not set, but primitives cannot be
+        // @Nullable, so we set empty here.
+        .setId(0L)
+        .setDiagnosisId(0L)
+        .setAttemptCount(0);
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setId(long id);
+
+    public abstract Builder setKind(Kind kind);
+
+    public abstract Builder setDiagnosisId(long diagnosisId);
+
+    public abstract Builder setNonce(String nonce);
+
+    public abstract Builder setTestType(String testType);
+
+    public abstract Builder setBody(String body);
+
+    public abstract Builder setEnqueuedTime(Instant enqueuedTime);
+
+    public abstract Builder setAttemptCount(int attemptCount);
+
+    public abstract UploadOutboxEntity build();
+  }
+
+  /**
+   * Creates a {@link UploadOutboxEntity}. This is a factory method required by Room. Normally the
+   * builder should be used instead.
+   */
+  public static UploadOutboxEntity create(
+      long id, Kind kind, long diagnosisId, String nonce, String testType, String body,
+      Instant enqueuedTime, int attemptCount) {
+    return newBuilder()
+        .setId(id)
+        .setKind(kind)
+        .setDiagnosisId(diagnosisId)
+        .setNonce(nonce)
+        .setTestType(testType)
+        .setBody(body)
+        .setEnqueuedTime(enqueuedTime)
+        .setAttemptCount(attemptCount)
+        .build();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.WorkerThread;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity.Kind;
+import java.util.List;
+import javax.inject.Inject;
+import org.threeten.bp.Duration;
+
+/**
+ * Abstracts database access to {@link UploadOutboxDao}.
+ *
+ * <p>Requests are held only as long as sending them could still help the user: a verification code
+ * requested days ago is no use, and by then the user will likely have shared some other way.
+ *
+ * <p>Only verification code requests are forgotten here, though. Keys the user meant to share are
+ * left for the outbox to drop, so it can tell the user they weren't shared.
+ */
+public class UploadOutboxRepository {
+
+  public static final Duration OUTBOX_TTL = Duration.ofDays(2);
+
+  private final UploadOutboxDao dao;
+  private final Clock clock;
+
+  @Inject
+  UploadOutboxRepository(ExposureNotificationDatabase db, Clock clock) {
+    dao = db.uploadOutboxDao();
+    this.clock = clock;
+  }
+
+  /**
+   * Adds the given request to the outbox, in place of any earlier one of the same kind for the same
+   * diagnosis.
+   *
+   * @return the ID of the stored request
+   */
+  @WorkerThread
+  public long enqueue(UploadOutboxEntity entity) {
+    return dao.replace(entity);
+  }
+
+  /**
+   * Returns the requests waiting to be sent, oldest first, having forgotten verification code
+   * requests too old to send.
+   */
+  @WorkerThread
+  public List<UploadOutboxEntity> getPending() {
+    dao.deleteOlderThanThreshold(Kind.USER_REPORT, clock.now().minus(OUTBOX_TTL));
+    return dao.getAll();
+  }
+
+  /**
+   * Records that sending the given request failed, but might succeed later.
+   */
+  @WorkerThread
+  public void markAttempted(long id) {
+    dao.incrementAttemptCount(id);
+  }
+
+  /**
+   * Removes the given request from the outbox, once it's been sent or can never be.
+   */
+  @WorkerThread
+  public void remove(long id) {
+    dao.deleteById(id);
+  }
+}
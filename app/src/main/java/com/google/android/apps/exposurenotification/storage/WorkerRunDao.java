@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import java.util.List;
+
+/**
+ * Dao for the {@link WorkerRunEntity} table in the exposure notification database.
+ */
+@Dao
+abstract class WorkerRunDao {
+
+  @Query("SELECT * FROM WorkerRunEntity ORDER BY id DESC LIMIT :limit")
+  abstract LiveData<List<WorkerRunEntity>> getNewestLiveData(int limit);
+
+  @WorkerThread
+  @Query("SELECT * FROM WorkerRunEntity WHERE id > :id ORDER BY id")
+  abstract List<WorkerRunEntity> getAfter(long id);
+
+  @WorkerThread
+  @Insert
+  abstract long insert(WorkerRunEntity entity);
+
+  @WorkerThread
+  @Query("DELETE FROM WorkerRunEntity WHERE id NOT IN "
+      + "(SELECT id FROM WorkerRunEntity ORDER BY id DESC LIMIT :count)")
+  abstract void deleteAllButNewest(int count);
+
+  /**
+   * Inserts the given entity, then deletes the oldest ones so that no more than {@code maxCount}
+   * are left.
+   */
+  @WorkerThread
+  @Transaction
+  long insertAndTrim(WorkerRunEntity entity, int maxCount) {
+    long id = insert(entity);
+    deleteAllButNewest(maxCount);
+    return id;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Status;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.AutoValue.CopyAnnotations;
+import org.threeten.bp.Instant;
+
+/**
+ * An entity, which represents one run of a worker: how long it took, and in which of its stages,
+ * how many bytes went over the network meanwhile, and how it ended.
+ *
+ * <p>Only the most recent runs are kept.
+ */
+@AutoValue
+@Entity
+public abstract class WorkerRunEntity {
+
+  @CopyAnnotations
+  @PrimaryKey(autoGenerate = true)
+  public abstract long getId();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract WorkerTask getWorkerTask();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract Instant getStartTime();
+
+  public abstract long getWallTimeMillis();
+
+  /**
+   * Time spent in each {@link Stage}, or null for stages the run never got to.
+   */
+  @CopyAnnotations
+  @Nullable
+  public abstract Long getStartupMillis();
+
+  @CopyAnnotations
+  @Nullable
+  public abstract Long getEnApiMillis();
+
+  @CopyAnnotations
+  @Nullable
+  public abstract Long getDownloadMillis();
+
+  @CopyAnnotations
+  @Nullable
+  public abstract Long getSubmitMillis();
+
+  @CopyAnnotations
+  @Nullable
+  public abstract Long getDbMillis();
+
+  @CopyAnnotations
+  @NonNull
+  public abstract Status getStatus();
+
+  /**
+   * Returns the time spent in the given stage, or null if the run never got to it.
+   */
+  @Nullable
+  public Long getStageMillis(Stage stage) {
+    switch (stage) {
+      case STAGE_STARTUP:
+        return getStartupMillis();
+      case STAGE_EN_API:
+        return getEnApiMillis();
+      case STAGE_DOWNLOAD:
+        return getDownloadMillis();
+      case STAGE_SUBMIT:
+        return getSubmitMillis();
+      case STAGE_DB:
+        return getDbMillis();
+      default:
+        return null;
+    }
+  }
+
+  public abstract Builder toBuilder();
+
+  public static Builder newBuilder() {
+    return new AutoValue_WorkerRunEntity.Builder()
+        // AutoValue complains if fields not marked @Nullable are not set, but primitives cannot be
+        // @Nullable, so we set empty here.
+        .setId(0L)
+        .setWallTimeMillis(0L);
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setId(long id);
+
+    public abstract Builder setWorkerTask(WorkerTask workerTask);
+
+    public abstract Builder setStartTime(Instant startTime);
+
+    public abstract Builder setWallTimeMillis(long wallTimeMillis);
+
+    public abstract Builder setStartupMillis(Long startupMillis);
+
+    public abstract Builder setEnApiMillis(Long enApiMillis);
+
+    public abstract Builder setDownloadMillis(Long downloadMillis);
+
+    public abstract Builder setSubmitMillis(Long submitMillis);
+
+    public abstract Builder setDbMillis(Long dbMillis);
+
+    public abstract Builder setStatus(Status status);
+
+    /**
+     * Sets the time spent in the given stage.
+     */
+    public Builder setStageMillis(Stage stage, long millis) {
+      switch (stage) {
+        case STAGE_STARTUP:
+          return setStartupMillis(millis);
+        case STAGE_EN_API:
+          return setEnApiMillis(millis);
+        case STAGE_DOWNLOAD:
+          return setDownloadMillis(millis);
+        case STAGE_SUBMIT:
+          return setSubmitMillis(millis);
+        case STAGE_DB:
+          return setDbMillis(millis);
+        default:
+          return this;
+      }
+    }
+
+    public abstract WorkerRunEntity build();
+  }
+
+  /**
+   * Creates a {@link WorkerRunEntity}. This is a factory method required by Room. Normally the
+   * builder should be used instead.
+   */
+  public static WorkerRunEntity create(
+      long id, WorkerTask workerTask, Instant startTime, long wallTimeMillis,
+      Long startupMillis, Long enApiMillis, Long downloadMillis, Long submitMillis, Long dbMillis,
+      Status status) {
+    return newBuilder()
+        .setId(id)
+        .setWorkerTask(workerTask)
+        .setStartTime(startTime)
+        .setWallTimeMillis(wallTimeMillis)
+        .setStartupMillis(startupMillis)
+        .setEnApiMillis(enApiMillis)
+        .setDownloadMillis(downloadMillis)
+        .setSubmitMillis(submitMillis)
+        .setDbMillis(dbMillis)
+        .setStatus(status)
+        .build();
+  }
+}
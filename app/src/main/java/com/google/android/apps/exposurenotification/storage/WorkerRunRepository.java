@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * Abstracts database access to {@link WorkerRunDao}.
+ *
+ * <p>Only the {@link #MAX_RUNS} most recent runs are kept, which is a few days' worth at the rate
+ * our workers run.
+ */
+public class WorkerRunRepository {
+
+  @VisibleForTesting
+  static final int MAX_RUNS = 200;
+
+  private final WorkerRunDao dao;
+
+  @Inject
+  WorkerRunRepository(ExposureNotificationDatabase db) {
+    dao = db.workerRunDao();
+  }
+
+  /**
+   * Records the given run, forgetting the oldest one if there are too many.
+   *
+   * @return the ID of the stored run
+   */
+  @WorkerThread
+  public long insert(WorkerRunEntity entity) {
+    return dao.insertAndTrim(entity, MAX_RUNS);
+  }
+
+  /**
+   * Returns the runs recorded after the one with the given ID, oldest first.
+   */
+  @WorkerThread
+  public List<WorkerRunEntity> getAfter(long id) {
+    return dao.getAfter(id);
+  }
+
+  /**
+   * Returns the given number of most recent runs, newest first.
+   */
+  public LiveData<List<WorkerRunEntity>> getNewestLiveData(int limit) {
+    return dao.getNewestLiveData(limit);
+  }
+}
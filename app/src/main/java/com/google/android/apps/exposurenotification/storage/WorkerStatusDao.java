@@ -22,6 +22,7 @@ import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import java.util.List;
 
 @Dao
 abstract class WorkerStatusDao {
@@ -34,4 +35,7 @@ abstract class WorkerStatusDao {
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   abstract void upsert(WorkerStatusEntity entity);
 
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract void upsertAll(List<WorkerStatusEntity> entities);
+
 }
\ No newline at end of file
@@ -20,6 +20,9 @@ package com.google.android.apps.exposurenotification.storage;
 import androidx.annotation.WorkerThread;
 import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
 import com.google.common.base.Optional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.threeten.bp.Instant;
 
@@ -50,4 +53,17 @@ public class WorkerStatusRepository {
     workerStatusDao.upsert(WorkerStatusEntity
         .create(workerTask.name() + ":" + status, lastRunTimestamp.toEpochMilli()));
   }
+
+  /**
+   * As {@link #upsert}, for several tasks at once in a single transaction.
+   */
+  @WorkerThread
+  public void upsertAll(Map<WorkerTask, Instant> lastRunTimestamps, String status) {
+    List<WorkerStatusEntity> entities = new ArrayList<>();
+    for (Map.Entry<WorkerTask, Instant> entry : lastRunTimestamps.entrySet()) {
+      entities.add(WorkerStatusEntity.create(
+          entry.getKey().name() + ":" + status, entry.getValue().toEpochMilli()));
+    }
+    workerStatusDao.upsertAll(entities);
+  }
 }
\ No newline at end of file
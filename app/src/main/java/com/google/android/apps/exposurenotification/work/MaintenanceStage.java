@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.threeten.bp.Duration;
+
+/**
+ * A piece of routine upkeep run by the {@link MaintenanceWorker}, which gives every stage its own
+ * deadline and time budget but runs all those that are due in the same wakeup.
+ */
+public interface MaintenanceStage {
+
+  /**
+   * A stable name for this stage, used to remember when it last ran.
+   */
+  String getName();
+
+  /**
+   * How often this stage should run.
+   */
+  Duration getInterval();
+
+  /**
+   * How long this stage may take before it's abandoned so the stages after it still get to run.
+   */
+  Duration getTimeout();
+
+  /**
+   * Whether this stage applies at all on this device and in this build.
+   */
+  boolean isSupported();
+
+  /**
+   * Whether this stage talks to a server, so should only run with an internet connection. Without
+   * one, it's deferred until there is one, while the stages that don't need it run right away.
+   */
+  boolean needsNetwork();
+
+  /**
+   * Whether a run that fails or runs out of time leaves this stage due, so it runs again on the
+   * next wakeup. Otherwise it waits out its interval, just as after a successful run.
+   */
+  boolean isRetriedOnFailure();
+
+  /**
+   * Runs the stage, given whether the Exposure Notifications API is enabled. A failed future leaves
+   * the stage due if it's {@link #isRetriedOnFailure() retried on failure}.
+   */
+  ListenableFuture<?> run(boolean isEnabled);
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.hilt.work.HiltWorker;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.Operation;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.logging.FirelogAnalyticsStage;
+import com.google.android.apps.exposurenotification.network.Connectivity;
+import com.google.android.apps.exposurenotification.privateanalytics.SubmitPrivateAnalyticsStage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.roaming.CountryCheckingStage;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import dagger.assisted.Assisted;
+import dagger.assisted.AssistedInject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * A periodic worker that runs the app's routine upkeep in one wakeup: recording the current
+ * country, uploading the Firelog batch and submitting private analytics, each a {@link
+ * MaintenanceStage}. Obsolete rows are pruned by the startup tasks all of them share.
+ *
+ * <p>These used to be separate periodic jobs, each waking the device (and usually the radio) on
+ * its own schedule. Now the worker wakes up every {@link #REPEAT_INTERVAL}, the shortest of the
+ * stages' intervals, and runs every stage whose deadline would pass before the next wakeup, so
+ * stages line up on the same wakeups instead of drifting apart, and none runs later than its
+ * interval. Due stages run one after the other, the most overdue first, each within its own time
+ * budget. A stage that fails or runs out of time never keeps the others from running; it stays due
+ * and goes first next time if it's {@link MaintenanceStage#isRetriedOnFailure() retried on
+ * failure}, and otherwise waits out its interval.
+ *
+ * <p>The job itself runs without constraints, so the stages that don't need the network are never
+ * held up. Those that do run in the same wakeup when there's an internet connection. Otherwise
+ * they're left to a one-time job that waits for a connection and for the battery not to be low,
+ * and runs just those stages. Only one such job is ever pending, and it's cancelled whenever the
+ * periodic job gets to run the stages itself, so no stage runs in both jobs at once.
+ */
+@HiltWorker
+public class MaintenanceWorker extends ListenableWorker {
+
+  private static final Logger logger = Logger.getLogger("MaintenanceWorker");
+
+  @VisibleForTesting
+  static final String WORKER_NAME = "MaintenanceWorker";
+  @VisibleForTesting
+  static final String NETWORK_WORKER_NAME = "NetworkMaintenanceWorker";
+  // Set for the one-time job that waits for a connection, which runs only the stages that need it.
+  @VisibleForTesting
+  static final String IS_NETWORK_ONLY = "MaintenanceWorker.IS_NETWORK_ONLY";
+  @VisibleForTesting
+  static final Duration REPEAT_INTERVAL = Duration.ofHours(4).plusMinutes(30);
+  // The names the stages were scheduled under as periodic jobs of their own, by earlier versions
+  // of the app.
+  @VisibleForTesting
+  static final ImmutableList<String> LEGACY_WORKER_NAMES = ImmutableList.of(
+      "CountryCheckingWorker", "FirelogAnalyticsUploadWorker", "SubmitPrivateAnalyticsWorker");
+
+  private final ImmutableList<MaintenanceStage> stages;
+  private final ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  private final WorkerStartupManager workerStartupManager;
+  private final Clock clock;
+  private final ExecutorService backgroundExecutor;
+  private final ScheduledExecutorService scheduledExecutor;
+  private final WorkerTelemetry workerTelemetry;
+  private final WorkManager workManager;
+  private final Connectivity connectivity;
+  private final boolean isNetworkOnly;
+
+  @AssistedInject
+  public MaintenanceWorker(
+      @Assisted @NonNull Context context,
+      @Assisted @NonNull WorkerParameters workerParams,
+      CountryCheckingStage countryCheckingStage,
+      FirelogAnalyticsStage firelogAnalyticsStage,
+      SubmitPrivateAnalyticsStage submitPrivateAnalyticsStage,
+      ExposureNotificationSharedPreferences exposureNotificationSharedPreferences,
+      WorkerStartupManager workerStartupManager,
+      Clock clock,
+      @BackgroundExecutor ExecutorService backgroundExecutor,
+      @ScheduledExecutor ScheduledExecutorService scheduledExecutor,
+      WorkerTelemetry workerTelemetry,
+      WorkManager workManager,
+      Connectivity connectivity) {
+    super(context, workerParams);
+    this.stages =
+        ImmutableList.of(countryCheckingStage, firelogAnalyticsStage, submitPrivateAnalyticsStage);
+    this.exposureNotificationSharedPreferences = exposureNotificationSharedPreferences;
+    this.workerStartupManager = workerStartupManager;
+    this.clock = clock;
+    this.backgroundExecutor = backgroundExecutor;
+    this.scheduledExecutor = scheduledExecutor;
+    this.workerTelemetry = workerTelemetry;
+    this.workManager = workManager;
+    this.connectivity = connectivity;
+    this.isNetworkOnly = workerParams.getInputData() != null
+        && workerParams.getInputData().getBoolean(IS_NETWORK_ONLY, false);
+  }
+
+  @NonNull
+  @Override
+  public ListenableFuture<Result> startWork() {
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_MAINTENANCE);
+    return run.finish(FluentFuture.from(run.time(Stage.STAGE_STARTUP,
+        workerStartupManager.getIsEnabledWithStartupTasks(
+            isNetworkOnly ? NETWORK_WORKER_NAME : WORKER_NAME)))
+        .transformAsync(this::runDueStages, backgroundExecutor)
+        .transform(unused -> Result.success(), backgroundExecutor)
+        .catching(
+            Exception.class,
+            x -> {
+              logger.e("Failed to run maintenance", x);
+              return Result.failure();
+            },
+            backgroundExecutor));
+  }
+
+  private ListenableFuture<Void> runDueStages(boolean isEnabled) {
+    List<MaintenanceStage> dueStages = getDueStages(clock.now());
+    if (!isNetworkOnly) {
+      dueStages = deferNetworkStagesIfOffline(dueStages);
+    }
+    logger.d("Running " + dueStages.size() + " due maintenance stage(s).");
+    ListenableFuture<Void> done = Futures.immediateVoidFuture();
+    for (MaintenanceStage stage : dueStages) {
+      done = Futures.transformAsync(done, unused -> runStage(stage, isEnabled), backgroundExecutor);
+    }
+    return done;
+  }
+
+  /**
+   * Returns the given due stages, less those that need the network if there's no internet
+   * connection, in which case they're left to the one-time job that waits for one. If there is a
+   * connection, any such job still pending is cancelled, since this job runs the stages itself.
+   */
+  private List<MaintenanceStage> deferNetworkStagesIfOffline(List<MaintenanceStage> dueStages) {
+    List<MaintenanceStage> localStages = new ArrayList<>();
+    for (MaintenanceStage stage : dueStages) {
+      if (!stage.needsNetwork()) {
+        localStages.add(stage);
+      }
+    }
+    if (localStages.size() == dueStages.size()) {
+      return dueStages;
+    }
+    if (connectivity.hasInternet()) {
+      workManager.cancelUniqueWork(NETWORK_WORKER_NAME);
+      return dueStages;
+    }
+    logger.d("No internet connection, deferring " + (dueStages.size() - localStages.size())
+        + " maintenance stage(s) until there is one.");
+    workManager.enqueueUniqueWork(
+        NETWORK_WORKER_NAME,
+        ExistingWorkPolicy.KEEP,
+        new OneTimeWorkRequest.Builder(MaintenanceWorker.class)
+            .setInputData(new Data.Builder().putBoolean(IS_NETWORK_ONLY, true).build())
+            .setConstraints(
+                new Constraints.Builder()
+                    .setRequiresBatteryNotLow(true)
+                    .setRequiredNetworkType(NetworkType.CONNECTED)
+                    .build())
+            .build());
+    return localStages;
+  }
+
+  /**
+   * Runs a single stage within its time budget, remembering when it completed, or when it failed if
+   * it isn't retried on failure. Never fails, so that the stages after it still run.
+   */
+  private ListenableFuture<Void> runStage(MaintenanceStage stage, boolean isEnabled) {
+    ListenableFuture<?> stageRun;
+    try {
+      stageRun = stage.run(isEnabled);
+    } catch (Exception e) {
+      stageRun = Futures.immediateFailedFuture(e);
+    }
+    return FluentFuture.from(stageRun)
+        .withTimeout(stage.getTimeout().toMillis(), TimeUnit.MILLISECONDS, scheduledExecutor)
+        .transform(unused -> {
+          exposureNotificationSharedPreferences
+              .setMaintenanceStageLastRunTime(stage.getName(), clock.now());
+          return (Void) null;
+        }, backgroundExecutor)
+        .catching(
+            Exception.class,
+            x -> {
+              if (stage.isRetriedOnFailure()) {
+                logger.w(
+                    "Maintenance stage " + stage.getName() + " failed, retrying next time.", x);
+              } else {
+                logger.w("Maintenance stage " + stage.getName() + " failed, waiting out its"
+                    + " interval.", x);
+                exposureNotificationSharedPreferences
+                    .setMaintenanceStageLastRunTime(stage.getName(), clock.now());
+              }
+              return null;
+            },
+            backgroundExecutor);
+  }
+
+  /**
+   * Returns the supported stages this job runs whose deadline would pass before the next wakeup,
+   * the earliest deadline first.
+   */
+  @VisibleForTesting
+  List<MaintenanceStage> getDueStages(Instant now) {
+    Instant nextWakeup = now.plus(REPEAT_INTERVAL);
+    List<MaintenanceStage> dueStages = new ArrayList<>();
+    for (MaintenanceStage stage : stages) {
+      if (stage.isSupported()
+          && !(isNetworkOnly && !stage.needsNetwork())
+          && !getDeadline(stage).isAfter(nextWakeup)) {
+        dueStages.add(stage);
+      }
+    }
+    Collections.sort(dueStages, (a, b) -> getDeadline(a).compareTo(getDeadline(b)));
+    return dueStages;
+  }
+
+  private Instant getDeadline(MaintenanceStage stage) {
+    return exposureNotificationSharedPreferences.getMaintenanceStageLastRunTime(stage.getName())
+        .plus(stage.getInterval());
+  }
+
+  /**
+   * Schedules the maintenance job, and cancels the separate periodic jobs it replaces.
+   */
+  public static Operation schedule(WorkManager workManager) {
+    for (String legacyWorkerName : LEGACY_WORKER_NAMES) {
+      workManager.cancelUniqueWork(legacyWorkerName);
+    }
+    logger.d("Scheduling maintenance. repeatInterval=" + REPEAT_INTERVAL.toMinutes() + "m");
+    PeriodicWorkRequest workRequest =
+        new PeriodicWorkRequest.Builder(
+            MaintenanceWorker.class, REPEAT_INTERVAL.toMinutes(), TimeUnit.MINUTES)
+            .build();
+    // WARNING: You must set ExistingPeriodicWorkPolicy.REPLACE if you want to change the params for
+    //          previous app version users.
+    return workManager.enqueueUniquePeriodicWork(
+        WORKER_NAME, ExistingPeriodicWorkPolicy.KEEP, workRequest);
+  }
+}
@@ -19,9 +19,7 @@ package com.google.android.apps.exposurenotification.work;
 
 import android.content.Context;
 import androidx.work.WorkManager;
-import com.google.android.apps.exposurenotification.R;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
-import com.google.android.libraries.privateanalytics.PrivateAnalyticsEnabledProvider;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsRemoteConfig;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.Module;
@@ -29,7 +27,6 @@ import dagger.Provides;
 import dagger.hilt.InstallIn;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 import dagger.hilt.components.SingletonComponent;
-import org.threeten.bp.Duration;
 
 @Module
 @InstallIn(SingletonComponent.class)
@@ -37,15 +34,10 @@ public class WorkModule {
 
   @Provides
   public WorkScheduler provideWorkScheduler(
-      @ApplicationContext Context context,
       WorkManager workManager,
       @LightweightExecutor ListeningExecutorService lightweightExecutor,
-      PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider,
       PrivateAnalyticsRemoteConfig privateAnalyticsRemoteConfig) {
-    Duration tekPublishInterval =
-        Duration.ofHours(context.getResources().getInteger(R.integer.enx_tekPublishInterval));
-    return new WorkScheduler(workManager, lightweightExecutor, tekPublishInterval,
-        privateAnalyticsEnabledProvider, privateAnalyticsRemoteConfig);
+    return new WorkScheduler(workManager, lightweightExecutor, privateAnalyticsRemoteConfig);
   }
 
   @Provides
@@ -23,17 +23,11 @@ import androidx.work.WorkManager;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker;
-import com.google.android.apps.exposurenotification.logging.FirelogAnalyticsWorker;
 import com.google.android.apps.exposurenotification.nearby.ProvideDiagnosisKeysWorker;
-import com.google.android.apps.exposurenotification.privateanalytics.SubmitPrivateAnalyticsWorker;
-import com.google.android.apps.exposurenotification.roaming.CountryCheckingWorker;
-import com.google.android.libraries.privateanalytics.DefaultPrivateAnalyticsDeviceAttestation;
-import com.google.android.libraries.privateanalytics.PrivateAnalyticsEnabledProvider;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsRemoteConfig;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import org.threeten.bp.Duration;
 
 /**
  * Manages background work scheduling for the application.
@@ -44,20 +38,14 @@ public class WorkScheduler {
 
   private final WorkManager workManager;
   private final ListeningExecutorService lightweightExecutor;
-  private final Duration tekPublishInterval;
-  private final PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider;
   private final PrivateAnalyticsRemoteConfig privateAnalyticsRemoteConfig;
 
   public WorkScheduler(
       WorkManager workManager,
       @LightweightExecutor ListeningExecutorService lightweightExecutor,
-      Duration tekPublishInterval,
-      PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider,
       PrivateAnalyticsRemoteConfig privateAnalyticsRemoteConfig) {
     this.workManager = workManager;
     this.lightweightExecutor = lightweightExecutor;
-    this.tekPublishInterval = tekPublishInterval;
-    this.privateAnalyticsEnabledProvider = privateAnalyticsEnabledProvider;
     this.privateAnalyticsRemoteConfig = privateAnalyticsRemoteConfig;
   }
 
@@ -78,7 +66,7 @@ public class WorkScheduler {
         }, lightweightExecutor);
 
     Futures.addCallback(
-        ProvideDiagnosisKeysWorker.schedule(workManager, tekPublishInterval).getResult(),
+        ProvideDiagnosisKeysWorker.schedule(workManager).getResult(),
         new FutureCallback<SUCCESS>() {
           @Override
           public void onSuccess(@Nullable SUCCESS result) {
@@ -92,53 +80,17 @@ public class WorkScheduler {
         }, lightweightExecutor);
 
     Futures.addCallback(
-        CountryCheckingWorker.schedule(workManager).getResult(),
+        MaintenanceWorker.schedule(workManager).getResult(),
         new FutureCallback<SUCCESS>() {
           @Override
           public void onSuccess(@Nullable SUCCESS result) {
-            logger.i("Scheduled CountryCheckingWorker.");
+            logger.i("Scheduled MaintenanceWorker.");
           }
 
           @Override
           public void onFailure(Throwable t) {
-            logger.e("Failed to schedule CountryCheckingWorker.", t);
+            logger.e("Failed to schedule MaintenanceWorker.", t);
           }
         }, lightweightExecutor);
-
-    Futures.addCallback(
-        FirelogAnalyticsWorker.schedule(workManager).getResult(),
-        new FutureCallback<SUCCESS>() {
-          @Override
-          public void onSuccess(@Nullable SUCCESS result) {
-            logger.i("Scheduled FirelogAnalyticsWorker.");
-          }
-
-          @Override
-          public void onFailure(Throwable t) {
-            logger.e("Failed to schedule FirelogAnalyticsWorker.", t);
-          }
-        }, lightweightExecutor);
-
-    if (privateAnalyticsEnabledProvider.isSupportedByApp() &&
-        DefaultPrivateAnalyticsDeviceAttestation.isDeviceAttestationAvailable()) {
-      Futures.addCallback(
-          SubmitPrivateAnalyticsWorker.schedule(workManager).getResult(),
-          new FutureCallback<SUCCESS>() {
-            @Override
-            public void onSuccess(@Nullable SUCCESS result) {
-              logger.i("Scheduled SubmitPrivateAnalyticsWorker.");
-            }
-
-            @Override
-            public void onFailure(Throwable t) {
-              logger.e("Failed to schedule SubmitPrivateAnalyticsWorker.", t);
-            }
-          }, lightweightExecutor);
-    } else {
-      logger.d(String.format(
-          "Private Analytics not scheduled. isFeatureSupported=%s, isDeviceAttestationAvailable=%s",
-          privateAnalyticsEnabledProvider.isSupportedByApp(),
-          DefaultPrivateAnalyticsDeviceAttestation.isDeviceAttestationAvailable()));
-    }
   }
 }
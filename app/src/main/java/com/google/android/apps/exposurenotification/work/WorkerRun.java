@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import androidx.work.ListenableWorker.Result;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Status;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * One run of a worker, as it's being recorded by {@link WorkerTelemetry}.
+ *
+ * <p>Time spent in each {@link Stage} adds up over however many times the run enters it. Stages
+ * may overlap, and parts of the run may not be in any stage at all, so the stages needn't add up to
+ * the wall time.
+ */
+public class WorkerRun {
+
+  private final WorkerTelemetry workerTelemetry;
+  private final WorkerTask workerTask;
+  private final Clock clock;
+  private final Instant startTime;
+
+  // All guarded by "this".
+  private final Map<Stage, Long> stageMillis = new EnumMap<>(Stage.class);
+  private boolean isAbandoned = false;
+
+  WorkerRun(WorkerTelemetry workerTelemetry, WorkerTask workerTask, Clock clock) {
+    this.workerTelemetry = workerTelemetry;
+    this.workerTask = workerTask;
+    this.clock = clock;
+    startTime = clock.now();
+  }
+
+  /**
+   * Counts the time from now until the given future is done towards the given stage, and returns
+   * the future.
+   */
+  public <T> ListenableFuture<T> time(Stage stage, ListenableFuture<T> future) {
+    Instant stageStart = clock.now();
+    future.addListener(() -> addStageTime(stage, stageStart), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /**
+   * Runs the given blocking work, counting the time it takes towards the given stage.
+   */
+  public <T> T timeBlocking(Stage stage, Supplier<T> work) {
+    Instant stageStart = clock.now();
+    try {
+      return work.get();
+    } finally {
+      addStageTime(stage, stageStart);
+    }
+  }
+
+  /**
+   * As {@link #timeBlocking(Stage, Supplier)}, for work that returns nothing.
+   */
+  public void timeBlocking(Stage stage, Runnable work) {
+    Instant stageStart = clock.now();
+    try {
+      work.run();
+    } finally {
+      addStageTime(stage, stageStart);
+    }
+  }
+
+  /**
+   * Marks the run as having had nothing to do because the API isn't enabled, so that its success
+   * is recorded as {@link Status#STATUS_ABANDONED}.
+   */
+  public synchronized void markAbandoned() {
+    isAbandoned = true;
+  }
+
+  /**
+   * Records the run once the given result of its work is in, and returns that result.
+   */
+  public ListenableFuture<Result> finish(ListenableFuture<Result> work) {
+    work.addListener(
+        () -> workerTelemetry.record(toEntity(statusOf(work))), MoreExecutors.directExecutor());
+    return work;
+  }
+
+  private synchronized void addStageTime(Stage stage, Instant stageStart) {
+    long millis = Math.max(Duration.between(stageStart, clock.now()).toMillis(), 0);
+    Long soFar = stageMillis.get(stage);
+    stageMillis.put(stage, soFar == null ? millis : soFar + millis);
+  }
+
+  private synchronized Status statusOf(ListenableFuture<Result> work) {
+    if (work.isCancelled()) {
+      return Status.STATUS_STOPPED;
+    }
+    Result result;
+    try {
+      result = Futures.getDone(work);
+    } catch (ExecutionException e) {
+      return e.getCause() instanceof TimeoutException ? Status.STATUS_TIMEOUT : Status.STATUS_FAIL;
+    }
+    if (Result.retry().equals(result)) {
+      return Status.STATUS_RETRY;
+    }
+    if (Result.failure().equals(result)) {
+      return Status.STATUS_FAIL;
+    }
+    return isAbandoned ? Status.STATUS_ABANDONED : Status.STATUS_SUCCESS;
+  }
+
+  private synchronized WorkerRunEntity toEntity(Status status) {
+    WorkerRunEntity.Builder entity = WorkerRunEntity.newBuilder()
+        .setWorkerTask(workerTask)
+        .setStartTime(startTime)
+        .setWallTimeMillis(Math.max(Duration.between(startTime, clock.now()).toMillis(), 0))
+        .setStatus(status);
+    for (Map.Entry<Stage, Long> stage : stageMillis.entrySet()) {
+      entity.setStageMillis(stage.getKey(), stage.getValue());
+    }
+    return entity.build();
+  }
+}
@@ -17,6 +17,7 @@
 
 package com.google.android.apps.exposurenotification.work;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
@@ -24,6 +25,7 @@ import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledE
 import com.google.android.apps.exposurenotification.common.TaskToFutureAdapter;
 import com.google.android.apps.exposurenotification.common.logging.Logger;
 import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileJanitor;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.PackageConfigurationHelper;
 import com.google.android.apps.exposurenotification.storage.ExposureCheckRepository;
@@ -31,10 +33,15 @@ import com.google.android.apps.exposurenotification.storage.VerificationCodeRequ
 import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
 
 /**
  * Helper methods that should be used by all periodic workers to check the API is enabled and
@@ -63,7 +70,15 @@ import org.threeten.bp.Duration;
  *                 backgroundExecutor);
  *     }
  * }</pre>
+ *
+ * <p>Workers often fire close together, so the outcome of the checks, which take two IPCs to the
+ * Exposure Notifications API, is shared: callers within {@link #STARTUP_STATE_TTL} of a successful
+ * check get its result, and callers while a check is in flight wait for that one. A result is
+ * forgotten as soon as we hear the API's state has changed, see {@link #onEnStateChanged()}. The
+ * routine
+ * clean-up of obsolete rows runs at most once every {@link #CLEANUP_INTERVAL}.
  */
+@Singleton
 public class WorkerStartupManager {
 
   private static final Logger logger = Logger.getLogger("WorkerStartupManager");
@@ -77,6 +92,12 @@ public class WorkerStartupManager {
   // as obsolete. Currently, all verification code requests made earlier than thirty days ago are
   // deemed obsolete.
   @VisibleForTesting static final Duration VERIFICATION_CODE_REQUEST_MAX_AGE = Duration.ofDays(30);
+  // Short enough that a change of the API's state we weren't told of is noticed by the next batch
+  // of workers, long enough to cover the workers that fire together after the device wakes up.
+  @VisibleForTesting static final Duration STARTUP_STATE_TTL = Duration.ofMinutes(5);
+  @VisibleForTesting static final Duration CLEANUP_INTERVAL = Duration.ofHours(1);
+  // Counted under this name when callers don't name themselves.
+  @VisibleForTesting static final String UNNAMED_CALLER = "unnamed";
 
   private final ExposureNotificationClientWrapper exposureNotificationClientWrapper;
   private final ExecutorService backgroundExecutor;
@@ -84,7 +105,16 @@ public class WorkerStartupManager {
   private final PackageConfigurationHelper packageConfigurationHelper;
   private final ExposureCheckRepository exposureCheckRepo;
   private final VerificationCodeRequestRepository verificationCodeRequestRepo;
+  private final KeyFileJanitor keyFileJanitor;
   private final Clock clock;
+  private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> misses = new ConcurrentHashMap<>();
+
+  // All guarded by "this".
+  @Nullable
+  private ListenableFuture<Boolean> startupState;
+  private Instant startupStateTime = Instant.MIN;
+  private Instant lastCleanupTime = Instant.MIN;
 
   @Inject
   public WorkerStartupManager(
@@ -94,6 +124,7 @@ public class WorkerStartupManager {
       PackageConfigurationHelper packageConfigurationHelper,
       ExposureCheckRepository exposureCheckRepo,
       VerificationCodeRequestRepository verificationCodeRequestRepo,
+      KeyFileJanitor keyFileJanitor,
       Clock clock) {
     this.exposureNotificationClientWrapper = exposureNotificationClientWrapper;
     this.backgroundExecutor = backgroundExecutor;
@@ -101,6 +132,7 @@ public class WorkerStartupManager {
     this.packageConfigurationHelper = packageConfigurationHelper;
     this.exposureCheckRepo = exposureCheckRepo;
     this.verificationCodeRequestRepo = verificationCodeRequestRepo;
+    this.keyFileJanitor = keyFileJanitor;
     this.clock = clock;
   }
 
@@ -109,15 +141,93 @@ public class WorkerStartupManager {
    * otherwise immediately returns false.
    *
    * <p> Also deletes obsolete exposure checks and verification code requests and resets nonces for
-   * expired verification code requests, if any.
+   * expired verification code requests, if any, and cleans up keyfiles left behind by interrupted
+   * downloads.
    */
   public ListenableFuture<Boolean> getIsEnabledWithStartupTasks() {
+    return getIsEnabledWithStartupTasks(UNNAMED_CALLER);
+  }
+
+  /**
+   * As {@link #getIsEnabledWithStartupTasks()}, counting whether the given caller was answered
+   * from a recent or in-flight check, or had to start a new one.
+   */
+  public ListenableFuture<Boolean> getIsEnabledWithStartupTasks(String caller) {
+    ListenableFuture<Boolean> state;
+    boolean isHit;
+    synchronized (this) {
+      isHit = startupState != null && isReusable(startupState);
+      if (!isHit) {
+        startupState = checkIsEnabledWithStartupTasks();
+        startupStateTime = clock.now();
+      }
+      state = startupState;
+    }
+    countFor(isHit ? hits : misses, caller).incrementAndGet();
+    logger.d((isHit ? "Reused" : "Started") + " startup checks for " + caller);
+    // One caller giving up on the checks mustn't cancel them for the others.
+    return Futures.nonCancellationPropagating(state);
+  }
+
+  /**
+   * Forgets the result of the last check, so that the next caller checks again. To be called
+   * whenever the API is turned on or off, whether through the app or the system settings, so that
+   * no worker runs, or skips its run, on the strength of a state that no longer holds.
+   */
+  public void onEnStateChanged() {
+    synchronized (this) {
+      startupState = null;
+      startupStateTime = Instant.MIN;
+    }
+    logger.d("Exposure Notifications state changed, forgot the last startup checks.");
+  }
+
+  /**
+   * Returns how many times the given caller was answered from a recent or in-flight check.
+   */
+  public long getHitCount(String caller) {
+    return countFor(hits, caller).get();
+  }
+
+  /**
+   * Returns how many times the given caller had to start a new check.
+   */
+  public long getMissCount(String caller) {
+    return countFor(misses, caller).get();
+  }
+
+  private boolean isReusable(ListenableFuture<Boolean> state) {
+    if (!state.isDone()) {
+      return true;
+    }
+    if (state.isCancelled()) {
+      return false;
+    }
+    try {
+      Futures.getDone(state);
+    } catch (Exception e) {
+      // Failed checks are retried by the next caller.
+      return false;
+    }
+    return clock.now().isBefore(startupStateTime.plus(STARTUP_STATE_TTL));
+  }
+
+  private static AtomicLong countFor(Map<String, AtomicLong> counts, String caller) {
+    AtomicLong count = counts.get(caller);
+    if (count == null) {
+      counts.putIfAbsent(caller, new AtomicLong());
+      count = counts.get(caller);
+    }
+    return count;
+  }
+
+  private ListenableFuture<Boolean> checkIsEnabledWithStartupTasks() {
     return FluentFuture.from(TaskToFutureAdapter.getFutureWithTimeout(
         exposureNotificationClientWrapper.isEnabled(),
         IS_ENABLED_TIMEOUT,
         scheduledExecutor))
         .transformAsync(isEnabled -> {
-          deleteObsoletesAndResetValues();
+          maybeDeleteObsoletesAndResetValues();
           if (isEnabled) {
             return maybeUpdatePackageConfigurationState().transform(v -> true, backgroundExecutor);
           } else {
@@ -125,11 +235,24 @@ public class WorkerStartupManager {
           }
         }, backgroundExecutor)
         .catchingAsync(Exception.class, e -> {
-          deleteObsoletesAndResetValues();
+          maybeDeleteObsoletesAndResetValues();
           return Futures.immediateFailedFuture(e);
         }, backgroundExecutor);
   }
 
+  @WorkerThread
+  private void maybeDeleteObsoletesAndResetValues() {
+    synchronized (this) {
+      Instant now = clock.now();
+      if (now.isBefore(lastCleanupTime.plus(CLEANUP_INTERVAL))) {
+        logger.d("Obsolete rows cleaned up recently, skipping.");
+        return;
+      }
+      lastCleanupTime = now;
+    }
+    deleteObsoletesAndResetValues();
+  }
+
   @WorkerThread
   private void deleteObsoletesAndResetValues() {
     // Delete obsolete exposure checks.
@@ -139,6 +262,8 @@ public class WorkerStartupManager {
         clock.now().minus(VERIFICATION_CODE_REQUEST_MAX_AGE));
     // Reset nonces for expired requests for a verification code.
     verificationCodeRequestRepo.resetNonceForExpiredRequestsIfAny(clock.now());
+    // Delete keyfiles left behind by interrupted downloads.
+    keyFileJanitor.clean();
   }
 
   private FluentFuture<Void> maybeUpdatePackageConfigurationState() {
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.RunSummary;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.StageTime;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Status;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.StatusCount;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.android.apps.exposurenotification.storage.WorkerRunRepository;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.threeten.bp.Duration;
+
+/**
+ * Records how each run of our workers went: how long it took end to end and in each of its {@link
+ * Stage}s, and how it ended.
+ *
+ * <p>Workers start a {@link WorkerRun} as they start work, and hand it their result:
+ *
+ * <pre>{@code
+ *    public ListenableFuture<Result> startWork() {
+ *      WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_...);
+ *      return run.finish(
+ *          FluentFuture.from(run.time(Stage.STAGE_STARTUP,
+ *              workerStartupManager.getIsEnabledWithStartupTasks(WORKER_NAME)))
+ *          ... continue the work flow
+ *     }
+ * }</pre>
+ *
+ * <p>Runs are kept in the {@link WorkerRunRepository}, shown on the debug screen, and summarised
+ * per task into the Firelog batch.
+ *
+ * <p>Bytes moved aren't recorded per run. Runs overlap each other and the app's other network
+ * traffic, so the only bytes we could pin on a run would be everyone's over its wall time. They're
+ * counted per request instead, by {@link
+ * com.google.android.apps.exposurenotification.network.NetworkMetrics}, and broken down by
+ * endpoint in the same batch.
+ */
+@Singleton
+public class WorkerTelemetry {
+
+  private static final Logger logger = Logger.getLogger("WorkerTelemetry");
+
+  /**
+   * Upper bounds of the wall time histogram buckets. Anything slower goes in one last, unbounded
+   * bucket.
+   */
+  public static final ImmutableList<Duration> WALL_TIME_BUCKET_UPPER_BOUNDS = ImmutableList.of(
+      Duration.ofSeconds(1),
+      Duration.ofSeconds(5),
+      Duration.ofSeconds(10),
+      Duration.ofSeconds(30),
+      Duration.ofMinutes(1),
+      Duration.ofMinutes(2),
+      Duration.ofMinutes(5),
+      Duration.ofMinutes(10));
+
+  private final WorkerRunRepository workerRunRepository;
+  private final Clock clock;
+  private final ExecutorService backgroundExecutor;
+
+  @Inject
+  WorkerTelemetry(
+      WorkerRunRepository workerRunRepository,
+      Clock clock,
+      @BackgroundExecutor ExecutorService backgroundExecutor) {
+    this.workerRunRepository = workerRunRepository;
+    this.clock = clock;
+    this.backgroundExecutor = backgroundExecutor;
+  }
+
+  /**
+   * Starts recording a run of the given task, from now.
+   */
+  public WorkerRun startRun(WorkerTask workerTask) {
+    return new WorkerRun(this, workerTask, clock);
+  }
+
+  /**
+   * Stores a finished run, in the background. Failing to store it doesn't affect the run.
+   */
+  void record(WorkerRunEntity run) {
+    logger.d(run.getWorkerTask() + " finished with status " + run.getStatus() + " after "
+        + run.getWallTimeMillis() + "ms");
+    backgroundExecutor.execute(() -> {
+      try {
+        workerRunRepository.insert(run);
+      } catch (RuntimeException e) {
+        logger.w("Failed to record a run of " + run.getWorkerTask(), e);
+      }
+    });
+  }
+
+  /**
+   * Summarises the given runs, one {@link WorkManagerTask} per task.
+   */
+  public static ImmutableList<WorkManagerTask> summarize(List<WorkerRunEntity> runs) {
+    Map<WorkerTask, List<WorkerRunEntity>> runsByTask = new EnumMap<>(WorkerTask.class);
+    for (WorkerRunEntity run : runs) {
+      List<WorkerRunEntity> taskRuns = runsByTask.get(run.getWorkerTask());
+      if (taskRuns == null) {
+        taskRuns = new ArrayList<>();
+        runsByTask.put(run.getWorkerTask(), taskRuns);
+      }
+      taskRuns.add(run);
+    }
+    ImmutableList.Builder<WorkManagerTask> summaries = ImmutableList.builder();
+    for (Map.Entry<WorkerTask, List<WorkerRunEntity>> entry : runsByTask.entrySet()) {
+      RunSummary summary = summarizeTask(entry.getValue());
+      summaries.add(WorkManagerTask.newBuilder()
+          .setWorkerTask(entry.getKey())
+          .setCount(summary.getRunCount())
+          .setRunSummary(summary)
+          .build());
+    }
+    return summaries.build();
+  }
+
+  private static RunSummary summarizeTask(List<WorkerRunEntity> runs) {
+    long[] wallTimeBuckets = new long[WALL_TIME_BUCKET_UPPER_BOUNDS.size() + 1];
+    long totalWallTimeMillis = 0;
+    Map<Status, Long> statuses = new EnumMap<>(Status.class);
+    for (WorkerRunEntity run : runs) {
+      wallTimeBuckets[wallTimeBucketOf(Duration.ofMillis(run.getWallTimeMillis()))]++;
+      totalWallTimeMillis += run.getWallTimeMillis();
+      Long statusCount = statuses.get(run.getStatus());
+      statuses.put(run.getStatus(), statusCount == null ? 1 : statusCount + 1);
+    }
+
+    RunSummary.Builder summary = RunSummary.newBuilder()
+        .setRunCount(runs.size())
+        .setMeanWallTimeMs(Ints.saturatedCast(totalWallTimeMillis / runs.size()));
+    for (long count : wallTimeBuckets) {
+      summary.addWallTimeBucketCount(Ints.saturatedCast(count));
+    }
+    for (Stage stage : Stage.values()) {
+      StageTime stageTime = summarizeStage(stage, runs);
+      if (stageTime != null) {
+        summary.addStageTime(stageTime);
+      }
+    }
+    for (Map.Entry<Status, Long> status : statuses.entrySet()) {
+      summary.addStatusCount(StatusCount.newBuilder()
+          .setStatus(status.getKey())
+          .setCount(Ints.saturatedCast(status.getValue())));
+    }
+    return summary.build();
+  }
+
+  /**
+   * Summarises the time spent in the given stage by the runs that got to it, or returns null if
+   * none did.
+   */
+  private static StageTime summarizeStage(Stage stage, List<WorkerRunEntity> runs) {
+    int runCount = 0;
+    long totalMillis = 0;
+    long maxMillis = 0;
+    for (WorkerRunEntity run : runs) {
+      Long millis = run.getStageMillis(stage);
+      if (millis == null) {
+        continue;
+      }
+      runCount++;
+      totalMillis += millis;
+      maxMillis = Math.max(maxMillis, millis);
+    }
+    if (runCount == 0) {
+      return null;
+    }
+    return StageTime.newBuilder()
+        .setStage(stage)
+        .setRunCount(runCount)
+        .setMeanMs(Ints.saturatedCast(totalMillis / runCount))
+        .setMaxMs(Ints.saturatedCast(maxMillis))
+        .build();
+  }
+
+  @VisibleForTesting
+  static int wallTimeBucketOf(Duration wallTime) {
+    for (int i = 0; i < WALL_TIME_BUCKET_UPPER_BOUNDS.size(); i++) {
+      if (wallTime.compareTo(WALL_TIME_BUCKET_UPPER_BOUNDS.get(i)) <= 0) {
+        return i;
+      }
+    }
+    return WALL_TIME_BUCKET_UPPER_BOUNDS.size();
+  }
+}
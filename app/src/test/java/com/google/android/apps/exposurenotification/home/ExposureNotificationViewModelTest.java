@@ -19,6 +19,7 @@ package com.google.android.apps.exposurenotification.home;
 
 import static com.google.android.apps.exposurenotification.notify.ShareDiagnosisViewModel.EN_STATES_BLOCKING_SHARING_FLOW;
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -43,6 +44,7 @@ import com.google.android.apps.exposurenotification.storage.ExposureNotification
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.common.api.Status;
@@ -195,6 +197,8 @@ public class ExposureNotificationViewModelTest {
   private ExposureNotificationClientWrapper exposureNotificationClientWrapper;
   @Mock
   private AnalyticsLogger logger;
+  @Mock
+  private WorkerStartupManager workerStartupManager;
   private ExposureNotificationViewModel exposureNotificationViewModel;
 
   @Before
@@ -206,6 +210,7 @@ public class ExposureNotificationViewModelTest {
         diagnosisRepository,
         logger,
         packageConfigurationHelper,
+        workerStartupManager,
         clock,
         MoreExecutors.newDirectExecutorService());
     when(exposureNotificationClientWrapper.getPackageConfiguration())
@@ -228,6 +233,28 @@ public class ExposureNotificationViewModelTest {
         EN_DISABLED_ORDINAL);
   }
 
+  @Test
+  public void refreshState_apiTurnedOffSinceLastLooked_workerStartupChecksForgotten() {
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(TASK_FOR_RESULT_FALSE);
+    when(exposureNotificationClientWrapper.getStatus()).thenReturn(TASK_FOR_INACTIVATED);
+    exposureNotificationSharedPreferences.setIsEnabledCache(true);
+
+    exposureNotificationViewModel.refreshState();
+
+    verify(workerStartupManager).onEnStateChanged();
+  }
+
+  @Test
+  public void refreshState_apiStateUnchanged_workerStartupChecksKept() {
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(TASK_FOR_RESULT_TRUE);
+    when(exposureNotificationClientWrapper.getStatus()).thenReturn(TASK_FOR_ACTIVATED);
+    exposureNotificationSharedPreferences.setIsEnabledCache(true);
+
+    exposureNotificationViewModel.refreshState();
+
+    verify(workerStartupManager, never()).onEnStateChanged();
+  }
+
   @Test
   public void refreshState_packageConfigurationAnalyticsTrue_updatesAppAnalyticsState() {
     when(exposureNotificationClientWrapper.isEnabled()).thenReturn(TASK_FOR_RESULT_FALSE);
@@ -486,6 +513,17 @@ public class ExposureNotificationViewModelTest {
         .isEqualTo(ExposureNotificationState.ENABLED);
   }
 
+  @Test
+  public void startExposureNotifications_onSuccess_workerStartupChecksForgotten() {
+    when(exposureNotificationClientWrapper.start()).thenReturn(TASK_FOR_RESULT_VOID);
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(TASK_FOR_RESULT_TRUE);
+    when(exposureNotificationClientWrapper.getStatus()).thenReturn(TASK_FOR_ACTIVATED);
+
+    exposureNotificationViewModel.startExposureNotifications();
+
+    verify(workerStartupManager, atLeastOnce()).onEnStateChanged();
+  }
+
   @Test
   public void startExposureNotifications_onSuccess_liveDataUpdated() {
     when(exposureNotificationClientWrapper.start()).thenReturn(TASK_FOR_RESULT_VOID);
@@ -19,9 +19,12 @@ package com.google.android.apps.exposurenotification.keydownload;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import android.net.Uri;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.volley.ParseError;
 import com.android.volley.VolleyError;
 import com.google.android.apps.exposurenotification.common.ExecutorsModule;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
@@ -31,20 +34,29 @@ import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
 import com.google.android.apps.exposurenotification.keydownload.Qualifiers.HomeDownloadUriPair;
 import com.google.android.apps.exposurenotification.keydownload.Qualifiers.TravellerDownloadUriPairs;
+import com.google.android.apps.exposurenotification.logging.AnalyticsLogger;
+import com.google.android.apps.exposurenotification.logging.ApplicationObserver;
+import com.google.android.apps.exposurenotification.logging.FirelogAnalyticsLogger;
+import com.google.android.apps.exposurenotification.logging.LoggerModule;
 import com.google.android.apps.exposurenotification.network.RealRequestQueueModule;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
+import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.android.apps.exposurenotification.storage.CountryRepository;
 import com.google.android.apps.exposurenotification.storage.DbModule;
 import com.google.android.apps.exposurenotification.storage.DownloadServerEntity;
 import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileEntity;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileRepository;
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.FakeRequestQueue;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -53,6 +65,7 @@ import dagger.hilt.android.testing.BindValue;
 import dagger.hilt.android.testing.HiltAndroidTest;
 import dagger.hilt.android.testing.HiltTestApplication;
 import dagger.hilt.android.testing.UninstallModules;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -78,7 +91,8 @@ import org.robolectric.annotation.Config;
     RealRequestQueueModule.class,
     RealTimeModule.class,
     DownloadUrisModule.class,
-    DbModule.class})
+    DbModule.class,
+    LoggerModule.class})
 public class DiagnosisKeyDownloaderTest {
 
   private static final Joiner NEWLINE_JOINER = Joiner.on("\n");
@@ -125,6 +139,21 @@ public class DiagnosisKeyDownloaderTest {
   RequestQueueWrapper queue = new FakeRequestQueue();
   @BindValue
   Clock clock = new FakeClock();
+  @BindValue
+  AnalyticsLogger analyticsLogger = mock(FirelogAnalyticsLogger.class);
+  @BindValue
+  ApplicationObserver applicationObserver = null; // Unused but needed for Hilt dependency graph.
+  // The fake key files here are plain text, so accept any but those that say they're corrupt.
+  @BindValue
+  KeyFileVerifier keyFileVerifier = new KeyFileVerifier(Optional.absent()) {
+    @Override
+    public KeyFile verify(KeyFile keyFile) throws IOException {
+      if (FileUtils.readFileToString(keyFile.file(), StandardCharsets.UTF_8).contains("corrupt")) {
+        throw new InvalidKeyFileException("Corrupt fake keyfile");
+      }
+      return keyFile.withContentHash(keyFile.uri().toString());
+    }
+  };
 
   @Rule
   public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
@@ -135,6 +164,9 @@ public class DiagnosisKeyDownloaderTest {
   // Also need to access the last successful download.
   @Inject
   DownloadServerRepository downloadServerRepo;
+  // And to pretend we've already provided some files.
+  @Inject
+  ProvidedKeyFileRepository providedKeyFileRepo;
 
   @Inject
   DiagnosisKeyDownloader downloader;
@@ -172,6 +204,26 @@ public class DiagnosisKeyDownloaderTest {
     assertThat(files.get(0).file().exists()).isTrue();
   }
 
+  @Test
+  public void successfulRun_logsBytesReadOnAndOffTheWire() throws Exception {
+    // GIVEN
+    // The index comes compressed, the keyfile doesn't.
+    String keyFileContent = "key-file-content";
+    List<String> filenames = setupKeyFiles(HOME_URIS, keyFileContent);
+    setupIndexFile(HOME_URIS, filenames);
+    fakeQueue().setEncodedSize(HOME_URIS.indexUri().toString(), 7);
+    int indexBytes = indexFileFor(filenames.toArray(new String[]{})).length();
+
+    // WHEN
+    downloader.download().get();
+
+    // THEN
+    verify(analyticsLogger).logRpcCallSuccess(
+        RpcCallType.RPC_TYPE_KEYS_DOWNLOAD,
+        indexBytes + keyFileContent.length(),
+        7 + keyFileContent.length());
+  }
+
   @Test
   public void multipleFilesInHomeIndex_shouldDownloadAllFiles() throws Exception {
     // GIVEN
@@ -209,6 +261,30 @@ public class DiagnosisKeyDownloaderTest {
         .containsExactly("key-file-content-4", "key-file-content-5");
   }
 
+  @Test
+  public void fileAlreadyProvided_shouldNotDownloadItAgain() throws Exception {
+    // GIVEN
+    List<String> filenames = setupKeyFiles(HOME_URIS, "key-file-content-1", "key-file-content-2");
+    setupIndexFile(HOME_URIS, filenames);
+    Uri providedUri =
+        HOME_URIS.fileBaseUri().buildUpon().appendEncodedPath(filenames.get(1)).build();
+    providedKeyFileRepo.markProvided(ImmutableList.of(
+        ProvidedKeyFileEntity.create(providedUri, "hash", clock.now())));
+
+    // WHEN
+    List<KeyFile> files = downloader.download().get();
+
+    // THEN
+    // The provided file is still returned, so its server's progress moves on past it, but without
+    // having been downloaded.
+    assertThat(files).hasSize(2);
+    assertThat(FileUtils.readFileToString(files.get(0).file(), StandardCharsets.UTF_8))
+        .isEqualTo("key-file-content-1");
+    assertThat(files.get(1).uri()).isEqualTo(providedUri);
+    assertThat(files.get(1).file()).isNull();
+    assertThat(files.get(1).isMostRecent()).isTrue();
+  }
+
   @Test
   public void multipleFilesInHomeIndex_haveAlreadyDownloadedThemAll_shouldDownloadNothing()
       throws Exception {
@@ -366,6 +442,146 @@ public class DiagnosisKeyDownloaderTest {
     assertThat(((VolleyError) thrown.getCause()).networkResponse.statusCode).isEqualTo(404);
   }
 
+  @Test
+  public void middleKeyFileFails_shouldKeepOnlyFilesBeforeTheFailure() throws Exception {
+    // GIVEN
+    // Three files in the home index, the second of which 404's.
+    List<String> filenames = setupKeyFiles(HOME_URIS, "key-file-content-1");
+    String failingFile = uniqueFileName();
+    fakeQueue().addResponse(
+        HOME_URIS.fileBaseUri().buildUpon().appendEncodedPath(failingFile).build().toString(),
+        404, "");
+    List<String> lastFile = setupKeyFiles(HOME_URIS, "key-file-content-3");
+    setupIndexFile(HOME_URIS, ImmutableList.of(filenames.get(0), failingFile, lastFile.get(0)));
+
+    // WHEN
+    List<KeyFile> files = downloader.download().get();
+
+    // THEN
+    // Only the first file is kept, and it's now the one to remember as most recent.
+    assertThat(contentsOfAllFilesIn(files)).containsExactly("key-file-content-1");
+    assertThat(files.get(0).isMostRecent()).isTrue();
+  }
+
+  @Test
+  public void roamingKeyFileFails_shouldStillKeepHomeFiles() throws Exception {
+    // GIVEN
+    List<String> homeFilenames = setupKeyFiles(HOME_URIS, "home-key-file-content");
+    setupIndexFile(HOME_URIS, homeFilenames);
+    DownloadUriPair mexicoUris = TRAVEL_URIS.get("MX").get(0);
+    String failingFile = uniqueFileName();
+    fakeQueue().addResponse(
+        mexicoUris.fileBaseUri().buildUpon().appendEncodedPath(failingFile).build().toString(),
+        500, "");
+    setupIndexFile(mexicoUris, ImmutableList.of(failingFile));
+    countryRepository.markCountrySeen("US");
+    countryRepository.markCountrySeen("MX");
+
+    // WHEN
+    List<KeyFile> files = downloader.download().get();
+
+    // THEN
+    assertThat(contentsOfAllFilesIn(files)).containsExactly("home-key-file-content");
+  }
+
+  @Test
+  public void corruptKeyFile_shouldBeDroppedWithTheFilesAfterIt() throws Exception {
+    // GIVEN
+    List<String> filenames = setupKeyFiles(
+        HOME_URIS, "key-file-content-1", "corrupt-key-file-content-2", "key-file-content-3");
+    setupIndexFile(HOME_URIS, filenames);
+
+    // WHEN
+    List<KeyFile> files = downloader.download().get();
+
+    // THEN
+    assertThat(contentsOfAllFilesIn(files)).containsExactly("key-file-content-1");
+    assertThat(files.get(0).isMostRecent()).isTrue();
+    assertThat(files.get(0).contentHash()).isNotNull();
+  }
+
+  @Test
+  public void allKeyFilesCorrupt_failsWithParseError() {
+    // GIVEN
+    List<String> filenames = setupKeyFiles(HOME_URIS, "corrupt-key-file-content");
+    setupIndexFile(HOME_URIS, filenames);
+
+    // WHEN
+    ThrowingRunnable operation = () -> downloader.download().get();
+
+    // THEN
+    ExecutionException thrown = assertThrows(ExecutionException.class, operation);
+    assertThat(thrown.getCause()).isInstanceOf(ParseError.class);
+  }
+
+  @Test
+  public void keyFileUnfinishedAtDeadline_shouldKeepTheFilesThatFinished() throws Exception {
+    // GIVEN
+    // The second of two files never arrives. The test's scheduled executor fires timeouts at once.
+    List<String> filenames = setupKeyFiles(HOME_URIS, "key-file-content-1");
+    String hangingFile = uniqueFileName();
+    fakeQueue().addNoResponse(
+        HOME_URIS.fileBaseUri().buildUpon().appendEncodedPath(hangingFile).build().toString());
+    setupIndexFile(HOME_URIS, ImmutableList.of(filenames.get(0), hangingFile));
+
+    // WHEN
+    List<KeyFile> files = downloader.download().get();
+
+    // THEN
+    assertThat(contentsOfAllFilesIn(files)).containsExactly("key-file-content-1");
+    assertThat(files.get(0).isMostRecent()).isTrue();
+  }
+
+  @Test
+  public void keyFileRefusedInEveryRun_shouldBeSkippedOnceItHasFailedTooOften() throws Exception {
+    // GIVEN
+    List<String> filenames = setupKeyFiles(HOME_URIS, "key-file-content-1");
+    String failingFile = uniqueFileName();
+    Uri failingUri = HOME_URIS.fileBaseUri().buildUpon().appendEncodedPath(failingFile).build();
+    fakeQueue().addResponse(failingUri.toString(), 404, "");
+    List<String> lastFile = setupKeyFiles(HOME_URIS, "key-file-content-3");
+    setupIndexFile(HOME_URIS, ImmutableList.of(filenames.get(0), failingFile, lastFile.get(0)));
+
+    // WHEN
+    List<List<KeyFile>> runs = new ArrayList<>();
+    for (int i = 0; i < DiagnosisKeyDownloader.MAX_KEYFILE_FAILURES; i++) {
+      runs.add(downloader.download().get());
+    }
+
+    // THEN
+    // Until the last run, the failing file holds its server back.
+    for (List<KeyFile> files : runs.subList(0, runs.size() - 1)) {
+      assertThat(contentsOfAllFilesIn(files)).containsExactly("key-file-content-1");
+    }
+    // Then it's skipped, without a local file, so the server's progress can move past it.
+    List<KeyFile> lastRun = Iterables.getLast(runs);
+    assertThat(lastRun).hasSize(3);
+    assertThat(lastRun.get(1).uri()).isEqualTo(failingUri);
+    assertThat(lastRun.get(1).file()).isNull();
+    assertThat(lastRun.get(2).isMostRecent()).isTrue();
+  }
+
+  @Test
+  public void keyFileServer500sInEveryRun_shouldNeverBeSkipped() throws Exception {
+    // GIVEN
+    List<String> filenames = setupKeyFiles(HOME_URIS, "key-file-content-1");
+    String failingFile = uniqueFileName();
+    fakeQueue().addResponse(
+        HOME_URIS.fileBaseUri().buildUpon().appendEncodedPath(failingFile).build().toString(),
+        500, "");
+    setupIndexFile(HOME_URIS, ImmutableList.of(filenames.get(0), failingFile));
+
+    // WHEN
+    List<KeyFile> files = null;
+    for (int i = 0; i < DiagnosisKeyDownloader.MAX_KEYFILE_FAILURES + 1; i++) {
+      files = downloader.download().get();
+    }
+
+    // THEN
+    // Server trouble isn't the file's fault, so it's retried however long it lasts.
+    assertThat(contentsOfAllFilesIn(files)).containsExactly("key-file-content-1");
+  }
+
   @Test
   public void server500Error_failsWithVolleyError() {
     // GIVEN
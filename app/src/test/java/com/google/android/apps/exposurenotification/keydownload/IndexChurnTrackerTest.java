@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import static com.google.android.apps.exposurenotification.keydownload.IndexChurnTracker.STALE_AFTER;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.storage.DbModule;
+import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.common.collect.ImmutableList;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+import org.threeten.bp.format.DateTimeFormatter;
+
+@HiltAndroidTest
+@RunWith(AndroidJUnit4.class)
+@Config(application = HiltTestApplication.class)
+@UninstallModules({DbModule.class, RealTimeModule.class})
+public class IndexChurnTrackerTest {
+
+  private static final Duration DEFAULT_INTERVAL = Duration.ofHours(24);
+  private static final Uri INDEX_URI = Uri.parse("http://example.com/index.txt");
+  private static final Uri OTHER_INDEX_URI = Uri.parse("http://example.org/index.txt");
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  @BindValue
+  Clock clock = new FakeClock();
+  @BindValue
+  ExposureNotificationDatabase db = InMemoryDb.create();
+
+  @Inject
+  DownloadServerRepository downloadServerRepo;
+
+  // The SUT
+  @Inject
+  IndexChurnTracker tracker;
+
+  private final List<Uri> indexedFiles = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    rules.hilt().inject();
+  }
+
+  @Test
+  public void nothingKnown_returnsDefaultInterval() {
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(DEFAULT_INTERVAL);
+  }
+
+  @Test
+  public void onePublicationSeen_returnsDefaultInterval() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(DEFAULT_INTERVAL);
+  }
+
+  @Test
+  public void twoPublications_intervalIsTheTimeBetweenThem() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(6));
+  }
+
+  @Test
+  public void lastModifiedDates_takePrecedenceOverWhenWeNoticed() {
+    Instant firstPublished = clock.now().minus(Duration.ofHours(1));
+    publish(INDEX_URI, 1, httpDate(firstPublished));
+    fakeClock().advanceBy(Duration.ofHours(12));
+
+    // We only check now, but the server published 5 hours after the previous time.
+    publish(INDEX_URI, 1, httpDate(firstPublished.plus(Duration.ofHours(5))));
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(5));
+  }
+
+  @Test
+  public void severalFilesPublishedSinceLastCheck_intervalIsSplitBetweenThem() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(12));
+    publish(INDEX_URI, 3, lastModifiedNow());
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(4));
+  }
+
+  @Test
+  public void noLastModified_usesWhenWeNoticed() {
+    publish(INDEX_URI, 1, null);
+    fakeClock().advanceBy(Duration.ofHours(8));
+    publish(INDEX_URI, 1, null);
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(8));
+  }
+
+  @Test
+  public void intervalSamples_areSmoothed() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(2));
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    // 6h + 0.25 * (2h - 6h)
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(5));
+  }
+
+  @Test
+  public void unchangedChecks_backOffAfterSeveralInARow() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    List<Duration> intervals = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      tracker.recordIndexListed(INDEX_URI, indexedFiles, lastModifiedNow());
+      intervals.add(tracker.getPublishInterval(DEFAULT_INTERVAL));
+    }
+
+    assertThat(intervals).containsExactly(
+        Duration.ofHours(6),
+        Duration.ofHours(6),
+        Duration.ofHours(12),
+        Duration.ofHours(24),
+        Duration.ofHours(48),
+        Duration.ofHours(96),
+        Duration.ofHours(96),
+        Duration.ofHours(96)).inOrder();
+  }
+
+  @Test
+  public void notModified_countsAsUnchanged() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    for (int i = 0; i < IndexChurnTracker.BACKOFF_AFTER_UNCHANGED_CHECKS; i++) {
+      tracker.recordIndexNotModified(INDEX_URI);
+    }
+
+    assertThat(downloadServerRepo.getChurn(INDEX_URI).unchangedChecks())
+        .isEqualTo(IndexChurnTracker.BACKOFF_AFTER_UNCHANGED_CHECKS);
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL))
+        .isEqualTo(DEFAULT_INTERVAL.multipliedBy(2));
+  }
+
+  @Test
+  public void newPublication_resetsBackoff() {
+    publish(INDEX_URI, 1, lastModifiedNow());
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, lastModifiedNow());
+    for (int i = 0; i < 5; i++) {
+      tracker.recordIndexNotModified(INDEX_URI);
+    }
+
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, lastModifiedNow());
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(6));
+  }
+
+  @Test
+  public void severalServers_returnsTheShortestInterval() {
+    publish(INDEX_URI, 1, null);
+    publish(OTHER_INDEX_URI, 1, null);
+    fakeClock().advanceBy(Duration.ofHours(4));
+    publish(OTHER_INDEX_URI, 1, null);
+    fakeClock().advanceBy(Duration.ofHours(6));
+    publish(INDEX_URI, 1, null);
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(Duration.ofHours(4));
+  }
+
+  @Test
+  public void serversNoLongerChecked_areIgnored() {
+    publish(INDEX_URI, 1, null);
+    fakeClock().advanceBy(Duration.ofHours(1));
+    publish(INDEX_URI, 1, null);
+
+    fakeClock().advanceBy(STALE_AFTER.plusMinutes(1));
+
+    assertThat(tracker.getPublishInterval(DEFAULT_INTERVAL)).isEqualTo(DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Adds the given number of files to the index, and records a check that lists them.
+   */
+  private void publish(Uri indexUri, int numFiles, String lastModified) {
+    for (int i = 0; i < numFiles; i++) {
+      indexedFiles.add(indexUri.buildUpon().appendPath("file-" + indexedFiles.size()).build());
+    }
+    List<Uri> filesOnServer = new ArrayList<>();
+    for (Uri file : indexedFiles) {
+      if (file.getHost().equals(indexUri.getHost())) {
+        filesOnServer.add(file);
+      }
+    }
+    tracker.recordIndexListed(indexUri, ImmutableList.copyOf(filesOnServer), lastModified);
+  }
+
+  private String lastModifiedNow() {
+    return httpDate(clock.now());
+  }
+
+  private static String httpDate(Instant instant) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atZone(ZoneOffset.UTC));
+  }
+
+  private FakeClock fakeClock() {
+    return (FakeClock) clock;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link KeyFileDownloadScheduler}.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class KeyFileDownloadSchedulerTest {
+
+  private static final Uri HOME = Uri.parse("http://home.example.com/index.txt");
+  private static final Uri TRAVEL = Uri.parse("http://travel.example.com/index.txt");
+
+  private final List<String> started = new ArrayList<>();
+  private final List<SettableFuture<String>> inFlight = new ArrayList<>();
+
+  @Test
+  public void shouldNotExceedGlobalLimit() {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(2, 10);
+
+    for (int i = 0; i < 5; i++) {
+      submit(scheduler, HOME, "file-" + i);
+    }
+
+    assertThat(started).containsExactly("file-0", "file-1").inOrder();
+    assertThat(scheduler.getInFlightCount()).isEqualTo(2);
+    assertThat(scheduler.getQueueDepth()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldNotExceedPerServerLimit_butLetOtherServersThrough() {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(10, 1);
+
+    submit(scheduler, HOME, "home-1");
+    submit(scheduler, HOME, "home-2");
+    submit(scheduler, TRAVEL, "travel-1");
+
+    assertThat(started).containsExactly("home-1", "travel-1").inOrder();
+    assertThat(scheduler.getInFlightCount(HOME)).isEqualTo(1);
+    assertThat(scheduler.getInFlightCount(TRAVEL)).isEqualTo(1);
+    assertThat(scheduler.getQueueDepth()).isEqualTo(1);
+  }
+
+  @Test
+  public void completion_shouldStartNextQueuedDownload() throws Exception {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(1, 1);
+    ListenableFuture<String> first = submit(scheduler, HOME, "file-1");
+    ListenableFuture<String> second = submit(scheduler, HOME, "file-2");
+
+    inFlight.get(0).set("done-1");
+
+    assertThat(first.get()).isEqualTo("done-1");
+    assertThat(second.isDone()).isFalse();
+    assertThat(started).containsExactly("file-1", "file-2").inOrder();
+    assertThat(scheduler.getInFlightCount()).isEqualTo(1);
+    assertThat(scheduler.getQueueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void failure_shouldReleaseSlot() {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(1, 1);
+    submit(scheduler, HOME, "file-1");
+    submit(scheduler, HOME, "file-2");
+
+    inFlight.get(0).setException(new RuntimeException("boom"));
+
+    assertThat(started).containsExactly("file-1", "file-2").inOrder();
+  }
+
+  @Test
+  public void cancelledWhilePending_shouldNeverStart() {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(1, 1);
+    submit(scheduler, HOME, "file-1");
+    ListenableFuture<String> second = submit(scheduler, HOME, "file-2");
+    submit(scheduler, HOME, "file-3");
+
+    second.cancel(false);
+    inFlight.get(0).set("done-1");
+
+    assertThat(started).containsExactly("file-1", "file-3").inOrder();
+  }
+
+  @Test
+  public void synchronousCompletions_shouldDrainWholeQueue() {
+    KeyFileDownloadScheduler scheduler = new KeyFileDownloadScheduler(1, 1);
+    List<ListenableFuture<String>> results = new ArrayList<>();
+
+    for (int i = 0; i < 10_000; i++) {
+      String name = "file-" + i;
+      results.add(scheduler.submit(HOME, () -> {
+        SettableFuture<String> future = SettableFuture.create();
+        future.set(name);
+        return future;
+      }));
+    }
+
+    for (ListenableFuture<String> result : results) {
+      assertThat(result.isDone()).isTrue();
+    }
+    assertThat(scheduler.getInFlightCount()).isEqualTo(0);
+  }
+
+  private ListenableFuture<String> submit(
+      KeyFileDownloadScheduler scheduler, Uri server, String name) {
+    return scheduler.submit(server, () -> {
+      started.add(name);
+      SettableFuture<String> future = SettableFuture.create();
+      inFlight.add(future);
+      return future;
+    });
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import dagger.hilt.android.qualifiers.ApplicationContext;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.io.File;
+import java.io.RandomAccessFile;
+import javax.inject.Inject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+@HiltAndroidTest
+@RunWith(AndroidJUnit4.class)
+@Config(application = HiltTestApplication.class)
+@UninstallModules({RealTimeModule.class})
+public class KeyFileJanitorTest {
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  @BindValue
+  Clock clock = new FakeClock();
+
+  @Inject
+  @ApplicationContext
+  Context context;
+  @Inject
+  KeyFileJanitor janitor;
+  @Inject
+  LiveDownloadDirs liveDownloadDirs;
+
+  private File downloadDir;
+
+  @Before
+  public void setUp() {
+    rules.hilt().inject();
+    downloadDir = new File(context.getFilesDir(), KeyFileConstants.DOWNLOAD_DIR);
+  }
+
+  @Test
+  public void noDownloadDir_doesNothing() {
+    assertThat(janitor.clean()).isEqualTo(0);
+  }
+
+  @Test
+  public void staleDownloadDir_isDeleted() throws Exception {
+    File dir = new File(downloadDir, "stale");
+    createFile(new File(dir, "keys_1.zip"), 10, age(KeyFileJanitor.DOWNLOAD_DIR_MAX_AGE));
+    createFile(new File(dir, "keys_2.zip"), 10, age(KeyFileJanitor.DOWNLOAD_DIR_MAX_AGE));
+
+    long usage = janitor.clean();
+
+    assertThat(dir.exists()).isFalse();
+    assertThat(usage).isEqualTo(0);
+  }
+
+  @Test
+  public void downloadDirInUse_isKept() throws Exception {
+    // One old file, but one recent one too: the run may still be in progress.
+    File dir = new File(downloadDir, "in-use");
+    createFile(new File(dir, "keys_1.zip"), 10, age(KeyFileJanitor.DOWNLOAD_DIR_MAX_AGE));
+    createFile(new File(dir, "keys_2.zip"), 20, clock.currentTimeMillis());
+
+    long usage = janitor.clean();
+
+    assertThat(new File(dir, "keys_1.zip").exists()).isTrue();
+    assertThat(new File(dir, "keys_2.zip").exists()).isTrue();
+    assertThat(usage).isEqualTo(30);
+  }
+
+  @Test
+  public void staleDownloadDir_stillHeldByARun_isKept() throws Exception {
+    // E.g. a run providing a backlog in several chunks, and taking a while about it.
+    File dir = new File(downloadDir, "long-run");
+    createFile(new File(dir, "keys_1.zip"), 10, age(KeyFileJanitor.DOWNLOAD_DIR_MAX_AGE));
+    liveDownloadDirs.hold("long-run");
+
+    long usage = janitor.clean();
+
+    assertThat(new File(dir, "keys_1.zip").exists()).isTrue();
+    assertThat(usage).isEqualTo(10);
+  }
+
+  @Test
+  public void stalePartialDownload_isDeleted_recentOneKept() throws Exception {
+    File partialDir = new File(downloadDir, KeyFileConstants.PARTIAL_DOWNLOAD_DIR);
+    File stale = new File(partialDir, "stale.zip");
+    File recent = new File(partialDir, "recent.zip");
+    createFile(stale, 10, age(KeyFileJanitor.PARTIAL_DOWNLOAD_MAX_AGE));
+    // Older than a download dir may get, but young enough to resume.
+    createFile(recent, 10, age(KeyFileJanitor.DOWNLOAD_DIR_MAX_AGE));
+
+    long usage = janitor.clean();
+
+    assertThat(stale.exists()).isFalse();
+    assertThat(recent.exists()).isTrue();
+    assertThat(usage).isEqualTo(10);
+  }
+
+  @Test
+  public void overQuota_deletesOldestUntilUnderQuota() throws Exception {
+    long bigFile = KeyFileJanitor.DISK_QUOTA_BYTES / 2 + 1;
+    File oldest = new File(downloadDir, "oldest/keys_1.zip");
+    File middle = new File(downloadDir, "middle/keys_1.zip");
+    File newest = new File(downloadDir, "newest/keys_1.zip");
+    createFile(oldest, bigFile, clock.currentTimeMillis() - 3000);
+    createFile(middle, bigFile, clock.currentTimeMillis() - 2000);
+    createFile(newest, 10, clock.currentTimeMillis() - 1000);
+
+    long usage = janitor.clean();
+
+    assertThat(oldest.exists()).isFalse();
+    assertThat(middle.exists()).isTrue();
+    assertThat(newest.exists()).isTrue();
+    assertThat(usage).isEqualTo(bigFile + 10);
+  }
+
+  @Test
+  public void overQuota_doesNotDeleteDirsOfRunsInProgress() throws Exception {
+    long bigFile = KeyFileJanitor.DISK_QUOTA_BYTES / 2 + 1;
+    File live = new File(downloadDir, "live/keys_1.zip");
+    File older = new File(downloadDir, "older/keys_1.zip");
+    File newer = new File(downloadDir, "newer/keys_1.zip");
+    createFile(live, bigFile, clock.currentTimeMillis() - 3000);
+    createFile(older, bigFile, clock.currentTimeMillis() - 2000);
+    createFile(newer, 10, clock.currentTimeMillis() - 1000);
+    liveDownloadDirs.hold("live");
+
+    long usage = janitor.clean();
+
+    // The oldest dir is still in use, so the next oldest goes instead.
+    assertThat(live.exists()).isTrue();
+    assertThat(older.exists()).isFalse();
+    assertThat(newer.exists()).isTrue();
+    assertThat(usage).isEqualTo(bigFile + 10);
+  }
+
+  private long age(Duration olderThan) {
+    return clock.currentTimeMillis() - olderThan.toMillis() - 1;
+  }
+
+  /**
+   * Creates a file of the given length, without actually writing that many bytes.
+   */
+  private static void createFile(File file, long length, long lastModified) throws Exception {
+    file.getParentFile().mkdirs();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length);
+    }
+    file.setLastModified(lastModified);
+    file.getParentFile().setLastModified(lastModified);
+  }
+}
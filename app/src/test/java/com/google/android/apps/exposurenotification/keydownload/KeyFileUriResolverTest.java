@@ -26,6 +26,7 @@ import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
 import com.google.android.apps.exposurenotification.network.RealRequestQueueModule;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
 import com.google.android.apps.exposurenotification.storage.DbModule;
+import com.google.android.apps.exposurenotification.storage.DownloadServerChurnEntity;
 import com.google.android.apps.exposurenotification.storage.DownloadServerEntity;
 import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
@@ -35,11 +36,13 @@ import com.google.android.apps.exposurenotification.testsupport.FakeRequestQueue
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import dagger.hilt.android.testing.BindValue;
 import dagger.hilt.android.testing.HiltAndroidTest;
 import dagger.hilt.android.testing.HiltTestApplication;
 import dagger.hilt.android.testing.UninstallModules;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import org.junit.Before;
@@ -47,6 +50,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+import org.threeten.bp.format.DateTimeFormatter;
 
 @RunWith(AndroidJUnit4.class)
 @HiltAndroidTest
@@ -59,6 +66,7 @@ public final class KeyFileUriResolverTest {
 
   private static final Joiner NEWLINE_JOINER = Joiner.on("\n");
   private static final AtomicInteger UNIQUE_INT = new AtomicInteger(1);
+  private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
 
   @Rule
   public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
@@ -272,6 +280,125 @@ public final class KeyFileUriResolverTest {
     assertThat(keyFiles).hasSize(2);
   }
 
+  @Test
+  public void indexHasETag_lastFileShouldCarryIndexValidators() throws Exception {
+    // GIVEN
+    String keyfile1 = uniqueFileName();
+    String keyfile2 = uniqueFileName();
+    DownloadUriPair uriPair = newDownloadUriPair();
+    queue().addResponse(
+        uriPair.indexUri().toString(),
+        200,
+        indexFileFor(keyfile1, keyfile2),
+        ImmutableMap.of("ETag", "\"v1\"", "Last-Modified", LAST_MODIFIED));
+
+    // WHEN
+    List<KeyFile> keyFiles = resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    assertThat(keyFiles.get(0).indexETag()).isNull();
+    assertThat(keyFiles.get(1).indexETag()).isEqualTo("\"v1\"");
+    assertThat(keyFiles.get(1).indexLastModified()).isEqualTo(LAST_MODIFIED);
+  }
+
+  @Test
+  public void validatorsSaved_shouldSendConditionalRequest() throws Exception {
+    // GIVEN
+    DownloadUriPair uriPair = newDownloadUriPair();
+    queue().addResponse(uriPair.indexUri().toString(), 200, "");
+    downloadServerRepo.upsert(DownloadServerEntity.create(
+        uriPair.indexUri(), Uri.parse("http://example.com/file"), "\"v1\"", LAST_MODIFIED));
+
+    // WHEN
+    resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    Map<String, String> headers = queue().getLastRpcHeaders();
+    assertThat(headers).containsEntry("If-None-Match", "\"v1\"");
+    assertThat(headers).containsEntry("If-Modified-Since", LAST_MODIFIED);
+  }
+
+  @Test
+  public void indexNotModified_shouldReturnZeroKeyfiles() throws Exception {
+    // GIVEN
+    DownloadUriPair uriPair = newDownloadUriPair();
+    queue().addResponse(uriPair.indexUri().toString(), 304, "");
+    downloadServerRepo.upsert(DownloadServerEntity.create(
+        uriPair.indexUri(), Uri.parse("http://example.com/file"), "\"v1\"", null));
+
+    // WHEN
+    List<KeyFile> keyFiles = resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    assertThat(keyFiles).isEmpty();
+  }
+
+  @Test
+  public void allFilesAlreadyDownloaded_shouldSaveIndexValidators() throws Exception {
+    // GIVEN
+    String keyfile = uniqueFileName();
+    DownloadUriPair uriPair = newDownloadUriPair();
+    Uri fileUri = uriPair.fileBaseUri().buildUpon().appendEncodedPath(keyfile).build();
+    queue().addResponse(
+        uriPair.indexUri().toString(),
+        200,
+        indexFileFor(keyfile),
+        ImmutableMap.of("ETag", "\"v2\""));
+    downloadServerRepo.upsert(DownloadServerEntity.create(uriPair.indexUri(), fileUri));
+
+    // WHEN
+    List<KeyFile> keyFiles = resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    assertThat(keyFiles).isEmpty();
+    assertThat(downloadServerRepo.get(uriPair.indexUri()).indexETag()).isEqualTo("\"v2\"");
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(uriPair.indexUri()))
+        .isEqualTo(fileUri);
+  }
+
+  @Test
+  public void indexListed_shouldRecordNewestFileAndPublishTime() throws Exception {
+    // GIVEN
+    String keyfile1 = uniqueFileName();
+    String keyfile2 = uniqueFileName();
+    DownloadUriPair uriPair = newDownloadUriPair();
+    Instant published = clock.now().minus(Duration.ofHours(1));
+    queue().addResponse(
+        uriPair.indexUri().toString(),
+        200,
+        indexFileFor(keyfile1, keyfile2),
+        ImmutableMap.of("Last-Modified",
+            DateTimeFormatter.RFC_1123_DATE_TIME.format(published.atZone(ZoneOffset.UTC))));
+
+    // WHEN
+    resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    DownloadServerChurnEntity churn = downloadServerRepo.getChurn(uriPair.indexUri());
+    assertThat(churn.newestFile())
+        .isEqualTo(uriPair.fileBaseUri().buildUpon().appendEncodedPath(keyfile2).build());
+    assertThat(churn.lastPublishTime()).isEqualTo(published);
+    assertThat(churn.unchangedChecks()).isEqualTo(0);
+  }
+
+  @Test
+  public void indexNotModified_shouldRecordUnchangedCheck() throws Exception {
+    // GIVEN
+    DownloadUriPair uriPair = newDownloadUriPair();
+    queue().addResponse(uriPair.indexUri().toString(), 304, "");
+    downloadServerRepo.upsert(DownloadServerEntity.create(
+        uriPair.indexUri(), Uri.parse("http://example.com/file"), "\"v1\"", null));
+    downloadServerRepo.upsertChurn(DownloadServerChurnEntity.create(
+        uriPair.indexUri(), Uri.parse("http://example.com/file"), clock.now(), null, 0,
+        clock.now()));
+
+    // WHEN
+    resolver.resolve(ImmutableList.of(uriPair)).get();
+
+    // THEN
+    assertThat(downloadServerRepo.getChurn(uriPair.indexUri()).unchangedChecks()).isEqualTo(1);
+  }
+
   private static DownloadUriPair newDownloadUriPair() {
     int nextInt = UNIQUE_INT.getAndIncrement();
     return DownloadUriPair.create(
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keydownload;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.net.Uri;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileVerifier.InvalidKeyFileException;
+import com.google.android.apps.exposurenotification.proto.SignatureInfo;
+import com.google.android.apps.exposurenotification.proto.TEKSignature;
+import com.google.android.apps.exposurenotification.proto.TEKSignatureList;
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Bytes;
+import com.google.protobuf.ByteString;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class KeyFileVerifierTest {
+
+  private static final byte[] EXPORT =
+      Bytes.concat(
+          KeyFileConstants.EXPORT_HEADER.getBytes(StandardCharsets.US_ASCII),
+          "some-export-proto".getBytes(StandardCharsets.UTF_8));
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private KeyPair signingKeys;
+  private KeyPair otherKeys;
+
+  @Before
+  public void setUp() throws Exception {
+    signingKeys = newKeyPair();
+    otherKeys = newKeyPair();
+  }
+
+  @Test
+  public void wellFormedFile_noKeyConfigured_returnsContentHash() throws Exception {
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(EXPORT, otherKeys.getPrivate()), EXPORT));
+
+    KeyFile verified = verifierWith(null).verify(keyFile);
+
+    assertThat(verified.contentHash())
+        .isEqualTo(Hashing.sha256().hashBytes(EXPORT).toString());
+    assertThat(verified.file()).isEqualTo(keyFile.file());
+  }
+
+  @Test
+  public void validSignature_returnsContentHash() throws Exception {
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(EXPORT, signingKeys.getPrivate()), EXPORT));
+
+    KeyFile verified = verifierWith(signingKeys.getPublic()).verify(keyFile);
+
+    assertThat(verified.contentHash()).isNotNull();
+  }
+
+  @Test
+  public void signatureFromAnotherKey_throws() throws Exception {
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(EXPORT, otherKeys.getPrivate()), EXPORT));
+
+    assertThrows(
+        InvalidKeyFileException.class, () -> verifierWith(signingKeys.getPublic()).verify(keyFile));
+  }
+
+  @Test
+  public void tamperedExport_throws() throws Exception {
+    byte[] tampered = EXPORT.clone();
+    tampered[tampered.length - 1] ^= 1;
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(EXPORT, signingKeys.getPrivate()), tampered));
+
+    assertThrows(
+        InvalidKeyFileException.class, () -> verifierWith(signingKeys.getPublic()).verify(keyFile));
+  }
+
+  @Test
+  public void wrongHeader_throws() throws Exception {
+    byte[] export = "Not an export at all".getBytes(StandardCharsets.UTF_8);
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(export, otherKeys.getPrivate()), export));
+
+    assertThrows(InvalidKeyFileException.class, () -> verifierWith(null).verify(keyFile));
+  }
+
+  @Test
+  public void missingSignatureFile_throws() throws Exception {
+    KeyFile keyFile = keyFileOf(zip(null, EXPORT));
+
+    assertThrows(InvalidKeyFileException.class, () -> verifierWith(null).verify(keyFile));
+  }
+
+  @Test
+  public void missingExportFile_throws() throws Exception {
+    KeyFile keyFile = keyFileOf(zip(signaturesOf(EXPORT, signingKeys.getPrivate()), null));
+
+    assertThrows(InvalidKeyFileException.class, () -> verifierWith(null).verify(keyFile));
+  }
+
+  @Test
+  public void notAZip_throws() throws Exception {
+    File file = tmp.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("key-file-content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertThrows(InvalidKeyFileException.class, () -> verifierWith(null).verify(keyFileOf(file)));
+  }
+
+  private static KeyFileVerifier verifierWith(PublicKey key) {
+    return new KeyFileVerifier(Optional.fromNullable(key));
+  }
+
+  private static KeyFile keyFileOf(File file) {
+    return KeyFile.create(Uri.parse("http://example.com/index.txt"),
+        Uri.parse("http://example.com/keys.zip"), true).with(file);
+  }
+
+  private File zip(TEKSignatureList signatures, byte[] export) throws Exception {
+    File file = tmp.newFile();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      if (signatures != null) {
+        zip.putNextEntry(new ZipEntry(KeyFileConstants.SIG_FILENAME));
+        signatures.writeTo(zip);
+        zip.closeEntry();
+      }
+      if (export != null) {
+        zip.putNextEntry(new ZipEntry(KeyFileConstants.EXPORT_FILENAME));
+        zip.write(export);
+        zip.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  private static TEKSignatureList signaturesOf(byte[] export, PrivateKey key) throws Exception {
+    Signature signer = Signature.getInstance("SHA256withECDSA");
+    signer.initSign(key);
+    signer.update(export);
+    return TEKSignatureList.newBuilder()
+        .addSignatures(TEKSignature.newBuilder()
+            .setSignatureInfo(SignatureInfo.newBuilder()
+                .setVerificationKeyId("310")
+                .setVerificationKeyVersion("v1")
+                .setSignatureAlgorithm("1.2.840.10045.4.3.2"))
+            .setBatchNum(1)
+            .setBatchSize(1)
+            .setSignature(ByteString.copyFrom(signer.sign())))
+        .build();
+  }
+
+  private static KeyPair newKeyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    return generator.generateKeyPair();
+  }
+}
@@ -32,6 +32,7 @@ import android.content.Context;
 import android.net.Uri;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.volley.Request.Priority;
 import com.google.android.apps.exposurenotification.R;
 import com.google.android.apps.exposurenotification.common.ExecutorsModule;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
@@ -82,6 +83,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.function.ThrowingRunnable;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.robolectric.annotation.Config;
 import org.threeten.bp.LocalDate;
 import org.threeten.bp.ZoneOffset;
@@ -175,6 +177,22 @@ public class DiagnosisAttestorTest {
     verifyVerificationRPCSuccessLoggedAndFailureNotLogged();
   }
 
+  @Test
+  public void code_coverTrafficRequest_shouldGoInTheSameLaneAsARealOne() throws Exception {
+    // GIVEN
+    Upload input = sampleUpload("code", sampleKey(1));
+    setupSuccessfulCodeRpc("verification-token");
+
+    // WHEN
+    diagnosisAttestor.submitCode(input);
+    Priority realPriority = fakeQueue().getLastRpc().getPriority();
+    diagnosisAttestor.submitCode(input.toBuilder().setIsCoverTraffic(true).build());
+
+    // THEN
+    // Otherwise cover traffic could be told apart by how long it queued.
+    assertThat(fakeQueue().getLastRpc().getPriority()).isEqualTo(realPriority);
+  }
+
   @Test
   public void cert_coverTrafficRequest_shouldHaveXChaffHeader() throws Exception {
     // GIVEN
@@ -204,6 +222,32 @@ public class DiagnosisAttestorTest {
     verifyVerificationRPCSuccessLoggedAndFailureNotLogged();
   }
 
+  @Test
+  public void cert_compressedResponse_logsRequestSize_andResponseSizeOnAndOffTheWire()
+      throws Exception {
+    // GIVEN
+    Upload input = sampleUpload("code", sampleKey(1));
+    String response = successfulCertResponse("certificate");
+    fakeQueue().addResponse(CERT_URI.toString(), 200, response);
+    fakeQueue().setEncodedSize(CERT_URI.toString(), 12);
+
+    // WHEN
+    diagnosisAttestor.submitKeysForCert(input).get();
+
+    // THEN
+    // The payload size stays the request's, as for calls whose response size we don't know.
+    ArgumentCaptor<Integer> payloadSize = ArgumentCaptor.forClass(Integer.class);
+    verify(analyticsLogger).logRpcCallSuccessAsync(
+        eq(RpcCallType.RPC_TYPE_VERIFICATION), payloadSize.capture(), eq(response.length()),
+        eq(12));
+    assertThat(payloadSize.getValue()).isNotEqualTo(response.length());
+    assertThat(payloadSize.getValue()).isGreaterThan(0);
+    verify(analyticsLogger, never())
+        .logRpcCallSuccessAsync(eq(RpcCallType.RPC_TYPE_VERIFICATION), anyInt());
+    verify(analyticsLogger, never())
+        .logRpcCallSuccessAsync(eq(RpcCallType.RPC_TYPE_VERIFICATION), anyInt(), anyInt());
+  }
+
   @Test
   public void code_coverTrafficRequest_toleratesGarbageResponse() {
     // GIVEN
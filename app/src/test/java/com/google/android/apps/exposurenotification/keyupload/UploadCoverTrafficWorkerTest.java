@@ -17,7 +17,10 @@
 
 package com.google.android.apps.exposurenotification.keyupload;
 
+import static com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker.DELAYED_WORKER_NAME;
+import static com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker.EXECUTION_PROBABILITY;
 import static com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker.KEYS_UPLOAD_DELAY_THRESHOLD;
+import static com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker.LEGACY_PERIODIC_WORKER_NAME;
 import static com.google.android.apps.exposurenotification.keyupload.UploadCoverTrafficWorker.WORKER_NAME;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -41,6 +44,7 @@ import androidx.work.impl.utils.SynchronousExecutor;
 import androidx.work.testing.WorkManagerTestInitHelper;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileJanitor;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.PackageConfigurationHelper;
 import com.google.android.apps.exposurenotification.storage.DbModule;
@@ -51,6 +55,7 @@ import com.google.android.apps.exposurenotification.testsupport.ExposureNotifica
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.tasks.Tasks;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -61,6 +66,8 @@ import dagger.hilt.android.testing.HiltTestApplication;
 import dagger.hilt.android.testing.UninstallModules;
 import java.security.SecureRandom;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.junit.Before;
 import org.junit.Rule;
@@ -79,6 +86,18 @@ import org.threeten.bp.ZoneOffset;
 @UninstallModules({DbModule.class, RealTimeModule.class})
 public class UploadCoverTrafficWorkerTest {
 
+  // Any draw for the time of the next run. Only the statistical tests below care what it is.
+  private static final double NEXT_RUN_DRAW = 0.5d;
+  // Enough draws of the time to the next run for the statistical tests to be sharp, from a fixed
+  // seed so that they're repeatable.
+  private static final int NUM_DRAWS = 100_000;
+  private static final long SEED = 20211016L;
+  // Runs in the first NUM_BUCKETS periods are counted period by period, any later in one bucket.
+  private static final int NUM_BUCKETS = 40;
+  // The chi-squared statistic for NUM_BUCKETS degrees of freedom exceeds this with probability
+  // 0.001 when the draws do follow the expected distribution.
+  private static final double CHI_SQUARED_CRITICAL_VALUE = 73.402d;
+
   @Rule
   public ExposureNotificationRules rules =
       ExposureNotificationRules.forTest(this).withMocks().build();
@@ -104,6 +123,10 @@ public class UploadCoverTrafficWorkerTest {
   ExposureCheckRepository exposureCheckRepository;
   @Inject
   VerificationCodeRequestRepository verificationCodeRequestRepository;
+  @Inject
+  KeyFileJanitor keyFileJanitor;
+  @Inject
+  WorkerTelemetry workerTelemetry;
 
   @BindValue
   ExposureNotificationDatabase db = InMemoryDb.create();
@@ -127,10 +150,11 @@ public class UploadCoverTrafficWorkerTest {
         context, config);
     workManager = WorkManager.getInstance(context);
 
-    // Randoms below probability result in execution. It's not great for the test to know the
-    // internal implementation of the SUT like this. TODO: is there a better way to test?
+    // The first random draws the time of the next run. Randoms below probability after that result
+    // in execution. It's not great for the test to know the internal implementation of the SUT like
+    // this. TODO: is there a better way to test?
     when(secureRandom.nextDouble())
-        .thenReturn(UploadCoverTrafficWorker.EXECUTION_PROBABILITY - 0.1d,
+        .thenReturn(NEXT_RUN_DRAW,
         UploadCoverTrafficWorker.USER_REPORT_RPC_EXECUTION_PROBABILITY - 0.1d,
             UploadCoverTrafficWorker.SHORT_DELAY_KEYS_UPLOAD_PROBABILITY - 0.1d);
     // Set up all mocked controller operations to succeed by default.
@@ -160,33 +184,39 @@ public class UploadCoverTrafficWorkerTest {
             packageConfigurationHelper,
             exposureCheckRepository,
             verificationCodeRequestRepository,
+            keyFileJanitor,
             clock),
-        workManager);
+        workManager,
+        workerTelemetry);
   }
 
   @Test
-  public void randomExecution_decidesNotToExecute_shouldNotMakeRpcs() throws Exception {
-    // Randoms above probability result in no execution.
+  public void run_shouldMakeRpcsAndScheduleNextRun() throws Exception {
+    // However high the first random, which draws the time of the next run, runs no longer skip
+    // themselves: when they happen is random already.
     when(secureRandom.nextDouble())
-        .thenReturn(UploadCoverTrafficWorker.EXECUTION_PROBABILITY + 0.1d);
+        .thenReturn(0.99d,
+            UploadCoverTrafficWorker.USER_REPORT_RPC_EXECUTION_PROBABILITY - 0.1d,
+            UploadCoverTrafficWorker.SHORT_DELAY_KEYS_UPLOAD_PROBABILITY - 0.1d);
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(Tasks.forResult(true));
 
     Result result = worker.startWork().get();
 
-    verify(uploadController, never()).requestCode(any());
-    verify(uploadController, never()).submitCode(any());
-    verify(uploadController, never()).submitKeysForCert(any());
-    verify(uploadController, never()).upload(any());
+    verify(uploadController).submitCode(any());
+    verify(uploadController).submitKeysForCert(any());
+    verify(uploadController).upload(any());
     assertThat(result).isEqualTo(Result.success());
+    verifyWorkScheduled(WORKER_NAME);
   }
 
   @Test
   public void randomExecution_decidesNotToExecuteUserReportRpcButExecutesRest_shouldNotMakeUserReportRpc()
       throws Exception {
     // Randoms below probability result in execution and above probability result in no execution.
-    // First, secureRandom.nextDouble() is called to determine if we execute the worker at all.
+    // First, secureRandom.nextDouble() is called to draw the time of the next run.
     // Then, it is called to determine if we execute the RPC call to /user-report API.
     when(secureRandom.nextDouble())
-        .thenReturn(UploadCoverTrafficWorker.EXECUTION_PROBABILITY - 0.1d,
+        .thenReturn(NEXT_RUN_DRAW,
             UploadCoverTrafficWorker.USER_REPORT_RPC_EXECUTION_PROBABILITY + 0.1d);
     when(exposureNotificationClientWrapper.isEnabled()).thenReturn(Tasks.forResult(true));
 
@@ -203,12 +233,12 @@ public class UploadCoverTrafficWorkerTest {
   public void randomExecution_decidesNotToMakeUserReportRpcAndToRunOnceLater_shouldMakeVerifyRpcOnly()
       throws Exception {
     // Randoms below probability result in execution and above probability result in no execution.
-    // First, secureRandom.nextDouble() is called to determine if we execute the worker at all.
+    // First, secureRandom.nextDouble() is called to draw the time of the next run.
     // Second, it's called to determine if we execute the RPC call to /user-report API.
     // Finally, it's called to determine if we should execute RPC calls to /certificate and /publish
     // endpoints with a short (up 10 s) delay.
     when(secureRandom.nextDouble())
-        .thenReturn(UploadCoverTrafficWorker.EXECUTION_PROBABILITY - 0.1d,
+        .thenReturn(NEXT_RUN_DRAW,
             UploadCoverTrafficWorker.USER_REPORT_RPC_EXECUTION_PROBABILITY + 0.1d,
             UploadCoverTrafficWorker.SHORT_DELAY_KEYS_UPLOAD_PROBABILITY + 0.1d);
     // secureRandom.nextInt() is called to determine if we schedule one-time execution of worker
@@ -225,19 +255,19 @@ public class UploadCoverTrafficWorkerTest {
     verify(uploadController, never()).upload(any());
     assertThat(result).isEqualTo(Result.success());
     // And verify that the one-time execution of this worker has been scheduled.
-    verifyWorkScheduled();
+    verifyWorkScheduled(DELAYED_WORKER_NAME);
   }
 
   @Test
   public void randomExecution_decidesNotToMakeUserReportRpcAndNotToRunOnceLater_shouldMakeVerifyRpcOnly()
       throws Exception {
     // Randoms below probability result in execution and above probability result in no execution.
-    // First, secureRandom.nextDouble() is called to determine if we execute the worker at all.
+    // First, secureRandom.nextDouble() is called to draw the time of the next run.
     // Then, it is called to determine if we execute the RPC call to /user-report API.
     // Finally, it's called to determine if we should execute RPC calls to /certificate and /publish
     // endpoints with a short (up 10 s) delay.
     when(secureRandom.nextDouble())
-        .thenReturn(UploadCoverTrafficWorker.EXECUTION_PROBABILITY - 0.1d,
+        .thenReturn(NEXT_RUN_DRAW,
             UploadCoverTrafficWorker.USER_REPORT_RPC_EXECUTION_PROBABILITY + 0.1d,
             UploadCoverTrafficWorker.SHORT_DELAY_KEYS_UPLOAD_PROBABILITY + 0.1d);
     // secureRandom.nextInt() is called to determine if we schedule one-time execution of worker
@@ -253,12 +283,13 @@ public class UploadCoverTrafficWorkerTest {
     verify(uploadController, never()).submitKeysForCert(any());
     verify(uploadController, never()).upload(any());
     assertThat(result).isEqualTo(Result.success());
-    // Ensure no work has been scheduled.
-    verifyNoWorkScheduled();
+    // Ensure no delayed execution has been scheduled.
+    verifyNoWorkScheduled(DELAYED_WORKER_NAME);
   }
 
   @Test
-  public void isApiEnabledCheckFails_shouldAbortExecutionAndReturnFailure() throws Exception {
+  public void isApiEnabledCheckFails_shouldAbortExecutionAndStillScheduleNextRun()
+      throws Exception {
     when(exposureNotificationClientWrapper.isEnabled())
         .thenReturn(Tasks.forException(new Exception()));
 
@@ -268,7 +299,9 @@ public class UploadCoverTrafficWorkerTest {
     verify(uploadController, never()).submitCode(any());
     verify(uploadController, never()).submitKeysForCert(any());
     verify(uploadController, never()).upload(any());
-    assertThat(result).isEqualTo(Result.failure());
+    // Reported as a success, since failing would also fail the next run chained after this one.
+    assertThat(result).isEqualTo(Result.success());
+    verifyWorkScheduled(WORKER_NAME);
   }
 
   @Test
@@ -352,19 +385,130 @@ public class UploadCoverTrafficWorkerTest {
   public void schedule_verifyWorkScheduled() throws Exception {
     UploadCoverTrafficWorker.schedule(workManager);
 
-    verifyWorkScheduled();
+    verifyWorkScheduled(WORKER_NAME);
   }
 
-  private void verifyWorkScheduled() throws Exception {
+  @Test
+  public void schedule_calledAgain_keepsAlreadyScheduledRun() throws Exception {
+    UploadCoverTrafficWorker.schedule(workManager).getResult().get();
+    WorkInfo scheduled = workManager.getWorkInfosForUniqueWork(WORKER_NAME).get().get(0);
+
+    UploadCoverTrafficWorker.schedule(workManager).getResult().get();
+
     List<WorkInfo> workInfos = workManager.getWorkInfosForUniqueWork(WORKER_NAME).get();
+    assertThat(workInfos).hasSize(1);
+    assertThat(workInfos.get(0).getId()).isEqualTo(scheduled.getId());
+  }
+
+  @Test
+  public void schedule_cancelsPeriodicWorkOfEarlierVersions() throws Exception {
+    workManager.enqueueUniquePeriodicWork(
+        LEGACY_PERIODIC_WORKER_NAME,
+        ExistingPeriodicWorkPolicy.KEEP,
+        new PeriodicWorkRequest.Builder(UploadCoverTrafficWorker.class, 4, TimeUnit.HOURS).build())
+        .getResult().get();
+
+    UploadCoverTrafficWorker.schedule(workManager).getResult().get();
+
+    List<WorkInfo> legacy =
+        workManager.getWorkInfosForUniqueWork(LEGACY_PERIODIC_WORKER_NAME).get();
+    assertThat(legacy).hasSize(1);
+    assertThat(legacy.get(0).getState()).isEqualTo(State.CANCELLED);
+    verifyWorkScheduled(WORKER_NAME);
+  }
+
+  @Test
+  public void periodsUntilNextRun_sameDistributionAsSkippingRunsAtRandom() {
+    // The runs that went ahead when every run was skipped with probability 1 - p, and the runs we
+    // now schedule directly, should both be k periods apart with probability (1 - p)^(k - 1) * p.
+    Random skippingRandom = new Random(SEED);
+    Random samplingRandom = new Random(SEED + 1);
+    long[] skipping = new long[NUM_BUCKETS + 1];
+    long[] sampling = new long[NUM_BUCKETS + 1];
+    long skippingPeriods = 0;
+    long samplingPeriods = 0;
+    for (int i = 0; i < NUM_DRAWS; i++) {
+      long skipped = 1;
+      while (skippingRandom.nextDouble() >= EXECUTION_PROBABILITY) {
+        skipped++;
+      }
+      long sampled = UploadCoverTrafficWorker.periodsUntilNextRun(samplingRandom);
+      skipping[bucketOf(skipped)]++;
+      sampling[bucketOf(sampled)]++;
+      skippingPeriods += skipped;
+      samplingPeriods += sampled;
+    }
+
+    assertThat(chiSquaredAgainstGeometric(skipping)).isLessThan(CHI_SQUARED_CRITICAL_VALUE);
+    assertThat(chiSquaredAgainstGeometric(sampling)).isLessThan(CHI_SQUARED_CRITICAL_VALUE);
+    // Both average one run every 1 / p periods, that is every 2 days.
+    assertThat((double) skippingPeriods / NUM_DRAWS).isWithin(0.2d).of(1 / EXECUTION_PROBABILITY);
+    assertThat((double) samplingPeriods / NUM_DRAWS).isWithin(0.2d).of(1 / EXECUTION_PROBABILITY);
+  }
+
+  @Test
+  public void periodsUntilNextRun_wakesUpAboutTwelveTimesLessOften() {
+    // Over the same stretch of time, we used to wake up every period, and now only for runs.
+    Random random = new Random(SEED);
+    long periods = 0;
+    long wakeups = 0;
+    while (periods < 12L * NUM_DRAWS) {
+      periods += UploadCoverTrafficWorker.periodsUntilNextRun(random);
+      wakeups++;
+    }
+
+    assertThat((double) periods / wakeups).isWithin(0.2d).of(1 / EXECUTION_PROBABILITY);
+  }
+
+  @Test
+  public void periodsUntilNextRun_isAtLeastOne() {
+    Random alwaysZero = new Random() {
+      @Override
+      public double nextDouble() {
+        return 0d;
+      }
+    };
+
+    assertThat(UploadCoverTrafficWorker.periodsUntilNextRun(alwaysZero)).isEqualTo(1L);
+  }
+
+  private static int bucketOf(long periods) {
+    return (int) Math.min(periods, NUM_BUCKETS + 1) - 1;
+  }
+
+  /**
+   * Pearson's chi-squared statistic for the given bucketed counts of periods between runs, against
+   * the geometric distribution with success probability {@link
+   * UploadCoverTrafficWorker#EXECUTION_PROBABILITY}.
+   */
+  private static double chiSquaredAgainstGeometric(long[] counts) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    double chiSquared = 0;
+    double survival = 1;
+    for (int i = 0; i < counts.length; i++) {
+      // The last bucket holds the whole tail.
+      double probability =
+          i < counts.length - 1 ? survival * EXECUTION_PROBABILITY : survival;
+      survival *= 1 - EXECUTION_PROBABILITY;
+      double expected = total * probability;
+      chiSquared += (counts[i] - expected) * (counts[i] - expected) / expected;
+    }
+    return chiSquared;
+  }
+
+  private void verifyWorkScheduled(String workerName) throws Exception {
+    List<WorkInfo> workInfos = workManager.getWorkInfosForUniqueWork(workerName).get();
 
     assertThat(workInfos).hasSize(1);
     WorkInfo workInfo = workInfos.get(0);
     assertThat(workInfo.getState()).isEqualTo(State.ENQUEUED);
   }
 
-  private void verifyNoWorkScheduled() throws Exception {
-    List<WorkInfo> workInfos = workManager.getWorkInfosForUniqueWork(WORKER_NAME).get();
+  private void verifyNoWorkScheduled(String workerName) throws Exception {
+    List<WorkInfo> workInfos = workManager.getWorkInfosForUniqueWork(workerName).get();
 
     assertThat(workInfos).isEmpty();
   }
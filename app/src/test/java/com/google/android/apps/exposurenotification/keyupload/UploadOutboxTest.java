@@ -0,0 +1,369 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.keyupload;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.net.Uri;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.Configuration;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.impl.utils.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import com.google.android.apps.exposurenotification.R;
+import com.google.android.apps.exposurenotification.common.SecureRandomUtil;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.keyupload.ApiConstants.UploadV1;
+import com.google.android.apps.exposurenotification.keyupload.ApiConstants.VerifyV1;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.UploadUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationCertUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationCodeUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationUserReportUri;
+import com.google.android.apps.exposurenotification.network.Connectivity;
+import com.google.android.apps.exposurenotification.network.DiagnosisKey;
+import com.google.android.apps.exposurenotification.network.RealRequestQueueModule;
+import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
+import com.google.android.apps.exposurenotification.storage.DbModule;
+import com.google.android.apps.exposurenotification.storage.DiagnosisEntity;
+import com.google.android.apps.exposurenotification.storage.DiagnosisEntity.Shared;
+import com.google.android.apps.exposurenotification.storage.DiagnosisRepository;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxEntity.Kind;
+import com.google.android.apps.exposurenotification.storage.UploadOutboxRepository;
+import com.google.android.apps.exposurenotification.storage.VerificationCodeRequestRepository;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.android.apps.exposurenotification.testsupport.FakeRequestQueue;
+import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import dagger.Module;
+import dagger.Provides;
+import dagger.hilt.InstallIn;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import dagger.hilt.components.SingletonComponent;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+import javax.inject.Inject;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNotificationManager;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.LocalDate;
+
+@RunWith(AndroidJUnit4.class)
+@HiltAndroidTest
+@Config(application = HiltTestApplication.class)
+@UninstallModules({DbModule.class, RealRequestQueueModule.class, RealTimeModule.class,
+    UploadUrisModule.class})
+public final class UploadOutboxTest {
+
+  private static final Uri UPLOAD_URI = Uri.parse("http://sampleurls.com/upload");
+  private static final Uri USER_REPORT_URI = Uri.parse("http://sampleurls.com/user-report");
+  private static final String NONCE = "nonce";
+
+  @Rule
+  public ExposureNotificationRules rules =
+      ExposureNotificationRules.forTest(this).withMocks().build();
+
+  @BindValue
+  ExposureNotificationDatabase db = InMemoryDb.create();
+  @BindValue
+  RequestQueueWrapper queue = new FakeRequestQueue();
+  @BindValue
+  Clock clock = new FakeClock();
+  @BindValue
+  @Mock
+  Connectivity connectivity;
+
+  @Inject
+  UploadOutbox outbox;
+  @Inject
+  UploadOutboxRepository outboxRepository;
+  @Inject
+  DiagnosisRepository diagnosisRepository;
+  @Inject
+  VerificationCodeRequestRepository requestRepository;
+  @Inject
+  SecureRandom secureRandom;
+
+  private Context context;
+  private WorkManager workManager;
+
+  @Module
+  @InstallIn(SingletonComponent.class)
+  static class SampleUrisModule {
+
+    @Provides
+    @UploadUri
+    public Uri provideUploadUri() {
+      return UPLOAD_URI;
+    }
+
+    @Provides
+    @VerificationCodeUri
+    public Uri provideCodeUri() {
+      return Uri.EMPTY;  // Unused in this test. Just keeping the Hilt dep graph happy.
+    }
+
+    @Provides
+    @VerificationCertUri
+    public Uri provideCertUri() {
+      return Uri.EMPTY;  // Unused. Just keeping the Hilt dep graph happy.
+    }
+
+    @Provides
+    @VerificationUserReportUri
+    public Uri provideUserReportUri() {
+      return USER_REPORT_URI;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    context = ApplicationProvider.getApplicationContext();
+    WorkManagerTestInitHelper.initializeTestWorkManager(
+        context, new Configuration.Builder().setExecutor(new SynchronousExecutor()).build());
+    workManager = WorkManager.getInstance(context);
+    rules.hilt().inject();
+    when(connectivity.hasInternet()).thenReturn(true);
+  }
+
+  @Test
+  public void enqueue_storesPaddedRequestAndSchedulesDrain() throws Exception {
+    long diagnosisId = newDiagnosis();
+
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+
+    List<UploadOutboxEntity> pending = outboxRepository.getPending();
+    assertThat(pending).hasSize(1);
+    assertThat(pending.get(0).getKind()).isEqualTo(Kind.PUBLISH);
+    assertThat(pending.get(0).getDiagnosisId()).isEqualTo(diagnosisId);
+    JSONObject body = new JSONObject(pending.get(0).getBody());
+    assertThat(body.getJSONArray(UploadV1.KEYS).length()).isEqualTo(1);
+    assertThat(body.has(UploadV1.PADDING)).isTrue();
+    List<WorkInfo> workInfos =
+        workManager.getWorkInfosForUniqueWork(UploadOutboxWorker.WORKER_NAME).get();
+    assertThat(workInfos).hasSize(1);
+    assertThat(workInfos.get(0).getState()).isEqualTo(WorkInfo.State.ENQUEUED);
+  }
+
+  @Test
+  public void enqueue_twiceForSameDiagnosis_keepsOnlyLatest() throws Exception {
+    long diagnosisId = newDiagnosis();
+
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+    outbox.enqueue(sampleUpload().toBuilder().setCertificate("new-cert").build(), diagnosisId)
+        .get();
+
+    List<UploadOutboxEntity> pending = outboxRepository.getPending();
+    assertThat(pending).hasSize(1);
+    assertThat(new JSONObject(pending.get(0).getBody()).getString(UploadV1.VERIFICATION_CERT))
+        .isEqualTo("new-cert");
+  }
+
+  @Test
+  public void drain_publish_sendsStoredBodyAndMarksDiagnosisShared() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+    byte[] storedBody = outboxRepository.getPending().get(0).getBody().getBytes();
+    fakeQueue().addResponse(UPLOAD_URI.toString(), 200,
+        new JSONObject().put(UploadV1.REVISION_TOKEN, "revision-token").toString());
+
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(fakeQueue().numRpcs()).isEqualTo(1);
+    assertThat(fakeQueue().getLastRpc().getBody()).isEqualTo(storedBody);
+    DiagnosisEntity diagnosis = diagnosisRepository.getByIdAsync(diagnosisId).get();
+    assertThat(diagnosis.getSharedStatus()).isEqualTo(Shared.SHARED);
+    assertThat(diagnosis.getRevisionToken()).isEqualTo("revision-token");
+    assertThat(outboxRepository.getPending()).isEmpty();
+  }
+
+  @Test
+  public void drain_offline_sendsNothing() throws Exception {
+    outbox.enqueue(sampleUpload(), newDiagnosis()).get();
+    when(connectivity.hasInternet()).thenReturn(false);
+
+    assertThat(outbox.drain().get()).isFalse();
+
+    assertThat(fakeQueue().numRpcs()).isEqualTo(0);
+    assertThat(outboxRepository.getPending()).hasSize(1);
+  }
+
+  @Test
+  public void drain_serverUnavailable_keepsRequestForRetry() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+    fakeQueue().addResponse(UPLOAD_URI.toString(), 503, "{}");
+
+    assertThat(outbox.drain().get()).isFalse();
+
+    List<UploadOutboxEntity> pending = outboxRepository.getPending();
+    assertThat(pending).hasSize(1);
+    assertThat(pending.get(0).getAttemptCount()).isEqualTo(1);
+    assertThat(diagnosisRepository.getByIdAsync(diagnosisId).get().getSharedStatus())
+        .isEqualTo(Shared.NOT_ATTEMPTED);
+  }
+
+  @Test
+  public void drain_badRequest_dropsRequestAndMarksDiagnosisNotShared() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+    fakeQueue().addResponse(UPLOAD_URI.toString(), 400,
+        new JSONObject().put(UploadV1.ERR_CODE, UploadV1.Error.BAD_REQUEST).toString());
+
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(outboxRepository.getPending()).isEmpty();
+    assertThat(diagnosisRepository.getByIdAsync(diagnosisId).get().getSharedStatus())
+        .isEqualTo(Shared.NOT_SHARED);
+  }
+
+  @Test
+  public void drain_publishWithValidCertificate_sendsIt() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(
+        sampleUpload().toBuilder()
+            .setCertificate(certificateExpiringAt(clock.now().plus(Duration.ofMinutes(15))))
+            .build(),
+        diagnosisId).get();
+    fakeQueue().addResponse(UPLOAD_URI.toString(), 200,
+        new JSONObject().put(UploadV1.REVISION_TOKEN, "revision-token").toString());
+    ((FakeClock) clock).advanceBy(Duration.ofMinutes(14));
+
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(fakeQueue().numRpcs()).isEqualTo(1);
+    assertThat(diagnosisRepository.getByIdAsync(diagnosisId).get().getSharedStatus())
+        .isEqualTo(Shared.SHARED);
+  }
+
+  @Test
+  public void drain_publishWithExpiredCertificate_dropsRequestAndTellsTheUser() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(
+        sampleUpload().toBuilder()
+            .setCertificate(certificateExpiringAt(clock.now().plus(Duration.ofMinutes(15))))
+            .build(),
+        diagnosisId).get();
+    ((FakeClock) clock).advanceBy(Duration.ofMinutes(15));
+
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(fakeQueue().numRpcs()).isEqualTo(0);
+    assertThat(outboxRepository.getPending()).isEmpty();
+    assertThat(diagnosisRepository.getByIdAsync(diagnosisId).get().getSharedStatus())
+        .isEqualTo(Shared.NOT_SHARED);
+    ShadowNotificationManager notificationManager = shadowOf(
+        (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE));
+    assertThat(notificationManager.size()).isEqualTo(1);
+    Notification notification = notificationManager.getAllNotifications().get(0);
+    assertThat(shadowOf(notification).getContentTitle())
+        .isEqualTo(context.getString(R.string.not_shared_confirm_title));
+  }
+
+  @Test
+  public void drain_publishOlderThanTtl_isDroppedByTheOutboxNotTheRepository() throws Exception {
+    long diagnosisId = newDiagnosis();
+    outbox.enqueue(sampleUpload(), diagnosisId).get();
+    ((FakeClock) clock).advanceBy(UploadOutboxRepository.OUTBOX_TTL);
+
+    assertThat(outboxRepository.getPending()).hasSize(1);
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(fakeQueue().numRpcs()).isEqualTo(0);
+    assertThat(outboxRepository.getPending()).isEmpty();
+    assertThat(diagnosisRepository.getByIdAsync(diagnosisId).get().getSharedStatus())
+        .isEqualTo(Shared.NOT_SHARED);
+  }
+
+  @Test
+  public void drain_userReport_recordsCodeRequest() throws Exception {
+    Instant expiresAt = clock.now().plusSeconds(15 * 60);
+    outbox.enqueue(UserReportUpload.newBuilder(
+        "+447911123456", NONCE, LocalDate.of(2021, 6, 1), /* tzOffsetMin= */ 0).build()).get();
+    fakeQueue().addResponse(USER_REPORT_URI.toString(), 200,
+        new JSONObject()
+            .put(VerifyV1.EXPIRY_TIMESTAMP, String.valueOf(expiresAt.getEpochSecond()))
+            .toString());
+
+    assertThat(outbox.drain().get()).isTrue();
+
+    assertThat(fakeQueue().getLastRpcBody().getString(VerifyV1.NONCE)).isEqualTo(NONCE);
+    assertThat(
+        requestRepository.getValidNoncesWithLatestExpiringFirstIfAnyAsync(clock.now()).get())
+        .containsExactly(NONCE);
+    assertThat(outboxRepository.getPending()).isEmpty();
+  }
+
+  private long newDiagnosis() throws Exception {
+    return diagnosisRepository.upsertAsync(
+        DiagnosisEntity.newBuilder()
+            .setVerificationCode("code")
+            .setSharedStatus(Shared.NOT_ATTEMPTED)
+            .build())
+        .get();
+  }
+
+  private Upload sampleUpload() {
+    DiagnosisKey key = DiagnosisKey.newBuilder()
+        .setKeyBytes("KEY-1".getBytes())
+        .setIntervalNumber(42)
+        .build();
+    return Upload.newBuilder(
+            ImmutableList.of(key), "code", SecureRandomUtil.newHmacKey(secureRandom))
+        .setCertificate("cert")
+        .setRevisionToken("previous-revision-token")
+        .build();
+  }
+
+  /**
+   * Returns a JWT shaped like a verification certificate, with only the claim the outbox reads.
+   */
+  private static String certificateExpiringAt(Instant expiry) throws Exception {
+    BaseEncoding base64Url = BaseEncoding.base64Url().omitPadding();
+    String claims = new JSONObject().put("exp", expiry.getEpochSecond()).toString();
+    return base64Url.encode("{\"alg\":\"ES256\"}".getBytes(StandardCharsets.UTF_8))
+        + "." + base64Url.encode(claims.getBytes(StandardCharsets.UTF_8))
+        + "." + base64Url.encode("signature".getBytes(StandardCharsets.UTF_8));
+  }
+
+  private FakeRequestQueue fakeQueue() {
+    return (FakeRequestQueue) queue;
+  }
+}
@@ -49,10 +49,13 @@ import com.google.android.apps.exposurenotification.logging.AnalyticsLogger.NotE
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationsClientModule;
 import com.google.android.apps.exposurenotification.nearby.PackageConfigurationHelper;
+import com.google.android.apps.exposurenotification.network.NetworkMetrics;
 import com.google.android.apps.exposurenotification.proto.ApiCall;
 import com.google.android.apps.exposurenotification.proto.ApiCall.ApiCallType;
 import com.google.android.apps.exposurenotification.proto.EnxLogExtension;
 import com.google.android.apps.exposurenotification.proto.RpcCall;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallResult;
 import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallType;
 import com.google.android.apps.exposurenotification.proto.UiInteraction;
@@ -64,6 +67,8 @@ import com.google.android.apps.exposurenotification.storage.AnalyticsLoggingRepo
 import com.google.android.apps.exposurenotification.storage.DbModule;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.android.apps.exposurenotification.storage.WorkerRunRepository;
 import com.google.android.apps.exposurenotification.storage.WorkerStatusRepository;
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
@@ -77,6 +82,7 @@ import com.google.android.gms.nearby.exposurenotification.PackageConfiguration;
 import com.google.android.gms.nearby.exposurenotification.PackageConfiguration.PackageConfigurationBuilder;
 import com.google.android.gms.tasks.Tasks;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
 import com.google.common.io.BaseEncoding;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -163,6 +169,11 @@ public class FirelogAnalyticsLoggerTest {
   @ApplicationContext
   Context context;
 
+  @Inject
+  NetworkMetrics networkMetrics;
+  @Inject
+  WorkerRunRepository workerRunRepository;
+
   @Inject
   FirelogAnalyticsLogger logger;
 
@@ -252,6 +263,41 @@ public class FirelogAnalyticsLoggerTest {
             .build());
   }
 
+  @Test
+  public void logRpcCallSuccess_withCompressedSize_shouldWriteDbRecord_withBothSizes()
+      throws Exception {
+    // WHEN
+    logger.logRpcCallSuccess(RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH, 1234, 321);
+
+    // THEN
+    assertThat(storedLogs())
+        .containsExactly(EnxLogExtension.newBuilder()
+            .addRpcCall(RpcCall.newBuilder()
+                .setRpcCallResult(RpcCallResult.RESULT_SUCCESS)
+                .setRpcCallType(RpcCallType.RPC_TYPE_ENPA_REMOTE_CONFIG_FETCH)
+                .setPayloadSize(1234)
+                .setCompressedPayloadSize(321))
+            .build());
+  }
+
+  @Test
+  public void logRpcCallSuccessAsync_withResponseSizes_shouldKeepRequestSizeAsPayload()
+      throws Exception {
+    // WHEN
+    logger.logRpcCallSuccessAsync(RpcCallType.RPC_TYPE_KEYS_UPLOAD, 1234, 567, 89).get();
+
+    // THEN
+    assertThat(storedLogs())
+        .containsExactly(EnxLogExtension.newBuilder()
+            .addRpcCall(RpcCall.newBuilder()
+                .setRpcCallResult(RpcCallResult.RESULT_SUCCESS)
+                .setRpcCallType(RpcCallType.RPC_TYPE_KEYS_UPLOAD)
+                .setPayloadSize(1234)
+                .setResponseSize(567)
+                .setCompressedResponseSize(89))
+            .build());
+  }
+
   @Test
   public void logRpcCallFailure_shouldWriteDbRecord_withRpcCallType_andGeneric4xxHttpStatus()
       throws Exception {
@@ -493,6 +539,24 @@ public class FirelogAnalyticsLoggerTest {
     assertThat(storedLogs().get(0).getWorkManagerTask(0).getHoursSinceLastRun()).isEqualTo(2);
   }
 
+  @Test
+  public void logWorkManagerStarted_again_shouldCountFromTheLastStart_andStoreTheLatest()
+      throws Exception {
+    // GIVEN
+    logger.logWorkManagerTaskStarted(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+    ((FakeClock) clock).advanceBy(Duration.ofHours(3));
+
+    // WHEN
+    logger.logWorkManagerTaskStarted(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+
+    // THEN
+    assertThat(storedLogs()).hasSize(2);
+    assertThat(storedLogs().get(1).getWorkManagerTask(0).getHoursSinceLastRun()).isEqualTo(3);
+    assertThat(workerStatusRepo.getLastRunTimestamp(
+        WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, WorkManagerTask.Status.STATUS_STARTED.toString()))
+        .hasValue(clock.now());
+  }
+
   @Test
   public void logWorkManagerSuccess_shouldWriteDbRecord_withWorkerAndSuccessStatus()
       throws Exception {
@@ -605,6 +669,93 @@ public class FirelogAnalyticsLoggerTest {
     assertThat(captor.getValue().getPayload().getHoursSinceLastBatch()).isEqualTo(5);
   }
 
+  @Test
+  public void submittedLogs_shouldIncludeNetworkMetricSummaries_once() throws Exception {
+    // GIVEN
+    logger.logApiCallSuccess(ApiCallType.CALL_IS_ENABLED);
+    networkMetrics.recordCall(
+        Endpoint.ENDPOINT_CERT, Duration.ofMillis(300), 1, RpcCallResult.RESULT_SUCCESS);
+
+    // WHEN
+    preferences.resetAnalyticsLoggingLastTimestamp();
+    ((FakeClock) clock).advanceBy(Duration.ofHours(4).plusMinutes(31));
+    ListenableFuture<?> sendLoggingBatchFuture = logger.sendLoggingBatchIfConsented(true);
+
+    // THEN
+    ArgumentCaptor<Event<EnxLogExtension>> eventCaptor = ArgumentCaptor.forClass(Event.class);
+    ArgumentCaptor<TransportScheduleCallback> callbackCaptor = ArgumentCaptor.forClass(
+        TransportScheduleCallback.class);
+    verify(transport).schedule(eventCaptor.capture(), callbackCaptor.capture());
+    RpcCall rpcCall =
+        Iterables.getOnlyElement(eventCaptor.getValue().getPayload().getRpcCallList());
+    assertThat(rpcCall.getRpcCallType()).isEqualTo(RpcCallType.RPC_TYPE_VERIFICATION);
+    assertThat(rpcCall.getEndpointSummary().getEndpoint()).isEqualTo(Endpoint.ENDPOINT_CERT);
+    assertThat(rpcCall.getEndpointSummary().getCallCount()).isEqualTo(1);
+    // Only forgotten once the batch has gone.
+    assertThat(networkMetrics.getSummaries()).hasSize(1);
+    callbackCaptor.getValue().onSchedule(null);
+    sendLoggingBatchFuture.get();
+    assertThat(networkMetrics.getSummaries()).isEmpty();
+  }
+
+  @Test
+  public void failedSubmission_shouldKeepNetworkMetricSummaries() {
+    // GIVEN
+    logger.logApiCallSuccess(ApiCallType.CALL_IS_ENABLED);
+    networkMetrics.recordCall(
+        Endpoint.ENDPOINT_CERT, Duration.ofMillis(300), 1, RpcCallResult.RESULT_SUCCESS);
+
+    // WHEN
+    preferences.resetAnalyticsLoggingLastTimestamp();
+    ((FakeClock) clock).advanceBy(Duration.ofHours(4).plusMinutes(31));
+    ListenableFuture<?> sendLoggingBatchFuture = logger.sendLoggingBatchIfConsented(true);
+    ArgumentCaptor<TransportScheduleCallback> callbackCaptor = ArgumentCaptor.forClass(
+        TransportScheduleCallback.class);
+    verify(transport).schedule(any(), callbackCaptor.capture());
+    callbackCaptor.getValue().onSchedule(new Exception("Failed to send"));
+
+    // THEN
+    assertThrows(ExecutionException.class, sendLoggingBatchFuture::get);
+    EndpointSummary summary = Iterables.getOnlyElement(networkMetrics.getSummaries());
+    assertThat(summary.getCallCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void submittedLogs_shouldIncludeWorkerRunSummaries_andOnlyNewerRunsNextTime()
+      throws Exception {
+    // GIVEN
+    logger.logApiCallSuccess(ApiCallType.CALL_IS_ENABLED);
+    long runId = workerRunRepository.insert(WorkerRunEntity.newBuilder()
+        .setWorkerTask(WorkerTask.TASK_UPLOAD_OUTBOX)
+        .setStartTime(clock.now())
+        .setWallTimeMillis(1500)
+        .setStatus(WorkManagerTask.Status.STATUS_SUCCESS)
+        .build());
+
+    // WHEN
+    preferences.resetAnalyticsLoggingLastTimestamp();
+    ((FakeClock) clock).advanceBy(Duration.ofHours(4).plusMinutes(31));
+    ListenableFuture<?> sendLoggingBatchFuture = logger.sendLoggingBatchIfConsented(true);
+
+    // THEN
+    ArgumentCaptor<Event<EnxLogExtension>> eventCaptor = ArgumentCaptor.forClass(Event.class);
+    ArgumentCaptor<TransportScheduleCallback> callbackCaptor = ArgumentCaptor.forClass(
+        TransportScheduleCallback.class);
+    verify(transport).schedule(eventCaptor.capture(), callbackCaptor.capture());
+    callbackCaptor.getValue().onSchedule(null);
+    sendLoggingBatchFuture.get();
+    WorkManagerTask summary = Iterables.getOnlyElement(Iterables.filter(
+        eventCaptor.getValue().getPayload().getWorkManagerTaskList(),
+        WorkManagerTask::hasRunSummary));
+    assertThat(summary.getWorkerTask()).isEqualTo(WorkerTask.TASK_UPLOAD_OUTBOX);
+    assertThat(summary.getRunSummary().getRunCount()).isEqualTo(1);
+    assertThat(summary.getRunSummary().getMeanWallTimeMs()).isEqualTo(1500);
+    // The run has been summarised, so it won't be again.
+    assertThat(preferences.getWorkerRunsLastSummarizedId()).isEqualTo(runId);
+    assertThat(workerRunRepository.getAfter(preferences.getWorkerRunsLastSummarizedId()))
+        .isEmpty();
+  }
+
   @Test
   public void afterSubmission_shouldSetLastSubmittedLogsTimeToNow() {
     // GIVEN
@@ -20,6 +20,9 @@ package com.google.android.apps.exposurenotification.nearby;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -29,6 +32,7 @@ import com.google.android.apps.exposurenotification.common.ExecutorsModule;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
+import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.keydownload.KeyFile;
 import com.google.android.apps.exposurenotification.keydownload.KeyFileConstants;
 import com.google.android.apps.exposurenotification.proto.TemporaryExposureKeyExport;
@@ -36,6 +40,8 @@ import com.google.android.apps.exposurenotification.storage.DbModule;
 import com.google.android.apps.exposurenotification.storage.DownloadServerEntity;
 import com.google.android.apps.exposurenotification.storage.DownloadServerRepository;
 import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.storage.ProvidedKeyFileRepository;
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.android.gms.tasks.Tasks;
@@ -53,6 +59,8 @@ import dagger.hilt.android.testing.HiltTestApplication;
 import dagger.hilt.android.testing.UninstallModules;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
@@ -64,8 +72,11 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
 
 @HiltAndroidTest
 @RunWith(AndroidJUnit4.class)
@@ -117,6 +128,12 @@ public class KeyFileSubmitterTest {
   @Inject
   DownloadServerRepository downloadServerRepo;
   @Inject
+  ProvidedKeyFileRepository providedKeyFileRepo;
+  @Inject
+  ExposureNotificationSharedPreferences preferences;
+  @Inject
+  Clock clock;
+  @Inject
   @ApplicationContext
   Context context;
 
@@ -188,6 +205,236 @@ public class KeyFileSubmitterTest {
     assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index)).isEqualTo(fileUri1);
   }
 
+  @Test
+  public void sameContentFromTwoServers_shouldProvideItOnce() throws Exception {
+    // GIVEN
+    Uri index1 = Uri.parse("http://example-1.com/index");
+    Uri index2 = Uri.parse("http://example-2.com/index");
+    Uri server1FileUri = Uri.parse("http://example-1.com/file1");
+    Uri server2FileUri = Uri.parse("http://example-2.com/file1");
+    File server1file = createFile();
+    File server2file = createFile();
+    KeyFile server1keyFile =
+        KeyFile.create(index1, server1FileUri, true).with(server1file).withContentHash("hash");
+    KeyFile server2keyFile =
+        KeyFile.create(index2, server2FileUri, true).with(server2file).withContentHash("hash");
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.of(server1keyFile, server2keyFile)).get();
+
+    // THEN
+    ArgumentCaptor<List<File>> provided = ArgumentCaptor.forClass(List.class);
+    verify(exposureNotificationClient).provideDiagnosisKeys(provided.capture());
+    assertThat(provided.getValue()).containsExactly(server1file);
+    // Both servers still move on past the file, and both copies are gone from disk.
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index1))
+        .isEqualTo(server1FileUri);
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index2))
+        .isEqualTo(server2FileUri);
+    assertThat(server1file.exists()).isFalse();
+    assertThat(server2file.exists()).isFalse();
+    assertThat(providedKeyFileRepo.isUriProvided(server2FileUri)).isTrue();
+  }
+
+  @Test
+  public void contentProvidedInEarlierRun_shouldNotProvideItAgain() throws Exception {
+    // GIVEN
+    Uri index1 = Uri.parse("http://example-1.com/index");
+    Uri index2 = Uri.parse("http://example-2.com/index");
+    Uri server1FileUri = Uri.parse("http://example-1.com/file1");
+    Uri server2FileUri = Uri.parse("http://example-2.com/file1");
+    submitter.submitFiles(ImmutableList.of(
+        KeyFile.create(index1, server1FileUri, true).with(createFile()).withContentHash("hash")))
+        .get();
+    File server2file = createFile();
+    KeyFile server2keyFile =
+        KeyFile.create(index2, server2FileUri, true).with(server2file).withContentHash("hash");
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.of(server2keyFile)).get();
+
+    // THEN
+    ArgumentCaptor<List<File>> provided = ArgumentCaptor.forClass(List.class);
+    verify(exposureNotificationClient).provideDiagnosisKeys(provided.capture());
+    assertThat(provided.getValue()).doesNotContain(server2file);
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index2))
+        .isEqualTo(server2FileUri);
+  }
+
+  @Test
+  public void fileAlreadyProvided_shouldNotCallTheApi() throws Exception {
+    // GIVEN
+    // A file the downloader skipped, since we'd already provided it.
+    Uri index = Uri.parse("http://example-1.com/index");
+    Uri fileUri = Uri.parse("http://example-1.com/file1");
+    KeyFile keyFile = KeyFile.create(index, fileUri, true);
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.of(keyFile)).get();
+
+    // THEN
+    verify(exposureNotificationClient, never()).provideDiagnosisKeys(any());
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index)).isEqualTo(fileUri);
+  }
+
+  @Test
+  public void chunk_splitsByFileCountAndSize() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    KeyFile small1 = KeyFile.create(index, Uri.parse("http://example-1.com/file1"), false)
+        .with(createFileOfLength(10));
+    KeyFile small2 = KeyFile.create(index, Uri.parse("http://example-1.com/file2"), false)
+        .with(createFileOfLength(10));
+    KeyFile big = KeyFile.create(index, Uri.parse("http://example-1.com/file3"), false)
+        .with(createFileOfLength(100));
+    KeyFile small3 = KeyFile.create(index, Uri.parse("http://example-1.com/file4"), false)
+        .with(createFileOfLength(10));
+    KeyFile notDownloaded = KeyFile.create(index, Uri.parse("http://example-1.com/file5"), true);
+
+    // WHEN
+    ImmutableList<ImmutableList<KeyFile>> chunks = DiagnosisKeyFileSubmitter.chunk(
+        ImmutableList.of(small1, small2, big, small3, notDownloaded),
+        /* maxFiles= */ 2, /* maxBytes= */ 50);
+
+    // THEN
+    // A file too big for any chunk still gets one of its own.
+    assertThat(chunks).containsExactly(
+        ImmutableList.of(small1, small2),
+        ImmutableList.of(big),
+        ImmutableList.of(small3, notDownloaded)).inOrder();
+  }
+
+  @Test
+  public void laterChunkFails_shouldRememberFilesInEarlierChunks() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    List<KeyFile> keyFiles = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      keyFiles.add(KeyFile.create(index, Uri.parse("http://example-1.com/file" + i), i == 5)
+          .with(createFile()));
+    }
+    submitter.maxChunkFiles = 2;
+    when(exposureNotificationClient.provideDiagnosisKeys(any()))
+        .thenReturn(Tasks.forResult(null))
+        .thenReturn(Tasks.forException(new RuntimeException("BOOOOOM!")));
+
+    // WHEN
+    // Daily runs leave calls to spare, so each chunk gets one.
+    assertThrows(
+        ExecutionException.class,
+        () -> submitter.submitFiles(ImmutableList.copyOf(keyFiles), Duration.ofDays(1)).get());
+
+    // THEN
+    // The first chunk was provided, so the next run should resume after it.
+    verify(exposureNotificationClient, times(2)).provideDiagnosisKeys(any());
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index))
+        .isEqualTo(keyFiles.get(1).uri());
+    for (KeyFile f : keyFiles) {
+      assertThat(f.file().exists()).isFalse();
+    }
+  }
+
+  @Test
+  public void runsEvery4Hours_backlogShouldBeProvidedInOneCall() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    List<KeyFile> keyFiles = keyFilesFor(index, DiagnosisKeyFileSubmitter.PROVIDE_CALL_BUDGET + 2);
+    submitter.maxChunkFiles = 1;
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.copyOf(keyFiles), Duration.ofHours(4)).get();
+
+    // THEN
+    // Runs this often need the whole budget between them, so this one gets a single call.
+    verify(exposureNotificationClient, times(1)).provideDiagnosisKeys(any());
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index))
+        .isEqualTo(keyFiles.get(keyFiles.size() - 1).uri());
+  }
+
+  @Test
+  public void dailyRuns_backlogShouldBeSqueezedIntoTheCallBudget() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    List<KeyFile> keyFiles = keyFilesFor(index, DiagnosisKeyFileSubmitter.PROVIDE_CALL_BUDGET + 2);
+    submitter.maxChunkFiles = 1;
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.copyOf(keyFiles), Duration.ofDays(1)).get();
+
+    // THEN
+    // More chunks than calls, so they're merged rather than any being left behind.
+    verify(exposureNotificationClient, times(DiagnosisKeyFileSubmitter.PROVIDE_CALL_BUDGET))
+        .provideDiagnosisKeys(any());
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index))
+        .isEqualTo(keyFiles.get(keyFiles.size() - 1).uri());
+    for (KeyFile f : keyFiles) {
+      assertThat(f.file().exists()).isFalse();
+    }
+  }
+
+  @Test
+  public void callBudgetSpent_shouldLeaveFilesForALaterRun() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    List<KeyFile> keyFiles = keyFilesFor(index, 3);
+    for (int i = 0; i < DiagnosisKeyFileSubmitter.PROVIDE_CALL_BUDGET; i++) {
+      preferences.addProvideDiagnosisKeysCallTime(clock.now(), Instant.EPOCH);
+    }
+
+    // WHEN
+    submitter.submitFiles(ImmutableList.copyOf(keyFiles), Duration.ofDays(1)).get();
+
+    // THEN
+    verify(exposureNotificationClient, never()).provideDiagnosisKeys(any());
+    assertThat(downloadServerRepo.getMostRecentSuccessfulDownload(index)).isNull();
+    for (KeyFile f : keyFiles) {
+      assertThat(f.file().exists()).isFalse();
+    }
+  }
+
+  @Test
+  public void atMost_shouldMergeConsecutiveChunksEvenly() throws Exception {
+    // GIVEN
+    Uri index = Uri.parse("http://example-1.com/index");
+    List<KeyFile> f = keyFilesFor(index, 5);
+    ImmutableList<ImmutableList<KeyFile>> chunks = DiagnosisKeyFileSubmitter.chunk(
+        ImmutableList.copyOf(f), /* maxFiles= */ 1, /* maxBytes= */ Long.MAX_VALUE);
+
+    // WHEN
+    ImmutableList<ImmutableList<KeyFile>> merged = DiagnosisKeyFileSubmitter.atMost(chunks, 2);
+
+    // THEN
+    assertThat(merged).containsExactly(
+        ImmutableList.of(f.get(0), f.get(1), f.get(2)),
+        ImmutableList.of(f.get(3), f.get(4))).inOrder();
+    assertThat(DiagnosisKeyFileSubmitter.atMost(chunks, 5)).isSameInstanceAs(chunks);
+  }
+
+  /**
+   * Creates the given number of keyfiles from the given server, the last of them its most recent.
+   */
+  private List<KeyFile> keyFilesFor(Uri index, int numFiles) throws Exception {
+    List<KeyFile> keyFiles = new ArrayList<>();
+    for (int i = 1; i <= numFiles; i++) {
+      keyFiles.add(KeyFile.create(
+          index, Uri.parse(index.getScheme() + "://" + index.getHost() + "/file" + i),
+          i == numFiles)
+          .with(createFile()));
+    }
+    return keyFiles;
+  }
+
+  private File createFileOfLength(int length) throws Exception {
+    File outFile =
+        new File(
+            context.getFilesDir(),
+            String.format("test-keyfile-%s.zip", UNIQUE_INT.incrementAndGet()));
+    try (FileOutputStream out = new FileOutputStream(outFile)) {
+      out.write(new byte[length]);
+    }
+    return outFile;
+  }
+
   /**
    * Creates a structurally compliant but empty keyfile and writes it to disk.
    */
@@ -45,6 +45,7 @@ import com.google.android.apps.exposurenotification.testsupport.ExposureNotifica
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.FakeShadowResources;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.ReportType;
 import com.google.android.gms.nearby.exposurenotification.TemporaryExposureKey;
 import com.google.android.gms.nearby.exposurenotification.TemporaryExposureKey.TemporaryExposureKeyBuilder;
@@ -93,6 +94,8 @@ public class PreAuthTEKsReceivedWorkerTest {
   DiagnosisRepository diagnosisRepository;
   @Inject
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  @Inject
+  WorkerTelemetry workerTelemetry;
 
   @Mock
   WorkerParameters workerParameters;
@@ -118,7 +121,7 @@ public class PreAuthTEKsReceivedWorkerTest {
     preAuthTEKsReceivedWorker = spy(new PreAuthTEKsReceivedWorker(context, workerParameters,
         exposureNotificationSharedPreferences, diagnosisRepository, uploadController,
         MoreExecutors.newDirectExecutorService(),
-        TestingExecutors.sameThreadScheduledExecutor(), secureRandom, clock));
+        TestingExecutors.sameThreadScheduledExecutor(), secureRandom, clock, workerTelemetry));
   }
 
   @Test
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.nearby;
+
+import static com.google.android.apps.exposurenotification.nearby.ProvideDiagnosisKeysWorker.MAXIMAL_TEK_PUBLISH_INTERVAL;
+import static com.google.android.apps.exposurenotification.nearby.ProvideDiagnosisKeysWorker.MINIMAL_TEK_PUBLISH_INTERVAL;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+/**
+ * Tests for the scheduling of {@link ProvideDiagnosisKeysWorker}.
+ */
+@HiltAndroidTest
+@RunWith(AndroidJUnit4.class)
+@Config(application = HiltTestApplication.class)
+public class ProvideDiagnosisKeysWorkerTest {
+
+  @Test
+  public void nextRunDelay_followsPublishInterval() {
+    assertThat(ProvideDiagnosisKeysWorker.nextRunDelay(Duration.ofHours(6)))
+        .isEqualTo(Duration.ofHours(6));
+  }
+
+  @Test
+  public void nextRunDelay_neverBelowFloor() {
+    assertThat(ProvideDiagnosisKeysWorker.nextRunDelay(Duration.ofMinutes(30)))
+        .isEqualTo(MINIMAL_TEK_PUBLISH_INTERVAL);
+  }
+
+  @Test
+  public void nextRunDelay_neverAboveCeiling() {
+    assertThat(ProvideDiagnosisKeysWorker.nextRunDelay(Duration.ofDays(4)))
+        .isEqualTo(MAXIMAL_TEK_PUBLISH_INTERVAL);
+  }
+
+  @Test
+  public void schedule_keepsScheduledRun_andCancelsLegacyPeriodicWork() {
+    WorkManager workManager = mock(WorkManager.class);
+
+    ProvideDiagnosisKeysWorker.schedule(workManager);
+
+    verify(workManager)
+        .cancelUniqueWork(ProvideDiagnosisKeysWorker.LEGACY_PERIODIC_WORKER_NAME);
+    verify(workManager).enqueueUniqueWork(
+        eq(ProvideDiagnosisKeysWorker.WORKER_NAME),
+        eq(ExistingWorkPolicy.KEEP),
+        any(OneTimeWorkRequest.class));
+  }
+
+  @Test
+  public void schedule_reseedsNoSoonerThanTheFloor() {
+    WorkManager workManager = mock(WorkManager.class);
+    ArgumentCaptor<OneTimeWorkRequest> runRequest =
+        ArgumentCaptor.forClass(OneTimeWorkRequest.class);
+
+    ProvideDiagnosisKeysWorker.schedule(workManager);
+
+    verify(workManager).enqueueUniqueWork(
+        eq(ProvideDiagnosisKeysWorker.WORKER_NAME),
+        eq(ExistingWorkPolicy.KEEP),
+        runRequest.capture());
+    assertThat(runRequest.getValue().getWorkSpec().initialDelay)
+        .isEqualTo(MINIMAL_TEK_PUBLISH_INTERVAL.toMillis());
+  }
+
+  @Test
+  public void schedule_keepsADailySafetyNet() {
+    WorkManager workManager = mock(WorkManager.class);
+    ArgumentCaptor<PeriodicWorkRequest> safetyNetRequest =
+        ArgumentCaptor.forClass(PeriodicWorkRequest.class);
+
+    ProvideDiagnosisKeysWorker.schedule(workManager);
+
+    verify(workManager).enqueueUniquePeriodicWork(
+        eq(ProvideDiagnosisKeysWorker.SAFETY_NET_WORKER_NAME),
+        eq(ExistingPeriodicWorkPolicy.KEEP),
+        safetyNetRequest.capture());
+    assertThat(safetyNetRequest.getValue().getWorkSpec().intervalDuration)
+        .isEqualTo(MAXIMAL_TEK_PUBLISH_INTERVAL.toMillis());
+    assertThat(safetyNetRequest.getValue().getTags())
+        .contains(ProvideDiagnosisKeysWorker.SAFETY_NET_WORKER_NAME);
+  }
+}
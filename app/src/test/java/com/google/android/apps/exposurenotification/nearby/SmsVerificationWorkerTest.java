@@ -45,6 +45,7 @@ import com.google.android.apps.exposurenotification.common.BuildUtils;
 import com.google.android.apps.exposurenotification.common.BuildUtils.Type;
 import com.google.android.apps.exposurenotification.common.IntentUtil;
 import com.google.android.apps.exposurenotification.common.NotificationHelper;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileJanitor;
 import com.google.android.apps.exposurenotification.keyupload.Upload;
 import com.google.android.apps.exposurenotification.keyupload.UploadController;
 import com.google.android.apps.exposurenotification.keyupload.UploadController.NoInternetException;
@@ -59,6 +60,7 @@ import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.FakeShadowResources;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.android.apps.exposurenotification.work.WorkerStartupManager;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.tasks.Task;
@@ -118,6 +120,10 @@ public class SmsVerificationWorkerTest {
   ExposureCheckRepository exposureCheckRepository;
   @Inject
   VerificationCodeRequestRepository verificationCodeRequestRepository;
+  @Inject
+  KeyFileJanitor keyFileJanitor;
+  @Inject
+  WorkerTelemetry workerTelemetry;
 
   @Mock
   WorkerParameters workerParameters;
@@ -159,7 +165,8 @@ public class SmsVerificationWorkerTest {
             packageConfigurationHelper,
             exposureCheckRepository,
             verificationCodeRequestRepository,
-            clock), clock));
+            keyFileJanitor,
+            clock), clock, workerTelemetry));
   }
 
   @Test
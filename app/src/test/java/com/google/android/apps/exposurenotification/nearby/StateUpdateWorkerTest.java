@@ -52,6 +52,7 @@ import com.google.android.apps.exposurenotification.storage.ExposureRepository;
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.DailySummariesConfig;
 import com.google.android.gms.tasks.Tasks;
 import com.google.common.collect.ImmutableSet;
@@ -99,6 +100,8 @@ public class StateUpdateWorkerTest {
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
   @Inject
   NotificationHelper notificationHelper;
+  @Inject
+  WorkerTelemetry workerTelemetry;
 
   @Mock
   AnalyticsLogger analyticsLogger;
@@ -137,7 +140,7 @@ public class StateUpdateWorkerTest {
     stateUpdatedWorker = spy(new StateUpdatedWorker(context, workerParameters, exposureRepository,
         exposureNotificationClientWrapper, exposureNotificationSharedPreferences,
         revocationDetector, dailySummariesConfig, dailySummaryRiskCalculator, notificationHelper,
-        backgroundExecutor, scheduledExecutor, analyticsLogger, clock));
+        backgroundExecutor, scheduledExecutor, analyticsLogger, clock, workerTelemetry));
   }
 
   /**
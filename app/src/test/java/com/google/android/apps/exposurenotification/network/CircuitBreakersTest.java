@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.android.apps.exposurenotification.network.CircuitBreakers.BASE_OPEN_DURATION;
+import static com.google.android.apps.exposurenotification.network.CircuitBreakers.FAILURE_THRESHOLD;
+import static com.google.android.apps.exposurenotification.network.CircuitBreakers.MAX_OPEN_DURATION;
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.google.android.apps.exposurenotification.network.CircuitBreakers.Circuit;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.security.SecureRandom;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+/**
+ * Tests for {@link CircuitBreakers}.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class CircuitBreakersTest {
+
+  private static final String HOST = "keys.example.com";
+  private static final String OTHER_HOST = "verify.example.com";
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  private final FakeClock clock = new FakeClock();
+  private ExposureNotificationSharedPreferences prefs;
+  private CircuitBreakers circuitBreakers;
+
+  @Before
+  public void setUp() {
+    prefs = new ExposureNotificationSharedPreferences(
+        ApplicationProvider.getApplicationContext(), clock, new SecureRandom());
+    circuitBreakers = new CircuitBreakers(prefs, clock);
+  }
+
+  @Test
+  public void newCircuit_isClosed() {
+    assertThat(circuitBreakers.forHost(HOST).isOpen()).isFalse();
+  }
+
+  @Test
+  public void forHost_sameHost_shouldShareCircuit() {
+    assertThat(circuitBreakers.forHost(HOST)).isSameInstanceAs(circuitBreakers.forHost(HOST));
+    assertThat(circuitBreakers.forHost(HOST))
+        .isNotSameInstanceAs(circuitBreakers.forHost(OTHER_HOST));
+  }
+
+  @Test
+  public void failuresBelowThreshold_shouldNotOpen() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+
+    failTimes(circuit, FAILURE_THRESHOLD - 1);
+
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void failuresAtThreshold_shouldOpenForBaseDuration_onlyForThatHost() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+
+    failTimes(circuit, FAILURE_THRESHOLD);
+
+    assertThat(circuit.isOpen()).isTrue();
+    assertThat(circuitBreakers.forHost(OTHER_HOST).isOpen()).isFalse();
+    clock.advanceBy(BASE_OPEN_DURATION.minusMillis(1));
+    assertThat(circuit.isOpen()).isTrue();
+    clock.advance();
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void successInBetween_shouldResetFailureCount() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+
+    failTimes(circuit, FAILURE_THRESHOLD - 1);
+    circuit.recordSuccess();
+    failTimes(circuit, FAILURE_THRESHOLD - 1);
+
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void failedProbe_shouldReopenForTwiceAsLong_upToMax() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+    failTimes(circuit, FAILURE_THRESHOLD);
+    Duration openFor = BASE_OPEN_DURATION;
+
+    for (int i = 0; i < 10; i++) {
+      clock.advanceBy(openFor);
+      assertThat(circuit.isOpen()).isFalse();
+      // The probe fails.
+      circuit.recordFailure();
+      openFor = openFor.multipliedBy(2);
+      if (openFor.compareTo(MAX_OPEN_DURATION) > 0) {
+        openFor = MAX_OPEN_DURATION;
+      }
+      clock.advanceBy(openFor.minusMillis(1));
+      assertThat(circuit.isOpen()).isTrue();
+      clock.advance();
+    }
+    assertThat(openFor).isEqualTo(MAX_OPEN_DURATION);
+  }
+
+  @Test
+  public void successfulProbe_shouldClose() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+    failTimes(circuit, FAILURE_THRESHOLD);
+    clock.advanceBy(BASE_OPEN_DURATION);
+
+    circuit.recordSuccess();
+    failTimes(circuit, FAILURE_THRESHOLD - 1);
+
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void openUntil_shouldOpenUntilGivenTime() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+
+    circuit.openUntil(clock.now().plus(Duration.ofMinutes(42)));
+
+    clock.advanceBy(Duration.ofMinutes(41));
+    assertThat(circuit.isOpen()).isTrue();
+    clock.advanceBy(Duration.ofMinutes(1));
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void openCircuit_shouldSurviveIntoNewProcess_untilItCloses() {
+    failTimes(circuitBreakers.forHost(HOST), FAILURE_THRESHOLD);
+
+    CircuitBreakers nextRun = new CircuitBreakers(prefs, clock);
+
+    assertThat(nextRun.forHost(HOST).isOpen()).isTrue();
+    assertThat(nextRun.forHost(OTHER_HOST).isOpen()).isFalse();
+    clock.advanceBy(BASE_OPEN_DURATION);
+    assertThat(nextRun.forHost(HOST).isOpen()).isFalse();
+    assertThat(new CircuitBreakers(prefs, clock).forHost(HOST).isOpen()).isFalse();
+  }
+
+  @Test
+  public void closedCircuit_shouldNotBeRestoredInNewProcess() {
+    Circuit circuit = circuitBreakers.forHost(HOST);
+    failTimes(circuit, FAILURE_THRESHOLD);
+    circuit.recordSuccess();
+
+    assertThat(new CircuitBreakers(prefs, clock).forHost(HOST).isOpen()).isFalse();
+  }
+
+  private static void failTimes(Circuit circuit, int times) {
+    for (int i = 0; i < times; i++) {
+      circuit.recordFailure();
+    }
+  }
+}
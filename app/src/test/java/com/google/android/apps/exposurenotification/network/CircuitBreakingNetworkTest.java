@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.android.apps.exposurenotification.network.CircuitBreakers.FAILURE_THRESHOLD;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.network.CircuitBreakingNetwork.CircuitOpenError;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.common.collect.Iterables;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link CircuitBreakingNetwork}.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class CircuitBreakingNetworkTest {
+
+  private static final String HOST = "keys.example.com";
+  private static final String URL = "https://" + HOST + "/index.txt";
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  private final FakeClock clock = new FakeClock();
+  private final AtomicInteger sent = new AtomicInteger();
+  private CircuitBreakers circuitBreakers;
+
+  @Before
+  public void setUp() {
+    ExposureNotificationSharedPreferences prefs = new ExposureNotificationSharedPreferences(
+        ApplicationProvider.getApplicationContext(), clock, new SecureRandom());
+    circuitBreakers = new CircuitBreakers(prefs, clock);
+  }
+
+  @Test
+  public void serverErrorsAtThreshold_shouldOpenCircuit_andStopSendingRequests() {
+    CircuitBreakingNetwork network = networkFailingWith(serverError(503));
+
+    failTimes(network, FAILURE_THRESHOLD);
+
+    assertThat(circuitBreakers.forHost(HOST).isOpen()).isTrue();
+    assertThrows(CircuitOpenError.class, () -> network.performRequest(request()));
+    assertThat(sent.get()).isEqualTo(FAILURE_THRESHOLD);
+  }
+
+  @Test
+  public void timeoutsAtThreshold_shouldOpenCircuit() {
+    CircuitBreakingNetwork network = networkFailingWith(new TimeoutError());
+
+    failTimes(network, FAILURE_THRESHOLD);
+
+    assertThat(circuitBreakers.forHost(HOST).isOpen()).isTrue();
+  }
+
+  @Test
+  public void noConnectionErrors_shouldNotOpenCircuit() {
+    // Most likely the device is offline, which says nothing about the host.
+    CircuitBreakingNetwork network = networkFailingWith(new NoConnectionError());
+
+    failTimes(network, FAILURE_THRESHOLD * 2);
+
+    assertThat(circuitBreakers.forHost(HOST).isOpen()).isFalse();
+  }
+
+  @Test
+  public void clientErrors_shouldNotOpenCircuit() {
+    CircuitBreakingNetwork network = networkFailingWith(serverError(404));
+
+    failTimes(network, FAILURE_THRESHOLD * 2);
+
+    assertThat(circuitBreakers.forHost(HOST).isOpen()).isFalse();
+  }
+
+  @Test
+  public void meteredCallsTurnedAway_areNotCountedAsServerErrors() {
+    NetworkMetrics metrics = new NetworkMetrics();
+    MeteringNetwork network =
+        new MeteringNetwork(metrics, networkFailingWith(serverError(503)));
+    for (int i = 0; i < FAILURE_THRESHOLD + 2; i++) {
+      assertThrows(VolleyError.class, () -> network.performRequest(request()));
+    }
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getCallCount()).isEqualTo(FAILURE_THRESHOLD);
+    assertThat(summary.getCircuitOpenCount()).isEqualTo(2);
+    assertThat(Iterables.getOnlyElement(summary.getResultCountList()).getCount())
+        .isEqualTo(FAILURE_THRESHOLD);
+  }
+
+  @Test
+  public void isHostFailure() {
+    assertThat(CircuitBreakingNetwork.isHostFailure(serverError(500))).isTrue();
+    assertThat(CircuitBreakingNetwork.isHostFailure(new TimeoutError())).isTrue();
+    assertThat(CircuitBreakingNetwork.isHostFailure(serverError(429))).isFalse();
+    assertThat(CircuitBreakingNetwork.isHostFailure(new NoConnectionError())).isFalse();
+    assertThat(CircuitBreakingNetwork.isHostFailure(new CircuitOpenError())).isFalse();
+  }
+
+  private CircuitBreakingNetwork networkFailingWith(VolleyError error) {
+    Network delegate = request -> {
+      sent.incrementAndGet();
+      throw error;
+    };
+    return new CircuitBreakingNetwork(circuitBreakers, delegate);
+  }
+
+  private void failTimes(CircuitBreakingNetwork network, int times) {
+    for (int i = 0; i < times; i++) {
+      assertThrows(VolleyError.class, () -> network.performRequest(request()));
+    }
+  }
+
+  private RespondableStringRequest request() {
+    return new RespondableStringRequest(URL, response -> {}, error -> {}, clock);
+  }
+
+  private static VolleyError serverError(int httpStatus) {
+    return new ServerError(new NetworkResponse(
+        httpStatus, new byte[0], /* notModified= */ false, /* networkTimeMs= */ 0L,
+        Collections.emptyList()));
+  }
+}
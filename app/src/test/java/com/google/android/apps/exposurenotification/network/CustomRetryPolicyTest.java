@@ -17,20 +17,30 @@
 
 package com.google.android.apps.exposurenotification.network;
 
+import static com.google.android.apps.exposurenotification.network.CustomRetryPolicy.BASE_BACKOFF;
+import static com.google.android.apps.exposurenotification.network.CustomRetryPolicy.MAX_BACKOFF;
 import static com.google.android.apps.exposurenotification.network.CustomRetryPolicy.SERVER_TIMEOUT_SECS;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
+import androidx.test.core.app.ApplicationProvider;
 import com.android.volley.Header;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
+import com.google.android.apps.exposurenotification.network.CircuitBreakers.Circuit;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.common.collect.ImmutableList;
 import dagger.hilt.android.testing.HiltAndroidTest;
 import dagger.hilt.android.testing.HiltTestApplication;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.function.ThrowingRunnable;
 import org.junit.runner.RunWith;
@@ -55,11 +65,16 @@ public class CustomRetryPolicyTest {
 
   private static final DateTimeFormatter RETRY_TIME_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
 
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
   private final FakeClock clock = new FakeClock();
+  // Waits are recorded and passed on to the fake clock, rather than actually slept.
+  private final List<Duration> waits = new ArrayList<>();
 
   @Test
   public void delay_shouldEqualServerTimeoutSecs() {
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     long serverTimeoutMs = Duration.ofSeconds(SERVER_TIMEOUT_SECS).toMillis();
 
     assertThat(policy.getCurrentTimeout()).isEqualTo(serverTimeoutMs);
@@ -85,7 +100,7 @@ public class CustomRetryPolicyTest {
   @Test
   public void http500_shouldRetryThreeTimes_thenFail() throws Exception {
     // GIVEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
 
     // WHEN
     policy.retry(errorOf(500));
@@ -101,12 +116,10 @@ public class CustomRetryPolicyTest {
   @Test
   public void http429_shouldRetryAtTimeDesignatedByResponseHeader() throws Exception {
     // GIVEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     // The server's retry header format has granularity of seconds, so we must delay at least one
-    // second from now(). It also needs to be different from the default delay.
-    int defaultDelayMs = policy.getCurrentTimeout();
-    // Needs to be rounded to seconds
-    Duration newDelay = Duration.ofSeconds(Duration.ofMillis(defaultDelayMs + 3000).getSeconds());
+    // second from now(), but not so long that we wouldn't wait for it.
+    Duration newDelay = Duration.ofSeconds(7);
     String retryTime = RETRY_TIME_FORMAT.format(clock.now().plus(newDelay).atZone(ZoneOffset.UTC));
 
     // WHEN
@@ -114,15 +127,14 @@ public class CustomRetryPolicyTest {
 
     // THEN
     assertThat(policy.getCurrentRetryCount()).isEqualTo(1);
-    assertThat(policy.getCurrentTimeout()).isEqualTo(newDelay.toMillis());
+    assertThat(waits).containsExactly(newDelay);
   }
 
   @Test
   public void http429_shouldRetryOnce() throws Exception {
     // GIVEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
-    int defaultDelayMs = policy.getCurrentTimeout();
-    Duration retryDelay = Duration.ofMillis(defaultDelayMs + 3000);
+    CustomRetryPolicy policy = newPolicy();
+    Duration retryDelay = Duration.ofSeconds(7);
     String retryTime =
         RETRY_TIME_FORMAT.format(clock.now().plus(retryDelay).atZone(ZoneOffset.UTC));
 
@@ -142,10 +154,8 @@ public class CustomRetryPolicyTest {
   @Test
   public void http429_headerMatchingShouldBeCaseInsensitive() throws Exception {
     // GIVEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
-    int defaultDelayMs = policy.getCurrentTimeout();
-    // Needs to be rounded to seconds
-    Duration newDelay = Duration.ofSeconds(Duration.ofMillis(defaultDelayMs + 3000).getSeconds());
+    CustomRetryPolicy policy = newPolicy();
+    Duration newDelay = Duration.ofSeconds(7);
     String retryTime = RETRY_TIME_FORMAT.format(clock.now().plus(newDelay).atZone(ZoneOffset.UTC));
 
     // WHEN
@@ -155,13 +165,115 @@ public class CustomRetryPolicyTest {
 
     // THEN
     assertThat(policy.getCurrentRetryCount()).isEqualTo(1);
-    assertThat(policy.getCurrentTimeout()).isEqualTo(newDelay.toMillis());
+    assertThat(waits).containsExactly(newDelay);
+  }
+
+  @Test
+  public void http429_shouldMeasureRetryTimeFromWhenItStartsWaiting() throws Exception {
+    // GIVEN
+    CustomRetryPolicy policy = newPolicy();
+    String retryTime = RETRY_TIME_FORMAT.format(
+        clock.now().plus(Duration.ofSeconds(7)).atZone(ZoneOffset.UTC));
+    // Some time passes between the response arriving and the retry policy seeing it.
+    clock.advanceBy(Duration.ofSeconds(2));
+
+    // WHEN
+    policy.retry(errorOf(429, ImmutableList.of(new Header("X-Retry-After", retryTime))));
+
+    // THEN
+    assertThat(waits).containsExactly(Duration.ofSeconds(5));
+  }
+
+  @Test
+  public void http429_standardRetryAfterSeconds_shouldBeHonoured() throws Exception {
+    // GIVEN
+    CustomRetryPolicy policy = newPolicy();
+
+    // WHEN
+    policy.retry(errorOf(429, ImmutableList.of(new Header("Retry-After", "4"))));
+
+    // THEN
+    assertThat(waits).containsExactly(Duration.ofSeconds(4));
+  }
+
+  @Test
+  public void http429_retryTimeBeyondMaxBackoff_shouldFailAndOpenCircuit() {
+    // GIVEN
+    CustomRetryPolicy policy = newPolicy();
+    Circuit circuit = newCircuit();
+    policy.setCircuit(circuit);
+    Duration retryDelay = Duration.ofMinutes(10);
+    String retryTime =
+        RETRY_TIME_FORMAT.format(clock.now().plus(retryDelay).atZone(ZoneOffset.UTC));
+
+    // WHEN
+    ThrowingRunnable failure =
+        () -> policy.retry(errorOf(429, ImmutableList.of(new Header("X-Retry-After", retryTime))));
+
+    // THEN
+    assertThrows(VolleyError.class, failure);
+    assertThat(waits).isEmpty();
+    assertThat(circuit.isOpen()).isTrue();
+    clock.advanceBy(retryDelay);
+    assertThat(circuit.isOpen()).isFalse();
+  }
+
+  @Test
+  public void retries_shouldBackOffWithJitter_withinBounds() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      waits.clear();
+      CustomRetryPolicy policy = new CustomRetryPolicy(clock, this::recordWait, new Random(i));
+
+      // WHEN
+      policy.retry(errorOf(500));
+      policy.retry(new TimeoutError());
+      policy.retry(errorOf(503));
+
+      // THEN
+      assertThat(waits).hasSize(3);
+      Duration previous = BASE_BACKOFF;
+      for (Duration wait : waits) {
+        assertThat(wait).isAtLeast(BASE_BACKOFF);
+        assertThat(wait).isAtMost(previous.multipliedBy(3));
+        assertThat(wait).isAtMost(MAX_BACKOFF);
+        previous = wait;
+      }
+    }
+  }
+
+  @Test
+  public void retries_shouldBeJittered() throws Exception {
+    CustomRetryPolicy policy1 = new CustomRetryPolicy(clock, this::recordWait, new Random(1));
+    CustomRetryPolicy policy2 = new CustomRetryPolicy(clock, this::recordWait, new Random(2));
+
+    policy1.retry(errorOf(500));
+    policy2.retry(errorOf(500));
+
+    assertThat(waits.get(0)).isNotEqualTo(waits.get(1));
+  }
+
+  @Test
+  public void openCircuit_shouldStopRetries() {
+    // GIVEN
+    CustomRetryPolicy policy = newPolicy();
+    Circuit circuit = newCircuit();
+    policy.setCircuit(circuit);
+    // Another request to the same host opens the circuit.
+    circuit.openUntil(clock.now().plus(Duration.ofMinutes(5)));
+
+    // WHEN
+    ThrowingRunnable failure = () -> policy.retry(errorOf(500));
+
+    // THEN
+    assertThrows(VolleyError.class, failure);
+    assertThat(policy.getCurrentRetryCount()).isEqualTo(0);
+    assertThat(waits).isEmpty();
   }
 
   @Test
   public void requestTimeout_shouldRetry() throws Exception {
     // WHEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     policy.retry(new TimeoutError());
 
     // THEN
@@ -171,13 +283,28 @@ public class CustomRetryPolicyTest {
   @Test
   public void networkError_shouldRetry() throws Exception {
     // WHEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     policy.retry(new NetworkError());
 
     // THEN
     assertThat(policy.getCurrentRetryCount()).isEqualTo(1);
   }
 
+  private CustomRetryPolicy newPolicy() {
+    return new CustomRetryPolicy(clock, this::recordWait, new Random(0));
+  }
+
+  private void recordWait(Duration wait) {
+    waits.add(wait);
+    clock.advanceBy(wait);
+  }
+
+  private Circuit newCircuit() {
+    ExposureNotificationSharedPreferences prefs = new ExposureNotificationSharedPreferences(
+        ApplicationProvider.getApplicationContext(), clock, new SecureRandom());
+    return new CircuitBreakers(prefs, clock).forHost("example.com");
+  }
+
   private static VolleyError errorOf(int httpStatus) throws Exception {
     return errorOf(httpStatus, ImmutableList.of());
   }
@@ -195,7 +322,7 @@ public class CustomRetryPolicyTest {
   private void assertRetryForStatus(int httpStatus) throws Exception {
     // WHEN
     // This should not throw anything.
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     policy.retry(errorOf(httpStatus));
 
     // THEN
@@ -204,7 +331,7 @@ public class CustomRetryPolicyTest {
 
   private void assertNoRetryForStatus(int httpStatus) {
     // WHEN
-    CustomRetryPolicy policy = new CustomRetryPolicy(clock);
+    CustomRetryPolicy policy = newPolicy();
     ThrowingRunnable failure = () -> policy.retry(errorOf(httpStatus));
 
     // THEN
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link JsonBodyWriter}.
+ */
+@RunWith(AndroidJUnit4.class)
+@HiltAndroidTest
+@Config(application = HiltTestApplication.class)
+public class JsonBodyWriterTest {
+
+  @Test
+  public void finishPadded_shouldWriteAllFields() throws Exception {
+    JsonRequestBody body = new JsonBodyWriter()
+        .put("string", "a/b")
+        .put("long", 1234567890123L)
+        .put("boolean", true)
+        .putStrings("strings", ImmutableList.of("x", "y"))
+        .beginArray("objects")
+        .beginObject().put("n", 1).endObject()
+        .beginObject().put("n", 2).endObject()
+        .endArray()
+        .finishPadded();
+
+    JSONObject parsed = new JSONObject(body.toString());
+    assertThat(parsed.getString("string")).isEqualTo("a/b");
+    assertThat(parsed.getLong("long")).isEqualTo(1234567890123L);
+    assertThat(parsed.getBoolean("boolean")).isTrue();
+    JSONArray strings = parsed.getJSONArray("strings");
+    assertThat(strings.length()).isEqualTo(2);
+    assertThat(strings.getString(0)).isEqualTo("x");
+    assertThat(strings.getString(1)).isEqualTo("y");
+    JSONArray objects = parsed.getJSONArray("objects");
+    assertThat(objects.length()).isEqualTo(2);
+    assertThat(objects.getJSONObject(0).getInt("n")).isEqualTo(1);
+    assertThat(objects.getJSONObject(1).getInt("n")).isEqualTo(2);
+  }
+
+  @Test
+  public void putNullString_shouldLeaveFieldOut() throws Exception {
+    JsonRequestBody body = new JsonBodyWriter()
+        .put("present", "value")
+        .put("absent", (String) null)
+        .finishPadded();
+
+    JSONObject parsed = new JSONObject(body.toString());
+    assertThat(parsed.has("present")).isTrue();
+    assertThat(parsed.has("absent")).isFalse();
+  }
+
+  @Test
+  public void finishPadded_sizeShouldMatchBytes() {
+    JsonRequestBody body = new JsonBodyWriter().put("foo", "bar").finishPadded();
+
+    assertThat(body.size()).isEqualTo(body.bytes().length);
+    assertThat(body.size()).isEqualTo(body.toString().length());
+  }
+}
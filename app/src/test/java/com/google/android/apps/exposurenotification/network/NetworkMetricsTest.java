@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.android.apps.exposurenotification.network.NetworkMetrics.LATENCY_BUCKET_UPPER_BOUNDS;
+import static com.google.android.apps.exposurenotification.network.NetworkMetrics.RETRY_BUCKETS;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
+import com.google.android.apps.exposurenotification.proto.RpcCall.ResultCount;
+import com.google.android.apps.exposurenotification.proto.RpcCall.RpcCallResult;
+import com.google.common.collect.Iterables;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+/**
+ * Tests for {@link NetworkMetrics}.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class NetworkMetricsTest {
+
+  private final NetworkMetrics metrics = new NetworkMetrics();
+
+  @Test
+  public void nothingRecorded_hasNoSummaries() {
+    assertThat(metrics.getSummaries()).isEmpty();
+  }
+
+  @Test
+  public void latencyBucketOf_boundsAreInclusive() {
+    assertThat(NetworkMetrics.latencyBucketOf(Duration.ZERO)).isEqualTo(0);
+    assertThat(NetworkMetrics.latencyBucketOf(Duration.ofMillis(100))).isEqualTo(0);
+    assertThat(NetworkMetrics.latencyBucketOf(Duration.ofMillis(101))).isEqualTo(1);
+    assertThat(NetworkMetrics.latencyBucketOf(Duration.ofSeconds(60)))
+        .isEqualTo(LATENCY_BUCKET_UPPER_BOUNDS.size() - 1);
+    assertThat(NetworkMetrics.latencyBucketOf(Duration.ofMinutes(5)))
+        .isEqualTo(LATENCY_BUCKET_UPPER_BOUNDS.size());
+  }
+
+  @Test
+  public void recordCall_fillsHistogramsAndResultCounts() {
+    metrics.recordCall(
+        Endpoint.ENDPOINT_KEYFILE, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+    metrics.recordCall(
+        Endpoint.ENDPOINT_KEYFILE, Duration.ofMillis(80), 1, RpcCallResult.RESULT_SUCCESS);
+    metrics.recordCall(Endpoint.ENDPOINT_KEYFILE, Duration.ofSeconds(3), 7,
+        RpcCallResult.RESULT_FAILED_GENERIC_5XX);
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getEndpoint()).isEqualTo(Endpoint.ENDPOINT_KEYFILE);
+    assertThat(summary.getCallCount()).isEqualTo(3);
+    assertThat(summary.getLatencyBucketCountList())
+        .containsExactly(2, 0, 0, 0, 0, 1, 0, 0, 0, 0).inOrder();
+    // Seven retries goes in the last, open-ended bucket.
+    assertThat(summary.getRetryBucketCountList()).hasSize(RETRY_BUCKETS);
+    assertThat(summary.getRetryBucketCountList()).containsExactly(1, 1, 0, 1).inOrder();
+    assertThat(summary.getResultCountList()).containsExactly(
+        ResultCount.newBuilder()
+            .setRpcCallResult(RpcCallResult.RESULT_SUCCESS).setCount(2).build(),
+        ResultCount.newBuilder()
+            .setRpcCallResult(RpcCallResult.RESULT_FAILED_GENERIC_5XX).setCount(1).build());
+  }
+
+  @Test
+  public void recordAttempt_sumsBytesAndAveragesPhases() {
+    metrics.recordAttempt(Endpoint.ENDPOINT_INDEX, 0, 1000,
+        Duration.ofMillis(30), Duration.ofMillis(60), Duration.ofMillis(200), Duration.ofMillis(10));
+    // Reuses the connection, so no DNS lookup or connecting.
+    metrics.recordAttempt(Endpoint.ENDPOINT_INDEX, 0, 3000,
+        Duration.ZERO, Duration.ZERO, Duration.ofMillis(100), Duration.ofMillis(30));
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getAttemptCount()).isEqualTo(2);
+    assertThat(summary.getResponseBytes()).isEqualTo(4000L);
+    assertThat(summary.getMeanDnsMs()).isEqualTo(15);
+    assertThat(summary.getMeanConnectMs()).isEqualTo(30);
+    assertThat(summary.getMeanTtfbMs()).isEqualTo(150);
+    assertThat(summary.getMeanTransferMs()).isEqualTo(20);
+  }
+
+  @Test
+  public void endpointsAreKeptApart() {
+    metrics.recordCall(
+        Endpoint.ENDPOINT_VERIFY, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+    metrics.recordCall(
+        Endpoint.ENDPOINT_CERT, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+    metrics.recordCall(
+        Endpoint.ENDPOINT_CERT, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+
+    assertThat(metrics.getSummaries()).hasSize(2);
+    assertThat(metrics.getSummaries().get(0).getEndpoint()).isEqualTo(Endpoint.ENDPOINT_VERIFY);
+    assertThat(metrics.getSummaries().get(0).getCallCount()).isEqualTo(1);
+    assertThat(metrics.getSummaries().get(1).getEndpoint()).isEqualTo(Endpoint.ENDPOINT_CERT);
+    assertThat(metrics.getSummaries().get(1).getCallCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void forget_forgetsWhatTheSnapshotHeld() {
+    metrics.recordCall(
+        Endpoint.ENDPOINT_PUBLISH, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+
+    NetworkMetrics.Snapshot snapshot = metrics.snapshot();
+    assertThat(snapshot.getSummaries()).hasSize(1);
+    assertThat(metrics.getSummaries()).hasSize(1);
+    metrics.forget(snapshot);
+
+    assertThat(metrics.getSummaries()).isEmpty();
+  }
+
+  @Test
+  public void forget_keepsWhatWasRecordedAfterTheSnapshot() {
+    metrics.recordCall(
+        Endpoint.ENDPOINT_PUBLISH, Duration.ofMillis(50), 0, RpcCallResult.RESULT_SUCCESS);
+    NetworkMetrics.Snapshot snapshot = metrics.snapshot();
+    metrics.recordCall(
+        Endpoint.ENDPOINT_PUBLISH, Duration.ofSeconds(3), 2, RpcCallResult.RESULT_FAILED_TIMEOUT);
+
+    metrics.forget(snapshot);
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getCallCount()).isEqualTo(1);
+    assertThat(summary.getLatencyBucketCount(0)).isEqualTo(0);
+    assertThat(summary.getRetryBucketCount(2)).isEqualTo(1);
+    assertThat(summary.getResultCountList()).containsExactly(ResultCount.newBuilder()
+        .setRpcCallResult(RpcCallResult.RESULT_FAILED_TIMEOUT)
+        .setCount(1)
+        .build());
+  }
+
+  @Test
+  public void circuitOpenCalls_areCountedApartFromCalls() {
+    metrics.recordCircuitOpen(Endpoint.ENDPOINT_KEYFILE);
+    metrics.recordCircuitOpen(Endpoint.ENDPOINT_KEYFILE);
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getCircuitOpenCount()).isEqualTo(2);
+    assertThat(summary.getCallCount()).isEqualTo(0);
+    assertThat(summary.getResultCountList()).isEmpty();
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.proto.RpcCall.Endpoint;
+import com.google.android.apps.exposurenotification.proto.RpcCall.EndpointSummary;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link OkHttpStack}, against a local loopback server.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class OkHttpStackTest {
+
+  private static final Logger logger = Logger.getLogger("OkHttpStackTest");
+  // Enough keyfiles to make a catch-up download, each taking long enough for latency to dominate.
+  private static final int NUM_KEY_FILES = 24;
+  private static final long SERVER_LATENCY_MS = 25;
+  // Volley's default number of network threads.
+  private static final int NUM_NETWORK_THREADS = 4;
+
+  private final MockWebServer server = new MockWebServer();
+
+  @Before
+  public void setUp() throws Exception {
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse()
+            .setHeader("ETag", "\"etag\"")
+            .setHeadersDelay(SERVER_LATENCY_MS, TimeUnit.MILLISECONDS)
+            .setBody("contents of " + request.getPath()
+                + (request.getBodySize() > 0 ? " " + request.getBody().readUtf8() : ""));
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void get_returnsStatusHeadersAndBody() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+
+    HttpResponse response =
+        stack.executeRequest(new TestRequest(Request.Method.GET, url("/a.zip")), ImmutableMap.of());
+
+    assertThat(response.getStatusCode()).isEqualTo(200);
+    assertThat(response.getHeaders()).contains(new Header("ETag", "\"etag\""));
+    assertThat(readBody(response)).isEqualTo("contents of /a.zip");
+  }
+
+  @Test
+  public void post_sendsBodyAndHeaders() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+
+    HttpResponse response = stack.executeRequest(
+        new TestRequest(Request.Method.POST, url("/publish")), ImmutableMap.of("X-Extra", "1"));
+
+    assertThat(readBody(response)).isEqualTo("contents of /publish request body");
+    RecordedRequest recorded = server.takeRequest();
+    assertThat(recorded.getMethod()).isEqualTo("POST");
+    assertThat(recorded.getHeader("X-Extra")).isEqualTo("1");
+    assertThat(recorded.getHeader("X-Request")).isEqualTo("header");
+    assertThat(recorded.getHeader("Content-Type")).startsWith("text/plain");
+  }
+
+  @Test
+  public void meteredClient_recordsAttemptAgainstRequestEndpoint() throws Exception {
+    server.start();
+    NetworkMetrics metrics = new NetworkMetrics();
+    OkHttpStack stack = new OkHttpStack(
+        OkHttpStack.newClientBuilder(HttpTransportConfig.newBuilder().build())
+            .eventListenerFactory(MeteringEventListener.factory(metrics))
+            .build());
+    TestRequest request = new TestRequest(Request.Method.POST, url("/publish"));
+    request.endpoint = Endpoint.ENDPOINT_PUBLISH;
+
+    String body = readBody(stack.executeRequest(request, ImmutableMap.of()));
+
+    EndpointSummary summary = Iterables.getOnlyElement(metrics.getSummaries());
+    assertThat(summary.getEndpoint()).isEqualTo(Endpoint.ENDPOINT_PUBLISH);
+    assertThat(summary.getAttemptCount()).isEqualTo(1);
+    assertThat(summary.getRequestBytes()).isEqualTo((long) "request body".length());
+    assertThat(summary.getResponseBytes()).isEqualTo((long) body.length());
+    // The server holds back its response headers, which counts as waiting for the first byte.
+    assertThat(summary.getMeanTtfbMs()).isAtLeast((int) SERVER_LATENCY_MS);
+  }
+
+  @Test
+  public void compressibleRequest_acceptsCompressedResponses() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+
+    readBody(stack.executeRequest(
+        new TestRequest(Request.Method.GET, url("/index.txt")), ImmutableMap.of()));
+
+    assertThat(server.takeRequest().getHeader("Accept-Encoding")).isEqualTo("gzip, deflate");
+  }
+
+  @Test
+  public void requestOptedOutOfCompression_asksForIdentityEncoding() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+    TestRequest request = new TestRequest(Request.Method.GET, url("/a.zip"));
+    request.acceptsCompressedResponse = false;
+
+    readBody(stack.executeRequest(request, ImmutableMap.of()));
+
+    assertThat(server.takeRequest().getHeader("Accept-Encoding")).isEqualTo("identity");
+  }
+
+  @Test
+  public void gzippedResponse_isDecompressedAndSizesReported() throws Exception {
+    String body = Strings.repeat("https://example.com/exposureKeyExport/1.zip\n", 100);
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse()
+            .setHeader("Content-Encoding", "gzip")
+            .setBody(compress(body, /* gzip= */ true));
+      }
+    });
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+    TestRequest request = new TestRequest(Request.Method.GET, url("/index.txt"));
+
+    HttpResponse response = stack.executeRequest(request, ImmutableMap.of());
+
+    assertThat(readBody(response)).isEqualTo(body);
+    assertThat(response.getContentLength()).isEqualTo(-1);
+    for (Header header : response.getHeaders()) {
+      assertThat(header.getName()).isNotEqualTo("Content-Encoding");
+    }
+    assertThat(request.decodedBytes).isEqualTo((long) body.length());
+    assertThat(request.encodedBytes).isGreaterThan(0L);
+    assertThat(request.encodedBytes).isLessThan(request.decodedBytes);
+  }
+
+  @Test
+  public void deflatedResponse_isDecompressed() throws Exception {
+    String body = Strings.repeat("{\"config\": 1}", 100);
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse()
+            .setHeader("Content-Encoding", "deflate")
+            .setBody(compress(body, /* gzip= */ false));
+      }
+    });
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+
+    HttpResponse response = stack.executeRequest(
+        new TestRequest(Request.Method.GET, url("/config.json")), ImmutableMap.of());
+
+    assertThat(readBody(response)).isEqualTo(body);
+  }
+
+  @Test
+  public void uncompressedResponse_reportsEqualSizes() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+    TestRequest request = new TestRequest(Request.Method.GET, url("/a.zip"));
+
+    String body = readBody(stack.executeRequest(request, ImmutableMap.of()));
+
+    assertThat(request.decodedBytes).isEqualTo((long) body.length());
+    assertThat(request.encodedBytes).isEqualTo((long) body.length());
+  }
+
+  @Test
+  public void sequentialRequests_reuseOneConnection() throws Exception {
+    server.start();
+    OkHttpStack stack = new OkHttpStack(HttpTransportConfig.newBuilder().build());
+
+    for (int i = 0; i < 3; i++) {
+      readBody(stack.executeRequest(
+          new TestRequest(Request.Method.GET, url("/" + i + ".zip")), ImmutableMap.of()));
+    }
+
+    // The sequence number counts requests on the same connection.
+    server.takeRequest();
+    server.takeRequest();
+    assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(2);
+  }
+
+  @Test
+  public void benchmark_multiplexedFetchingIsFasterThanSequential() throws Exception {
+    server.setProtocols(ImmutableList.of(Protocol.H2_PRIOR_KNOWLEDGE));
+    server.start();
+    // Plain-text HTTP/2 for the loopback server, where the real client would negotiate it by ALPN.
+    OkHttpStack stack = new OkHttpStack(
+        OkHttpStack.newClientBuilder(HttpTransportConfig.newBuilder().build())
+            .protocols(ImmutableList.of(Protocol.H2_PRIOR_KNOWLEDGE))
+            .build());
+
+    long sequentialStart = System.nanoTime();
+    for (int i = 0; i < NUM_KEY_FILES; i++) {
+      readBody(stack.executeRequest(
+          new TestRequest(Request.Method.GET, url("/seq/" + i + ".zip")), ImmutableMap.of()));
+    }
+    long sequentialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sequentialStart);
+
+    ExecutorService networkThreads = Executors.newFixedThreadPool(NUM_NETWORK_THREADS);
+    long multiplexedStart = System.nanoTime();
+    List<Future<String>> bodies = new ArrayList<>();
+    for (int i = 0; i < NUM_KEY_FILES; i++) {
+      String path = "/mux/" + i + ".zip";
+      bodies.add(networkThreads.submit(() -> readBody(stack.executeRequest(
+          new TestRequest(Request.Method.GET, url(path)), ImmutableMap.of()))));
+    }
+    for (Future<String> body : bodies) {
+      assertThat(body.get()).startsWith("contents of /mux/");
+    }
+    long multiplexedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - multiplexedStart);
+    networkThreads.shutdown();
+
+    logger.i(String.format("Fetched %d keyfiles: sequentially in %dms, multiplexed in %dms",
+        NUM_KEY_FILES, sequentialMs, multiplexedMs));
+    assertThat(multiplexedMs).isLessThan(sequentialMs);
+    // Every request, sequential or concurrent, went over the one connection.
+    Set<Integer> sequenceNumbers = new HashSet<>();
+    for (int i = 0; i < 2 * NUM_KEY_FILES; i++) {
+      sequenceNumbers.add(server.takeRequest().getSequenceNumber());
+    }
+    assertThat(sequenceNumbers).hasSize(2 * NUM_KEY_FILES);
+    assertThat(server.getRequestCount()).isEqualTo(2 * NUM_KEY_FILES);
+  }
+
+  private String url(String path) {
+    return server.url(path).toString();
+  }
+
+  /**
+   * Returns the given text gzipped, or deflated.
+   */
+  private static Buffer compress(String text, boolean gzip) {
+    Buffer compressed = new Buffer();
+    try (DeflaterOutputStream compressor = gzip
+        ? new GZIPOutputStream(compressed.outputStream())
+        : new DeflaterOutputStream(compressed.outputStream())) {
+      compressor.write(text.getBytes(UTF_8));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return compressed;
+  }
+
+  private static String readBody(HttpResponse response) throws Exception {
+    try {
+      return IOUtils.toString(response.getContent(), UTF_8);
+    } finally {
+      response.getContent().close();
+    }
+  }
+
+  private static class TestRequest extends Request<String>
+      implements Metered, ResponseCompression {
+
+    private Endpoint endpoint = Endpoint.ENDPOINT_UNKNOWN;
+    private boolean acceptsCompressedResponse = true;
+    private long encodedBytes = -1;
+    private long decodedBytes = -1;
+
+    TestRequest(int method, String url) {
+      super(method, url, error -> {});
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return endpoint;
+    }
+
+    @Override
+    public boolean acceptsCompressedResponse() {
+      return acceptsCompressedResponse;
+    }
+
+    @Override
+    public void onResponseBodyRead(long encodedBytes, long decodedBytes) {
+      this.encodedBytes = encodedBytes;
+      this.decodedBytes = decodedBytes;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+      return ImmutableMap.of("X-Request", "header");
+    }
+
+    @Override
+    public byte[] getBody() {
+      return getMethod() == Method.POST ? "request body".getBytes(UTF_8) : null;
+    }
+
+    @Override
+    public String getBodyContentType() {
+      return "text/plain; charset=utf-8";
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+      return Response.success(new String(response.data, UTF_8), null);
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+    }
+  }
+}
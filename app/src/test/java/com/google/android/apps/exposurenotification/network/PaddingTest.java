@@ -19,6 +19,7 @@ package com.google.android.apps.exposurenotification.network;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.apps.exposurenotification.common.StringUtils;
@@ -47,10 +48,11 @@ public class PaddingTest {
     JSONObject object = new JSONObject().put("foo", StringUtils.randomBase64Data(2));
 
     // Pad it out
-    JSONObject padded = Padding.addPadding(object);
+    JSONObject padded = new JSONObject(Padding.addPadding(bytesOf(object)).toString());
 
-    // And check it has the new field expected.
+    // And check it has the new field expected, alongside the original one.
     assertThat(padded.has(UploadV1.PADDING)).isTrue();
+    assertThat(padded.getString("foo")).isEqualTo(object.getString("foo"));
   }
 
   @Test
@@ -59,11 +61,11 @@ public class PaddingTest {
     JSONObject object = new JSONObject().put("foo", StringUtils.randomBase64Data(2));
 
     // Pad it out
-    JSONObject padded = Padding.addPadding(object);
+    JsonRequestBody padded = Padding.addPadding(bytesOf(object));
 
     // And check it's pretty close to our target size
     // Casting to double because DoubleSubject has this really nice "isWithin" feature.
-    assertThat((double) padded.toString().getBytes().length)
+    assertThat((double) padded.size())
         .isWithin(TOLERANCE)
         .of(Padding.TARGET_PAYLOAD_SIZE_BYTES);
   }
@@ -75,10 +77,42 @@ public class PaddingTest {
         .put("foo", StringUtils.randomBase64Data(Padding.TARGET_PAYLOAD_SIZE_BYTES + 100));
 
     // Try to pad it (but it shouldn't be actually)
-    JSONObject padded = Padding.addPadding(object);
+    JsonRequestBody padded = Padding.addPadding(bytesOf(object));
 
     // Check the JSON object hasn't be changed at all.
-    assertWithMessage("Should not have padded the object").that(object).isEqualTo(padded);
+    assertWithMessage("Should not have padded the object")
+        .that(padded.toString()).isEqualTo(object.toString());
+  }
+
+  @Test
+  public void emptyObject_shouldPadToValidJson() throws Exception {
+    JsonRequestBody padded = Padding.addPadding(bytesOf(new JSONObject()));
+
+    JSONObject parsed = new JSONObject(padded.toString());
+    assertThat(parsed.length()).isEqualTo(1);
+    assertThat(parsed.getString(UploadV1.PADDING)).isNotEmpty();
+  }
+
+  @Test
+  public void objectSmallerThanTarget_shouldPadToWithinOneBase64GroupOfTarget() throws Exception {
+    for (int size = 0; size < 200; size++) {
+      JSONObject object = new JSONObject().put("foo", StringUtils.randomBase64Data(size));
+
+      JsonRequestBody padded = Padding.addPadding(bytesOf(object));
+
+      assertThat(padded.size()).isAtMost(Padding.TARGET_PAYLOAD_SIZE_BYTES);
+      assertThat(padded.size()).isGreaterThan(Padding.TARGET_PAYLOAD_SIZE_BYTES - 4);
+    }
+  }
+
+  @Test
+  public void addPadding_shouldNotChangeGivenBytes() throws Exception {
+    byte[] serialized = bytesOf(new JSONObject().put("foo", "bar"));
+    byte[] copy = serialized.clone();
+
+    Padding.addPadding(serialized);
+
+    assertThat(serialized).isEqualTo(copy);
   }
 
   @Test
@@ -89,23 +123,27 @@ public class PaddingTest {
     JSONObject large = new JSONObject().put("foo", StringUtils.randomBase64Data(1000));
 
     // Pad them all out
-    JSONObject smallPadded = Padding.addPadding(small);
-    JSONObject mediumPadded = Padding.addPadding(medium);
-    JSONObject largePadded = Padding.addPadding(large);
+    JsonRequestBody smallPadded = Padding.addPadding(bytesOf(small));
+    JsonRequestBody mediumPadded = Padding.addPadding(bytesOf(medium));
+    JsonRequestBody largePadded = Padding.addPadding(bytesOf(large));
 
     // And check they're pretty close to the same size.
     // Casting to double because DoubleSubject has this really nice "isWithin" feature.
     assertWithMessage("Small and medium objects' padded sizes are too different from one another.")
-        .that((double) smallPadded.toString().getBytes().length)
+        .that((double) smallPadded.size())
         .isWithin(TOLERANCE)
-        .of(mediumPadded.toString().getBytes().length);
+        .of(mediumPadded.size());
     assertWithMessage("Medium and large objects' padded sizes are too different from one another.")
-        .that((double) mediumPadded.toString().getBytes().length)
+        .that((double) mediumPadded.size())
         .isWithin(TOLERANCE)
-        .of(largePadded.toString().getBytes().length);
+        .of(largePadded.size());
     assertWithMessage("Small and large objects' padded sizes are too different from one another.")
-        .that((double) smallPadded.toString().getBytes().length)
+        .that((double) smallPadded.size())
         .isWithin(TOLERANCE)
-        .of(largePadded.toString().getBytes().length);
+        .of(largePadded.size());
+  }
+
+  private static byte[] bytesOf(JSONObject object) {
+    return object.toString().getBytes(UTF_8);
   }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class RequestCoalescerTest {
+
+  private static final String URL = "https://example.com/index.txt";
+
+  private final RecordingDelivery delivery = new RecordingDelivery();
+  private final RequestQueue queue = mock(RequestQueue.class);
+  private RequestCoalescer coalescer;
+
+  @Before
+  public void setUp() {
+    coalescer = new RequestCoalescer(delivery);
+    coalescer.attachTo(queue);
+  }
+
+  @Test
+  public void identicalCoalescableGets_shouldShareOneNetworkCall() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, true);
+
+    coalescer.add(first);
+    coalescer.add(second);
+
+    verify(queue).add(first);
+    verify(queue, never()).add(second);
+    assertThat(coalescer.getCoalescedRequestCount()).isEqualTo(1);
+    assertThat(coalescer.getHitRate()).isEqualTo(0.5);
+  }
+
+  @Test
+  public void leaderResponse_shouldBeFannedOutToFollowers() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(first);
+    coalescer.add(second);
+
+    Response<String> response = Response.success("body", null);
+    coalescer.postResponse(first, response);
+
+    assertThat(delivery.responses).containsExactly(first, second).inOrder();
+  }
+
+  @Test
+  public void leaderError_shouldBeFannedOutToFollowers() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(first);
+    coalescer.add(second);
+
+    coalescer.postError(first, new VolleyError());
+
+    assertThat(delivery.errors).containsExactly(first, second).inOrder();
+  }
+
+  @Test
+  public void requestAfterLeaderDelivered_shouldGoToNetwork() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(first);
+    coalescer.postResponse(first, Response.success("body", null));
+
+    TestRequest later = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(later);
+
+    verify(queue).add(later);
+    assertThat(coalescer.getCoalescedRequestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void requestsNotOptedIn_shouldNotBeCoalesced() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, false);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, false);
+
+    coalescer.add(first);
+    coalescer.add(second);
+
+    verify(queue).add(first);
+    verify(queue).add(second);
+    assertThat(coalescer.getHitRate()).isEqualTo(0);
+  }
+
+  @Test
+  public void posts_shouldNotBeCoalesced() {
+    TestRequest first = new TestRequest(Request.Method.POST, URL, true);
+    TestRequest second = new TestRequest(Request.Method.POST, URL, true);
+
+    coalescer.add(first);
+    coalescer.add(second);
+
+    verify(queue).add(first);
+    verify(queue).add(second);
+  }
+
+  @Test
+  public void differentUrls_shouldNotBeCoalesced() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL + "?other", true);
+
+    coalescer.add(first);
+    coalescer.add(second);
+
+    verify(queue).add(first);
+    verify(queue).add(second);
+  }
+
+  @Test
+  public void leaderFinishedWithoutResponse_shouldSendFollowersToNetwork() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(first);
+    coalescer.add(second);
+
+    first.cancel();
+    onRequestFinished(first);
+
+    verify(queue).add(second);
+  }
+
+  @Test
+  public void leaderFinishedAfterResponse_shouldNotResendFollowers() {
+    TestRequest first = new TestRequest(Request.Method.GET, URL, true);
+    TestRequest second = new TestRequest(Request.Method.GET, URL, true);
+    coalescer.add(first);
+    coalescer.add(second);
+
+    coalescer.postResponse(first, Response.success("body", null));
+    onRequestFinished(first);
+
+    verify(queue, never()).add(second);
+    verify(queue).addRequestFinishedListener(any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private void onRequestFinished(Request<?> request) {
+    coalescer.onRequestFinished((Request<Object>) request);
+  }
+
+  private static class TestRequest extends Request<String> implements Coalescable {
+
+    private final boolean coalescable;
+
+    TestRequest(int method, String url, boolean coalescable) {
+      super(method, url, error -> {});
+      this.coalescable = coalescable;
+    }
+
+    @Override
+    public boolean isCoalescable() {
+      return coalescable;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+      return Response.success(
+          new String(response.data), HttpHeaderParser.parseCacheHeaders(response));
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+    }
+  }
+
+  private static class RecordingDelivery implements ResponseDelivery {
+
+    private final List<Request<?>> responses = new ArrayList<>();
+    private final List<Request<?>> errors = new ArrayList<>();
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response) {
+      responses.add(request);
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+      responses.add(request);
+    }
+
+    @Override
+    public void postError(Request<?> request, VolleyError error) {
+      errors.add(request);
+    }
+  }
+}
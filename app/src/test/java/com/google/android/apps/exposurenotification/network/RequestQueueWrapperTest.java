@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Request.Priority;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+import com.google.common.util.concurrent.MoreExecutors;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for the request lanes of {@link RequestQueueWrapper}.
+ *
+ * <p>Rather than timing anything, keyfile requests hold their network thread until the test lets
+ * them finish, so whether an interactive call had to wait for one is a yes or no.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class RequestQueueWrapperTest {
+
+  private static final String URL = "https://example.com/";
+  // Mirrors RealRequestQueueModule.
+  private static final int NETWORK_THREADS = 4;
+  private static final int INTERACTIVE_THREADS = 2;
+  // More keyfiles than network threads, as in a catch-up download.
+  private static final int NUM_KEY_FILES = 50;
+  private static final int NUM_INTERACTIVE_CALLS = 6;
+  // Only a safety net against a hung test. Nothing should come near it.
+  private static final long AWAIT_SECONDS = 10;
+
+  private final CountDownLatch keyFilesStarted = new CountDownLatch(NETWORK_THREADS);
+  // Each permit lets one keyfile finish.
+  private final Semaphore keyFilePermits = new Semaphore(0);
+  private final AtomicInteger keyFilesDone = new AtomicInteger();
+  private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+  private final List<RequestQueue> queues = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    keyFilePermits.release(NUM_KEY_FILES);
+    for (RequestQueue queue : queues) {
+      queue.cancelAll(request -> true);
+      queue.stop();
+    }
+  }
+
+  @Test
+  public void interactiveRequest_shouldGoToInteractiveQueue() {
+    RequestQueue interactiveQueue = mock(RequestQueue.class);
+    RequestQueue queue = mock(RequestQueue.class);
+    RequestQueueWrapper wrapper = RequestQueueWrapper.withInteractiveLane(
+        interactiveQueue, queue, new RequestCoalescer(mock(ResponseDelivery.class)));
+    TestRequest verify = new TestRequest(Priority.HIGH);
+    TestRequest index = new TestRequest(Priority.NORMAL);
+    TestRequest keyFile = new TestRequest(Priority.LOW);
+
+    wrapper.add(verify);
+    wrapper.add(index);
+    wrapper.add(keyFile);
+
+    verify(interactiveQueue).add(verify);
+    verify(queue, never()).add(verify);
+    verify(queue).add(index);
+    verify(queue).add(keyFile);
+  }
+
+  @Test
+  public void interactiveRequests_shouldNotWaitForKeyFiles() throws Exception {
+    RequestQueueWrapper wrapper = newWrapperWithInteractiveLane();
+    startKeyFileDownload(wrapper);
+
+    for (int i = 0; i < NUM_INTERACTIVE_CALLS; i++) {
+      assertThat(makeInteractiveCall(wrapper).await(AWAIT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    }
+
+    // Every one of them went through while every keyfile was still holding its thread.
+    assertThat(keyFilesDone.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void withoutInteractiveLane_interactiveRequestsWaitForKeyFiles() throws Exception {
+    // For comparison: priority alone moves verify and publish to the head of the queue, but they
+    // still wait for a network thread to come free.
+    RequestQueueWrapper wrapper =
+        RequestQueueWrapper.wrapping(newQueue(NETWORK_THREADS, newDelivery()));
+    startKeyFileDownload(wrapper);
+
+    CountDownLatch interactiveDone = makeInteractiveCall(wrapper);
+    keyFilePermits.release();
+
+    assertThat(interactiveDone.await(AWAIT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    // It only got a thread once a keyfile had given one up.
+    assertThat(events.indexOf("interactive")).isGreaterThan(events.indexOf("keyfile-done"));
+    assertThat(events.indexOf("keyfile-done")).isAtLeast(0);
+  }
+
+  private RequestQueueWrapper newWrapperWithInteractiveLane() {
+    RequestCoalescer coalescer = new RequestCoalescer(newDelivery());
+    RequestQueue queue = newQueue(NETWORK_THREADS, coalescer);
+    RequestQueue interactiveQueue = newQueue(INTERACTIVE_THREADS, newDelivery());
+    return RequestQueueWrapper.withInteractiveLane(interactiveQueue, queue, coalescer);
+  }
+
+  private RequestQueue newQueue(int threads, ResponseDelivery delivery) {
+    RequestQueue queue = new RequestQueue(new NoCache(), new GatedNetwork(), threads, delivery);
+    queue.start();
+    queues.add(queue);
+    return queue;
+  }
+
+  private static RoutingResponseDelivery newDelivery() {
+    return new RoutingResponseDelivery(
+        MoreExecutors.directExecutor(), MoreExecutors.directExecutor());
+  }
+
+  private void startKeyFileDownload(RequestQueueWrapper wrapper) throws InterruptedException {
+    for (int i = 0; i < NUM_KEY_FILES; i++) {
+      TestRequest keyFile = new TestRequest(Priority.LOW);
+      keyFile.onDone = keyFilesDone::incrementAndGet;
+      wrapper.add(keyFile);
+    }
+    // Make sure every network thread of the main queue is held by a keyfile.
+    assertThat(keyFilesStarted.await(AWAIT_SECONDS, TimeUnit.SECONDS)).isTrue();
+  }
+
+  /**
+   * Makes a verify or publish call, and returns a latch released once it's done.
+   */
+  private static CountDownLatch makeInteractiveCall(RequestQueueWrapper wrapper) {
+    CountDownLatch done = new CountDownLatch(1);
+    TestRequest call = new TestRequest(Priority.HIGH);
+    call.onDone = done::countDown;
+    wrapper.add(call);
+    return done;
+  }
+
+  /**
+   * A network which sends nothing anywhere. Interactive calls return at once, while keyfiles hold
+   * their thread until the test hands out a permit.
+   */
+  private class GatedNetwork implements Network {
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+      if (request.getPriority() == Priority.LOW) {
+        keyFilesStarted.countDown();
+        try {
+          keyFilePermits.acquire();
+        } catch (InterruptedException e) {
+          // The queue's being stopped.
+          Thread.currentThread().interrupt();
+          throw new VolleyError(e);
+        }
+        events.add("keyfile-done");
+      } else {
+        events.add("interactive");
+      }
+      return new NetworkResponse(
+          200, new byte[0], /* notModified= */ false, /* networkTimeMs= */ 0L,
+          Collections.emptyList());
+    }
+  }
+
+  private static class TestRequest extends Request<String> {
+
+    private final Priority priority;
+    private Runnable onDone = () -> {};
+
+    TestRequest(Priority priority) {
+      super(Method.GET, URL, error -> {});
+      this.priority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return priority;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+      return Response.success("", null);
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+      onDone.run();
+    }
+  }
+}
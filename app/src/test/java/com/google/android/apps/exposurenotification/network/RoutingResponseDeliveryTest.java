@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class RoutingResponseDeliveryTest {
+
+  private final RecordingExecutor lightweightExecutor = new RecordingExecutor();
+  private final RecordingExecutor backgroundExecutor = new RecordingExecutor();
+  private final RoutingResponseDelivery delivery =
+      new RoutingResponseDelivery(lightweightExecutor, backgroundExecutor);
+  private final List<String> delivered = new ArrayList<>();
+
+  @Test
+  public void ordinaryRequest_deliveredOnLightweightExecutor() {
+    TestRequest request = new TestRequest(false);
+
+    delivery.postResponse(request, Response.success("response", null));
+
+    assertThat(lightweightExecutor.tasks).isEqualTo(1);
+    assertThat(backgroundExecutor.tasks).isEqualTo(0);
+    assertThat(delivered).containsExactly("response");
+  }
+
+  @Test
+  public void backgroundRequest_deliveredOnBackgroundExecutor() {
+    TestRequest request = new TestRequest(true);
+
+    delivery.postResponse(request, Response.success("response", null));
+
+    assertThat(lightweightExecutor.tasks).isEqualTo(0);
+    assertThat(backgroundExecutor.tasks).isEqualTo(1);
+    assertThat(delivered).containsExactly("response");
+  }
+
+  @Test
+  public void backgroundRequest_errorDeliveredOnBackgroundExecutor() {
+    TestRequest request = new TestRequest(true);
+
+    delivery.postError(request, new VolleyError("error"));
+
+    assertThat(lightweightExecutor.tasks).isEqualTo(0);
+    assertThat(backgroundExecutor.tasks).isEqualTo(1);
+    assertThat(delivered).containsExactly("error");
+  }
+
+  private class TestRequest extends Request<String> implements BackgroundDelivery {
+
+    private final boolean deliveredInBackground;
+
+    TestRequest(boolean deliveredInBackground) {
+      super(Method.GET, "http://example.com", error -> delivered.add(error.getMessage()));
+      this.deliveredInBackground = deliveredInBackground;
+    }
+
+    @Override
+    public boolean isDeliveredInBackground() {
+      return deliveredInBackground;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+      return Response.success(new String(response.data), null);
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+      delivered.add(response);
+    }
+  }
+
+  /**
+   * Runs tasks straight away, counting them.
+   */
+  private static class RecordingExecutor implements Executor {
+
+    private int tasks = 0;
+
+    @Override
+    public void execute(Runnable command) {
+      tasks++;
+      command.run();
+    }
+  }
+}
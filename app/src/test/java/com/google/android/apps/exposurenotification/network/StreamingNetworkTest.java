@@ -0,0 +1,311 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.net.Uri;
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link StreamingNetwork} and {@link RespondableFileRequest}.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner.class)
+@Config(application = HiltTestApplication.class)
+public class StreamingNetworkTest {
+
+  private static final Uri URI = Uri.parse("http://example.com/keys/1.zip");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final FakeClock clock = new FakeClock();
+  private final FakeHttpStack httpStack = new FakeHttpStack();
+
+  @Test
+  public void fileRequest_shouldStreamBodyToTargetFile() throws Exception {
+    byte[] body = new byte[100_000];
+    Arrays.fill(body, (byte) 7);
+    httpStack.enqueue(new HttpResponse(200, ImmutableList.of(), body.length,
+        new ByteArrayInputStream(body)));
+    File target = new File(tmp.getRoot(), "diag_keys/abc/keys_1.zip");
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    NetworkResponse response = network.performRequest(fileRequest(target));
+
+    assertThat(response.statusCode).isEqualTo(200);
+    assertThat(response.data).isEmpty();
+    assertThat(FileUtils.readFileToByteArray(target)).isEqualTo(body);
+  }
+
+  @Test
+  public void fileRequest_serverErrorThenSuccess_shouldRetryAndOverwrite() throws Exception {
+    httpStack.enqueue(new HttpResponse(500, ImmutableList.of(), 5, bodyOf("error")));
+    httpStack.enqueue(new HttpResponse(200, ImmutableList.of(), 7, bodyOf("content")));
+    File target = new File(tmp.getRoot(), "keys_1.zip");
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    network.performRequest(fileRequest(target));
+
+    assertThat(FileUtils.readFileToString(target, StandardCharsets.UTF_8)).isEqualTo("content");
+    assertThat(httpStack.numRequests).isEqualTo(2);
+  }
+
+  @Test
+  public void fileRequest_notFound_shouldThrowClientErrorWithBody() {
+    httpStack.enqueue(new HttpResponse(404, ImmutableList.of(), 9, bodyOf("not found")));
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    ClientError error = assertThrows(
+        ClientError.class,
+        () -> network.performRequest(fileRequest(new File(tmp.getRoot(), "keys_1.zip"))));
+
+    assertThat(error.networkResponse.statusCode).isEqualTo(404);
+    assertThat(new String(error.networkResponse.data, StandardCharsets.UTF_8))
+        .isEqualTo("not found");
+  }
+
+  @Test
+  public void fileRequest_truncatedBody_shouldResumeWithRangeRequest() throws Exception {
+    httpStack.enqueue(new HttpResponse(200,
+        ImmutableList.of(new Header("ETag", "\"v1\""), new Header("Content-Length", "10")),
+        10, bodyOf("0123")));
+    httpStack.enqueue(new HttpResponse(206,
+        ImmutableList.of(new Header("Content-Range", "bytes 4-9/10")), 6, bodyOf("456789")));
+    File target = new File(tmp.getRoot(), "keys_1.zip");
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    network.performRequest(fileRequest(target));
+
+    assertThat(httpStack.requestHeaders.get(0)).isEmpty();
+    assertThat(httpStack.requestHeaders.get(1)).containsEntry("Range", "bytes=4-");
+    assertThat(httpStack.requestHeaders.get(1)).containsEntry("If-Range", "\"v1\"");
+    assertThat(FileUtils.readFileToString(target, StandardCharsets.UTF_8)).isEqualTo("0123456789");
+    assertThat(partialFile().exists()).isFalse();
+  }
+
+  @Test
+  public void fileRequest_partialLeftByEarlierRequest_shouldResumeInNewRequest()
+      throws Exception {
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+    leavePartialDownload(network, "01234", 10);
+
+    // A later request, e.g. in the next worker run, picks up from there.
+    File target = new File(tmp.getRoot(), "run2/keys_1.zip");
+    httpStack.enqueue(new HttpResponse(206,
+        ImmutableList.of(new Header("Content-Range", "bytes 5-9/10")), 5, bodyOf("56789")));
+    network.performRequest(fileRequest(target));
+
+    assertThat(Iterables.getLast(httpStack.requestHeaders)).containsEntry("Range", "bytes=5-");
+    assertThat(FileUtils.readFileToString(target, StandardCharsets.UTF_8)).isEqualTo("0123456789");
+  }
+
+  @Test
+  public void fileRequest_concurrentRequestsForSameUri_onlyOneShouldResume() throws Exception {
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+    leavePartialDownload(network, "01234", 10);
+
+    // Two runs overlap, each downloading the same file into its own directory.
+    RespondableFileRequest first = fileRequest(new File(tmp.getRoot(), "run2/keys_1.zip"));
+    RespondableFileRequest second = fileRequest(new File(tmp.getRoot(), "run3/keys_1.zip"));
+
+    assertThat(first.getHeaders()).containsEntry("Range", "bytes=5-");
+    assertThat(second.getHeaders()).isEmpty();
+    assertThat(partialFile().exists()).isFalse();
+  }
+
+  @Test
+  public void fileRequest_headers_shouldNotReadTheDisk() throws Exception {
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+    leavePartialDownload(network, "01234", 10);
+    File target = new File(tmp.getRoot(), "run2/keys_1.zip");
+    RespondableFileRequest request = fileRequest(target);
+
+    // Whatever happens on disk after the request was created, its headers stay as they were.
+    FileUtils.deleteDirectory(target.getParentFile());
+
+    assertThat(request.getHeaders()).containsEntry("Range", "bytes=5-");
+  }
+
+  @Test
+  public void fileRequest_serverIgnoresRange_shouldStartOver() throws Exception {
+    httpStack.enqueue(new HttpResponse(200,
+        ImmutableList.of(new Header("ETag", "\"v1\""), new Header("Content-Length", "10")),
+        10, bodyOf("0123")));
+    // The file changed in the meantime, so the server sends all of the new one.
+    httpStack.enqueue(new HttpResponse(200,
+        ImmutableList.of(new Header("ETag", "\"v2\""), new Header("Content-Length", "6")),
+        6, bodyOf("abcdef")));
+    File target = new File(tmp.getRoot(), "keys_1.zip");
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    network.performRequest(fileRequest(target));
+
+    assertThat(FileUtils.readFileToString(target, StandardCharsets.UTF_8)).isEqualTo("abcdef");
+  }
+
+  @Test
+  public void fileRequest_chunkedDownloadKilledAfterFullWrite_shouldStartOverOnRangeNotSatisfiable()
+      throws Exception {
+    // A chunked response has no Content-Length, so once the whole body was written we can't tell
+    // it from a partial one. The process died before the file was moved into place.
+    File target = new File(tmp.getRoot(), "keys_1.zip");
+    File partial = new File(target.getPath() + ".partial");
+    FileUtils.writeStringToFile(partial, "0123456789", StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(partial.getPath() + ".meta"),
+        "validator=\"v1\"\ntotalLength=-1\n", StandardCharsets.UTF_8);
+    httpStack.enqueue(new HttpResponse(416,
+        ImmutableList.of(new Header("Content-Range", "bytes */10")), 0, bodyOf("")));
+    httpStack.enqueue(new HttpResponse(200, ImmutableList.of(new Header("ETag", "\"v1\"")),
+        10, bodyOf("0123456789")));
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+
+    network.performRequest(fileRequest(target));
+
+    assertThat(httpStack.requestHeaders.get(0)).containsEntry("Range", "bytes=10-");
+    assertThat(httpStack.requestHeaders.get(1)).isEmpty();
+    assertThat(FileUtils.readFileToString(target, StandardCharsets.UTF_8)).isEqualTo("0123456789");
+    assertThat(partial.exists()).isFalse();
+  }
+
+  @Test
+  public void fileRequest_rangedRequestKeepsFailing_shouldStartOverOnlyOnce() {
+    File target = new File(tmp.getRoot(), "keys_1.zip");
+    StreamingNetwork network = new StreamingNetwork(httpStack, failingDelegate());
+    leavePartialDownload(network, "01234", 10);
+    httpStack.enqueue(new HttpResponse(404, ImmutableList.of(), 9, bodyOf("not found")));
+    httpStack.enqueue(new HttpResponse(404, ImmutableList.of(), 9, bodyOf("not found")));
+    RespondableFileRequest request = fileRequest(target);
+    int requestsBefore = httpStack.numRequests;
+
+    assertThrows(ClientError.class, () -> network.performRequest(request));
+
+    assertThat(httpStack.numRequests - requestsBefore).isEqualTo(2);
+    assertThat(Iterables.getLast(httpStack.requestHeaders)).isEmpty();
+    // Nothing is left for a later request to resume and fail on again.
+    request.deliverError(new ClientError());
+    assertThat(partialFile().exists()).isFalse();
+  }
+
+  @Test
+  public void otherRequests_shouldGoToDelegate() throws Exception {
+    NetworkResponse delegateResponse = new NetworkResponse(new byte[]{1, 2, 3});
+    StreamingNetwork network = new StreamingNetwork(httpStack, request -> delegateResponse);
+
+    NetworkResponse response = network.performRequest(
+        new RespondableStringRequest(URI.toString(), r -> {}, e -> {}, clock));
+
+    assertThat(response).isSameInstanceAs(delegateResponse);
+    assertThat(httpStack.numRequests).isEqualTo(0);
+  }
+
+  /**
+   * Gets the given part of a file of the given length, then fails for good, leaving what we got for
+   * a later request to resume.
+   */
+  private void leavePartialDownload(StreamingNetwork network, String part, int length) {
+    httpStack.enqueue(new HttpResponse(200,
+        ImmutableList.of(
+            new Header("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT"),
+            new Header("Content-Length", Integer.toString(length))),
+        length, bodyOf(part)));
+    RespondableFileRequest request = fileRequest(new File(tmp.getRoot(), "run1/keys_1.zip"));
+    NoConnectionError error =
+        assertThrows(NoConnectionError.class, () -> network.performRequest(request));
+    // As the request queue would.
+    request.deliverError(error);
+  }
+
+  private RespondableFileRequest fileRequest(File target) {
+    RespondableFileRequest request =
+        new RespondableFileRequest(
+            URI, partialFile(), target, (f, bytes, encodedBytes) -> {}, e -> {}, clock);
+    // Retry straight away, rather than actually sleeping between attempts.
+    request.setRetryPolicy(new CustomRetryPolicy(clock, duration -> {}, new Random(0)));
+    return request;
+  }
+
+  private File partialFile() {
+    return new File(tmp.getRoot(), "diag_keys/partial/abc.zip");
+  }
+
+  private static ByteArrayInputStream bodyOf(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Network failingDelegate() {
+    return request -> {
+      throw new AssertionError("Delegate network should not be used for file requests.");
+    };
+  }
+
+  private static class FakeHttpStack extends BaseHttpStack {
+
+    private final Queue<HttpResponse> responses = new ArrayDeque<>();
+    private final List<Map<String, String>> requestHeaders = new ArrayList<>();
+    private int numRequests = 0;
+
+    void enqueue(HttpResponse response) {
+      responses.add(response);
+    }
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+        throws IOException, AuthFailureError {
+      numRequests++;
+      requestHeaders.add(request.getHeaders());
+      if (responses.isEmpty()) {
+        throw new IOException("No more responses.");
+      }
+      return responses.remove();
+    }
+  }
+}
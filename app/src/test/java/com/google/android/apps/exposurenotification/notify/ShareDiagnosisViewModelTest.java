@@ -47,6 +47,7 @@ import com.google.android.apps.exposurenotification.keyupload.Qualifiers.Verific
 import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationCodeUri;
 import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationUserReportUri;
 import com.google.android.apps.exposurenotification.keyupload.UploadController;
+import com.google.android.apps.exposurenotification.keyupload.UploadOutbox;
 import com.google.android.apps.exposurenotification.keyupload.UploadUrisModule;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationsClientModule;
@@ -152,6 +153,8 @@ public class ShareDiagnosisViewModelTest {
   TelephonyHelper telephonyHelper;
   @Mock
   PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider;
+  @Mock
+  UploadOutbox uploadOutbox;
   @BindValue
   Clock clock = new FakeClock();
   @Inject
@@ -195,6 +198,7 @@ public class ShareDiagnosisViewModelTest {
         context,
         new SavedStateHandle(),
         uploadController,
+        uploadOutbox,
         diagnosisRepository,
         verificationCodeRequestRepository,
         exposureNotificationClient,
@@ -226,6 +230,7 @@ public class ShareDiagnosisViewModelTest {
         context,
         savedStateHandle,
         uploadController,
+        uploadOutbox,
         diagnosisRepository,
         verificationCodeRequestRepository,
         exposureNotificationClient,
@@ -845,6 +850,7 @@ public class ShareDiagnosisViewModelTest {
         context,
         savedStateHandle,
         uploadController,
+        uploadOutbox,
         diagnosisRepository,
         verificationCodeRequestRepository,
         exposureNotificationClient,
@@ -98,6 +98,8 @@ public class SubmitPrivateAnalyticsWorkerTest {
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
   @Inject
   Clock clock;
+  @Inject
+  SubmitPrivateAnalyticsStage submitPrivateAnalyticsStage;
 
 
   @Before
@@ -115,7 +117,7 @@ public class SubmitPrivateAnalyticsWorkerTest {
   }
 
   @Test
-  public void testAnalyticsWorker_clearsOlderFields() {
+  public void testAnalyticsStage_clearsOlderFields() {
     // Set up last metrics run
     Instant lastDailyRun = clock.now().minus(Duration.ofDays(1));
     when(exposureNotificationSharedPreferences
@@ -130,15 +132,9 @@ public class SubmitPrivateAnalyticsWorkerTest {
     int biweeklyMetricsUploadWeek = calendar.get(Calendar.WEEK_OF_YEAR)  % 2;
     int biweeklyMetricsUploadDay = biweeklyMetricsUploadDayOfWeek + biweeklyMetricsUploadWeek * 7;
 
-    // Create worker
-    SubmitPrivateAnalyticsWorker worker = (SubmitPrivateAnalyticsWorker) workerFactory
-        .createWorker(ApplicationProvider.getApplicationContext(),
-            SubmitPrivateAnalyticsWorker.class.getName(),
-            workerParameters);
-
     // Check on a daily-metrics-only day
-    worker.biweeklyMetricsUploadDay = (biweeklyMetricsUploadDay + 1) % 14;
-    worker.clearOlderPrivateAnalyticsFields();
+    submitPrivateAnalyticsStage.biweeklyMetricsUploadDay = (biweeklyMetricsUploadDay + 1) % 14;
+    submitPrivateAnalyticsStage.clearOlderPrivateAnalyticsFields();
     verify(exposureNotificationSharedPreferences)
         .clearPrivateAnalyticsDailyFieldsBefore(lastDailyRun);
     verify(exposureNotificationSharedPreferences, never())
@@ -147,8 +143,8 @@ public class SubmitPrivateAnalyticsWorkerTest {
     Mockito.clearInvocations(exposureNotificationSharedPreferences);
 
     // Check on a biweekly-metrics day
-    worker.biweeklyMetricsUploadDay = biweeklyMetricsUploadDay;
-    worker.clearOlderPrivateAnalyticsFields();
+    submitPrivateAnalyticsStage.biweeklyMetricsUploadDay = biweeklyMetricsUploadDay;
+    submitPrivateAnalyticsStage.clearOlderPrivateAnalyticsFields();
     verify(exposureNotificationSharedPreferences)
         .clearPrivateAnalyticsDailyFieldsBefore(lastDailyRun);
     verify(exposureNotificationSharedPreferences)
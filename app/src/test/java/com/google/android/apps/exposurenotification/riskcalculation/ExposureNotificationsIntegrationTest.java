@@ -49,6 +49,7 @@ import com.google.android.apps.exposurenotification.testsupport.ExposureNotifica
 import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.HAConfigObjects;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.android.apps.exposurenotification.work.WorkerTelemetry;
 import com.google.android.gms.nearby.exposurenotification.DailySummariesConfig;
 import com.google.android.gms.nearby.exposurenotification.ReportType;
 import com.google.android.gms.tasks.Tasks;
@@ -112,6 +113,8 @@ public class ExposureNotificationsIntegrationTest {
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
   @Inject
   NotificationHelper notificationHelper;
+  @Inject
+  WorkerTelemetry workerTelemetry;
 
   @Mock
   AnalyticsLogger analyticsLogger;
@@ -158,7 +161,7 @@ public class ExposureNotificationsIntegrationTest {
     stateUpdatedWorker = new StateUpdatedWorker(context, workerParameters, exposureRepository,
         exposureNotificationClientWrapper, exposureNotificationSharedPreferences,
         revocationDetector, dailySummariesConfig, dailySummaryRiskCalculator, notificationHelper,
-        backgroundExecutor, scheduledExecutor, analyticsLogger, clock);
+        backgroundExecutor, scheduledExecutor, analyticsLogger, clock, workerTelemetry);
   }
 
 
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.common.collect.ImmutableList;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import javax.inject.Inject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+/**
+ * Tests for operations in {@link ProvidedKeyFileRepository} and the underlying DAO.
+ */
+@RunWith(AndroidJUnit4.class)
+@HiltAndroidTest
+@Config(application = HiltTestApplication.class)
+@UninstallModules({DbModule.class, RealTimeModule.class})
+public class ProvidedKeyFileRepositoryTest {
+
+  private static final Uri HOME_FILE = Uri.parse("http://example-1.com/file1");
+  private static final Uri ROAMING_FILE = Uri.parse("http://example-2.com/file1");
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  @Inject
+  ProvidedKeyFileRepository providedKeyFileRepo;
+
+  @BindValue
+  ExposureNotificationDatabase db = InMemoryDb.create();
+  @BindValue
+  Clock clock = new FakeClock();
+
+  @Before
+  public void setUp() {
+    rules.hilt().inject();
+  }
+
+  @Test
+  public void nothingProvided_isNotProvided() {
+    assertThat(providedKeyFileRepo.isUriProvided(HOME_FILE)).isFalse();
+    assertThat(providedKeyFileRepo.isContentProvided("hash")).isFalse();
+  }
+
+  @Test
+  public void markProvided_isProvidedByUriAndByContent() {
+    providedKeyFileRepo.markProvided(
+        ImmutableList.of(ProvidedKeyFileEntity.create(HOME_FILE, "hash", clock.now())));
+
+    assertThat(providedKeyFileRepo.isUriProvided(HOME_FILE)).isTrue();
+    assertThat(providedKeyFileRepo.isUriProvided(ROAMING_FILE)).isFalse();
+    assertThat(providedKeyFileRepo.isContentProvided("hash")).isTrue();
+    assertThat(providedKeyFileRepo.isContentProvided("other-hash")).isFalse();
+  }
+
+  @Test
+  public void providedLongerAgoThanTtl_isNotProvided() {
+    providedKeyFileRepo.markProvided(
+        ImmutableList.of(ProvidedKeyFileEntity.create(HOME_FILE, "hash", clock.now())));
+
+    ((FakeClock) clock).advanceBy(
+        ProvidedKeyFileRepository.PROVIDED_KEY_FILE_TTL.plus(Duration.ofMinutes(1)));
+
+    assertThat(providedKeyFileRepo.isUriProvided(HOME_FILE)).isFalse();
+    assertThat(providedKeyFileRepo.isContentProvided("hash")).isFalse();
+  }
+
+  @Test
+  public void markProvided_deletesExpiredEntries() {
+    providedKeyFileRepo.markProvided(
+        ImmutableList.of(ProvidedKeyFileEntity.create(HOME_FILE, "hash", clock.now())));
+    ((FakeClock) clock).advanceBy(
+        ProvidedKeyFileRepository.PROVIDED_KEY_FILE_TTL.plus(Duration.ofMinutes(1)));
+
+    providedKeyFileRepo.markProvided(
+        ImmutableList.of(ProvidedKeyFileEntity.create(ROAMING_FILE, "other-hash", clock.now())));
+
+    assertThat(providedKeyFileRepo.getAll())
+        .containsExactly(ProvidedKeyFileEntity.create(ROAMING_FILE, "other-hash", clock.now()));
+  }
+}
@@ -17,16 +17,22 @@
 
 package com.google.android.apps.exposurenotification.testsupport;
 
+import com.android.volley.Header;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
 import com.google.android.apps.exposurenotification.network.RespondableByteArrayRequest;
+import com.google.android.apps.exposurenotification.network.RespondableConditionalStringRequest;
+import com.google.android.apps.exposurenotification.network.RespondableFileRequest;
 import com.google.android.apps.exposurenotification.network.RespondableJsonObjectRequest;
 import com.google.android.apps.exposurenotification.network.RespondableStringRequest;
+import com.google.android.apps.exposurenotification.network.ResponseCompression;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -111,6 +117,8 @@ import org.json.JSONObject;
 public class FakeRequestQueue extends RequestQueueWrapper {
 
   private final Map<Pattern, TestResponse> responses = new HashMap<>();
+  private final List<Pattern> unanswered = new ArrayList<>();
+  private final Map<Pattern, Long> encodedSizes = new HashMap<>();
   private final List<Request> requests = new ArrayList<>();
 
   /**
@@ -120,6 +128,13 @@ public class FakeRequestQueue extends RequestQueueWrapper {
   public <T> Request<T> add(Request<T> request) {
     requests.add(request);
 
+    for (Pattern pattern : unanswered) {
+      if (pattern.matcher(request.getUrl()).matches()) {
+        // Left in flight, as if the server never replied.
+        return request;
+      }
+    }
+
     TestResponse matchingResponse = null;
     for (Map.Entry<Pattern, TestResponse> entry : responses.entrySet()) {
       if (entry.getKey().matcher(request.getUrl()).matches()) {
@@ -137,11 +152,40 @@ public class FakeRequestQueue extends RequestQueueWrapper {
 
     if (matchingResponse.httpStatus < 400) {
       // Success responses.
+      for (Map.Entry<Pattern, Long> entry : encodedSizes.entrySet()) {
+        if (entry.getKey().matcher(request.getUrl()).matches()) {
+          // Report the body's sizes as the real network stack would once it had read it.
+          ResponseCompression.onResponseBodyRead(
+              request, entry.getValue(), matchingResponse.responseBody.getBytes().length);
+        }
+      }
       if (request instanceof RespondableStringRequest) {
         ((RespondableStringRequest) request).deliverResponse(matchingResponse.responseBody);
       } else if (request instanceof RespondableByteArrayRequest) {
         ((RespondableByteArrayRequest) request)
             .deliverResponse(matchingResponse.responseBody.getBytes());
+      } else if (request instanceof RespondableFileRequest) {
+        RespondableFileRequest fileRequest = (RespondableFileRequest) request;
+        try {
+          fileRequest.writeBody(
+              matchingResponse.httpStatus,
+              matchingResponse.headers,
+              new ByteArrayInputStream(matchingResponse.responseBody.getBytes()));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        fileRequest.deliverResponse(fileRequest.getTargetFile());
+      } else if (request instanceof RespondableConditionalStringRequest) {
+        NetworkResponse networkResponse = new NetworkResponse(
+            matchingResponse.httpStatus,
+            matchingResponse.responseBody.getBytes(),
+            /* notModified= */ matchingResponse.httpStatus == 304,
+            /* networkTimeMs= */ 0L,
+            matchingResponse.headers);
+        RespondableConditionalStringRequest conditionalRequest =
+            (RespondableConditionalStringRequest) request;
+        conditionalRequest.deliverResponse(
+            conditionalRequest.parseNetworkResponse(networkResponse).result);
       } else if (request instanceof RespondableJsonObjectRequest) {
         // We do some awkward looking back-and-forths here to support testing how
         // RespondableJsonObjectRequest handles non-JSON responses with its own overload of
@@ -156,6 +200,8 @@ public class FakeRequestQueue extends RequestQueueWrapper {
         throw new RuntimeException(FakeRequestQueue.class.getSimpleName()
             + " only works with " + RespondableStringRequest.class.getSimpleName()
             + ", " + RespondableByteArrayRequest.class.getSimpleName()
+            + ", " + RespondableFileRequest.class.getSimpleName()
+            + ", " + RespondableConditionalStringRequest.class.getSimpleName()
             + " and " + RespondableJsonObjectRequest.class.getSimpleName() + ".");
       }
     } else {
@@ -187,6 +233,36 @@ public class FakeRequestQueue extends RequestQueueWrapper {
         new TestResponse(httpStatus, responseBody, ImmutableList.of()));
   }
 
+  /**
+   * Like {@link #addResponse(String, int, String)}, but also with the given response headers.
+   */
+  public void addResponse(
+      String uriRegex, int httpStatus, String responseBody, Map<String, String> headers) {
+    List<Header> headerList = new ArrayList<>();
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      headerList.add(new Header(header.getKey(), header.getValue()));
+    }
+    responses.put(Pattern.compile(uriRegex),
+        new TestResponse(httpStatus, responseBody, headerList));
+  }
+
+  /**
+   * Makes requests matching the given regular expression go unanswered, neither succeeding nor
+   * failing, as if the server never replied.
+   */
+  public void addNoResponse(String uriRegex) {
+    unanswered.add(Pattern.compile(uriRegex));
+  }
+
+  /**
+   * Makes successful responses to requests matching the given regular expression report, like the
+   * real network stack would, that they came over the wire as {@code encodedBytes}. Otherwise the
+   * requests never hear how big their responses were.
+   */
+  public void setEncodedSize(String uriRegex, long encodedBytes) {
+    encodedSizes.put(Pattern.compile(uriRegex), encodedBytes);
+  }
+
   public int numRpcs() {
     return requests.size();
   }
@@ -223,18 +299,4 @@ public class FakeRequestQueue extends RequestQueueWrapper {
       this.headers = headers;
     }
   }
-
-  /**
-   * Simple value class to carry response headers.
-   */
-  private static class Header {
-
-    private final String key;
-    private final String value;
-
-    private Header(String key, String value) {
-      this.key = key;
-      this.value = value;
-    }
-  }
 }
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker.Result;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.logging.FirelogAnalyticsStage;
+import com.google.android.apps.exposurenotification.network.Connectivity;
+import com.google.android.apps.exposurenotification.privateanalytics.SubmitPrivateAnalyticsStage;
+import com.google.android.apps.exposurenotification.roaming.CountryCheckingStage;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationSharedPreferences;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.inject.Inject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+@HiltAndroidTest
+@RunWith(AndroidJUnit4.class)
+@Config(application = HiltTestApplication.class)
+@UninstallModules({RealTimeModule.class})
+public class MaintenanceWorkerTest {
+
+  // The intervals the stages ran at back when each was a periodic job of its own.
+  private static final Duration COUNTRY_CHECKING_INTERVAL = Duration.ofHours(6);
+  private static final Duration FIRELOG_INTERVAL = Duration.ofHours(4).plusMinutes(30);
+  private static final Duration PRIVATE_ANALYTICS_INTERVAL = Duration.ofDays(1);
+  private static final Duration TIMEOUT = Duration.ofSeconds(1);
+  private static final Duration WEEK = Duration.ofDays(7);
+  // How long after an offline wakeup the simulated device gets a connection back.
+  private static final Duration RECONNECT_DELAY = Duration.ofHours(1);
+
+  @Rule
+  public ExposureNotificationRules rules =
+      ExposureNotificationRules.forTest(this).withMocks().build();
+
+  @Mock
+  WorkerParameters workerParameters;
+  @Mock
+  WorkerParameters networkWorkerParameters;
+  @Mock
+  WorkerStartupManager workerStartupManager;
+  @Mock
+  CountryCheckingStage countryCheckingStage;
+  @Mock
+  FirelogAnalyticsStage firelogAnalyticsStage;
+  @Mock
+  SubmitPrivateAnalyticsStage submitPrivateAnalyticsStage;
+  @Mock
+  WorkManager workManager;
+  @Mock
+  Connectivity connectivity;
+
+  @Inject
+  ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
+  @Inject
+  WorkerTelemetry workerTelemetry;
+
+  @BindValue
+  Clock clock = new FakeClock();
+
+  private ScheduledExecutorService scheduledExecutor;
+  // Mirrors WorkManager's state for the one-time job that waits for a connection.
+  private boolean isNetworkJobPending;
+  private int networkJobsEnqueued;
+
+  @Before
+  public void setUp() {
+    rules.hilt().inject();
+    scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+    when(workerStartupManager.getIsEnabledWithStartupTasks(anyString()))
+        .thenReturn(Futures.immediateFuture(true));
+    stubStage(countryCheckingStage, "CountryChecking", COUNTRY_CHECKING_INTERVAL);
+    when(countryCheckingStage.needsNetwork()).thenReturn(false);
+    stubStage(firelogAnalyticsStage, "FirelogAnalytics", FIRELOG_INTERVAL);
+    stubStage(submitPrivateAnalyticsStage, "SubmitPrivateAnalytics", PRIVATE_ANALYTICS_INTERVAL);
+    when(submitPrivateAnalyticsStage.isRetriedOnFailure()).thenReturn(false);
+    when(connectivity.hasInternet()).thenReturn(true);
+    when(networkWorkerParameters.getInputData())
+        .thenReturn(new Data.Builder().putBoolean(MaintenanceWorker.IS_NETWORK_ONLY, true).build());
+    when(workManager.enqueueUniqueWork(
+        eq(MaintenanceWorker.NETWORK_WORKER_NAME), any(), any(OneTimeWorkRequest.class)))
+        .thenAnswer(invocation -> {
+          if (!isNetworkJobPending) {
+            isNetworkJobPending = true;
+            networkJobsEnqueued++;
+          }
+          return null;
+        });
+    when(workManager.cancelUniqueWork(MaintenanceWorker.NETWORK_WORKER_NAME))
+        .thenAnswer(invocation -> {
+          isNetworkJobPending = false;
+          return null;
+        });
+  }
+
+  @After
+  public void tearDown() {
+    scheduledExecutor.shutdownNow();
+  }
+
+  @Test
+  public void simulatedWeek_wakesUpLessOftenThanSeparateJobs_andNoStageRunsLate()
+      throws Exception {
+    List<Instant> countryCheckingRuns = recordRuns(countryCheckingStage);
+    List<Instant> firelogRuns = recordRuns(firelogAnalyticsStage);
+    List<Instant> privateAnalyticsRuns = recordRuns(submitPrivateAnalyticsStage);
+
+    int wakeups = simulateWeek(/* offlineEvery= */ 0);
+
+    // 28 + 37 + 7 = 72 wakeups a week as separate jobs, against 38 for the maintenance job.
+    assertThat(networkJobsEnqueued).isEqualTo(0);
+    assertThat(wakeups).isAtMost(wakeupsPerWeek(MaintenanceWorker.REPEAT_INTERVAL) + 1);
+    assertThat(wakeups).isLessThan(separateJobWakeups() * 2 / 3);
+    assertThat(countryCheckingRuns.size()).isAtLeast(wakeupsPerWeek(COUNTRY_CHECKING_INTERVAL));
+    assertThat(firelogRuns.size()).isAtLeast(wakeupsPerWeek(FIRELOG_INTERVAL));
+    assertThat(privateAnalyticsRuns.size())
+        .isAtLeast(wakeupsPerWeek(PRIVATE_ANALYTICS_INTERVAL));
+    assertThat(privateAnalyticsRuns.size())
+        .isAtMost(wakeupsPerWeek(PRIVATE_ANALYTICS_INTERVAL) + 1);
+    assertThat(longestGap(countryCheckingRuns)).isAtMost(COUNTRY_CHECKING_INTERVAL);
+    assertThat(longestGap(firelogRuns)).isAtMost(FIRELOG_INTERVAL);
+    assertThat(longestGap(privateAnalyticsRuns)).isAtMost(PRIVATE_ANALYTICS_INTERVAL);
+  }
+
+  @Test
+  public void simulatedWeek_oftenOffline_stillWakesUpLessOftenThanSeparateJobs() throws Exception {
+    List<Instant> countryCheckingRuns = recordRuns(countryCheckingStage);
+    List<Instant> firelogRuns = recordRuns(firelogAnalyticsStage);
+    List<Instant> privateAnalyticsRuns = recordRuns(submitPrivateAnalyticsStage);
+
+    int wakeups = simulateWeek(/* offlineEvery= */ 2);
+
+    assertThat(networkJobsEnqueued).isGreaterThan(0);
+    assertThat(wakeups).isLessThan(separateJobWakeups());
+    assertThat(longestGap(countryCheckingRuns)).isAtMost(COUNTRY_CHECKING_INTERVAL);
+    assertThat(longestGap(firelogRuns)).isAtMost(FIRELOG_INTERVAL.plus(RECONNECT_DELAY));
+    assertThat(longestGap(privateAnalyticsRuns))
+        .isAtMost(PRIVATE_ANALYTICS_INTERVAL.plus(RECONNECT_DELAY));
+  }
+
+  @Test
+  public void startWork_runsDueStagesMostOverdueFirst() throws Exception {
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    InOrder inOrder = inOrder(firelogAnalyticsStage, countryCheckingStage,
+        submitPrivateAnalyticsStage);
+    inOrder.verify(firelogAnalyticsStage).run(true);
+    inOrder.verify(countryCheckingStage).run(true);
+    inOrder.verify(submitPrivateAnalyticsStage).run(true);
+    verify(workerStartupManager).getIsEnabledWithStartupTasks(MaintenanceWorker.WORKER_NAME);
+  }
+
+  @Test
+  public void startWork_stageNotDueBeforeNextWakeup_isSkipped() throws Exception {
+    MaintenanceWorker worker = createWorker();
+    worker.startWork().get();
+    fakeClock().advanceBy(MaintenanceWorker.REPEAT_INTERVAL);
+
+    worker.startWork().get();
+
+    verify(countryCheckingStage, times(2)).run(anyBoolean());
+    verify(firelogAnalyticsStage, times(2)).run(anyBoolean());
+    verify(submitPrivateAnalyticsStage, times(1)).run(anyBoolean());
+  }
+
+  @Test
+  public void startWork_stageFails_othersStillRun_andItStaysDue() throws Exception {
+    when(firelogAnalyticsStage.run(anyBoolean()))
+        .thenAnswer(invocation -> Futures.immediateFailedFuture(new Exception("Boom")));
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(countryCheckingStage).run(true);
+    verify(submitPrivateAnalyticsStage).run(true);
+    assertThat(exposureNotificationSharedPreferences
+        .getMaintenanceStageLastRunTime("FirelogAnalytics")).isEqualTo(Instant.EPOCH);
+    assertThat(exposureNotificationSharedPreferences
+        .getMaintenanceStageLastRunTime("CountryChecking")).isEqualTo(clock.now());
+    assertThat(worker.getDueStages(clock.now())).containsExactly(firelogAnalyticsStage);
+  }
+
+  @Test
+  public void startWork_stageOverBudget_isAbandoned_andOthersStillRun() throws Exception {
+    when(firelogAnalyticsStage.getTimeout()).thenReturn(Duration.ofMillis(10));
+    when(firelogAnalyticsStage.run(anyBoolean())).thenAnswer(invocation -> SettableFuture.create());
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(countryCheckingStage).run(true);
+    verify(submitPrivateAnalyticsStage).run(true);
+    assertThat(worker.getDueStages(clock.now())).containsExactly(firelogAnalyticsStage);
+  }
+
+  @Test
+  public void startWork_stageNotRetriedOnFailure_fails_andWaitsOutItsInterval() throws Exception {
+    when(submitPrivateAnalyticsStage.run(anyBoolean()))
+        .thenAnswer(invocation -> Futures.immediateFailedFuture(new Exception("Boom")));
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    assertThat(exposureNotificationSharedPreferences
+        .getMaintenanceStageLastRunTime("SubmitPrivateAnalytics")).isEqualTo(clock.now());
+    assertThat(worker.getDueStages(clock.now())).isEmpty();
+  }
+
+  @Test
+  public void startWork_stageNotRetriedOnFailure_overBudget_waitsOutItsInterval()
+      throws Exception {
+    when(submitPrivateAnalyticsStage.getTimeout()).thenReturn(Duration.ofMillis(10));
+    when(submitPrivateAnalyticsStage.run(anyBoolean()))
+        .thenAnswer(invocation -> SettableFuture.create());
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    assertThat(exposureNotificationSharedPreferences
+        .getMaintenanceStageLastRunTime("SubmitPrivateAnalytics")).isEqualTo(clock.now());
+    assertThat(worker.getDueStages(clock.now())).isEmpty();
+  }
+
+  @Test
+  public void startWork_offline_runsLocalStages_andDefersTheOthersToANetworkJob()
+      throws Exception {
+    when(connectivity.hasInternet()).thenReturn(false);
+    ArgumentCaptor<OneTimeWorkRequest> networkRequest =
+        ArgumentCaptor.forClass(OneTimeWorkRequest.class);
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(countryCheckingStage).run(true);
+    verify(firelogAnalyticsStage, never()).run(anyBoolean());
+    verify(submitPrivateAnalyticsStage, never()).run(anyBoolean());
+    verify(workManager).enqueueUniqueWork(eq(MaintenanceWorker.NETWORK_WORKER_NAME),
+        eq(ExistingWorkPolicy.KEEP), networkRequest.capture());
+    Constraints constraints = networkRequest.getValue().getWorkSpec().constraints;
+    assertThat(constraints.getRequiredNetworkType()).isEqualTo(NetworkType.CONNECTED);
+    assertThat(constraints.requiresBatteryNotLow()).isTrue();
+    assertThat(networkRequest.getValue().getWorkSpec().input
+        .getBoolean(MaintenanceWorker.IS_NETWORK_ONLY, false)).isTrue();
+  }
+
+  @Test
+  public void startWork_networkJob_runsOnlyStagesThatNeedTheNetwork() throws Exception {
+    MaintenanceWorker worker = createWorker(networkWorkerParameters);
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(countryCheckingStage, never()).run(anyBoolean());
+    verify(firelogAnalyticsStage).run(true);
+    verify(submitPrivateAnalyticsStage).run(true);
+    verify(workerStartupManager)
+        .getIsEnabledWithStartupTasks(MaintenanceWorker.NETWORK_WORKER_NAME);
+  }
+
+  @Test
+  public void startWork_online_runsEveryStage_andCancelsAnyPendingNetworkJob() throws Exception {
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(firelogAnalyticsStage).run(true);
+    verify(workManager).cancelUniqueWork(MaintenanceWorker.NETWORK_WORKER_NAME);
+    verify(workManager, never())
+        .enqueueUniqueWork(anyString(), any(), any(OneTimeWorkRequest.class));
+  }
+
+  @Test
+  public void schedule_isUnconstrained() {
+    ArgumentCaptor<PeriodicWorkRequest> request =
+        ArgumentCaptor.forClass(PeriodicWorkRequest.class);
+
+    MaintenanceWorker.schedule(workManager);
+
+    verify(workManager).enqueueUniquePeriodicWork(eq(MaintenanceWorker.WORKER_NAME),
+        eq(ExistingPeriodicWorkPolicy.KEEP), request.capture());
+    assertThat(request.getValue().getWorkSpec().constraints).isEqualTo(Constraints.NONE);
+  }
+
+  @Test
+  public void startWork_unsupportedStage_neverRuns() throws Exception {
+    when(submitPrivateAnalyticsStage.isSupported()).thenReturn(false);
+    MaintenanceWorker worker = createWorker();
+
+    worker.startWork().get();
+
+    verify(submitPrivateAnalyticsStage, never()).run(anyBoolean());
+    verify(countryCheckingStage).run(true);
+  }
+
+  @Test
+  public void startWork_apiDisabled_stagesToldSo() throws Exception {
+    when(workerStartupManager.getIsEnabledWithStartupTasks(anyString()))
+        .thenReturn(Futures.immediateFuture(false));
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.success());
+
+    verify(countryCheckingStage).run(false);
+    verify(firelogAnalyticsStage).run(false);
+    verify(submitPrivateAnalyticsStage).run(false);
+  }
+
+  @Test
+  public void startWork_startupTasksFail_returnsFailure() throws Exception {
+    when(workerStartupManager.getIsEnabledWithStartupTasks(anyString()))
+        .thenReturn(Futures.immediateFailedFuture(new Exception("Boom")));
+    MaintenanceWorker worker = createWorker();
+
+    assertThat(worker.startWork().get()).isEqualTo(Result.failure());
+
+    verify(countryCheckingStage, never()).run(anyBoolean());
+  }
+
+  /**
+   * Steps the periodic job through a week, without a connection on every {@code offlineEvery}th
+   * wakeup if that's positive. A deferred network job runs {@link #RECONNECT_DELAY} later.
+   *
+   * @return the number of times either job woke the device
+   */
+  private int simulateWeek(int offlineEvery) throws Exception {
+    MaintenanceWorker worker = createWorker();
+    MaintenanceWorker networkWorker = createWorker(networkWorkerParameters);
+    int wakeups = 0;
+    int periodicRuns = 0;
+    for (Instant end = clock.now().plus(WEEK); !clock.now().isAfter(end); periodicRuns++) {
+      Instant nextWakeup = clock.now().plus(MaintenanceWorker.REPEAT_INTERVAL);
+      when(connectivity.hasInternet())
+          .thenReturn(offlineEvery <= 0 || periodicRuns % offlineEvery != 0);
+      assertThat(worker.startWork().get()).isEqualTo(Result.success());
+      wakeups++;
+      if (isNetworkJobPending) {
+        fakeClock().advanceBy(RECONNECT_DELAY);
+        isNetworkJobPending = false;
+        assertThat(networkWorker.startWork().get()).isEqualTo(Result.success());
+        wakeups++;
+      }
+      fakeClock().advanceBy(Duration.between(clock.now(), nextWakeup));
+    }
+    return wakeups;
+  }
+
+  private MaintenanceWorker createWorker() {
+    return createWorker(workerParameters);
+  }
+
+  private MaintenanceWorker createWorker(WorkerParameters parameters) {
+    Context context = ApplicationProvider.getApplicationContext();
+    return new MaintenanceWorker(
+        context,
+        parameters,
+        countryCheckingStage,
+        firelogAnalyticsStage,
+        submitPrivateAnalyticsStage,
+        exposureNotificationSharedPreferences,
+        workerStartupManager,
+        clock,
+        MoreExecutors.newDirectExecutorService(),
+        scheduledExecutor,
+        workerTelemetry,
+        workManager,
+        connectivity);
+  }
+
+  private static void stubStage(MaintenanceStage stage, String name, Duration interval) {
+    when(stage.getName()).thenReturn(name);
+    when(stage.getInterval()).thenReturn(interval);
+    when(stage.getTimeout()).thenReturn(TIMEOUT);
+    when(stage.isSupported()).thenReturn(true);
+    when(stage.needsNetwork()).thenReturn(true);
+    when(stage.isRetriedOnFailure()).thenReturn(true);
+    when(stage.run(anyBoolean())).thenAnswer(invocation -> Futures.immediateVoidFuture());
+  }
+
+  private List<Instant> recordRuns(MaintenanceStage stage) {
+    List<Instant> runs = new ArrayList<>();
+    when(stage.run(anyBoolean())).thenAnswer(invocation -> {
+      runs.add(clock.now());
+      return Futures.immediateVoidFuture();
+    });
+    return runs;
+  }
+
+  private static Duration longestGap(List<Instant> runs) {
+    Duration longest = Duration.ZERO;
+    for (int i = 1; i < runs.size(); i++) {
+      Duration gap = Duration.between(runs.get(i - 1), runs.get(i));
+      if (gap.compareTo(longest) > 0) {
+        longest = gap;
+      }
+    }
+    return longest;
+  }
+
+  private static int separateJobWakeups() {
+    return wakeupsPerWeek(COUNTRY_CHECKING_INTERVAL)
+        + wakeupsPerWeek(FIRELOG_INTERVAL)
+        + wakeupsPerWeek(PRIVATE_ANALYTICS_INTERVAL);
+  }
+
+  private static int wakeupsPerWeek(Duration interval) {
+    return (int) (WEEK.toMinutes() / interval.toMinutes());
+  }
+
+  private FakeClock fakeClock() {
+    return (FakeClock) clock;
+  }
+}
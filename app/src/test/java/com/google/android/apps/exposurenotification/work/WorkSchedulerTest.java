@@ -18,26 +18,24 @@
 package com.google.android.apps.exposurenotification.work;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import android.os.Build.VERSION_CODES;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.OneTimeWorkRequest;
 import androidx.work.Operation;
 import androidx.work.WorkManager;
-import com.google.android.apps.exposurenotification.BuildConfig;
 import com.google.android.apps.exposurenotification.common.ExecutorsModule;
 import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
 import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
 import com.google.android.apps.exposurenotification.privateanalytics.PrivateAnalyticsFirebaseModule;
 import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
-import com.google.android.libraries.privateanalytics.DefaultPrivateAnalyticsDeviceAttestation;
 import com.google.android.libraries.privateanalytics.PrivateAnalyticsRemoteConfig;
-import com.google.android.libraries.privateanalytics.PrivateAnalyticsEnabledProvider;
 import com.google.android.libraries.privateanalytics.RemoteConfigs;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -58,7 +56,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.robolectric.annotation.Config;
-import org.threeten.bp.Duration;
 
 @RunWith(AndroidJUnit4.class)
 @HiltAndroidTest
@@ -69,8 +66,6 @@ import org.threeten.bp.Duration;
 })
 public class WorkSchedulerTest {
 
-  private static final Duration TEK_PUBLISH_INTERVAL = Duration.ofHours(4);
-
   @Rule
   public ExposureNotificationRules rules =
       ExposureNotificationRules.forTest(this).withMocks().build();
@@ -78,9 +73,6 @@ public class WorkSchedulerTest {
   @Mock
   WorkManager workManager;
 
-  @Mock
-  PrivateAnalyticsEnabledProvider privateAnalyticsEnabledProvider;
-
   @Mock
   PrivateAnalyticsRemoteConfig privateAnalyticsRemoteConfig;
 
@@ -124,43 +116,43 @@ public class WorkSchedulerTest {
     FirebaseApp.initializeApp(ApplicationProvider.getApplicationContext());
     rules.hilt().inject();
     workScheduler = new WorkScheduler(workManager, MoreExecutors.newDirectExecutorService(),
-        TEK_PUBLISH_INTERVAL, privateAnalyticsEnabledProvider, privateAnalyticsRemoteConfig);
+        privateAnalyticsRemoteConfig);
     when(privateAnalyticsRemoteConfig.fetchUpdatedConfigs()).thenReturn(Futures.immediateFuture(
         RemoteConfigs.newBuilder().build()));
-    when(privateAnalyticsEnabledProvider.isSupportedByApp())
-        .thenReturn(BuildConfig.PRIVATE_ANALYTICS_SUPPORTED);
   }
 
   @Test
   public void schedule_callsEnqueue() {
     Operation operation = mock(Operation.class);
     when(operation.getResult()).thenReturn(
-        Futures.immediateFuture(Operation.SUCCESS),
         Futures.immediateFuture(Operation.SUCCESS),
         Futures.immediateFailedFuture(new Exception()),
         Futures.immediateFuture(Operation.SUCCESS));
+    when(workManager.enqueueUniqueWork(anyString(), any(), any(OneTimeWorkRequest.class)))
+        .thenReturn(operation);
     when(workManager.enqueueUniquePeriodicWork(any(), any(), any())).thenReturn(operation);
 
     workScheduler.schedule();
 
-    int expectedWork = BuildConfig.PRIVATE_ANALYTICS_SUPPORTED &&
-        DefaultPrivateAnalyticsDeviceAttestation.isDeviceAttestationAvailable() ? 5 : 4;
-    verify(workManager, times(expectedWork)).enqueueUniquePeriodicWork(any(), any(), any());
+    // Cover traffic and diagnosis keys are one-time work that schedules its own next run.
+    verify(workManager, times(2))
+        .enqueueUniqueWork(anyString(), any(), any(OneTimeWorkRequest.class));
+    // Maintenance and the diagnosis keys safety net.
+    verify(workManager, times(2)).enqueueUniquePeriodicWork(any(), any(), any());
   }
 
   @Test
-  @Config(maxSdk = VERSION_CODES.M)
-  public void schedule_callsEnqueue_EnpaNotScheduledSdk23() {
+  public void schedule_cancelsJobsFoldedIntoMaintenance() {
     Operation operation = mock(Operation.class);
-    when(operation.getResult()).thenReturn(
-        Futures.immediateFuture(Operation.SUCCESS),
-        Futures.immediateFuture(Operation.SUCCESS),
-        Futures.immediateFailedFuture(new Exception()),
-        Futures.immediateFuture(Operation.SUCCESS));
+    when(operation.getResult()).thenReturn(Futures.immediateFuture(Operation.SUCCESS));
+    when(workManager.enqueueUniqueWork(anyString(), any(), any(OneTimeWorkRequest.class)))
+        .thenReturn(operation);
     when(workManager.enqueueUniquePeriodicWork(any(), any(), any())).thenReturn(operation);
 
     workScheduler.schedule();
 
-    verify(workManager, times(4)).enqueueUniquePeriodicWork(any(), any(), any());
+    verify(workManager).cancelUniqueWork("CountryCheckingWorker");
+    verify(workManager).cancelUniqueWork("FirelogAnalyticsUploadWorker");
+    verify(workManager).cancelUniqueWork("SubmitPrivateAnalyticsWorker");
   }
 }
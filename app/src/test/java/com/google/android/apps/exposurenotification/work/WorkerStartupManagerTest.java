@@ -17,16 +17,21 @@
 
 package com.google.android.apps.exposurenotification.work;
 
+import static com.google.android.apps.exposurenotification.work.WorkerStartupManager.CLEANUP_INTERVAL;
+import static com.google.android.apps.exposurenotification.work.WorkerStartupManager.STARTUP_STATE_TTL;
 import static com.google.android.apps.exposurenotification.work.WorkerStartupManager.VERIFICATION_CODE_REQUEST_MAX_AGE;
 import static com.google.android.apps.exposurenotification.work.WorkerStartupManager.EXPOSURE_CHECK_MAX_AGE;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.os.Bundle;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.apps.exposurenotification.common.time.Clock;
 import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileJanitor;
 import com.google.android.apps.exposurenotification.nearby.ExposureNotificationClientWrapper;
 import com.google.android.apps.exposurenotification.nearby.PackageConfigurationHelper;
 import com.google.android.apps.exposurenotification.storage.DbModule;
@@ -41,8 +46,10 @@ import com.google.android.apps.exposurenotification.testsupport.FakeClock;
 import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
 import com.google.android.gms.nearby.exposurenotification.PackageConfiguration;
 import com.google.android.gms.nearby.exposurenotification.PackageConfiguration.PackageConfigurationBuilder;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.testing.TestingExecutors;
 import dagger.hilt.android.testing.BindValue;
@@ -80,6 +87,8 @@ public class WorkerStartupManagerTest {
   @Inject
   VerificationCodeRequestRepository verificationCodeRequestRepository;
   @Inject
+  KeyFileJanitor keyFileJanitor;
+  @Inject
   ExposureNotificationSharedPreferences exposureNotificationSharedPreferences;
 
   @Mock
@@ -111,6 +120,7 @@ public class WorkerStartupManagerTest {
         packageConfigurationHelper,
         exposureCheckRepository,
         verificationCodeRequestRepository,
+        keyFileJanitor,
         clock
     );
   }
@@ -197,6 +207,142 @@ public class WorkerStartupManagerTest {
     assertThat(exposureNotificationSharedPreferences.isPlaySmsNoticeSeen()).isTrue();
   }
 
+  @Test
+  public void getIsEnabledWithStartupTasks_concurrentCallers_shareOneCheck() throws Exception {
+    TaskCompletionSource<Boolean> isEnabled = new TaskCompletionSource<>();
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(isEnabled.getTask());
+    when(exposureNotificationClientWrapper.getPackageConfiguration())
+        .thenReturn(Tasks.forResult(new PackageConfigurationBuilder().build()));
+
+    ListenableFuture<Boolean> first = workerStartupManager.getIsEnabledWithStartupTasks("first");
+    ListenableFuture<Boolean> second = workerStartupManager.getIsEnabledWithStartupTasks("second");
+    isEnabled.setResult(true);
+
+    assertThat(first.get()).isTrue();
+    assertThat(second.get()).isTrue();
+    verify(exposureNotificationClientWrapper, times(1)).isEnabled();
+    verify(exposureNotificationClientWrapper, times(1)).getPackageConfiguration();
+    assertThat(workerStartupManager.getMissCount("first")).isEqualTo(1);
+    assertThat(workerStartupManager.getHitCount("first")).isEqualTo(0);
+    assertThat(workerStartupManager.getMissCount("second")).isEqualTo(0);
+    assertThat(workerStartupManager.getHitCount("second")).isEqualTo(1);
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_oneCallerCancels_othersStillGetResult()
+      throws Exception {
+    TaskCompletionSource<Boolean> isEnabled = new TaskCompletionSource<>();
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(isEnabled.getTask());
+
+    ListenableFuture<Boolean> cancelled = workerStartupManager.getIsEnabledWithStartupTasks("a");
+    ListenableFuture<Boolean> other = workerStartupManager.getIsEnabledWithStartupTasks("b");
+    cancelled.cancel(true);
+    isEnabled.setResult(false);
+
+    assertThat(other.get()).isFalse();
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_withinTtl_reusesResult() throws Exception {
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(Tasks.forResult(true));
+    when(exposureNotificationClientWrapper.getPackageConfiguration())
+        .thenReturn(Tasks.forResult(new PackageConfigurationBuilder().build()));
+
+    workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+    fakeClock().advanceBy(STARTUP_STATE_TTL.minusSeconds(1));
+    boolean isEnabledWithStartupTasks =
+        workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+
+    assertThat(isEnabledWithStartupTasks).isTrue();
+    verify(exposureNotificationClientWrapper, times(1)).isEnabled();
+    verify(exposureNotificationClientWrapper, times(1)).getPackageConfiguration();
+    assertThat(workerStartupManager.getMissCount("worker")).isEqualTo(1);
+    assertThat(workerStartupManager.getHitCount("worker")).isEqualTo(1);
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_afterTtl_checksAgain() throws Exception {
+    when(exposureNotificationClientWrapper.isEnabled())
+        .thenReturn(Tasks.forResult(true), Tasks.forResult(false));
+    when(exposureNotificationClientWrapper.getPackageConfiguration())
+        .thenReturn(Tasks.forResult(new PackageConfigurationBuilder().build()));
+
+    workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+    fakeClock().advanceBy(STARTUP_STATE_TTL);
+    boolean isEnabledWithStartupTasks =
+        workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+
+    // The user turned the API off in the meantime.
+    assertThat(isEnabledWithStartupTasks).isFalse();
+    verify(exposureNotificationClientWrapper, times(2)).isEnabled();
+    assertThat(workerStartupManager.getMissCount("worker")).isEqualTo(2);
+    assertThat(workerStartupManager.getHitCount("worker")).isEqualTo(0);
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_afterEnStateChanged_checksAgainWithinTtl()
+      throws Exception {
+    when(exposureNotificationClientWrapper.isEnabled())
+        .thenReturn(Tasks.forResult(true), Tasks.forResult(false));
+    when(exposureNotificationClientWrapper.getPackageConfiguration())
+        .thenReturn(Tasks.forResult(new PackageConfigurationBuilder().build()));
+
+    workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+    workerStartupManager.onEnStateChanged();
+    boolean isEnabledWithStartupTasks =
+        workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+
+    assertThat(isEnabledWithStartupTasks).isFalse();
+    verify(exposureNotificationClientWrapper, times(2)).isEnabled();
+    assertThat(workerStartupManager.getMissCount("worker")).isEqualTo(2);
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_failedCheck_notReused() throws Exception {
+    when(exposureNotificationClientWrapper.isEnabled())
+        .thenReturn(Tasks.forException(new Exception()), Tasks.forResult(false));
+
+    assertThrows(ExecutionException.class,
+        () -> workerStartupManager.getIsEnabledWithStartupTasks("worker").get());
+    boolean isEnabledWithStartupTasks =
+        workerStartupManager.getIsEnabledWithStartupTasks("worker").get();
+
+    assertThat(isEnabledWithStartupTasks).isFalse();
+    verify(exposureNotificationClientWrapper, times(2)).isEnabled();
+  }
+
+  @Test
+  public void getIsEnabledWithStartupTasks_cleansUpAtMostOncePerInterval() throws Exception {
+    when(exposureNotificationClientWrapper.isEnabled()).thenReturn(Tasks.forResult(false));
+    workerStartupManager.getIsEnabledWithStartupTasks().get();
+    // Another exposure check goes out of date after the first clean-up.
+    ExposureCheckEntity obsolete = ExposureCheckEntity.create(
+        clock.now().minus(EXPOSURE_CHECK_MAX_AGE).minus(Duration.ofDays(1)));
+    exposureCheckRepository.insertExposureCheck(obsolete);
+
+    // A new check, past the TTL but within the clean-up interval, leaves it alone.
+    fakeClock().advanceBy(STARTUP_STATE_TTL);
+    workerStartupManager.getIsEnabledWithStartupTasks().get();
+    assertThat(getStoredExposureChecks()).contains(obsolete);
+
+    // Once the clean-up interval is up, it's deleted.
+    fakeClock().advanceBy(CLEANUP_INTERVAL);
+    workerStartupManager.getIsEnabledWithStartupTasks().get();
+    assertThat(getStoredExposureChecks()).doesNotContain(obsolete);
+  }
+
+  private FakeClock fakeClock() {
+    return (FakeClock) clock;
+  }
+
+  private List<ExposureCheckEntity> getStoredExposureChecks() {
+    List<ExposureCheckEntity> storedExposureChecks = new ArrayList<>();
+    exposureCheckRepository
+        .getLastXExposureChecksLiveData(10)
+        .observeForever(storedExposureChecks::addAll);
+    return storedExposureChecks;
+  }
+
   private void assertThatObsoleteExposureChecksDeleted() {
     List<ExposureCheckEntity> exposureChecks = getExposureCheckEntities();
     // We expect only those exposure checks, which are not obsolete i.e. captured later than
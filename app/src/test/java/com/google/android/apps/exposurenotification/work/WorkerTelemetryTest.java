@@ -0,0 +1,257 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.work;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.ListenableWorker.Result;
+import com.google.android.apps.exposurenotification.common.ExecutorsModule;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.ScheduledExecutor;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.common.time.RealTimeModule;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.RunSummary;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Stage;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.StageTime;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.Status;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.StatusCount;
+import com.google.android.apps.exposurenotification.proto.WorkManagerTask.WorkerTask;
+import com.google.android.apps.exposurenotification.storage.DbModule;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.storage.WorkerRunEntity;
+import com.google.android.apps.exposurenotification.storage.WorkerRunRepository;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.FakeClock;
+import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.testing.TestingExecutors;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import javax.inject.Inject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * Tests for {@link WorkerTelemetry} and the {@link WorkerRun}s it records.
+ */
+@RunWith(AndroidJUnit4.class)
+@HiltAndroidTest
+@Config(application = HiltTestApplication.class)
+@UninstallModules({DbModule.class, ExecutorsModule.class, RealTimeModule.class})
+public class WorkerTelemetryTest {
+
+  @Rule
+  public ExposureNotificationRules rules = ExposureNotificationRules.forTest(this).build();
+
+  @BindValue
+  ExposureNotificationDatabase db = InMemoryDb.create();
+  @BindValue
+  Clock clock = new FakeClock();
+
+  // Having uninstalled some modules above (@UninstallModules), we need to provide everything they
+  // would have, even if the code under test here doesn't use them.
+  @BindValue
+  @BackgroundExecutor
+  static final ExecutorService BACKGROUND_EXEC = MoreExecutors.newDirectExecutorService();
+  @BindValue
+  @LightweightExecutor
+  static final ExecutorService LIGHTWEIGHT_EXEC = MoreExecutors.newDirectExecutorService();
+  @BindValue
+  @ScheduledExecutor
+  static final ScheduledExecutorService SCHEDULED_EXEC =
+      TestingExecutors.sameThreadScheduledExecutor();
+  @BindValue
+  @BackgroundExecutor
+  static final ListeningExecutorService BACKGROUND_LISTENING_EXEC =
+      MoreExecutors.newDirectExecutorService();
+  @BindValue
+  @LightweightExecutor
+  static final ListeningExecutorService LIGHTWEIGHT_LISTENING_EXEC =
+      MoreExecutors.newDirectExecutorService();
+  @BindValue
+  @ScheduledExecutor
+  static final ListeningScheduledExecutorService SCHEDULED_LISTENING_EXEC =
+      TestingExecutors.sameThreadScheduledExecutor();
+
+  @Inject
+  WorkerTelemetry workerTelemetry;
+  @Inject
+  WorkerRunRepository workerRunRepository;
+
+  private FakeClock fakeClock;
+
+  @Before
+  public void setUp() {
+    rules.hilt().inject();
+    fakeClock = (FakeClock) clock;
+  }
+
+  @Test
+  public void finish_success_recordsWallTimeAndStages() {
+    Instant start = clock.now();
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+    SettableFuture<Void> download = SettableFuture.create();
+    run.time(Stage.STAGE_DOWNLOAD, download);
+    fakeClock.advanceBy(Duration.ofMillis(300));
+    download.set(null);
+    run.timeBlocking(Stage.STAGE_DB, () -> fakeClock.advanceBy(Duration.ofMillis(20)));
+    run.timeBlocking(Stage.STAGE_DB, () -> fakeClock.advanceBy(Duration.ofMillis(30)));
+    fakeClock.advanceBy(Duration.ofMillis(50));
+
+    run.finish(Futures.immediateFuture(Result.success()));
+
+    WorkerRunEntity recorded = Iterables.getOnlyElement(workerRunRepository.getAfter(0));
+    assertThat(recorded.getWorkerTask()).isEqualTo(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+    assertThat(recorded.getStatus()).isEqualTo(Status.STATUS_SUCCESS);
+    assertThat(recorded.getStartTime()).isEqualTo(start);
+    assertThat(recorded.getWallTimeMillis()).isEqualTo(400L);
+    assertThat(recorded.getStageMillis(Stage.STAGE_DOWNLOAD)).isEqualTo(300L);
+    assertThat(recorded.getStageMillis(Stage.STAGE_DB)).isEqualTo(50L);
+    assertThat(recorded.getStageMillis(Stage.STAGE_SUBMIT)).isNull();
+  }
+
+  @Test
+  public void finish_recordsOnlyOnceTheWorkIsDone() {
+    WorkerRun run = workerTelemetry.startRun(WorkerTask.TASK_UPLOAD_OUTBOX);
+    SettableFuture<Result> work = SettableFuture.create();
+
+    run.finish(work);
+    assertThat(workerRunRepository.getAfter(0)).isEmpty();
+
+    work.set(Result.success());
+    assertThat(workerRunRepository.getAfter(0)).hasSize(1);
+  }
+
+  @Test
+  public void finish_recordsHowTheRunEnded() {
+    workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED)
+        .finish(Futures.immediateFuture(Result.failure()));
+    workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED)
+        .finish(Futures.immediateFuture(Result.retry()));
+    workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED)
+        .finish(Futures.immediateFailedFuture(new RuntimeException()));
+    workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED)
+        .finish(Futures.immediateFailedFuture(new TimeoutException()));
+    workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED)
+        .finish(Futures.immediateCancelledFuture());
+    WorkerRun abandoned = workerTelemetry.startRun(WorkerTask.TASK_STATE_UPDATED);
+    abandoned.markAbandoned();
+    abandoned.finish(Futures.immediateFuture(Result.success()));
+
+    List<Status> statuses = ImmutableList.copyOf(
+        Iterables.transform(workerRunRepository.getAfter(0), WorkerRunEntity::getStatus));
+    assertThat(statuses).containsExactly(
+        Status.STATUS_FAIL,
+        Status.STATUS_RETRY,
+        Status.STATUS_FAIL,
+        Status.STATUS_TIMEOUT,
+        Status.STATUS_STOPPED,
+        Status.STATUS_ABANDONED).inOrder();
+  }
+
+  @Test
+  public void insert_keepsOnlyTheNewestRuns() {
+    for (int i = 0; i < WorkerRunRepository.MAX_RUNS + 5; i++) {
+      workerRunRepository.insert(run(WorkerTask.TASK_MAINTENANCE, Duration.ofMillis(i),
+          Status.STATUS_SUCCESS));
+    }
+
+    List<WorkerRunEntity> runs = workerRunRepository.getAfter(0);
+    assertThat(runs).hasSize(WorkerRunRepository.MAX_RUNS);
+    assertThat(runs.get(0).getWallTimeMillis()).isEqualTo(5L);
+  }
+
+  @Test
+  public void summarize_groupsByTask() {
+    ImmutableList<WorkManagerTask> summaries = WorkerTelemetry.summarize(ImmutableList.of(
+        run(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, Duration.ofSeconds(2), Status.STATUS_SUCCESS),
+        run(WorkerTask.TASK_UPLOAD_OUTBOX, Duration.ofSeconds(1), Status.STATUS_SUCCESS),
+        run(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, Duration.ofSeconds(4), Status.STATUS_FAIL)));
+
+    assertThat(summaries).hasSize(2);
+    WorkManagerTask provide = summaries.get(0);
+    assertThat(provide.getWorkerTask()).isEqualTo(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS);
+    assertThat(provide.getCount()).isEqualTo(2);
+    RunSummary summary = provide.getRunSummary();
+    assertThat(summary.getRunCount()).isEqualTo(2);
+    assertThat(summary.getMeanWallTimeMs()).isEqualTo(3000);
+    assertThat(summary.getWallTimeBucketCount(1)).isEqualTo(2);
+    assertThat(summary.getStatusCountList()).containsExactly(
+        StatusCount.newBuilder().setStatus(Status.STATUS_SUCCESS).setCount(1).build(),
+        StatusCount.newBuilder().setStatus(Status.STATUS_FAIL).setCount(1).build());
+    assertThat(summaries.get(1).getWorkerTask()).isEqualTo(WorkerTask.TASK_UPLOAD_OUTBOX);
+  }
+
+  @Test
+  public void summarize_stageTimes_onlyCountRunsThatReachedTheStage() {
+    WorkerRunEntity slow = run(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, Duration.ofSeconds(10),
+        Status.STATUS_SUCCESS).toBuilder().setStageMillis(Stage.STAGE_DOWNLOAD, 9000).build();
+    WorkerRunEntity fast = run(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, Duration.ofSeconds(2),
+        Status.STATUS_SUCCESS).toBuilder().setStageMillis(Stage.STAGE_DOWNLOAD, 1000).build();
+    WorkerRunEntity abandoned = run(WorkerTask.TASK_PROVIDE_DIAGNOSIS_KEYS, Duration.ZERO,
+        Status.STATUS_ABANDONED);
+
+    RunSummary summary = Iterables.getOnlyElement(
+        WorkerTelemetry.summarize(ImmutableList.of(slow, fast, abandoned))).getRunSummary();
+
+    assertThat(summary.getStageTimeList()).containsExactly(StageTime.newBuilder()
+        .setStage(Stage.STAGE_DOWNLOAD)
+        .setRunCount(2)
+        .setMeanMs(5000)
+        .setMaxMs(9000)
+        .build());
+  }
+
+  @Test
+  public void wallTimeBucketOf_boundsAreInclusive_andSlowRunsGoInTheLastBucket() {
+    assertThat(WorkerTelemetry.wallTimeBucketOf(Duration.ZERO)).isEqualTo(0);
+    assertThat(WorkerTelemetry.wallTimeBucketOf(Duration.ofSeconds(1))).isEqualTo(0);
+    assertThat(WorkerTelemetry.wallTimeBucketOf(Duration.ofMillis(1001))).isEqualTo(1);
+    assertThat(WorkerTelemetry.wallTimeBucketOf(Duration.ofHours(1)))
+        .isEqualTo(WorkerTelemetry.WALL_TIME_BUCKET_UPPER_BOUNDS.size());
+  }
+
+  private WorkerRunEntity run(WorkerTask workerTask, Duration wallTime, Status status) {
+    return WorkerRunEntity.newBuilder()
+        .setWorkerTask(workerTask)
+        .setStartTime(clock.now())
+        .setWallTimeMillis(wallTime.toMillis())
+        .setStatus(status)
+        .build();
+  }
+}
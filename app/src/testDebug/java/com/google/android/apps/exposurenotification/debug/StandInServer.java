@@ -0,0 +1,306 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.debug;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.apps.exposurenotification.keydownload.DownloadUriPair;
+import com.google.android.apps.exposurenotification.keyupload.ApiConstants.UploadV1;
+import com.google.android.apps.exposurenotification.keyupload.ApiConstants.VerifyV1;
+import com.google.android.gms.nearby.exposurenotification.TemporaryExposureKey;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+/**
+ * A stand-in for the keyserver and the verification server, listening on the loopback interface,
+ * so that tests can drive the real HTTP stack end to end with no outside network.
+ *
+ * <p>Serves an index and as many keyfiles as asked for, each holding as many keys as asked for.
+ * The keyfiles are written by {@link KeyFileWriter} and signed by a {@link KeyFileSigner} with a
+ * keypair generated here, whose public key is available from {@link #publicKey()}. Also answers
+ * the verify, certificate, user-report and publish calls the way the real servers do when
+ * everything goes well.
+ *
+ * <p>Things can be made to go less well: every response can be delayed with {@link
+ * #setLatency(Duration)}, and any path can be made to fail its next few requests with a {@link
+ * Fault}.
+ */
+public final class StandInServer {
+
+  public static final String INDEX_PATH = "/index.txt";
+  public static final String VERIFY_PATH = "/api/verify";
+  public static final String CERTIFICATE_PATH = "/api/certificate";
+  public static final String USER_REPORT_PATH = "/api/user-report";
+  public static final String PUBLISH_PATH = "/v1/publish";
+  private static final String KEYFILE_DIR = "keys/";
+  private static final String REGION = "US";
+  private static final int KEY_LENGTH_BYTES = 16;
+  private static final int ROLLING_PERIOD = 144;
+  private static final Joiner NEWLINE_JOINER = Joiner.on("\n");
+
+  /**
+   * The ways a request can be made to fail.
+   */
+  public enum Fault {
+    /** A 429, asking the client to retry straight away. */
+    RATE_LIMITED,
+    /** A 503. */
+    SERVER_ERROR,
+    /** The usual response, but the connection drops halfway through its body. */
+    TRUNCATED_BODY
+  }
+
+  private final MockWebServer server = new MockWebServer();
+  private final KeyPair keyPair;
+  // Keyfile zips by path, in the order they're listed in the index.
+  private final Map<String, byte[]> keyFiles = new LinkedHashMap<>();
+  private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+  private final AtomicInteger revisions = new AtomicInteger();
+  // Guarded by this.
+  private final Map<String, Deque<Fault>> faults = new HashMap<>();
+  private volatile long latencyMs = 0;
+
+  private StandInServer(KeyPair keyPair) {
+    this.keyPair = keyPair;
+  }
+
+  /**
+   * Generates {@code numFiles} signed keyfiles of {@code keysPerFile} random keys each, and starts
+   * serving them along with the verification and publish endpoints.
+   */
+  public static StandInServer start(Context context, int numFiles, int keysPerFile)
+      throws IOException, GeneralSecurityException {
+    KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+    keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+    StandInServer standIn = new StandInServer(keyGen.generateKeyPair());
+    standIn.writeKeyFiles(context, numFiles, keysPerFile);
+    standIn.server.setDispatcher(standIn.new Handler());
+    standIn.server.start();
+    return standIn;
+  }
+
+  public void shutdown() throws IOException {
+    server.shutdown();
+  }
+
+  /**
+   * Holds back the headers of every response for the given time.
+   */
+  public void setLatency(Duration latency) {
+    latencyMs = latency.toMillis();
+  }
+
+  /**
+   * Makes the next {@code times} requests to the given path fail with the given fault. Faults
+   * injected for the same path are used up in the order they were injected.
+   */
+  public synchronized void injectFault(String path, Fault fault, int times) {
+    Deque<Fault> pending = faults.get(path);
+    if (pending == null) {
+      pending = new ArrayDeque<>();
+      faults.put(path, pending);
+    }
+    for (int i = 0; i < times; i++) {
+      pending.add(fault);
+    }
+  }
+
+  /**
+   * The public key which verifies the signatures of the keyfiles served.
+   */
+  public PublicKey publicKey() {
+    return keyPair.getPublic();
+  }
+
+  /**
+   * The paths of the keyfiles served, in the order they're listed in the index.
+   */
+  public ImmutableList<String> keyFilePaths() {
+    ImmutableList.Builder<String> paths = ImmutableList.builder();
+    for (String file : keyFiles.keySet()) {
+      paths.add("/" + file);
+    }
+    return paths.build();
+  }
+
+  /**
+   * The total size in bytes of the keyfiles served.
+   */
+  public long keyFileBytes() {
+    long total = 0;
+    for (byte[] file : keyFiles.values()) {
+      total += file.length;
+    }
+    return total;
+  }
+
+  /**
+   * The number of requests received for the given path, including those made to fail.
+   */
+  public int requestCount(String path) {
+    AtomicInteger count = requestCounts.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  public DownloadUriPair downloadUriPair() {
+    return DownloadUriPair.create(
+        server.url(INDEX_PATH).toString(), server.url("/").toString());
+  }
+
+  public Uri uri(String path) {
+    return Uri.parse(server.url(path).toString());
+  }
+
+  private void writeKeyFiles(Context context, int numFiles, int keysPerFile) throws IOException {
+    SecureRandom random = new SecureRandom();
+    Instant end = Instant.now();
+    Instant start = end.minus(Duration.ofDays(14));
+    int intervalNumber = (int) (start.getEpochSecond() / Duration.ofMinutes(10).getSeconds());
+    List<TemporaryExposureKey> keys = new ArrayList<>();
+    for (int i = 0; i < numFiles * keysPerFile; i++) {
+      byte[] keyData = new byte[KEY_LENGTH_BYTES];
+      random.nextBytes(keyData);
+      keys.add(new TemporaryExposureKey.TemporaryExposureKeyBuilder()
+          .setKeyData(keyData)
+          .setRollingStartIntervalNumber(intervalNumber + (i % 14) * ROLLING_PERIOD)
+          .setRollingPeriod(ROLLING_PERIOD)
+          .setTransmissionRiskLevel(1)
+          .build());
+    }
+    KeyFileWriter writer = new KeyFileWriter(context, KeyFileSigner.withKeyPair(keyPair));
+    for (File file : writer.writeForKeys(keys, start, end, REGION, keysPerFile)) {
+      keyFiles.put(KEYFILE_DIR + file.getName(), Files.toByteArray(file));
+      file.delete();
+    }
+  }
+
+  @Nullable
+  private synchronized Fault nextFault(String path) {
+    Deque<Fault> pending = faults.get(path);
+    return pending == null ? null : pending.poll();
+  }
+
+  private final class Handler extends Dispatcher {
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String path = request.getPath();
+      AtomicInteger count = requestCounts.putIfAbsent(path, new AtomicInteger(1));
+      if (count != null) {
+        count.incrementAndGet();
+      }
+
+      MockResponse response;
+      try {
+        response = respond(path, request);
+      } catch (JSONException e) {
+        response = new MockResponse().setResponseCode(400);
+      }
+      Fault fault = nextFault(path);
+      if (fault != null) {
+        response = withFault(response, fault);
+      }
+      return response.setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    private MockResponse respond(String path, RecordedRequest request) throws JSONException {
+      if (INDEX_PATH.equals(path)) {
+        return new MockResponse().setBody(NEWLINE_JOINER.join(keyFiles.keySet()));
+      }
+      byte[] keyFile = keyFiles.get(path.substring(1));
+      if (keyFile != null) {
+        return new MockResponse()
+            .setHeader("Content-Type", "application/zip")
+            .setBody(new Buffer().write(keyFile));
+      }
+      switch (path) {
+        case VERIFY_PATH:
+          JSONObject code = new JSONObject(request.getBody().readUtf8());
+          String token = "token-" + code.getString(VerifyV1.VERIFICATION_CODE);
+          return json(new JSONObject()
+              .put(VerifyV1.VERIFICATION_TOKEN, token)
+              .put(VerifyV1.TEST_TYPE, "confirmed"));
+        case CERTIFICATE_PATH:
+          JSONObject cert = new JSONObject(request.getBody().readUtf8());
+          return json(new JSONObject()
+              .put(VerifyV1.CERT, "cert-" + cert.getString(VerifyV1.VERIFICATION_TOKEN)));
+        case USER_REPORT_PATH:
+          Instant expiry = Instant.now().plus(Duration.ofDays(1));
+          return json(new JSONObject()
+              .put(VerifyV1.EXPIRY_STR, expiry.toString())
+              .put(VerifyV1.EXPIRY_TIMESTAMP, expiry.getEpochSecond()));
+        case PUBLISH_PATH:
+          JSONObject publish = new JSONObject(request.getBody().readUtf8());
+          return json(new JSONObject()
+              .put(UploadV1.REVISION_TOKEN, "revision-" + revisions.incrementAndGet())
+              .put(UploadV1.NUM_INSERTED_EXPOSURES,
+                  publish.getJSONArray(UploadV1.KEYS).length()));
+        default:
+          return new MockResponse().setResponseCode(404);
+      }
+    }
+
+    private MockResponse json(JSONObject body) {
+      return new MockResponse()
+          .setHeader("Content-Type", "application/json")
+          .setBody(body.toString());
+    }
+
+    private MockResponse withFault(MockResponse response, Fault fault) {
+      switch (fault) {
+        case RATE_LIMITED:
+          return new MockResponse().setResponseCode(429).setHeader("Retry-After", "0");
+        case SERVER_ERROR:
+          return new MockResponse().setResponseCode(503);
+        case TRUNCATED_BODY:
+        default:
+          return response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+      }
+    }
+  }
+}
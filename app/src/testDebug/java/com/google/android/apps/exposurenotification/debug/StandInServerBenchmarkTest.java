@@ -0,0 +1,319 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.android.apps.exposurenotification.debug;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.google.android.apps.exposurenotification.common.Qualifiers.BackgroundExecutor;
+import com.google.android.apps.exposurenotification.common.Qualifiers.LightweightExecutor;
+import com.google.android.apps.exposurenotification.common.SecureRandomUtil;
+import com.google.android.apps.exposurenotification.common.logging.Logger;
+import com.google.android.apps.exposurenotification.common.time.Clock;
+import com.google.android.apps.exposurenotification.debug.StandInServer.Fault;
+import com.google.android.apps.exposurenotification.keydownload.DiagnosisKeyDownloader;
+import com.google.android.apps.exposurenotification.keydownload.DownloadUriPair;
+import com.google.android.apps.exposurenotification.keydownload.DownloadUrisModule;
+import com.google.android.apps.exposurenotification.keydownload.KeyFile;
+import com.google.android.apps.exposurenotification.keydownload.KeyFileVerificationModule;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.HomeDownloadUriPair;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.KeyFileVerificationKey;
+import com.google.android.apps.exposurenotification.keydownload.Qualifiers.TravellerDownloadUriPairs;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.UploadUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationCertUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationCodeUri;
+import com.google.android.apps.exposurenotification.keyupload.Qualifiers.VerificationUserReportUri;
+import com.google.android.apps.exposurenotification.keyupload.Upload;
+import com.google.android.apps.exposurenotification.keyupload.UploadController;
+import com.google.android.apps.exposurenotification.keyupload.UploadController.UploadException;
+import com.google.android.apps.exposurenotification.keyupload.UploadUrisModule;
+import com.google.android.apps.exposurenotification.network.CircuitBreakers;
+import com.google.android.apps.exposurenotification.network.Connectivity;
+import com.google.android.apps.exposurenotification.network.CustomRetryPolicy;
+import com.google.android.apps.exposurenotification.network.DiagnosisKey;
+import com.google.android.apps.exposurenotification.network.NetworkMetrics;
+import com.google.android.apps.exposurenotification.network.RealRequestQueueModule;
+import com.google.android.apps.exposurenotification.network.RequestQueueWrapper;
+import com.google.android.apps.exposurenotification.storage.DbModule;
+import com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase;
+import com.google.android.apps.exposurenotification.testsupport.ExposureNotificationRules;
+import com.google.android.apps.exposurenotification.testsupport.InMemoryDb;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import dagger.Module;
+import dagger.Provides;
+import dagger.hilt.InstallIn;
+import dagger.hilt.android.testing.BindValue;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import dagger.hilt.components.SingletonComponent;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.annotation.Config;
+import org.threeten.bp.Duration;
+
+/**
+ * End-to-end benchmarks of {@link DiagnosisKeyDownloader} and {@link UploadController}, running
+ * the real request queue and HTTP stack against a {@link StandInServer} on the loopback interface.
+ *
+ * <p>Timings are logged rather than asserted on, so they can be compared between runs without
+ * the tests depending on the speed of the machine. Retries don't wait, so the timings measure the
+ * app and the server rather than backoff.
+ */
+@HiltAndroidTest
+@RunWith(AndroidJUnit4.class)
+@Config(application = HiltTestApplication.class)
+@UninstallModules({
+    DbModule.class,
+    DownloadUrisModule.class,
+    KeyFileVerificationModule.class,
+    RealRequestQueueModule.class,
+    UploadUrisModule.class})
+public class StandInServerBenchmarkTest {
+
+  private static final Logger logger = Logger.getLogger("StandInServerBenchmarkTest");
+  // A day of hourly keyfiles, each of a size a busy keyserver might export.
+  private static final int NUM_KEY_FILES = 24;
+  private static final int KEYS_PER_FILE = 2000;
+  private static final Duration SERVER_LATENCY = Duration.ofMillis(50);
+  private static final int NUM_UPLOAD_KEYS = 14;
+
+  @Rule
+  public ExposureNotificationRules rules =
+      ExposureNotificationRules.forTest(this).withMocks().build();
+
+  @BindValue
+  ExposureNotificationDatabase db = InMemoryDb.create();
+  @BindValue
+  @Mock
+  Connectivity connectivity;
+  @BindValue
+  @TravellerDownloadUriPairs
+  Map<String, List<DownloadUriPair>> travellerUris = ImmutableMap.of();
+  // The rest point at the stand-in server, so are only set once it's started.
+  @BindValue
+  @HomeDownloadUriPair
+  DownloadUriPair homeUris;
+  @BindValue
+  @KeyFileVerificationKey
+  Optional<PublicKey> verificationKey;
+  @BindValue
+  @VerificationCodeUri
+  Uri codeUri;
+  @BindValue
+  @VerificationCertUri
+  Uri certUri;
+  @BindValue
+  @VerificationUserReportUri
+  Uri userReportUri;
+  @BindValue
+  @UploadUri
+  Uri uploadUri;
+
+  @Inject
+  DiagnosisKeyDownloader downloader;
+  @Inject
+  UploadController uploadController;
+  @Inject
+  SecureRandom secureRandom;
+
+  private StandInServer server;
+
+  /**
+   * Provides the real request queue, except that every request retries without waiting.
+   */
+  @Module
+  @InstallIn(SingletonComponent.class)
+  static class NoWaitRequestQueueModule {
+
+    @Singleton
+    @Provides
+    static RequestQueueWrapper provideRequestQueueWrapper(
+        BaseHttpStack httpStack,
+        CircuitBreakers circuitBreakers,
+        NetworkMetrics metrics,
+        Clock clock,
+        @LightweightExecutor ExecutorService lightweightExecutor,
+        @BackgroundExecutor ExecutorService backgroundExecutor) {
+      RequestQueueWrapper queue = new RealRequestQueueModule().provideRequestQueueWrapper(
+          httpStack, circuitBreakers, metrics, lightweightExecutor, backgroundExecutor);
+      return new RequestQueueWrapper() {
+        @Override
+        public <T> Request<T> add(Request<T> request) {
+          request.setRetryPolicy(CustomRetryPolicy.withoutWaiting(clock));
+          return queue.add(request);
+        }
+      };
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = StandInServer.start(
+        ApplicationProvider.getApplicationContext(), NUM_KEY_FILES, KEYS_PER_FILE);
+    server.setLatency(SERVER_LATENCY);
+    homeUris = server.downloadUriPair();
+    verificationKey = Optional.of(server.publicKey());
+    codeUri = server.uri(StandInServer.VERIFY_PATH);
+    certUri = server.uri(StandInServer.CERTIFICATE_PATH);
+    userReportUri = server.uri(StandInServer.USER_REPORT_PATH);
+    uploadUri = server.uri(StandInServer.PUBLISH_PATH);
+    when(connectivity.hasInternet()).thenReturn(true);
+    rules.hilt().inject();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void download_allKeyFiles_verifiedAgainstServerKey() throws Exception {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    List<KeyFile> files = downloader.download().get();
+    logDownload("Clean download", stopwatch);
+
+    assertThat(files).hasSize(NUM_KEY_FILES);
+    for (KeyFile file : files) {
+      assertThat(file.contentHash()).isNotNull();
+    }
+    assertThat(server.requestCount(StandInServer.INDEX_PATH)).isEqualTo(1);
+  }
+
+  @Test
+  public void download_rateLimitedAndServerErrors_retriedToCompletion() throws Exception {
+    List<String> paths = server.keyFilePaths();
+    server.injectFault(paths.get(0), Fault.RATE_LIMITED, 1);
+    server.injectFault(paths.get(1), Fault.SERVER_ERROR, 1);
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    List<KeyFile> files = downloader.download().get();
+    logDownload("Download with a 429 and a 503", stopwatch);
+
+    assertThat(files).hasSize(NUM_KEY_FILES);
+    assertThat(server.requestCount(paths.get(0))).isEqualTo(2);
+    assertThat(server.requestCount(paths.get(1))).isEqualTo(2);
+  }
+
+  @Test
+  public void download_truncatedKeyFile_neverProvidedUnverified() throws Exception {
+    List<String> paths = server.keyFilePaths();
+    server.injectFault(paths.get(NUM_KEY_FILES / 2), Fault.TRUNCATED_BODY, 1);
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    List<KeyFile> files = downloader.download().get();
+    logDownload("Download with a truncated keyfile", stopwatch);
+
+    // However the truncated file was dealt with, whatever we'd hand to the API is a gap-free run
+    // from the oldest file, and every file in it has been verified.
+    assertThat(files).isNotEmpty();
+    for (int i = 0; i < files.size(); i++) {
+      assertThat(files.get(i).uri()).isEqualTo(server.uri(paths.get(i)));
+      assertThat(files.get(i).contentHash()).isNotNull();
+    }
+  }
+
+  @Test
+  public void upload_fullFlow_publishesKeys() throws Exception {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Upload upload = uploadAll(sampleUpload());
+    logger.i("Verify, certificate and publish took " + stopwatch.elapsed(TimeUnit.MILLISECONDS)
+        + "ms");
+
+    assertThat(upload.longTermToken()).isEqualTo("token-code");
+    assertThat(upload.certificate()).isEqualTo("cert-token-code");
+    assertThat(upload.revisionToken()).isEqualTo("revision-1");
+    assertThat(server.requestCount(StandInServer.VERIFY_PATH)).isEqualTo(1);
+    assertThat(server.requestCount(StandInServer.CERTIFICATE_PATH)).isEqualTo(1);
+    assertThat(server.requestCount(StandInServer.PUBLISH_PATH)).isEqualTo(1);
+  }
+
+  @Test
+  public void upload_rateLimitedVerify_retriedOnce() throws Exception {
+    server.injectFault(StandInServer.VERIFY_PATH, Fault.RATE_LIMITED, 1);
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Upload upload = uploadAll(sampleUpload());
+    logger.i("Upload with a rate limited verify took "
+        + stopwatch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+
+    assertThat(upload.revisionToken()).isEqualTo("revision-1");
+    assertThat(server.requestCount(StandInServer.VERIFY_PATH)).isEqualTo(2);
+  }
+
+  @Test
+  public void upload_publishTruncatedEveryTime_fails() throws Exception {
+    // Enough to outlast the retries.
+    server.injectFault(StandInServer.PUBLISH_PATH, Fault.TRUNCATED_BODY, 4);
+    Upload certified = uploadController.submitKeysForCert(
+        uploadController.submitCode(sampleUpload()).get()).get();
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> uploadController.upload(certified).get());
+
+    assertThat(e).hasCauseThat().isInstanceOf(UploadException.class);
+  }
+
+  private Upload uploadAll(Upload upload) throws Exception {
+    Upload withToken = uploadController.submitCode(upload).get();
+    Upload withCert = uploadController.submitKeysForCert(withToken).get();
+    return uploadController.upload(withCert).get();
+  }
+
+  private Upload sampleUpload() {
+    List<DiagnosisKey> keys = new ArrayList<>();
+    for (int i = 0; i < NUM_UPLOAD_KEYS; i++) {
+      byte[] keyBytes = new byte[16];
+      secureRandom.nextBytes(keyBytes);
+      keys.add(DiagnosisKey.newBuilder().setKeyBytes(keyBytes).setIntervalNumber(i).build());
+    }
+    return Upload.newBuilder("code", SecureRandomUtil.newHmacKey(secureRandom))
+        .setKeys(keys)
+        .setRegions(ImmutableList.of("US"))
+        .build();
+  }
+
+  private void logDownload(String what, Stopwatch stopwatch) {
+    long millis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    logger.i(String.format("%s of %d keyfiles (%d bytes) took %dms",
+        what, NUM_KEY_FILES, server.keyFileBytes(), millis));
+  }
+}
@@ -26,6 +26,11 @@ import static com.google.android.apps.exposurenotification.storage.ExposureNotif
 import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_41_42;
 import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_42_43;
 import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_43_44;
+import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_44_45;
+import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_45_46;
+import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_46_47;
+import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_47_48;
+import static com.google.android.apps.exposurenotification.storage.ExposureNotificationDatabase.MIGRATION_48_49;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.database.Cursor;
@@ -224,6 +229,46 @@ public class MigrationsTest {
     helper.runMigrationsAndValidate(TEST_DB, 44, true, MIGRATION_43_44);
   }
 
+  @Test
+  public void migrate44to45() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 44);
+    db.close();
+    // MigrationTestHelper automatically verifies the schema changes.
+    helper.runMigrationsAndValidate(TEST_DB, 45, true, MIGRATION_44_45);
+  }
+
+  @Test
+  public void migrate45to46() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 45);
+    db.close();
+    // MigrationTestHelper automatically verifies the schema changes.
+    helper.runMigrationsAndValidate(TEST_DB, 46, true, MIGRATION_45_46);
+  }
+
+  @Test
+  public void migrate46to47() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 46);
+    db.close();
+    // MigrationTestHelper automatically verifies the schema changes.
+    helper.runMigrationsAndValidate(TEST_DB, 47, true, MIGRATION_46_47);
+  }
+
+  @Test
+  public void migrate47to48() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 47);
+    db.close();
+    // MigrationTestHelper automatically verifies the schema changes.
+    helper.runMigrationsAndValidate(TEST_DB, 48, true, MIGRATION_47_48);
+  }
+
+  @Test
+  public void migrate48to49() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 48);
+    db.close();
+    // MigrationTestHelper automatically verifies the schema changes.
+    helper.runMigrationsAndValidate(TEST_DB, 49, true, MIGRATION_48_49);
+  }
+
   private ExposureNotificationDatabase createAppDatabase() {
     ExposureNotificationDatabase db = Room.databaseBuilder(
         InstrumentationRegistry.getInstrumentation().getTargetContext(),
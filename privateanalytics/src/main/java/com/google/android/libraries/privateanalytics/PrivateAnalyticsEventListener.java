@@ -28,5 +28,13 @@ public interface PrivateAnalyticsEventListener {
 
   void onPrivateAnalyticsRemoteConfigCallSuccess(int length);
 
+  /**
+   * Like {@link #onPrivateAnalyticsRemoteConfigCallSuccess(int)}, for configs which came over the
+   * wire compressed to the given length.
+   */
+  default void onPrivateAnalyticsRemoteConfigCallSuccess(int length, int compressedLength) {
+    onPrivateAnalyticsRemoteConfigCallSuccess(length);
+  }
+
   void onPrivateAnalyticsRemoteConfigCallFailure(Exception err);
 }